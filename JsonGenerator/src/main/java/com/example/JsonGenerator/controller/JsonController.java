@@ -1,45 +1,121 @@
 package com.example.JsonGenerator.controller;
 
+import com.example.JsonGenerator.service.JsonFileService;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.http.ResponseEntity;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api")
 public class JsonController {
 
-    private static final String JSON_FOLDER = "JSON"; // Folder where files will be stored
+    private static final String NDJSON = "application/x-ndjson";
+
+    private final JsonFileService jsonFileService;
+    private final ObjectMapper objectMapper;
+
+    public JsonController(JsonFileService jsonFileService, ObjectMapper objectMapper) {
+        this.jsonFileService = jsonFileService;
+        this.objectMapper = objectMapper;
+    }
 
     @PostMapping("/generate")
     public ResponseEntity<?> generateJsonFile(@RequestBody Map<String, Object> jsonData) {
+        if (jsonFileService.isBackpressured()) {
+            return backpressured();
+        }
         try {
-            // Ensure JSON directory exists
-            File directory = new File(JSON_FOLDER);
-            if (!directory.exists()) {
-                directory.mkdirs();
-            }
-
-            // Extract referenceIdentifier for naming the file
-            Map<String, Object> jobInfo = (Map<String, Object>) jsonData.get("jobInfo");
-            String referenceIdentifier = (String) jobInfo.get("referenceIdentifier");
-
-            // Generate timestamp for uniqueness
-            long timestamp = System.currentTimeMillis();
-            String fileName = referenceIdentifier + "_" + timestamp + ".json";
+            String fileName = jsonFileService.saveJsonToFile(jsonData);
+            return ResponseEntity.ok().body(Map.of("message", "JSON file created successfully", "fileName", fileName));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Failed to generate JSON file", "details", String.valueOf(e.getMessage())));
+        }
+    }
 
-            // Create the JSON file
-            File jsonFile = new File(directory, fileName);
-            ObjectMapper objectMapper = new ObjectMapper();
-            objectMapper.writeValue(jsonFile, jsonData);
+    /**
+     * Status of one event in a batch.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record ItemStatus(int index, String status, String fileName, String error) {
+    }
 
-            return ResponseEntity.ok().body(Map.of("message", "JSON file created successfully", "fileName", jsonFile.getAbsolutePath()));
+    /**
+     * Accepts many events in one request, either as a JSON array or as NDJSON (one event per
+     * line). The body is parsed as a stream, one event at a time, and each event is queued for
+     * writing as soon as it is read. The response lists the outcome of every event in order.
+     * While the processor is backed up the batch is refused before any of it is read.
+     */
+    @PostMapping(value = "/generate/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON})
+    public ResponseEntity<?> generateBatch(HttpServletRequest request) throws IOException {
+        if (jsonFileService.isBackpressured()) {
+            return backpressured();
+        }
+        List<CompletableFuture<Path>> writes = new ArrayList<>();
+        String streamError = null;
+        try (JsonParser parser = objectMapper.getFactory().createParser(request.getInputStream())) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && !(array && token == JsonToken.END_ARRAY)) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("Expected an event object but found " + token);
+                }
+                JsonNode event = objectMapper.readTree(parser);
+                writes.add(jsonFileService.writeAsync(event));
+                token = parser.nextToken();
+            }
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            // Events read before the malformed part are still written and reported.
+            streamError = "Malformed request body after " + writes.size() + " events: " + e.getMessage();
+        }
 
-        } catch (IOException | NullPointerException e) {
-            return ResponseEntity.badRequest().body(Map.of("error", "Failed to generate JSON file", "details", e.getMessage()));
+        List<ItemStatus> items = new ArrayList<>(writes.size());
+        int failed = 0;
+        for (int i = 0; i < writes.size(); i++) {
+            try {
+                Path file = writes.get(i).join();
+                items.add(new ItemStatus(i, "CREATED", file.getFileName().toString(), null));
+            } catch (CompletionException e) {
+                failed++;
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                items.add(new ItemStatus(i, "FAILED", null, cause.getMessage()));
+            }
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("received", writes.size());
+        body.put("created", writes.size() - failed);
+        body.put("failed", failed);
+        if (streamError != null) {
+            body.put("error", streamError);
         }
+        body.put("items", items);
+        return streamError == null ? ResponseEntity.ok(body) : ResponseEntity.badRequest().body(body);
+    }
+
+    // 503 with Retry-After, so well-behaved clients back off instead of piling more files into the inbox.
+    private static ResponseEntity<?> backpressured() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Map.of("error", "Processor is backed up, retry later"));
     }
 }
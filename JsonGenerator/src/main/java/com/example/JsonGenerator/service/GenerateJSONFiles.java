@@ -1,155 +1,397 @@
 package com.example.JsonGenerator.service;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import java.io.FileWriter;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Load generator for the JSON inbox. Writes event files for a stream of jobs (refIds), each with
+ * transactionCount rays, at a target rate from several writer threads. Every file is written to
+ * a hidden temp file and renamed into place atomically, so a watcher never sees a partial file.
+ * Files are named {@code <refId>~<rayNumber>_<fileNumber>.json}, so the processor can tell a file's
+ * refId before reading it. While the processor asks producers to slow down, the generator waits.
+ *
+ * <p>Options, all as {@code --name=value}:
+ * <pre>
+ *   --folder=JSON             target folder
+ *   --files=42                number of distinct ray files to write (duplicates come on top)
+ *   --rate=0.1                target files per second, 0 for as fast as possible
+ *   --writers=1               writer threads
+ *   --active-refs=1           jobs in progress at once; a finished job is replaced by a new one
+ *   --rays-per-ref=7          transactionCount of every job
+ *   --skew=0                  Zipf exponent for picking among active jobs, 0 for uniform
+ *   --transactions=1          transactionInfo entries per file
+ *   --stages=4                processStageInfo entries per transaction
+ *   --stage-spread=0          stages take 120 s each; with spread s, 120 s * (1 + s * an exponential draw)
+ *   --states=Success:100      weighted mix of tracking states, e.g. SUCCESS:90,FAILURE:8,PENDING:2
+ *   --duplicates=0            fraction of files that are written a second time, later
+ *   --loss=0                  fraction of ray files never written, as if lost upstream; their job only
+ *                             finishes on the processor's idle timeout
+ *   --out-of-order=0          fraction of files held back and written after later ones
+ *   --reorder-window=64       how many files later a held-back file or duplicate is written
+ *   --seed=1                  random seed
+ *   --backpressure=true       pause while the processor has left a backpressure marker in the folder
+ * </pre>
+ * The defaults reproduce the original run's events: 6 jobs of 7 rays, one file every 10 seconds.
+ */
 public class GenerateJSONFiles {
-    public static void main(String[] args) {
-        String folderPath = "JSON";
-        int totalJobIds = 6;      // 6 job ids
-        int raysPerJob = 7;       // 7 ray ids per job (42 files total)
-
-        // Create folder if it doesn't exist
-        java.io.File folder = new java.io.File(folderPath);
-        if (!folder.exists()) {
-            folder.mkdir();
+
+    private static final DateTimeFormatter AUDIT_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final LocalDateTime AUDIT_START = LocalDateTime.of(2025, 3, 3, 16, 22, 4, 127_000_000);
+    private static final String[][] STAGES = {
+            {"GENERIC-EXTRACTION-SERVICE - createFolder", "PROCESS_START"},
+            {"GENERIC-EXTRACTION-SERVICE - createFolder", "PROCESS_END"},
+            {"GENERIC-EXTRACTION-SERVICE – page data identifiers", "MESSAGE_PUBLISH"},
+            {"GENERIC-EXTRACTION-SERVICE - FileGeneration", "SUCCESS"},
+    };
+    private static final FileSpec END = new FileSpec(null, null, null, 0, 0, null);
+
+    /**
+     * One file to write.
+     */
+    record FileSpec(String fileName, String refId, String rayId, int rayNumber, int transactionCount, String state) {
+    }
+
+    record Options(Path folder, long files, double rate, int writers, int activeRefs, int raysPerRef, double skew,
+                   int transactions, int stages, double stageSpread, String[] states, double[] stateWeights, double duplicates,
+                   double loss, double outOfOrder, int reorderWindow, long seed, boolean backpressure) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+                }
+                values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+            List<String> states = new ArrayList<>();
+            List<Double> weights = new ArrayList<>();
+            for (String part : values.getOrDefault("states", "Success:100").split(",")) {
+                String[] stateWeight = part.split(":");
+                states.add(stateWeight[0]);
+                weights.add(stateWeight.length > 1 ? Double.parseDouble(stateWeight[1]) : 1);
+            }
+            Options options = new Options(
+                    Paths.get(values.getOrDefault("folder", "JSON")),
+                    Long.parseLong(values.getOrDefault("files", "42")),
+                    Double.parseDouble(values.getOrDefault("rate", "0.1")),
+                    Integer.parseInt(values.getOrDefault("writers", "1")),
+                    Integer.parseInt(values.getOrDefault("active-refs", "1")),
+                    Integer.parseInt(values.getOrDefault("rays-per-ref", "7")),
+                    Double.parseDouble(values.getOrDefault("skew", "0")),
+                    Integer.parseInt(values.getOrDefault("transactions", "1")),
+                    Integer.parseInt(values.getOrDefault("stages", "4")),
+                    Double.parseDouble(values.getOrDefault("stage-spread", "0")),
+                    states.toArray(new String[0]),
+                    weights.stream().mapToDouble(Double::doubleValue).toArray(),
+                    Double.parseDouble(values.getOrDefault("duplicates", "0")),
+                    Double.parseDouble(values.getOrDefault("loss", "0")),
+                    Double.parseDouble(values.getOrDefault("out-of-order", "0")),
+                    Integer.parseInt(values.getOrDefault("reorder-window", "64")),
+                    Long.parseLong(values.getOrDefault("seed", "1")),
+                    Boolean.parseBoolean(values.getOrDefault("backpressure", "true")));
+            values.keySet().removeAll(Set.of("folder", "files", "rate", "writers", "active-refs", "rays-per-ref",
+                    "skew", "transactions", "stages", "stage-spread", "states", "duplicates", "loss", "out-of-order", "reorder-window", "seed",
+                    "backpressure"));
+            if (!values.isEmpty()) {
+                throw new IllegalArgumentException("Unknown options: " + values.keySet());
+            }
+            return options;
         }
+    }
 
-        int fileCounter = 0; // overall file counter (from 1 to 42)
-
-        for (int jobId = 1; jobId <= totalJobIds; jobId++) {
-            // Each jobInfo's referenceIdentifier is based on jobId
-            String jobIdentifier = "Dev_JobId_" + String.format("%03d", jobId);
-
-            // For each job, generate 7 ray id files
-            for (int rayId = 1; rayId <= raysPerJob; rayId++) {
-                fileCounter++;
-                // Overall unique ray identifier (e.g., Dev_RayId_001 to Dev_RayId_042)
-                int overallRayId = (jobId - 1) * raysPerJob + rayId;
-                String rayIdentifier = "Dev_RayId_" + String.format("%03d", overallRayId);
-                String fileName = folderPath + "/" + rayIdentifier + ".json";
-
-                // Build notificationInfo object
-                JSONObject notificationInfo = new JSONObject();
-                notificationInfo.put("stage", "Final");
-                notificationInfo.put("source", "iPlus");
-
-                // Build trackingInfo object
-                JSONObject trackingInfo = new JSONObject();
-                trackingInfo.put("rayIdentifier", rayIdentifier);
-                trackingInfo.put("sourceTypeIdentifier", "PayementTeam001");
-                trackingInfo.put("state", "Success");
-
-                // Build jobInfo object
-                JSONObject jobInfo = new JSONObject();
-                jobInfo.put("identifier", "Dev_ExtractId_001");
-                jobInfo.put("referenceIdentifier", jobIdentifier);
-                jobInfo.put("definition", "Payment_Extract_001");
-                jobInfo.put("transactionCount", raysPerJob); // 7 transactions per job
-                jobInfo.put("state", "Started");
-
-                // Build genericExtract object
-                JSONObject genericExtract = new JSONObject();
-                genericExtract.put("pageNo", 1);
-                // For pageDataId, use overallRayId (e.g., "540001", "540002", ...)
-                genericExtract.put("pageDataId", "54000" + overallRayId);
-                genericExtract.put("lineCount", 100);
-                genericExtract.put("totalPage", 1);
-                genericExtract.put("extractFileName", "GenericExtract\\summary");
-
-                // Build traceables object with proper JSON arrays
-                JSONObject traceables = new JSONObject();
-
-                JSONArray paymentIdentifierArr = new JSONArray();
-                paymentIdentifierArr.add("Pay_PaymentIdentifier");
-                traceables.put("paymentIdentifier", paymentIdentifierArr);
-
-                JSONArray rayIdentifierArr = new JSONArray();
-                rayIdentifierArr.add("Pay_RayIdentifier");
-                traceables.put("rayIdentifier", rayIdentifierArr);
-
-                JSONArray jobIdentifierArr = new JSONArray();
-                jobIdentifierArr.add("Pay_JobIdentifier");
-                traceables.put("jobIdentifier", jobIdentifierArr);
-
-                // Generate 5 claim IDs sequentially.
-                JSONArray claimIdsArray = new JSONArray();
-                for (int i = 0; i < 5; i++) {
-                    // (fileCounter-1)*5 ensures sequential claim numbering across files
-                    int claimNumber = 11000 + ((fileCounter - 1) * 5) + i + 1;
-                    String claimId = "C" + claimNumber;
-                    claimIdsArray.add(claimId);
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        Files.createDirectories(options.folder());
+        new GenerateJSONFiles(options).run();
+    }
+
+    private final Options options;
+    private final BlockingQueue<FileSpec> queue;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    GenerateJSONFiles(Options options) {
+        this.options = options;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1024, options.writers() * 256));
+    }
+
+    void run() throws InterruptedException {
+        System.out.printf("Writing %d files to %s at %s files/s with %d writers%n", options.files(), options.folder(),
+                options.rate() > 0 ? options.rate() : "max", options.writers());
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < options.writers(); i++) {
+            Thread writer = new Thread(this::write, "writer-" + i);
+            writer.start();
+            writers.add(writer);
+        }
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "progress");
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.nanoTime();
+        long[] last = {0, start};
+        progress.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            long count = written.get();
+            System.out.printf("%,d files written, %,.0f files/s%n", count,
+                    (count - last[0]) * 1e9 / Math.max(1, now - last[1]));
+            last[0] = count;
+            last[1] = now;
+        }, 1, 1, TimeUnit.SECONDS);
+
+        Dispatch dispatch = dispatch();
+
+        for (int i = 0; i < options.writers(); i++) {
+            queue.put(END);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        progress.shutdownNow();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Done: %,d files (%,d duplicates, %,d out of order, %,d lost, %,d failed), %,.1f MB in %.1f s: "
+                        + "%,.0f files/s, %,.1f MB/s, %.1f s paused by backpressure%n",
+                written.get(), dispatch.duplicates, dispatch.reordered, dispatch.lost, failed.get(), bytesWritten.get() / 1e6,
+                seconds, written.get() / seconds, bytesWritten.get() / 1e6 / seconds, dispatch.pausedNanos / 1e9);
+    }
+
+    private record Dispatch(long duplicates, long reordered, long lost, long pausedNanos) {
+    }
+
+    /**
+     * Produces the file sequence on the calling thread, paced to the target rate, and hands each
+     * file to the writers. Held-back files and duplicates wait in a small buffer keyed by the
+     * position at which they are released.
+     */
+    private Dispatch dispatch() throws InterruptedException {
+        Random random = new Random(options.seed());
+        String[] activeRefIds = new String[options.activeRefs()];
+        int[] nextRay = new int[options.activeRefs()];
+        double[] pickCdf = cdf(zipfWeights(options.activeRefs(), options.skew()));
+        double[] stateCdf = cdf(options.stateWeights());
+        TreeMap<Long, List<FileSpec>> held = new TreeMap<>();
+        long nextJob = 1;
+        long nextRayId = 1;
+        long position = 0;
+        long fileNumber = 0;
+        long duplicates = 0;
+        long reordered = 0;
+        long lost = 0;
+        long pausedNanos = 0;
+        long signalCheckedAt = 0;
+        long intervalNanos = options.rate() > 0 ? (long) (1e9 / options.rate()) : 0;
+        long nextAt = System.nanoTime() - intervalNanos;
+
+        for (long created = 0; created < options.files() || !held.isEmpty(); ) {
+            FileSpec spec;
+            List<FileSpec> due = held.isEmpty() ? null : held.firstEntry().getValue();
+            if (due != null && (held.firstKey() <= position || created >= options.files())) {
+                spec = due.remove(due.size() - 1);
+                if (due.isEmpty()) {
+                    held.pollFirstEntry();
+                }
+            } else {
+                int slot = pick(pickCdf, random);
+                if (activeRefIds[slot] == null) {
+                    activeRefIds[slot] = String.format("Dev_JobId_%03d", nextJob++);
+                    nextRay[slot] = 1;
+                }
+                String rayId = String.format("Dev_RayId_%03d", nextRayId++);
+                spec = new FileSpec(fileName(activeRefIds[slot], nextRay[slot], ++fileNumber), activeRefIds[slot],
+                        rayId, nextRay[slot], options.raysPerRef(), options.states()[pick(stateCdf, random)]);
+                if (++nextRay[slot] > options.raysPerRef()) {
+                    activeRefIds[slot] = null;
+                }
+                created++;
+                // Drawn only when asked for, so runs without loss keep the sequence of a given seed.
+                if (options.loss() > 0 && random.nextDouble() < options.loss()) {
+                    lost++;
+                    continue;
                 }
-                traceables.put("claimIds", claimIdsArray);
-                genericExtract.put("traceables", traceables);
-
-                // Build the transaction object
-                JSONObject transactionObj = new JSONObject();
-                // recordIdentifier is based on overallRayId (formatted to three digits)
-                transactionObj.put("recordIdentifier", "Dev_PageId_" + String.format("%03d", overallRayId));
-                transactionObj.put("genericExtract", genericExtract);
-
-                // Build processStageInfo array with fixed process stages
-                JSONArray processStageInfo = new JSONArray();
-
-                JSONObject processStage1 = new JSONObject();
-                processStage1.put("processStageName", "GENERIC-EXTRACTION-SERVICE - createFolder");
-                processStage1.put("processStatus", "PROCESS_START");
-                processStage1.put("auditTime", "2025-03-03 16:22:04.127");
-                processStageInfo.add(processStage1);
-
-                JSONObject processStage2 = new JSONObject();
-                processStage2.put("processStageName", "GENERIC-EXTRACTION-SERVICE - createFolder");
-                processStage2.put("processStatus", "PROCESS_END");
-                processStage2.put("auditTime", "2025-03-03 16:24:04.127");
-                processStageInfo.add(processStage2);
-
-                JSONObject processStage3 = new JSONObject();
-                processStage3.put("processStageName", "GENERIC-EXTRACTION-SERVICE – page data identifiers");
-                processStage3.put("processStatus", "MESSAGE_PUBLISH");
-                processStage3.put("auditTime", "2025-03-03 16:33:33.130");
-                processStageInfo.add(processStage3);
-
-                JSONObject processStage4 = new JSONObject();
-                processStage4.put("processStageName", "GENERIC-EXTRACTION-SERVICE - FileGeneration");
-                processStage4.put("processStatus", "SUCCESS");
-                processStage4.put("auditTime", "2025-03-03 16:40:25.130");
-                processStageInfo.add(processStage4);
-
-                transactionObj.put("processStageInfo", processStageInfo);
-
-                // Build transactionInfo array containing the single transaction object
-                JSONArray transactionInfoArray = new JSONArray();
-                transactionInfoArray.add(transactionObj);
-
-                // Build the main JSON object
-                JSONObject mainObject = new JSONObject();
-                mainObject.put("notificationInfo", notificationInfo);
-                mainObject.put("trackingInfo", trackingInfo);
-                mainObject.put("jobInfo", jobInfo);
-                mainObject.put("transactionInfo", transactionInfoArray);
-
-                // Write the JSON object to file
-                try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
-                    out.println(mainObject.toJSONString());
-                    System.out.println("File saved to: " + fileName);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                if (random.nextDouble() < options.duplicates()) {
+                    duplicates++;
+                    hold(held, position + 1 + random.nextInt(options.reorderWindow()),
+                            new FileSpec(fileName(spec.refId(), spec.rayNumber(), ++fileNumber), spec.refId(), spec.rayId(),
+                                    spec.rayNumber(), spec.transactionCount(), spec.state()));
                 }
+                if (random.nextDouble() < options.outOfOrder()) {
+                    reordered++;
+                    hold(held, position + 1 + random.nextInt(options.reorderWindow()), spec);
+                    continue;
+                }
+            }
+            if (options.backpressure() && System.nanoTime() - signalCheckedAt > 250_000_000L) {
+                long pausedAt = System.nanoTime();
+                while (JsonFileService.isSignalled(options.folder())) {
+                    Thread.sleep(100);
+                }
+                signalCheckedAt = System.nanoTime();
+                if (signalCheckedAt - pausedAt > 1_000_000L) {
+                    pausedNanos += signalCheckedAt - pausedAt;
+                    // Resume at the target rate instead of catching up on the paused time.
+                    nextAt = signalCheckedAt - intervalNanos;
+                }
+            }
+            if (intervalNanos > 0) {
+                nextAt += intervalNanos;
+                long wait;
+                while ((wait = nextAt - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            queue.put(spec);
+            position++;
+        }
+        return new Dispatch(duplicates, reordered, lost, pausedNanos);
+    }
+
+    private static String fileName(String refId, int rayNumber, long fileNumber) {
+        return refId + "~" + rayNumber + "_" + fileNumber + ".json";
+    }
 
-                // Wait for 1 minute (60000 milliseconds) before generating the next file,
-                // unless this is the last file
-                if (!(jobId == totalJobIds && rayId == raysPerJob)) {
-                    try {
-                        Thread.sleep(10000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+    private static void hold(TreeMap<Long, List<FileSpec>> held, long releaseAt, FileSpec spec) {
+        held.computeIfAbsent(releaseAt, k -> new ArrayList<>(1)).add(spec);
+    }
+
+    private static double[] zipfWeights(int n, double exponent) {
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = exponent == 0 ? 1 : 1 / Math.pow(i + 1, exponent);
+        }
+        return weights;
+    }
+
+    private static double[] cdf(double[] weights) {
+        double[] cdf = new double[weights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cdf[i] = total;
+        }
+        for (int i = 0; i < cdf.length; i++) {
+            cdf[i] /= total;
+        }
+        return cdf;
+    }
+
+    private static int pick(double[] cdf, Random random) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cdf.length - 1);
+    }
+
+    private void write() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024 + options.transactions() * options.stages() * 160);
+        while (true) {
+            FileSpec spec;
+            try {
+                spec = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (spec == END) {
+                return;
+            }
+            try {
+                buffer.reset();
+                render(spec, buffer);
+                // Hidden temp name without the .json suffix, so the watcher ignores it until the rename.
+                Path tmp = options.folder().resolve("." + spec.fileName() + ".tmp");
+                Files.write(tmp, buffer.toByteArray());
+                Files.move(tmp, options.folder().resolve(spec.fileName()), StandardCopyOption.ATOMIC_MOVE);
+                written.incrementAndGet();
+                bytesWritten.addAndGet(buffer.size());
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                System.err.println("Failed to write " + spec.fileName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void render(FileSpec spec, ByteArrayOutputStream out) throws IOException {
+        try (JsonGenerator json = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeObjectFieldStart("notificationInfo");
+            json.writeStringField("stage", "Final");
+            json.writeStringField("source", "iPlus");
+            json.writeEndObject();
+            json.writeObjectFieldStart("trackingInfo");
+            json.writeStringField("rayIdentifier", spec.rayId());
+            json.writeStringField("sourceTypeIdentifier", "PayementTeam001");
+            json.writeStringField("state", spec.state());
+            json.writeEndObject();
+            json.writeObjectFieldStart("jobInfo");
+            json.writeStringField("identifier", "Dev_ExtractId_001");
+            json.writeStringField("referenceIdentifier", spec.refId());
+            json.writeStringField("definition", "Payment_Extract_001");
+            json.writeNumberField("transactionCount", spec.transactionCount());
+            json.writeStringField("state", "Started");
+            json.writeEndObject();
+            json.writeArrayFieldStart("transactionInfo");
+            for (int t = 0; t < options.transactions(); t++) {
+                json.writeStartObject();
+                json.writeStringField("recordIdentifier", String.format("Dev_PageId_%03d_%d", spec.rayNumber(), t + 1));
+                json.writeObjectFieldStart("genericExtract");
+                json.writeNumberField("pageNo", t + 1);
+                json.writeStringField("pageDataId", "54000" + spec.rayNumber());
+                json.writeNumberField("lineCount", 100);
+                json.writeNumberField("totalPage", options.transactions());
+                json.writeStringField("extractFileName", "GenericExtract\\summary");
+                json.writeObjectFieldStart("traceables");
+                json.writeArrayFieldStart("paymentIdentifier");
+                json.writeString("Pay_PaymentIdentifier");
+                json.writeEndArray();
+                json.writeArrayFieldStart("rayIdentifier");
+                json.writeString("Pay_RayIdentifier");
+                json.writeEndArray();
+                json.writeArrayFieldStart("jobIdentifier");
+                json.writeString("Pay_JobIdentifier");
+                json.writeEndArray();
+                json.writeArrayFieldStart("claimIds");
+                for (int c = 1; c <= 5; c++) {
+                    json.writeString("C" + (11000 + (spec.rayNumber() - 1) * 5 + c));
+                }
+                json.writeEndArray();
+                json.writeEndObject();
+                json.writeEndObject();
+                json.writeArrayFieldStart("processStageInfo");
+                // Seeded by the ray, so a duplicate of this file gets the same times.
+                Random steps = options.stageSpread() > 0
+                        ? new Random(options.seed() * 31 + spec.rayId().hashCode() * 31L + t) : null;
+                long auditMillis = 0;
+                for (int s = 0; s < options.stages(); s++) {
+                    String[] stage = STAGES[s % STAGES.length];
+                    if (s > 0) {
+                        double factor = steps != null ? 1 + options.stageSpread() * -Math.log(1 - steps.nextDouble()) : 1;
+                        auditMillis += (long) (120_000 * factor);
                     }
+                    json.writeStartObject();
+                    json.writeStringField("processStageName", stage[0]);
+                    json.writeStringField("processStatus", stage[1]);
+                    json.writeStringField("auditTime", AUDIT_START.plusNanos(auditMillis * 1_000_000).format(AUDIT_TIME));
+                    json.writeEndObject();
                 }
+                json.writeEndArray();
+                json.writeEndObject();
             }
+            json.writeEndArray();
+            json.writeEndObject();
         }
     }
 }
@@ -1,41 +1,156 @@
 package com.example.JsonGenerator.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Writes events into the JSON inbox. One shared writer serializes every event, the folder is
+ * created once at startup, and each file is written under a hidden temp name and renamed into
+ * place so the processor never sees it half-written. Batches are written on a pool of writer
+ * threads; a semaphore bounds the events queued or being written, and the caller waits for one
+ * of its permits. Waiting happens before the event reaches the pool, so an event is never
+ * queued once the pool has shut down and every returned future completes.
+ *
+ * <p>While the processor's inbox is backed up, it leaves a marker in the inbox's
+ * {@code .backpressure} folder; {@link #isBackpressured()} reports that so callers can refuse
+ * new events.
+ */
 @Service
 public class JsonFileService {
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private static final String DIRECTORY = "JSON";
+    private static final long SIGNAL_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final Path directory;
+    private final ObjectWriter writer;
+    // Keeps file names unique when many events for one refId arrive in the same millisecond.
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadPoolExecutor writeExecutor;
+    // Events queued or being written, at most the writer threads plus the queue capacity.
+    private final Semaphore writeSlots;
+    // Last backpressure check, so a busy endpoint lists the marker folder a few times a second at most.
+    private volatile long signalCheckedAt = System.nanoTime() - SIGNAL_CHECK_NANOS;
+    private volatile boolean backpressured;
+
+    public JsonFileService(ObjectMapper objectMapper,
+                           @Value("${generator.folder:JSON}") String folder,
+                           @Value("${generator.writer.threads:4}") int threads,
+                           @Value("${generator.writer.queue-capacity:4096}") int queueCapacity) throws IOException {
+        this.directory = Paths.get(folder);
+        this.writer = objectMapper.writer();
+        Files.createDirectories(directory);
+        AtomicInteger counter = new AtomicInteger();
+        this.writeSlots = new Semaphore(threads + queueCapacity);
+        // Unbounded, as the semaphore already bounds it; after shutdown the executor rejects.
+        this.writeExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "event-writer-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Whether the processor has asked producers to slow down, as of at most 250 ms ago.
+     */
+    public boolean isBackpressured() {
+        long now = System.nanoTime();
+        if (now - signalCheckedAt >= SIGNAL_CHECK_NANOS) {
+            backpressured = isSignalled(directory);
+            signalCheckedAt = now;
+        }
+        return backpressured;
+    }
+
+    /** Whether any processor node has left a backpressure marker in the inbox. */
+    static boolean isSignalled(Path inbox) {
+        try (DirectoryStream<Path> markers = Files.newDirectoryStream(inbox.resolve(".backpressure"))) {
+            return markers.iterator().hasNext();
+        } catch (IOException e) {
+            // No marker folder: the processor has never been backed up.
+            return false;
+        }
+    }
 
     public String saveJsonToFile(Map<String, Object> jsonData) {
         try {
-            // Create the JSON folder if it doesn't exist
-            File directory = new File(DIRECTORY);
-            if (!directory.exists()) {
-                directory.mkdirs();
-            }
-
             // Extract referenceIdentifier from jobInfo for naming the file
             Map<String, Object> jobInfo = (Map<String, Object>) jsonData.get("jobInfo");
             String referenceIdentifier = (String) jobInfo.get("referenceIdentifier");
-            long timestamp = System.currentTimeMillis();
-            String fileName = referenceIdentifier + "_" + timestamp + ".json";
-
-            // Create the JSON file
-            File jsonFile = new File(directory, fileName);
-
-            // Write JSON with pretty printing
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(jsonFile, jsonData);
-
-            return jsonFile.getAbsolutePath();
+            return write(referenceIdentifier, jsonData).toAbsolutePath().toString();
         } catch (IOException | NullPointerException e) {
             throw new RuntimeException("Error saving JSON file", e);
         }
     }
+
+    /**
+     * Queues an event for writing. Waits if the writer is far behind.
+     *
+     * @return the written file, or an exception if the event could not be written.
+     */
+    public CompletableFuture<Path> writeAsync(JsonNode event) {
+        String referenceIdentifier = event.path("jobInfo").path("referenceIdentifier").textValue();
+        if (referenceIdentifier == null || referenceIdentifier.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("jobInfo.referenceIdentifier is missing"));
+        }
+        try {
+            writeSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("Interrupted while waiting for the event writer", e));
+        }
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        try {
+            writeExecutor.execute(() -> {
+                try {
+                    result.complete(write(referenceIdentifier, event));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    writeSlots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            writeSlots.release();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private Path write(String referenceIdentifier, Object event) throws IOException {
+        // The processor's naming convention: the '~' tells it the refId ends there.
+        String fileName = referenceIdentifier + "~" + System.currentTimeMillis() + "_" + sequence.incrementAndGet() + ".json";
+        // Without the .json suffix the processor ignores the file until it is renamed.
+        Path tmp = directory.resolve("." + fileName + ".tmp");
+        Path target = directory.resolve(fileName);
+        try {
+            writer.writeValue(tmp.toFile(), event);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        return target;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        writeExecutor.shutdown();
+        writeExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    }
 }
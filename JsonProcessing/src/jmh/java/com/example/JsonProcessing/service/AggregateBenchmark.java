@@ -0,0 +1,78 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applying parsed events to refId aggregates from several threads at once, either all on one
+ * refId (every event lands on the same aggregation shard) or spread over many, with and without
+ * the write-ahead journal. Producers only post to the shards' mailboxes, so once those are full
+ * the score is the rate the shards apply events at. A fresh service is built for every
+ * iteration so trackers do not grow across iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class AggregateBenchmark {
+
+    @Param({"1", "1024"})
+    public int refIds;
+
+    @Param({"false", "true"})
+    public boolean journal;
+
+    private JsonProcessingService service;
+    private Path journalFolder;
+    private String[] refIdNames;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        refIdNames = new String[refIds];
+        for (int i = 0; i < refIds; i++) {
+            refIdNames[i] = String.format("Bench_JobId_%05d", i);
+        }
+        journalFolder = journal ? Files.createTempDirectory("bench-journal") : null;
+        service = BenchmarkSupport.service(journalFolder);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        service.shutdown();
+        if (journalFolder != null) {
+            BenchmarkSupport.deleteRecursively(journalFolder);
+        }
+    }
+
+    /**
+     * One event object per thread, refilled for every call; aggregation copies its fields before posting.
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+        private final JsonData event = BenchmarkSupport.event(null, null, "Success", Integer.MAX_VALUE);
+        private String prefix;
+        private long next;
+
+        @Setup
+        public void setUp(ThreadParams threads) {
+            prefix = "Bench_RayId_" + threads.getThreadIndex() + "_";
+        }
+    }
+
+    @Benchmark
+    public void processFile(Producer producer) {
+        long n = producer.next++;
+        producer.event.getJobInfo().setReferenceIdentifier(refIdNames[(int) (n % refIdNames.length)]);
+        producer.event.getTrackingInfo().setRayIdentifier(producer.prefix + n);
+        service.aggregateFile(producer.event, null);
+    }
+}
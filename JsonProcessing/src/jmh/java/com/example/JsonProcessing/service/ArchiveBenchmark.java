@@ -0,0 +1,75 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Taking a batch of processed files out of the inbox, per file: moving them into the sharded
+ * archive tree, or packing them into a compressed segment. Writing the files happens in setup
+ * and is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    private static final int FILES = 256;
+
+    @Param({"FILES", "SEGMENTS"})
+    public ArchiverFactory.Mode mode;
+
+    private Path inbox;
+    private Path archiveRoot;
+    private Archiver archiver;
+    private byte[] payload;
+    private final JsonData event = BenchmarkSupport.event("Dev_JobId_001", "Dev_RayId_001", "Success", 7);
+    private final Path[] files = new Path[FILES];
+    private long round;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        inbox = Files.createTempDirectory("bench-inbox");
+        archiveRoot = Files.createTempDirectory("bench-archive");
+        payload = BenchmarkSupport.payload("Dev_JobId_001", "Dev_RayId_001", "Success", 7, 1);
+        IngestionMetrics metrics = BenchmarkSupport.metrics();
+        archiver = switch (mode) {
+            case FILES -> new FileArchiver(archiveRoot, 2, 8192, 256, 10_000, metrics);
+            case SEGMENTS -> new SegmentArchiver(archiveRoot, new SegmentArchiver.Settings(268_435_456L, 3_600_000L,
+                    262_144, 10_737_418_240L, 604_800_000L, true), 8192, 256, 10_000, metrics);
+        };
+    }
+
+    @Setup(Level.Invocation)
+    public void writeFiles() throws IOException {
+        round++;
+        for (int i = 0; i < FILES; i++) {
+            files[i] = Files.write(inbox.resolve("bench_" + round + "_" + i + ".json"), payload);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        archiver.close();
+        BenchmarkSupport.deleteRecursively(inbox);
+        BenchmarkSupport.deleteRecursively(archiveRoot);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public void archive() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(FILES);
+        for (Path file : files) {
+            archiver.archive(file, event, archived -> done.countDown());
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import com.google.gson.stream.JsonWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Payloads and wiring shared by the benchmarks. Payloads have the same shape as the files
+ * written by the generator, with a configurable number of transactionInfo entries.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    static IngestionMetrics metrics() {
+        return new IngestionMetrics(new SimpleMeterRegistry());
+    }
+
+    /**
+     * Builds one event file with {@code transactions} entries in transactionInfo.
+     */
+    static byte[] payload(String refId, String rayId, String state, int transactionCount, int transactions) {
+        StringWriter text = new StringWriter(1024 + transactions * 900);
+        try (JsonWriter json = new JsonWriter(text)) {
+            json.beginObject();
+            json.name("notificationInfo").beginObject()
+                    .name("stage").value("Final")
+                    .name("source").value("iPlus")
+                    .endObject();
+            json.name("trackingInfo").beginObject()
+                    .name("rayIdentifier").value(rayId)
+                    .name("state").value(state)
+                    .name("sourceTypeIdentifier").value("PayementTeam001")
+                    .endObject();
+            json.name("jobInfo").beginObject()
+                    .name("identifier").value("Dev_ExtractId_001")
+                    .name("referenceIdentifier").value(refId)
+                    .name("definition").value("Payment_Extract_001")
+                    .name("transactionCount").value(transactionCount)
+                    .name("state").value("Started")
+                    .endObject();
+            json.name("transactionInfo").beginArray();
+            for (int t = 0; t < transactions; t++) {
+                json.beginObject();
+                json.name("genericExtract").beginObject()
+                        .name("pageDataId").value("54000" + t)
+                        .name("pageNo").value(1)
+                        .name("totalPage").value(1)
+                        .name("extractFileName").value("GenericExtract\\summary")
+                        .name("lineCount").value(100);
+                json.name("traceables").beginObject();
+                json.name("paymentIdentifier").beginArray().value("Pay_PaymentIdentifier").endArray();
+                json.name("rayIdentifier").beginArray().value("Pay_RayIdentifier").endArray();
+                json.name("jobIdentifier").beginArray().value("Pay_JobIdentifier").endArray();
+                json.name("claimIds").beginArray();
+                for (int c = 1; c <= 5; c++) {
+                    json.value("C" + (11000 + t * 5 + c));
+                }
+                json.endArray();
+                json.endObject();
+                json.endObject();
+                json.name("processStageInfo").beginArray();
+                stage(json, "GENERIC-EXTRACTION-SERVICE - createFolder", "PROCESS_START", "2025-03-03 16:22:04.127");
+                stage(json, "GENERIC-EXTRACTION-SERVICE - createFolder", "PROCESS_END", "2025-03-03 16:24:04.127");
+                stage(json, "GENERIC-EXTRACTION-SERVICE – page data identifiers", "MESSAGE_PUBLISH", "2025-03-03 16:33:33.130");
+                stage(json, "GENERIC-EXTRACTION-SERVICE - FileGeneration", "SUCCESS", "2025-03-03 16:40:25.130");
+                json.endArray();
+                json.name("recordIdentifier").value(String.format("Dev_PageId_%03d", t));
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void stage(JsonWriter json, String name, String status, String auditTime) throws IOException {
+        json.beginObject()
+                .name("processStageName").value(name)
+                .name("processStatus").value(status)
+                .name("auditTime").value(auditTime)
+                .endObject();
+    }
+
+    static JsonData event(String refId, String rayId, String state, int transactionCount) {
+        JsonData data = new JsonData();
+        JsonData.TrackingInfo tracking = new JsonData.TrackingInfo();
+        tracking.setRayIdentifier(rayId);
+        tracking.setState(state);
+        data.setTrackingInfo(tracking);
+        JsonData.JobInfo job = new JsonData.JobInfo();
+        job.setReferenceIdentifier(refId);
+        job.setTransactionCount(transactionCount);
+        data.setJobInfo(job);
+        return data;
+    }
+
+    /**
+     * A service that is never started: no watcher, no reports, idle timeouts far in the future,
+     * finished refIds forgotten right away. With {@code journalFolder} set, the journal is
+     * enabled and opened.
+     */
+    static JsonProcessingService service(Path journalFolder) throws IOException {
+        return service(journalFolder, true, 0);
+    }
+
+    /**
+     * Like {@link #service(Path)}, but keeps up to {@code finishedStatuses} finished refIds
+     * queryable, and leaves opening the journal to the caller when {@code recover} is false,
+     * e.g. to the file watcher, which recovers on start.
+     */
+    static JsonProcessingService service(Path journalFolder, boolean recover, int finishedStatuses) throws IOException {
+        IngestionMetrics metrics = metrics();
+        ArchiverFactory archiverFactory = new ArchiverFactory(metrics, ArchiverFactory.Mode.FILES, 1, 1024, 256, 10_000,
+                268_435_456L, 3_600_000L, 262_144, 10_737_418_240L, 604_800_000L, true);
+        ClusterFactory cluster = new ClusterFactory(false, "bench", "NODE_ID", 64, "LEASES", "SHARDS", 10_000, 2_000);
+        ReportSinkFactory reportSinkFactory = new ReportSinkFactory(cluster, false, FileReportSink.Format.JSONL, "REPORTS",
+                false, 1024, 64);
+        AdmissionFactory admissionFactory = new AdmissionFactory(cluster, metrics, 4096, 268_435_456L, 65_536, 8192, 2048, 0.1,
+                Set.of());
+        boolean journal = journalFolder != null;
+        JsonProcessingService service = new JsonProcessingService(new EventParser(EventParser.FieldSet.TRACKING),
+                archiverFactory, admissionFactory, reportSinkFactory, cluster, metrics, 1, 1, 1, 1024, 65536, 1_048_576,
+                250, 30_000, 8, FileRetryScheduler.StabilityMode.QUIESCENCE, "QUARANTINE_JSON",
+                3_600_000, false, 30_000, 1_800_000, 3, 4, 100, 4096,
+                journal, journal ? journalFolder.toString() : "JOURNAL", 16384, 1024, true, 3_600_000,
+                false, "DEDUP", 1024, false, 64,
+                finishedStatuses, 0, false, 16384, 256, 10_000, 0, 15_000);
+        if (journal && recover) {
+            service.recoverAggregates();
+        }
+        return service;
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.JsonProcessing.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work of finishing a refId with a given number of rays: ordering the rays by rayId, and
+ * writing the completion report. The TreeMap variant is how rays used to be ordered, kept as a
+ * baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FinishBenchmark {
+
+    @Param({"10", "10000", "1000000"})
+    public int rays;
+
+    private RayTracker tracker;
+    private List<String[]> rayList;
+    private CompletionReport report;
+
+    @Setup
+    public void setUp() {
+        List<Integer> order = new ArrayList<>(rays);
+        for (int i = 0; i < rays; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(42));
+        String[] states = {"Success", "Success", "Success", "Failure", "Pending"};
+        tracker = new RayTracker(rays);
+        rayList = new ArrayList<>(rays);
+        for (int i : order) {
+            String rayId = String.format("Dev_RayId_%07d", i);
+            String state = states[i % states.length];
+            tracker.add(rayId, state);
+            rayList.add(new String[]{rayId, state});
+        }
+        report = new CompletionReport("Dev_JobId_001", rays, 0, 0, 0, true, System.currentTimeMillis(), tracker, null);
+    }
+
+    @Benchmark
+    public int[] sortTracker() {
+        return tracker.sortedOrdinals();
+    }
+
+    @Benchmark
+    public Map<String, String> sortTreeMapBaseline() {
+        Map<String, String> sorted = new TreeMap<>();
+        for (String[] ray : rayList) {
+            sorted.put(ray[0], ray[1]);
+        }
+        return sorted;
+    }
+
+    @Benchmark
+    public void writeJsonReport() throws IOException {
+        FileReportSink.writeRecord(Writer.nullWriter(), FileReportSink.Format.JSONL, report);
+    }
+
+    @Benchmark
+    public void writeCsvReport() throws IOException {
+        FileReportSink.writeRecord(Writer.nullWriter(), FileReportSink.Format.CSV, report);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing one event file: Gson data binding as the service originally did it, the
+ * {@link EventParser} field sets, and Jackson data binding for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    /** Entries in transactionInfo; the generator writes 1. */
+    @Param({"1", "50", "500"})
+    public int transactions;
+
+    private byte[] payload;
+    private final Gson gson = new Gson();
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final EventParser allFields = new EventParser(EventParser.FieldSet.ALL);
+    private final EventParser stageFields = new EventParser(EventParser.FieldSet.STAGES);
+    private final EventParser trackingFields = new EventParser(EventParser.FieldSet.TRACKING);
+    private final StageAnalytics stageAnalytics = new StageAnalytics(64, 1);
+
+    @Setup
+    public void setUp() {
+        payload = BenchmarkSupport.payload("Dev_JobId_001", "Dev_RayId_001", "Success", 7, transactions);
+    }
+
+    @Benchmark
+    public JsonData gsonFromJson() {
+        return gson.fromJson(new InputStreamReader(new ByteArrayInputStream(payload), StandardCharsets.UTF_8), JsonData.class);
+    }
+
+    @Benchmark
+    public JsonData eventParserAll() throws IOException {
+        return allFields.parse(payload, payload.length);
+    }
+
+    @Benchmark
+    public JsonData eventParserStages() throws IOException {
+        return stageFields.parse(payload, payload.length);
+    }
+
+    /** Parsing with the stage field set plus turning the audit entries into stage durations. */
+    @Benchmark
+    public Object eventParserStageTimings() throws IOException {
+        return stageAnalytics.timings(stageFields.parse(payload, payload.length));
+    }
+
+    @Benchmark
+    public JsonData eventParserTracking() throws IOException {
+        return trackingFields.parse(payload, payload.length);
+    }
+
+    @Benchmark
+    public JsonData jacksonReadValue() throws IOException {
+        return objectMapper.readValue(payload, JsonData.class);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and parsing one event file from disk: into a String as the service originally did it,
+ * into a one-off byte array, and through {@link BufferPool}, which reads small files into pooled
+ * direct buffers and maps large ones. Sampled, so the output has percentiles; run with
+ * {@code -prof gc} to compare the bytes allocated per file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+
+    /** Entries in transactionInfo: 1 is about 1.5 KB, 5000 about 6 MB. */
+    @Param({"1", "5000"})
+    public int transactions;
+
+    private Path folder;
+    private Path file;
+    private final EventParser parser = new EventParser(EventParser.FieldSet.TRACKING);
+    private final BufferPool bufferPool = new BufferPool(65536, 1_048_576, 4);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("bench-read");
+        file = Files.write(folder.resolve("event.json"),
+                BenchmarkSupport.payload("Dev_JobId_001", "Dev_RayId_001", "Success", 7, transactions));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public JsonData readAllBytesToString() throws IOException {
+        return parser.parse(new StringReader(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public JsonData readAllBytes() throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        return parser.parse(content, content.length);
+    }
+
+    @Benchmark
+    public JsonData bufferPool() throws IOException {
+        BufferPool.Content content = bufferPool.read(file, 0);
+        try {
+            return parser.parse(content.buffer());
+        } finally {
+            bufferPool.release(content);
+        }
+    }
+}
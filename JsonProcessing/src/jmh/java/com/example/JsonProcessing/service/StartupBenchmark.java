@@ -0,0 +1,60 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.JsonProcessingApplication;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of the application, from {@link SpringApplication#run} until the runner has started
+ * the file watcher: the default boot with the embedded web server against the {@code headless}
+ * profile. Every measurement is the first start in a fresh JVM, so the number of forks is the
+ * number of samples. AOT and CDS need the packaged jar (see the fast-start profile in the pom)
+ * and are not covered here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+// The watcher thread is not a daemon and outlives the context; don't wait for it at the end of a fork.
+@Fork(value = 5, jvmArgsAppend = "-Djmh.shutdownTimeout=0")
+public class StartupBenchmark {
+
+    @Param({"default", "headless"})
+    public String profile;
+
+    private Path folder;
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("bench-startup");
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        if (context != null) {
+            context.close();
+        }
+        BenchmarkSupport.deleteRecursively(folder);
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext start() {
+        context = SpringApplication.run(JsonProcessingApplication.class,
+                "--spring.profiles.active=" + profile,
+                "--server.port=0",
+                "--processing.inbox-folder=" + folder.resolve("JSON"),
+                "--processing.archive-folder=" + folder.resolve("ARCHIVED_JSON"),
+                "--processing.retry.quarantine-folder=" + folder.resolve("QUARANTINE_JSON"),
+                "--processing.dedup.folder=" + folder.resolve("DEDUP"),
+                "--processing.report.folder=" + folder.resolve("REPORTS"));
+        return context;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end cost per event of getting a refId from its first event to finished: through the
+ * inbox (written as files, watched, read, parsed and archived), or handed to aggregation
+ * directly. With the journal on, sends complete only once the events are durable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportBenchmark {
+
+    private static final int EVENTS = 256;
+
+    @Param({"FILE", "DIRECT"})
+    public EventTransport.Mode mode;
+
+    @Param({"false", "true"})
+    public boolean journal;
+
+    private Path root;
+    private JsonProcessingService service;
+    private EventTransport transport;
+    private final JsonData[] events = new JsonData[EVENTS];
+    private String refId;
+    private long round;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("bench-transport");
+        Path inbox = root.resolve("JSON");
+        service = BenchmarkSupport.service(journal ? root.resolve("JOURNAL") : null, mode == EventTransport.Mode.DIRECT, 1024);
+        if (mode == EventTransport.Mode.FILE) {
+            transport = new FileTransport(inbox);
+            // The watcher thread is not stopped; the forked VM exits after the trial.
+            service.initializeAndWatch(inbox.toString(), root.resolve("ARCHIVED_JSON").toString());
+        } else {
+            transport = service::ingest;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void nextRefId() {
+        round++;
+        refId = "Bench_Transport_" + round;
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = BenchmarkSupport.event(refId, "Ray_" + i, (i & 7) == 0 ? "Failure" : "Success", EVENTS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        service.shutdown();
+        BenchmarkSupport.deleteRecursively(root);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public RefStatus sendAndFinish() {
+        CompletableFuture<?>[] sends = new CompletableFuture<?>[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            sends[i] = transport.send(events[i]);
+        }
+        CompletableFuture.allOf(sends).join();
+        RefStatus status;
+        while ((status = service.getStatus(refId)) == null || !status.finished()) {
+            LockSupport.parkNanos(20_000);
+        }
+        return status;
+    }
+}
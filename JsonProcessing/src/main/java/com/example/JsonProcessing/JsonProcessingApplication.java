@@ -2,6 +2,7 @@ package com.example.JsonProcessing;
 
 import com.example.JsonProcessing.service.JsonProcessingService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -12,17 +13,21 @@ public class JsonProcessingApplication implements CommandLineRunner {
 	@Autowired
 	private JsonProcessingService jsonProcessingService;
 
+	// Folder where JSON files arrive; also where the FILE transport writes posted events
+	@Value("${processing.inbox-folder:JSON}")
+	private String jsonFolder;
+
+	// Folder where processed JSON files are archived (under the node's own subfolder in cluster mode)
+	@Value("${processing.archive-folder:ARCHIVED_JSON}")
+	private String archiveFolder;
+
 	public static void main(String[] args) {
 		SpringApplication.run(JsonProcessingApplication.class, args);
 	}
 
 	@Override
 	public void run(String... args) {
-		// Start file watcher to monitor JSON folder and archive processed files
-		String jsonFolder = "JSON";  // Folder where JSON files arrive
-		String archiveFolder = "ARCHIVED_JSON";  // Folder to store processed JSON files
-
-		// Start watching JSON folder
+		// Start watching JSON folder; processed files are moved to the archive folder
 		jsonProcessingService.initializeAndWatch(jsonFolder, archiveFolder);
 	}
 }
@@ -0,0 +1,43 @@
+package com.example.JsonProcessing.controller;
+
+import com.example.JsonProcessing.service.JsonProcessingService;
+import com.example.JsonProcessing.service.StageAnalytics;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Live durations of the upstream processing stages, from the audit entries of the events
+ * received: p50, p99 and max in milliseconds per stage and per page, over all refIds or for one
+ * in-flight refId. Finished refIds have theirs in the completion report.
+ */
+@RestController
+@RequestMapping("/api/analytics/stages")
+public class AnalyticsController {
+
+    private final JsonProcessingService jsonProcessingService;
+
+    public AnalyticsController(JsonProcessingService jsonProcessingService) {
+        this.jsonProcessingService = jsonProcessingService;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> getStageTotals() {
+        StageAnalytics.Snapshot snapshot = jsonProcessingService.getStageTotals();
+        if (snapshot == null) {
+            return ResponseEntity.status(404).body(Map.of("error", "Stage analytics are disabled"));
+        }
+        return ResponseEntity.ok(snapshot);
+    }
+
+    @GetMapping("/{refId}")
+    public ResponseEntity<?> getStages(@PathVariable String refId) {
+        StageAnalytics.Snapshot snapshot = jsonProcessingService.getStages(refId);
+        if (snapshot == null) {
+            return ResponseEntity.status(404).body(Map.of("error", "RefId is not in flight, or stage analytics are disabled",
+                    "refId", refId));
+        }
+        return ResponseEntity.ok(snapshot);
+    }
+}
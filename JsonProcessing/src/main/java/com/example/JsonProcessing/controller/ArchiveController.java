@@ -0,0 +1,46 @@
+package com.example.JsonProcessing.controller;
+
+import com.example.JsonProcessing.service.JsonProcessingService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads archived events back, for replaying or inspecting what was received. Needs the SEGMENTS
+ * archive mode; archived files of the FILES mode are plain files in the archive folder.
+ */
+@RestController
+@RequestMapping("/api/archive")
+public class ArchiveController {
+
+    private final JsonProcessingService jsonProcessingService;
+
+    public ArchiveController(JsonProcessingService jsonProcessingService) {
+        this.jsonProcessingService = jsonProcessingService;
+    }
+
+    /**
+     * Returns the event file as it was archived, the latest one if the ray was archived more
+     * than once.
+     */
+    @GetMapping("/{refId}/{rayId}")
+    public ResponseEntity<?> getEvent(@PathVariable String refId, @PathVariable String rayId) {
+        if (!jsonProcessingService.isArchiveReadable()) {
+            return ResponseEntity.status(404).body(Map.of("error", "Archived events can only be read back with processing.archive.mode=SEGMENTS"));
+        }
+        byte[] payload;
+        try {
+            payload = jsonProcessingService.readArchived(refId, rayId);
+        } catch (IOException e) {
+            return ResponseEntity.status(500).body(Map.of("error", "Could not read the archive: " + e.getMessage()));
+        }
+        if (payload == null) {
+            return ResponseEntity.status(404).body(Map.of("error", "Event is not in the archive", "refId", refId,
+                    "rayId", rayId));
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(payload);
+    }
+}
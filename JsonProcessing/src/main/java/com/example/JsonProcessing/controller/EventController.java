@@ -0,0 +1,82 @@
+package com.example.JsonProcessing.controller;
+
+import com.example.JsonProcessing.model.JsonData;
+import com.example.JsonProcessing.service.EventTransport;
+import com.example.JsonProcessing.service.EventTransportFactory;
+import com.example.JsonProcessing.service.JsonProcessingService;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Accepts events from producers running on the same host, as an alternative to dropping files
+ * into the inbox. Events go through the transport selected by {@code processing.transport.mode}.
+ */
+@RestController
+@RequestMapping("/api/events")
+public class EventController {
+
+    private final EventTransport transport;
+    // Events written into the inbox are refused while it is backed up.
+    private final boolean viaInbox;
+    private final JsonProcessingService jsonProcessingService;
+
+    public EventController(EventTransportFactory transportFactory, JsonProcessingService jsonProcessingService) throws IOException {
+        this.transport = transportFactory.create(jsonProcessingService);
+        this.viaInbox = transportFactory.getMode() == EventTransport.Mode.FILE;
+        this.jsonProcessingService = jsonProcessingService;
+    }
+
+    /**
+     * Status of one event in a request.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record ItemStatus(int index, String status, String error) {
+    }
+
+    /**
+     * Sends a JSON array of events. The response lists the outcome of every event in order;
+     * an event is ACCEPTED once the transport has taken it. While the inbox is backed up, the
+     * whole request is refused with 503 and a Retry-After header.
+     */
+    @PostMapping
+    public ResponseEntity<?> sendEvents(@RequestBody List<JsonData> events) {
+        if (viaInbox && jsonProcessingService.isBackpressured()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(Map.of("error", "Inbox is backed up, retry later"));
+        }
+        List<CompletableFuture<Void>> sends = new ArrayList<>(events.size());
+        for (JsonData event : events) {
+            sends.add(transport.send(event));
+        }
+        List<ItemStatus> items = new ArrayList<>(sends.size());
+        int failed = 0;
+        for (int i = 0; i < sends.size(); i++) {
+            try {
+                sends.get(i).join();
+                items.add(new ItemStatus(i, "ACCEPTED", null));
+            } catch (CompletionException e) {
+                failed++;
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                items.add(new ItemStatus(i, "FAILED", cause.getMessage()));
+            }
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("received", sends.size());
+        body.put("accepted", sends.size() - failed);
+        body.put("failed", failed);
+        body.put("items", items);
+        return ResponseEntity.ok(body);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.JsonProcessing.controller;
+
+import com.example.JsonProcessing.service.JsonProcessingService;
+import com.example.JsonProcessing.service.RefStatus;
+import com.example.JsonProcessing.service.StatusRegistry;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Read-only progress of refIds for dashboards. Served from published status snapshots, so
+ * polling never blocks ingestion.
+ */
+@RestController
+@RequestMapping("/api/status")
+public class StatusController {
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final JsonProcessingService jsonProcessingService;
+
+    public StatusController(JsonProcessingService jsonProcessingService) {
+        this.jsonProcessingService = jsonProcessingService;
+    }
+
+    @GetMapping("/{refId}")
+    public ResponseEntity<?> getStatus(@PathVariable String refId) {
+        RefStatus status = jsonProcessingService.getStatus(refId);
+        if (status == null) {
+            return ResponseEntity.status(404).body(Map.of("error", "Unknown or expired refId", "refId", refId));
+        }
+        return ResponseEntity.ok(status);
+    }
+
+    /**
+     * Lists statuses ordered by refId. Pass the returned {@code next} as {@code after} to get the
+     * following page.
+     */
+    @GetMapping
+    public ResponseEntity<?> listStatus(@RequestParam(required = false) String after,
+                                        @RequestParam(defaultValue = "100") int limit,
+                                        @RequestParam(defaultValue = "ALL") StatusRegistry.Filter filter) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body(Map.of("error", "limit must be between 1 and " + MAX_PAGE_SIZE));
+        }
+        return ResponseEntity.ok(jsonProcessingService.getStatusPage(after, limit, filter));
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.JsonProcessing.controller;
+
+import com.example.JsonProcessing.service.JsonProcessingService;
+import com.example.JsonProcessing.service.RefEventStream;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Server-sent events of refId progress and completion, so clients learn that a refId finished
+ * without polling the status API. Events are named {@code progress}, {@code completion} and
+ * {@code reset}, with a {@link com.example.JsonProcessing.service.RefStatus} as data. A client
+ * reconnecting with the {@code Last-Event-ID} header (as EventSource does by itself), or the
+ * {@code lastEventId} parameter, gets the events it missed first.
+ */
+@RestController
+@RequestMapping("/api/stream")
+public class StreamController {
+
+    private final JsonProcessingService jsonProcessingService;
+
+    public StreamController(JsonProcessingService jsonProcessingService) {
+        this.jsonProcessingService = jsonProcessingService;
+    }
+
+    /**
+     * Opens a stream of the given refIds' events, or of all refIds; {@code types} limits it to
+     * PROGRESS or COMPLETION events. Both take several values, repeated or comma separated.
+     * Answers 404 while the stream is disabled and 503 while it has all the subscribers it takes.
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam(name = "refId", required = false) List<String> refIds,
+                             @RequestParam(required = false) List<RefEventStream.Type> types,
+                             @RequestParam(required = false) String lastEventId,
+                             @RequestHeader(name = "Last-Event-ID", required = false) String lastEventIdHeader) {
+        if (!jsonProcessingService.isStreamEnabled()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Event stream is disabled");
+        }
+        long timeout = jsonProcessingService.getStreamTimeoutMillis();
+        SseEmitter emitter = new SseEmitter(timeout > 0 ? timeout : -1L);
+        RefEventStream.Subscription subscription = jsonProcessingService.subscribe(
+                refIds != null ? Set.copyOf(refIds) : Set.of(),
+                types != null ? Set.copyOf(types) : Set.of(),
+                lastEventIdHeader != null ? lastEventIdHeader : lastEventId,
+                new EmitterSink(emitter));
+        if (subscription == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many event stream subscribers, retry later");
+        }
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(e -> subscription.close());
+        return emitter;
+    }
+
+    private record EmitterSink(SseEmitter emitter) implements RefEventStream.Sink {
+        @Override
+        public void send(RefEventStream.Event event) throws IOException {
+            SseEmitter.SseEventBuilder builder = SseEmitter.event()
+                    .name(event.type().name().toLowerCase())
+                    .data(event.data(), MediaType.APPLICATION_JSON);
+            if (event.id() != null) {
+                builder.id(event.id());
+            }
+            emitter.send(builder);
+        }
+
+        @Override
+        public void heartbeat() throws IOException {
+            emitter.send(SseEmitter.event().comment("heartbeat"));
+        }
+
+        @Override
+        public void close() {
+            emitter.complete();
+        }
+    }
+}
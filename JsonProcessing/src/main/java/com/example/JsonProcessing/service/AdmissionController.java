@@ -0,0 +1,217 @@
+package com.example.JsonProcessing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gate in front of the ingestion pipeline. Files seen in the inbox wait here, as paths only,
+ * until the pipeline has room: at most {@code maxFiles} files and {@code maxBytes} bytes are
+ * in flight at once, so a burst in the inbox cannot fill the heap. A single file larger than
+ * the byte limit is still admitted once nothing else is in flight.
+ *
+ * <p>Waiting files are admitted from the HIGH lane first, then from the NORMAL lane, each in
+ * arrival order. When the wait queue reaches its high watermark, a marker file is created that
+ * producers check to slow down; it is removed again once the queue has drained to the low
+ * watermark. When the queue itself is full, offering waits, which backs up into the watcher
+ * and the reconciler like the pipeline's own bounded stages.
+ */
+public class AdmissionController implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+    public enum Priority {
+        HIGH,
+        NORMAL
+    }
+
+    private final int maxFiles;
+    private final long maxBytes;
+    private final int maxPending;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final Path signalFile;
+    private final IngestionMetrics metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when a file is offered, released or admitted, and on close.
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Waiting> high = new ArrayDeque<>();
+    private final ArrayDeque<Waiting> normal = new ArrayDeque<>();
+    private final Thread admitter;
+    private int inFlightFiles;
+    private long inFlightBytes;
+    private volatile boolean backpressure;
+    private boolean running = true;
+
+    private record Waiting(long size, Priority priority, Runnable admit) {
+    }
+
+    public AdmissionController(int maxFiles, long maxBytes, int maxPending, int highWatermark, int lowWatermark,
+                               Path signalFile, IngestionMetrics metrics) throws IOException {
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.maxPending = maxPending;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.signalFile = signalFile;
+        this.metrics = metrics;
+        // A marker left behind by a crashed run would hold producers back for good.
+        Files.deleteIfExists(signalFile);
+        this.admitter = new Thread(this::admitLoop, "ingest-admission");
+        this.admitter.setDaemon(true);
+        this.admitter.start();
+        logger.info("Admission control started: maxFiles={}, maxBytes={}, maxPending={}, watermarks={}/{}",
+                maxFiles, maxBytes, maxPending, highWatermark, lowWatermark);
+    }
+
+    /**
+     * Queues a file for admission; {@code admit} runs on the admission thread once it fits. Waits
+     * while the queue is full. Every admitted file must later be {@link #release released}.
+     */
+    public void offer(long size, Priority priority, Runnable admit) {
+        lock.lock();
+        try {
+            while (running && high.size() + normal.size() >= maxPending) {
+                changed.awaitUninterruptibly();
+            }
+            (priority == Priority.HIGH ? high : normal).add(new Waiting(size, priority, admit));
+            updateSignal();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Gives back the room taken by an admitted file of the given size. */
+    public void release(long size) {
+        lock.lock();
+        try {
+            inFlightFiles--;
+            inFlightBytes -= size;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void admitLoop() {
+        while (true) {
+            Waiting next;
+            lock.lock();
+            try {
+                while (running && (next = admissible()) == null) {
+                    changed.awaitUninterruptibly();
+                }
+                if (!running) {
+                    return;
+                }
+                next = (high.isEmpty() ? normal : high).poll();
+                inFlightFiles++;
+                inFlightBytes += next.size();
+                updateSignal();
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            metrics.admitted(next.priority());
+            try {
+                // Outside the lock: handing the file to the read stage may wait for room there.
+                next.admit().run();
+            } catch (RuntimeException e) {
+                logger.error("Error admitting file", e);
+            }
+        }
+    }
+
+    // The next waiting file if it fits within the limits now, else null.
+    private Waiting admissible() {
+        Waiting next = high.isEmpty() ? normal.peek() : high.peek();
+        if (next == null || inFlightFiles >= maxFiles) {
+            return null;
+        }
+        return inFlightFiles == 0 || inFlightBytes + next.size() <= maxBytes ? next : null;
+    }
+
+    private void updateSignal() {
+        int pending = high.size() + normal.size();
+        if (!backpressure && pending >= highWatermark) {
+            backpressure = true;
+            logger.warn("Admission queue reached {} files, asking producers to slow down", pending);
+            try {
+                Files.createDirectories(signalFile.getParent());
+                Files.write(signalFile, new byte[0]);
+            } catch (IOException e) {
+                logger.error("Could not create backpressure marker {}", signalFile, e);
+            }
+        } else if (backpressure && pending <= lowWatermark) {
+            backpressure = false;
+            logger.info("Admission queue drained to {} files, producers may resume", pending);
+            try {
+                Files.deleteIfExists(signalFile);
+            } catch (IOException e) {
+                logger.error("Could not remove backpressure marker {}", signalFile, e);
+            }
+        }
+    }
+
+    /** Whether producers are currently asked to slow down. */
+    public boolean isBackpressured() {
+        return backpressure;
+    }
+
+    public int inFlightFiles() {
+        lock.lock();
+        try {
+            return inFlightFiles;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long inFlightBytes() {
+        lock.lock();
+        try {
+            return inFlightBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int pendingCount(Priority priority) {
+        lock.lock();
+        try {
+            return priority == Priority.HIGH ? high.size() : normal.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops admitting. Files still waiting stay in the inbox and are picked up by the next run.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            admitter.join(TimeUnit.SECONDS.toMillis(5));
+            Files.deleteIfExists(signalFile);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warn("Could not remove backpressure marker {}: {}", signalFile, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.JsonProcessing.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Admission limits and priority rules from {@code processing.admission.*}. A file goes to the
+ * HIGH lane when the refId in its name is close to complete, or was tagged by a priority
+ * source type in an earlier event; files whose name carries no refId are always NORMAL.
+ */
+@Component
+public class AdmissionFactory {
+
+    /** Folder inside the inbox that holds one backpressure marker per node asking producers to slow down. */
+    public static final String SIGNAL_FOLDER = ".backpressure";
+
+    private final ClusterFactory cluster;
+    private final IngestionMetrics metrics;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final int maxPending;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final double nearCompleteFraction;
+    private final Set<String> prioritySourceTypes;
+
+    public AdmissionFactory(ClusterFactory cluster, IngestionMetrics metrics,
+                            @Value("${processing.admission.max-files:4096}") int maxFiles,
+                            @Value("${processing.admission.max-bytes:268435456}") long maxBytes,
+                            @Value("${processing.admission.max-pending:65536}") int maxPending,
+                            @Value("${processing.admission.high-watermark:8192}") int highWatermark,
+                            @Value("${processing.admission.low-watermark:2048}") int lowWatermark,
+                            @Value("${processing.admission.near-complete-fraction:0.1}") double nearCompleteFraction,
+                            @Value("${processing.admission.priority-source-types:}") Set<String> prioritySourceTypes) {
+        this.cluster = cluster;
+        this.metrics = metrics;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.maxPending = maxPending;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.nearCompleteFraction = nearCompleteFraction;
+        this.prioritySourceTypes = prioritySourceTypes;
+    }
+
+    public AdmissionController create(Path inbox) throws IOException {
+        return new AdmissionController(maxFiles, maxBytes, maxPending, highWatermark, lowWatermark,
+                inbox.resolve(SIGNAL_FOLDER).resolve(cluster.getNodeId()), metrics);
+    }
+
+    /** Whether a refId with this many files still expected should jump the queue. */
+    public boolean isNearComplete(int remaining, int transactionCount) {
+        return remaining <= Math.max(1, transactionCount * nearCompleteFraction);
+    }
+
+    public boolean isPrioritySourceType(String sourceType) {
+        return sourceType != null && prioritySourceTypes.contains(sourceType);
+    }
+}
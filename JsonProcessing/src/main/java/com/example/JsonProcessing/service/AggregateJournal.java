@@ -0,0 +1,568 @@
+package com.example.JsonProcessing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the events applied to refId aggregates, plus compact snapshots of the
+ * aggregate state. Appends go into a bounded buffer and a single writer thread writes them in
+ * batches with one fsync per batch (group commit). Each record gets a log sequence number
+ * (LSN); a snapshot taken at LSN n plus every journal record after n rebuilds the state.
+ *
+ * <p>Appending takes no lock: the LSN comes from a counter and the buffer is a lock-free queue
+ * bounded by a permit count, as in {@link AggregationEngine}, so an append waiting for room
+ * holds up no other appender. Records of different threads can therefore reach the buffer out
+ * of LSN order; the writer holds a record back until every lower LSN has arrived, so files are
+ * still written in LSN order.
+ *
+ * <p>Journal files are named {@code journal-<first LSN>.log}. Taking a snapshot starts a new
+ * journal file, and once the snapshot is on disk all older journal files are deleted.
+ *
+ * <p>A batch whose write or fsync fails is never reported durable. The file it went to is
+ * abandoned, since its tail may be torn and its unsynced pages lost, and the batch is written
+ * again to a new file until that succeeds; its completion actions wait until then, and appends
+ * wait while the buffer is full. Recovery reads a record that ended up in two files once.
+ *
+ * <p>In cluster mode a node that takes over a shard from a failed peer adopts the peer's
+ * unfinished refIds of that shard by {@link #read reading} the peer's journal, and then leaves
+ * an {@code adopted-<shard>.lsn} marker in it, so the peer does not recover them again on
+ * restart. A marker is removed once a snapshot past its LSN has been written.
+ */
+public class AggregateJournal implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AggregateJournal.class);
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final int SNAPSHOT_MAGIC = 0x4A534E50;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    public enum Type {
+        EVENT,
+        FINISH
+    }
+
+    /**
+     * One journal record. For FINISH records only the refId is set.
+     */
+    public record Entry(long lsn, Type type, String refId, String rayId, String state, int transactionCount) {
+    }
+
+    /**
+     * Aggregate state of one refId as stored in a snapshot.
+     */
+    public record RefState(String refId, int transactionCount, int remaining, int successCount, int failureCount,
+                           int otherStatusCount, List<String[]> rays) {
+    }
+
+    /**
+     * What was found on disk at startup: the latest snapshot, the journal records after it, the
+     * highest LSN read, and the LSN up to which each shard was adopted by another node. States
+     * and records of an adopted shard at or below that LSN are no longer this journal's.
+     */
+    public record Recovery(long snapshotLsn, List<RefState> states, List<Entry> entries, long lastLsn,
+                           Map<Integer, Long> adopted) {
+    }
+
+    private final Path folder;
+    private final int batchSize;
+    private final boolean fsync;
+    private final Queue<Object> buffer = new ConcurrentLinkedQueue<>();
+    private final Semaphore permits;
+    private final AtomicLong lastLsn = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    // Set by the writer just before it parks, so appenders know to wake it.
+    private volatile boolean sleeping;
+    // Writer thread only: records that arrived ahead of a lower LSN, and the next LSN to write.
+    private final TreeMap<Long, Entry> early = new TreeMap<>();
+    private long nextLsn;
+    // The file being written; null after a failed write until the next one is opened.
+    private DataOutputStream out;
+    private FileChannel channel;
+
+    public AggregateJournal(Path folder, int bufferCapacity, int batchSize, boolean fsync) throws IOException {
+        this.folder = folder;
+        this.batchSize = batchSize;
+        this.fsync = fsync;
+        this.permits = new Semaphore(bufferCapacity);
+        Files.createDirectories(folder);
+        this.writerThread = new Thread(this::drain, "aggregate-journal");
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * Reads the snapshot and the journal tail. Must be called once, before anything is appended;
+     * afterwards new records are written to a fresh journal file.
+     */
+    public Recovery recover() throws IOException {
+        Recovery recovery = read(folder);
+        lastLsn.set(recovery.lastLsn());
+        nextLsn = recovery.lastLsn() + 1;
+        openJournal(recovery.lastLsn() + 1);
+        writerThread.start();
+        logger.info("Recovered {} refIds from snapshot at LSN {} and {} journal records after it",
+                recovery.states().size(), recovery.snapshotLsn(), recovery.entries().size());
+        return recovery;
+    }
+
+    /**
+     * Reads the snapshot and journal tail in {@code folder} without opening it for writing, for
+     * adopting the refIds of a failed peer. Records being written while reading end the read at
+     * the first incomplete one.
+     */
+    public static Recovery read(Path folder) throws IOException {
+        long snapshotLsn = 0;
+        List<RefState> states = new ArrayList<>();
+        Path snapshot = folder.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Not a snapshot file: " + snapshot);
+                }
+                snapshotLsn = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    states.add(readState(in));
+                }
+            }
+        }
+        List<Entry> entries = new ArrayList<>();
+        long maxLsn = snapshotLsn;
+        for (Path file : journalFiles(folder)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                Entry entry;
+                while ((entry = readEntry(in, file)) != null) {
+                    // At or below the snapshot, or a record written again after a failed write.
+                    if (entry.lsn() <= maxLsn) {
+                        continue;
+                    }
+                    maxLsn = entry.lsn();
+                    entries.add(entry);
+                }
+            }
+        }
+        Map<Integer, Long> adopted = new HashMap<>();
+        for (Path marker : markerFiles(folder)) {
+            adopted.put(markerShard(marker), Long.parseLong(Files.readString(marker).trim()));
+        }
+        return new Recovery(snapshotLsn, states, entries, maxLsn, adopted);
+    }
+
+    /**
+     * Records in a peer's journal folder that its states and records of {@code shard} up to
+     * {@code lsn} were adopted by another node. The marker is on disk when this returns.
+     */
+    public static void markAdopted(Path folder, int shard, long lsn) throws IOException {
+        Path tmp = folder.resolve("adopted-" + shard + ".lsn.tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+            file.write(Long.toString(lsn).getBytes(StandardCharsets.US_ASCII));
+            file.getFD().sync();
+        }
+        Files.move(tmp, folder.resolve("adopted-" + shard + ".lsn"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public long appendEvent(String refId, String rayId, String state, int transactionCount) {
+        return append(Type.EVENT, refId, rayId, state, transactionCount);
+    }
+
+    public long appendFinish(String refId) {
+        return append(Type.FINISH, refId, null, null, 0);
+    }
+
+    /**
+     * Returns the LSN of the last record appended so far.
+     */
+    public long lastLsn() {
+        return lastLsn.get();
+    }
+
+    /**
+     * Runs {@code action} on the journal thread once every record appended before this call is
+     * durable. Waits if the journal buffer is full. If the journal is closed before those records
+     * could be made durable, {@code onFailed} runs instead.
+     */
+    public void afterDurable(Runnable action, Consumer<IOException> onFailed) {
+        put(new Action(lastLsn.get(), action, onFailed));
+    }
+
+    private long append(Type type, String refId, String rayId, String state, int transactionCount) {
+        Entry entry = new Entry(lastLsn.incrementAndGet(), type, refId, rayId, state, transactionCount);
+        put(entry);
+        return entry.lsn();
+    }
+
+    private void put(Object item) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while appending to the journal", e);
+        }
+        buffer.offer(item);
+        if (sleeping) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * Starts a new journal file for records after {@code lsn}. Must be called while no records
+     * are being appended, right after capturing the state that will be snapshotted at {@code lsn}.
+     */
+    public void rollAfter(long lsn) {
+        put(new Roll(lsn + 1));
+    }
+
+    /**
+     * Writes a snapshot of the state as of {@code lsn}, following {@link #rollAfter(long)}.
+     * Journal files holding only records up to {@code lsn} are removed once it is on disk.
+     */
+    public void writeSnapshot(long lsn, List<RefState> states) throws IOException, InterruptedException {
+        // Wait until the writer has switched files, so the old ones are closed before deletion.
+        CompletableFuture<Void> rolled = new CompletableFuture<>();
+        afterDurable(() -> rolled.complete(null), rolled::completeExceptionally);
+        try {
+            rolled.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Journal did not roll before the snapshot", e.getCause());
+        }
+        Path tmp = folder.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream snapshot = new DataOutputStream(new BufferedOutputStream(file))) {
+            snapshot.writeInt(SNAPSHOT_MAGIC);
+            snapshot.writeLong(lsn);
+            snapshot.writeInt(states.size());
+            for (RefState state : states) {
+                writeState(snapshot, state);
+            }
+            snapshot.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp, folder.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Path journal : journalFiles(folder)) {
+            if (firstLsn(journal) <= lsn) {
+                Files.deleteIfExists(journal);
+            }
+        }
+        // The snapshot no longer holds the adopted refIds, and the records they came from are gone.
+        for (Path marker : markerFiles(folder)) {
+            if (Long.parseLong(Files.readString(marker).trim()) <= lsn) {
+                Files.deleteIfExists(marker);
+            }
+        }
+        logger.info("Wrote snapshot of {} refIds at LSN {}", states.size(), lsn);
+    }
+
+    private void drain() {
+        // Records and rolls taken since the last successful commit, in LSN order; after a failed
+        // write they are all written again before anything new is taken.
+        List<Object> pending = new ArrayList<>(batchSize);
+        // Actions waiting for the records appended before them to be committed, in order.
+        List<Action> waiting = new ArrayList<>();
+        IOException failure = null;
+        while (running || !buffer.isEmpty() || !pending.isEmpty()) {
+            if (pending.isEmpty() && take(pending, waiting) == 0) {
+                runDurable(waiting);
+                sleeping = true;
+                if (running && buffer.isEmpty()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                }
+                sleeping = false;
+                continue;
+            }
+            try {
+                write(pending);
+                failure = null;
+            } catch (IOException e) {
+                failure = e;
+                abandonFile();
+                if (!running) {
+                    break;
+                }
+                logger.error("Error writing aggregate journal, writing {} items again to a new file in {} ms",
+                        pending.size(), RETRY_DELAY_MILLIS, e);
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+                continue;
+            }
+            pending.clear();
+            runDurable(waiting);
+        }
+        for (Object item; (item = buffer.poll()) != null; ) {
+            if (item instanceof Action action) {
+                waiting.add(action);
+            } else {
+                pending.add(item);
+            }
+        }
+        pending.addAll(early.values());
+        IOException cause = failure != null ? failure : new IOException("Aggregate journal is closed");
+        for (Action action : waiting) {
+            try {
+                action.onFailed.accept(cause);
+            } catch (RuntimeException e) {
+                logger.error("Error running journal failure action", e);
+            }
+        }
+        if (!pending.isEmpty() || !waiting.isEmpty()) {
+            logger.error("Aggregate journal closed with {} items not durable", pending.size() + waiting.size());
+        }
+        abandonFile();
+    }
+
+    /**
+     * Takes up to a batch of items from the buffer: records that continue the LSN sequence and
+     * rolls go to {@code pending}, records ahead of a missing LSN wait in {@link #early}, and
+     * actions go to {@code waiting}. Returns the number of items taken.
+     */
+    private int take(List<Object> pending, List<Action> waiting) {
+        int taken = 0;
+        for (Object item; taken < batchSize && (item = buffer.poll()) != null; taken++) {
+            permits.release();
+            if (item instanceof Entry entry) {
+                early.put(entry.lsn(), entry);
+                for (Entry next; (next = early.remove(nextLsn)) != null; nextLsn++) {
+                    pending.add(next);
+                }
+            } else if (item instanceof Action action) {
+                waiting.add(action);
+            } else {
+                // A roll is only requested while nothing is appended, so every record before it
+                // has already been taken.
+                pending.add(item);
+            }
+        }
+        return taken;
+    }
+
+    // Runs the actions whose records, everything up to their LSN, are committed.
+    private void runDurable(List<Action> waiting) {
+        long committed = nextLsn - 1;
+        waiting.removeIf(action -> {
+            if (action.lsn > committed) {
+                return false;
+            }
+            try {
+                action.onDurable.run();
+            } catch (RuntimeException e) {
+                logger.error("Error running journal completion action", e);
+            }
+            return true;
+        });
+    }
+
+    // Writes and commits the items, opening a file first if the last one was abandoned.
+    private void write(List<Object> items) throws IOException {
+        for (Object item : items) {
+            if (item instanceof Entry entry) {
+                if (out == null) {
+                    openJournal(entry.lsn());
+                }
+                writeEntry(entry);
+            } else if (item instanceof Roll roll) {
+                if (out != null) {
+                    commit();
+                    out.close();
+                }
+                openJournal(roll.firstLsn);
+            }
+        }
+        if (out != null) {
+            commit();
+        }
+    }
+
+    // Closes the current file without committing; nothing more is written to it.
+    private void abandonFile() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Error closing aggregate journal file: {}", e.getMessage());
+        }
+        out = null;
+        channel = null;
+    }
+
+    private void commit() throws IOException {
+        out.flush();
+        if (fsync) {
+            force(channel);
+        }
+    }
+
+    // Package-private so tests can make the fsync fail.
+    void force(FileChannel channel) throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Starts a new file for the records from {@code firstLsn} on. A file of that name can only
+     * hold records that were never made durable (from an abandoned write), so it is replaced.
+     */
+    private void openJournal(long firstLsn) throws IOException {
+        Path path = folder.resolve(String.format("journal-%019d.log", firstLsn));
+        Files.deleteIfExists(path);
+        FileOutputStream file = new FileOutputStream(path.toFile());
+        channel = file.getChannel();
+        out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+    }
+
+    private static List<Path> journalFiles(Path folder) throws IOException {
+        return list(folder, "journal-*.log");
+    }
+
+    private static List<Path> markerFiles(Path folder) throws IOException {
+        return list(folder, "adopted-*.lsn");
+    }
+
+    private static List<Path> list(Path folder, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(folder)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, glob)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static int markerShard(Path marker) {
+        String name = marker.getFileName().toString();
+        return Integer.parseInt(name.substring("adopted-".length(), name.length() - ".lsn".length()));
+    }
+
+    private static long firstLsn(Path journal) {
+        String name = journal.getFileName().toString();
+        return Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length()));
+    }
+
+    // Record layout: payload length, CRC32 of the payload, payload.
+    private void writeEntry(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(entry.lsn());
+        payload.writeByte(entry.type().ordinal());
+        payload.writeUTF(entry.refId());
+        payload.writeUTF(entry.rayId() == null ? "" : entry.rayId());
+        payload.writeUTF(entry.state() == null ? "" : entry.state());
+        payload.writeInt(entry.transactionCount());
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeInt(bytes.size());
+        out.writeInt((int) crc.getValue());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Returns the next record, or null at the end of the file. A torn or corrupt record at the
+     * tail (from a crash mid-write) ends the file.
+     */
+    private static Entry readEntry(DataInputStream in, Path file) throws IOException {
+        byte[] payload;
+        int expectedCrc;
+        try {
+            int length = in.readInt();
+            expectedCrc = in.readInt();
+            if (length <= 0 || length > 1 << 20) {
+                logger.warn("Ignoring corrupt tail of journal {}", file);
+                return null;
+            }
+            payload = new byte[length];
+            in.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != expectedCrc) {
+            logger.warn("Ignoring corrupt tail of journal {}", file);
+            return null;
+        }
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+        long lsn = record.readLong();
+        Type type = Type.values()[record.readByte()];
+        String refId = record.readUTF();
+        String rayId = record.readUTF();
+        String state = record.readUTF();
+        int transactionCount = record.readInt();
+        return new Entry(lsn, type, refId, rayId, state, transactionCount);
+    }
+
+    private static void writeState(DataOutputStream out, RefState state) throws IOException {
+        out.writeUTF(state.refId());
+        out.writeInt(state.transactionCount());
+        out.writeInt(state.remaining());
+        out.writeInt(state.successCount());
+        out.writeInt(state.failureCount());
+        out.writeInt(state.otherStatusCount());
+        out.writeInt(state.rays().size());
+        for (String[] ray : state.rays()) {
+            out.writeUTF(ray[0] == null ? "" : ray[0]);
+            out.writeUTF(ray[1] == null ? "" : ray[1]);
+        }
+    }
+
+    private static RefState readState(DataInputStream in) throws IOException {
+        String refId = in.readUTF();
+        int transactionCount = in.readInt();
+        int remaining = in.readInt();
+        int success = in.readInt();
+        int failure = in.readInt();
+        int other = in.readInt();
+        int rayCount = in.readInt();
+        List<String[]> rays = new ArrayList<>(rayCount);
+        for (int i = 0; i < rayCount; i++) {
+            rays.add(new String[]{in.readUTF(), in.readUTF()});
+        }
+        return new RefState(refId, transactionCount, remaining, success, failure, other, rays);
+    }
+
+    /**
+     * Writes what is still buffered and stops the writer. Call once nothing appends any more.
+     * The writer is not interrupted, so a write or fsync in progress is never cut short.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Roll(long firstLsn) {
+    }
+
+    // Runs once every record up to lsn is durable.
+    private record Action(long lsn, Runnable onDurable, Consumer<IOException> onFailed) {
+    }
+}
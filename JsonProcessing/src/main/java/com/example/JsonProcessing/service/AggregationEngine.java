@@ -0,0 +1,170 @@
+package com.example.JsonProcessing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-writer home of all per-key state. Keys are hashed onto a fixed number of shards; each
+ * shard owns a plain {@link HashMap} of its keys' state and one thread that is the only one to
+ * ever touch it. Work for a key is posted to its shard's mailbox and run there in posting order,
+ * so state needs no locks and every change to one key is serialized.
+ *
+ * <p>Mailboxes are lock-free multi-producer queues bounded by a permit count: when a shard falls
+ * behind, producers wait for room, which pushes back on the ingestion pipeline. A shard thread
+ * must never post to its own mailbox while it is full, so tasks should not post synchronously
+ * to their own shard.
+ *
+ * @param <S> the state kept per key.
+ */
+public class AggregationEngine<S> implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AggregationEngine.class);
+
+    /**
+     * Work run on a shard thread with exclusive access to the shard's state table.
+     */
+    @FunctionalInterface
+    public interface Task<S> {
+        void run(Map<String, S> table);
+    }
+
+    private final Shard<S>[] shards;
+
+    @SuppressWarnings("unchecked")
+    public AggregationEngine(String name, int shardCount, int mailboxCapacity) {
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard<>(name + "-" + i, mailboxCapacity);
+        }
+        for (Shard<S> shard : shards) {
+            shard.thread.start();
+        }
+        logger.info("Aggregation engine started: shards={}, mailboxCapacity={}", shardCount, mailboxCapacity);
+    }
+
+    /**
+     * Runs {@code task} on the shard owning {@code key}, after everything posted for that shard
+     * before it. Waits while the shard's mailbox is full.
+     */
+    public void execute(String key, Task<S> task) {
+        shards[shardOf(key)].post(task);
+    }
+
+    /** Index of the shard owning {@code key}, from 0 to {@link #shardCount()} - 1. */
+    public int shardOf(String key) {
+        return Math.floorMod(key.hashCode(), shards.length);
+    }
+
+    /**
+     * Posts {@code task} to every shard, in shard order.
+     */
+    public void executeOnAll(Task<S> task) {
+        for (Shard<S> shard : shards) {
+            shard.post(task);
+        }
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /** Keys with state, summed over shards; each shard's count is as of its last task. */
+    public int size() {
+        int size = 0;
+        for (Shard<S> shard : shards) {
+            size += shard.size;
+        }
+        return size;
+    }
+
+    /** Tasks waiting in the mailboxes. */
+    public int pendingCount() {
+        int pending = 0;
+        for (Shard<S> shard : shards) {
+            pending += shard.capacity - shard.permits.availablePermits();
+        }
+        return pending;
+    }
+
+    /**
+     * Runs what is already queued and stops the shard threads.
+     */
+    @Override
+    public void close() {
+        for (Shard<S> shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard<S> shard : shards) {
+            try {
+                shard.thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static final class Shard<S> {
+        private final Map<String, S> table = new HashMap<>();
+        private final Queue<Task<S>> mailbox = new ConcurrentLinkedQueue<>();
+        private final Semaphore permits;
+        private final int capacity;
+        private final Thread thread;
+        // Set by the shard thread just before it parks, so producers know to wake it.
+        private volatile boolean sleeping;
+        private volatile boolean running = true;
+        // Written by the shard thread only, read by gauges.
+        private volatile int size;
+
+        Shard(String name, int capacity) {
+            this.capacity = capacity;
+            this.permits = new Semaphore(capacity);
+            this.thread = new Thread(this::loop, name);
+            this.thread.setDaemon(true);
+        }
+
+        void post(Task<S> task) {
+            permits.acquireUninterruptibly();
+            mailbox.offer(task);
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void loop() {
+            while (true) {
+                Task<S> task = mailbox.poll();
+                if (task == null) {
+                    if (!running) {
+                        return;
+                    }
+                    // Re-check after announcing the park, so a task offered in between is not missed.
+                    sleeping = true;
+                    task = mailbox.poll();
+                    if (task == null) {
+                        LockSupport.park(this);
+                        sleeping = false;
+                        continue;
+                    }
+                    sleeping = false;
+                }
+                permits.release();
+                try {
+                    task.run(table);
+                } catch (RuntimeException e) {
+                    logger.error("Error in {} task", thread.getName(), e);
+                }
+                size = table.size();
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+
+import java.nio.file.Path;
+
+/**
+ * Takes processed files out of the inbox in the background.
+ */
+public interface Archiver extends AutoCloseable {
+
+    /**
+     * Told how archiving a file ended.
+     */
+    @FunctionalInterface
+    interface Callback {
+        /**
+         * @param archived true once the file is in the archive and has left the inbox; false if
+         *                 archiving it failed, or it disappeared before it could be archived.
+         */
+        void done(boolean archived);
+    }
+
+    /**
+     * Queues a processed file for archiving. May wait for room if the archiver is far behind.
+     *
+     * @param data   the event parsed from the file.
+     * @param onDone runs once the file has been archived, or archiving it has failed.
+     */
+    void archive(Path file, JsonData data, Callback onDone);
+
+    /** Number of files waiting to be archived. */
+    int pendingCount();
+
+    /** How long the oldest queued file has been waiting, in milliseconds. */
+    long lagMillis();
+
+    @Override
+    void close();
+}
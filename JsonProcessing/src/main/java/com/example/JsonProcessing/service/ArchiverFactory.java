@@ -0,0 +1,57 @@
+package com.example.JsonProcessing.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Builds the archiver selected by {@code processing.archive.mode}: FILES moves each processed
+ * file into a sharded folder tree, SEGMENTS packs them into compressed, indexed segment files.
+ */
+@Component
+public class ArchiverFactory {
+
+    public enum Mode {
+        FILES,
+        SEGMENTS
+    }
+
+    private final Mode mode;
+    private final int threads;
+    private final int queueCapacity;
+    private final int batchSize;
+    private final long lagWarnMillis;
+    private final SegmentArchiver.Settings segmentSettings;
+    private final IngestionMetrics metrics;
+
+    public ArchiverFactory(IngestionMetrics metrics,
+                           @Value("${processing.archive.mode:FILES}") Mode mode,
+                           @Value("${processing.archive.threads:2}") int threads,
+                           @Value("${processing.archive.queue-capacity:8192}") int queueCapacity,
+                           @Value("${processing.archive.batch-size:256}") int batchSize,
+                           @Value("${processing.archive.lag-warn-ms:10000}") long lagWarnMillis,
+                           @Value("${processing.archive.segment.max-bytes:268435456}") long maxSegmentBytes,
+                           @Value("${processing.archive.segment.max-age-ms:3600000}") long maxSegmentAgeMillis,
+                           @Value("${processing.archive.segment.block-bytes:262144}") int blockBytes,
+                           @Value("${processing.archive.segment.retention-bytes:10737418240}") long retentionBytes,
+                           @Value("${processing.archive.segment.retention-age-ms:604800000}") long retentionAgeMillis,
+                           @Value("${processing.archive.segment.fsync:true}") boolean fsync) {
+        this.metrics = metrics;
+        this.mode = mode;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.lagWarnMillis = lagWarnMillis;
+        this.segmentSettings = new SegmentArchiver.Settings(maxSegmentBytes, maxSegmentAgeMillis, blockBytes,
+                retentionBytes, retentionAgeMillis, fsync);
+    }
+
+    public Archiver create(Path archiveFolder) throws IOException {
+        return switch (mode) {
+            case FILES -> new FileArchiver(archiveFolder, threads, queueCapacity, batchSize, lagWarnMillis, metrics);
+            case SEGMENTS -> new SegmentArchiver(archiveFolder, segmentSettings, queueCapacity, batchSize, lagWarnMillis, metrics);
+        };
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.JsonProcessing.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads event files, choosing how by their size. Files smaller than the pooled buffer size are
+ * read into direct buffers taken from a pool, so reading them neither allocates nor copies
+ * through the JDK's temporary direct buffer. Files up to {@code mapThreshold} bytes get a
+ * one-off heap buffer. Larger files are memory-mapped and decoded straight from the mapping as
+ * they are parsed, so no copy of the whole file is ever made on the heap; the mapping goes away
+ * once the buffer is garbage collected.
+ */
+public class BufferPool {
+
+    /**
+     * Where the bytes of a file were read to.
+     */
+    public enum Source {
+        POOLED,
+        HEAP,
+        MAPPED
+    }
+
+    private final int bufferSize;
+    private final long mapThreshold;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(int bufferSize, long mapThreshold, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.mapThreshold = Math.max(mapThreshold, bufferSize);
+        this.maxPooled = maxPooled;
+    }
+
+    private ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /** Gives a pooled buffer back once its content is no longer needed; other content is left to the GC. */
+    public void release(Content content) {
+        if (content == null || content.source() != Source.POOLED) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(content.buffer().clear());
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Result of reading a file: a buffer whose remaining bytes are the file's content.
+     */
+    public record Content(ByteBuffer buffer, Source source) {
+        public int length() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Reads a whole file. The expected size is only a hint; a file that grew since it was
+     * measured is still read to the end.
+     */
+    public Content read(Path file, long expectedSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.max(expectedSize, channel.size());
+            if (size > mapThreshold) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("File of " + channel.size() + " bytes is too large to process");
+                }
+                return new Content(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), Source.MAPPED);
+            }
+            // One spare byte so reaching end of file never forces the buffer to grow.
+            boolean small = size < bufferSize;
+            ByteBuffer buffer = small ? acquire() : ByteBuffer.allocate(Math.toIntExact(size + 1));
+            try {
+                while (true) {
+                    if (!buffer.hasRemaining()) {
+                        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+                        grown.put(buffer.flip());
+                        if (small) {
+                            release(new Content(buffer, Source.POOLED));
+                            small = false;
+                        }
+                        buffer = grown;
+                    }
+                    if (channel.read(buffer) < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                if (small) {
+                    release(new Content(buffer, Source.POOLED));
+                }
+                throw e;
+            }
+            return new Content(buffer.flip(), small ? Source.POOLED : Source.HEAP);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.JsonProcessing.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.function.IntPredicate;
+
+/**
+ * Scale-out settings from {@code processing.cluster.*}. With the cluster enabled, several
+ * processes share one inbox and split refIds between them by shard (see
+ * {@link ShardLeaseManager}); state that belongs to one process (journal, archive, reports)
+ * moves into a per-node subfolder so processes never write the same files.
+ *
+ * <p>That subfolder is named after the node id, which must survive restarts or a restarted
+ * node would not find its journal. Without a configured {@code node-id}, the id is generated
+ * once and kept in the node id file, which the process holds locked so a second process
+ * started in the same directory fails instead of sharing the id.
+ */
+@Component
+public class ClusterFactory {
+
+    private final boolean enabled;
+    private final String nodeId;
+    private final int shards;
+    private final Path leaseFolder;
+    private final Path shardFolder;
+    private final long leaseTtlMillis;
+    private final long heartbeatMillis;
+    // Holds the node id file locked for the life of the process; null with a configured id.
+    private FileLock nodeIdLock;
+
+    public ClusterFactory(@Value("${processing.cluster.enabled:false}") boolean enabled,
+                          @Value("${processing.cluster.node-id:}") String nodeId,
+                          @Value("${processing.cluster.node-id-file:NODE_ID}") String nodeIdFile,
+                          @Value("${processing.cluster.shards:64}") int shards,
+                          @Value("${processing.cluster.lease-folder:LEASES}") String leaseFolder,
+                          @Value("${processing.cluster.shard-folder:SHARDS}") String shardFolder,
+                          @Value("${processing.cluster.lease-ttl-ms:10000}") long leaseTtlMillis,
+                          @Value("${processing.cluster.heartbeat-ms:2000}") long heartbeatMillis) {
+        this.enabled = enabled;
+        if (!nodeId.isEmpty()) {
+            this.nodeId = nodeId;
+        } else if (enabled) {
+            this.nodeId = persistedNodeId(Paths.get(nodeIdFile));
+        } else {
+            this.nodeId = defaultNodeId();
+        }
+        this.shards = shards;
+        this.leaseFolder = Paths.get(leaseFolder);
+        this.shardFolder = Paths.get(shardFolder);
+        this.leaseTtlMillis = leaseTtlMillis;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    // Unique per process; only used without a cluster, where no state is kept under the node id.
+    private static String defaultNodeId() {
+        return hostName() + "-" + ManagementFactory.getRuntimeMXBean().getPid();
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    /**
+     * Reads the node id from the file, or writes a new one into it on first start, and keeps the
+     * file locked.
+     */
+    private String persistedNodeId(Path file) {
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                nodeIdLock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                nodeIdLock = null;
+            }
+            if (nodeIdLock == null) {
+                channel.close();
+                throw new IllegalStateException("Node id file " + file.toAbsolutePath()
+                        + " is used by another process; set processing.cluster.node-id or node-id-file");
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // Read the whole file.
+            }
+            String id = new String(bytes.array(), StandardCharsets.UTF_8).trim();
+            if (id.isEmpty()) {
+                id = hostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+                channel.write(ByteBuffer.wrap((id + "\n").getBytes(StandardCharsets.UTF_8)), 0);
+                channel.force(true);
+            }
+            return id;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read or create node id file " + file.toAbsolutePath(), e);
+        }
+    }
+
+    public int shardOf(String refId) {
+        return ShardLeaseManager.shardOf(refId, shards);
+    }
+
+    /**
+     * Shard of an inbox file: that of the refId in its name when it follows the transport's
+     * naming, so the file goes straight to the node that aggregates the refId, otherwise one
+     * picked from the whole name.
+     */
+    public int shardOfFile(String fileName) {
+        String refId = FileTransport.refIdOf(fileName);
+        return shardOf(refId != null ? refId : fileName);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Folder of a shard's files once they have been routed to it. Must be on the same file
+     * system as the inbox, so routing is an atomic rename.
+     */
+    public Path shardFolder(int shard) {
+        return shardFolder.resolve(String.format("%04d", shard));
+    }
+
+    /** The given folder, or this node's subfolder of it when the cluster is enabled. */
+    public Path nodeFolder(Path folder) {
+        return enabled ? folder.resolve(nodeId) : folder;
+    }
+
+    /** Another node's subfolder of the given folder. */
+    public Path peerFolder(Path folder, String peerId) {
+        return folder.resolve(peerId);
+    }
+
+    /**
+     * @return the lease manager, not yet started, or null when the cluster is disabled.
+     */
+    public ShardLeaseManager create(IntPredicate idle, ShardLeaseManager.Listener listener) throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        return new ShardLeaseManager(leaseFolder, nodeId, shards, leaseTtlMillis, heartbeatMillis, idle, listener);
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.JsonProcessing.service;
+
+/**
+ * Outcome of one finished refId, handed to the {@link ReportSink}. The ray tracker and stage
+ * durations are no longer modified once their refId has finished, so the sink may read them
+ * from its own thread.
+ *
+ * @param complete whether every expected transaction was received.
+ * @param stages   durations of the upstream stages, or null when stage analytics are disabled.
+ */
+public record CompletionReport(String refId, int transactionCount, int successCount, int failureCount,
+                               int otherStatusCount, boolean complete, long finishedAtMillis, RayTracker rays,
+                               StageAnalytics.RefStages stages) {
+}
@@ -0,0 +1,334 @@
+package com.example.JsonProcessing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Index of events already processed, so duplicates are dropped before they cost a parse or an
+ * aggregation. Two kinds of key go in: a hash of a file's bytes, checked right after the file is
+ * read so a byte-identical retry is never parsed, and a hash of (refId, run, rayIdentifier,
+ * state), checked after parsing so an event sent again in a different file is not aggregated
+ * twice. A ray whose state changed gets a new key and still goes through as an update.
+ *
+ * <p>The run stands for one lifetime of a refId on this node, from its first event until it
+ * finishes, and is chosen at random when that lifetime starts. Ray keys therefore only match
+ * within the lifetime they were added in: upstream systems reuse refIds across runs, and a
+ * key that outlived its refId would drop the events of the next run with the same rayIds as
+ * duplicates. The run is not kept across restarts, so ray keys do not catch duplicates of
+ * events from before a restart; the recovered {@link RayTracker}s do.
+ *
+ * <p>Keys are 64-bit fingerprints kept in two generations of at most {@code capacity} keys each.
+ * When the current generation is full, the previous one is dropped, so the index forgets the
+ * oldest keys first and stays bounded. Each generation is an open-addressing table in a
+ * memory-mapped file, which survives a restart of the process, with a Bloom filter on the heap
+ * in front of it: most lookups are for new keys, and the filters answer those without touching
+ * the table or taking the index's lock. Filter bits are only ever set, so a lookup racing with
+ * an add can at worst miss the key being added, which only costs the work the index saves. A
+ * key is only added once its event is durable and its file has left the inbox. The index only
+ * ever saves work; a duplicate it misses is still caught per refId by the
+ * {@link RayTracker}.
+ */
+public class DedupIndex implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DedupIndex.class);
+
+    public enum Kind {
+        CONTENT,
+        RAY
+    }
+
+    private static final long CONTENT_SEED = 0x9E3779B97F4A7C15L;
+    private static final long RAY_SEED = 0xC2B2AE3D27D4EB4FL;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private final Path folder;
+    private final int capacity;
+    private final IngestionMetrics metrics;
+    // Replaced under the lock; read without it by the Bloom filter check.
+    private volatile Generation current;
+    private volatile Generation previous;
+    private final LongAdder contentChecks = new LongAdder();
+    private final LongAdder contentHits = new LongAdder();
+    private final LongAdder rayChecks = new LongAdder();
+    private final LongAdder rayHits = new LongAdder();
+
+    public DedupIndex(Path folder, int capacity, IngestionMetrics metrics) throws IOException {
+        this.folder = folder;
+        this.capacity = capacity;
+        this.metrics = metrics;
+        Files.createDirectories(folder);
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "dedup-*.idx")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Long.parseLong(name.substring("dedup-".length(), name.length() - ".idx".length())));
+            }
+        }
+        numbers.sort(Comparator.reverseOrder());
+        for (int i = 2; i < numbers.size(); i++) {
+            Files.deleteIfExists(file(numbers.get(i)));
+        }
+        if (numbers.size() > 1) {
+            previous = Generation.open(file(numbers.get(1)), numbers.get(1), capacity);
+        }
+        current = Generation.open(file(numbers.isEmpty() ? 0 : numbers.get(0)), numbers.isEmpty() ? 0 : numbers.get(0),
+                capacity);
+        metrics.gauge("dedup.keys", "Keys in the duplicate index", this, DedupIndex::size);
+        logger.info("Dedup index opened in {} with {} keys, capacity {} per generation", folder, size(), capacity);
+    }
+
+    private Path file(long number) {
+        return folder.resolve(String.format("dedup-%08d.idx", number));
+    }
+
+    /** Key of a file's content: the remaining bytes of the buffer, whose position is left unchanged. */
+    public static long contentKey(ByteBuffer buffer) {
+        int base = buffer.position();
+        int length = buffer.remaining();
+        // Words are hashed little-endian whatever the buffer's order, so keys stay the same across restarts.
+        boolean swap = buffer.order() == ByteOrder.BIG_ENDIAN;
+        long h = CONTENT_SEED ^ (length * 0x9E3779B97F4A7C15L);
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long word = buffer.getLong(base + i);
+            h = Long.rotateLeft(h ^ mix(swap ? Long.reverseBytes(word) : word), 27) * 5 + 0x52DCE729;
+        }
+        long tail = 0;
+        for (int shift = 0; i < length; i++, shift += 8) {
+            tail |= (buffer.get(base + i) & 0xFFL) << shift;
+        }
+        return fingerprint(finish(h ^ mix(tail)));
+    }
+
+    /** Key of one state of a ray in one run of its refId; null parts are allowed. */
+    public static long rayKey(String refId, long run, String rayId, String state) {
+        long h = RAY_SEED;
+        h = hash(h, refId);
+        h = (h ^ run) * 0x100000001B3L;
+        h = hash(h, rayId);
+        h = hash(h, state);
+        return fingerprint(finish(h));
+    }
+
+    private static long hash(long h, String s) {
+        if (s == null) {
+            return (h ^ 0xFF) * 0x100000001B3L;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001B3L;
+        }
+        // The length separates the parts, so ("ab", "c") and ("a", "bc") differ.
+        return (h ^ s.length()) * 0x9E3779B97F4A7C15L;
+    }
+
+    private static long mix(long k) {
+        return Long.rotateLeft(k * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+    }
+
+    // Final avalanche of MurmurHash3.
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    // Zero marks an empty table slot, so it is never a key.
+    private static long fingerprint(long h) {
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Whether the key was seen before, counting the lookup towards the hit rate of its kind.
+     */
+    public boolean contains(Kind kind, long key) {
+        Generation current = this.current;
+        Generation previous = this.previous;
+        boolean hit = (current.mightContain(key) || (previous != null && previous.mightContain(key)))
+                && containsInTables(key);
+        (kind == Kind.CONTENT ? contentChecks : rayChecks).increment();
+        if (hit) {
+            (kind == Kind.CONTENT ? contentHits : rayHits).increment();
+        }
+        metrics.dedupChecked(kind, hit);
+        return hit;
+    }
+
+    private synchronized boolean containsInTables(long key) {
+        return current.contains(key) || (previous != null && previous.contains(key));
+    }
+
+    /** Adds the keys of a processed event; a zero key is skipped. */
+    public synchronized void add(long contentKey, long rayKey) {
+        try {
+            if (contentKey != 0) {
+                add(contentKey);
+            }
+            if (rayKey != 0) {
+                add(rayKey);
+            }
+        } catch (IOException e) {
+            logger.error("Error rolling the dedup index in {}", folder, e);
+        }
+    }
+
+    private void add(long key) throws IOException {
+        if (current.size >= capacity) {
+            if (previous != null) {
+                previous.delete();
+            }
+            previous = current;
+            current = Generation.open(file(previous.number + 1), previous.number + 1, capacity);
+            logger.info("Dedup index started generation {}, forgetting keys older than {} events",
+                    current.number, capacity);
+        }
+        current.add(key);
+    }
+
+    public synchronized int size() {
+        return current.size + (previous == null ? 0 : previous.size);
+    }
+
+    /** Writes the tables out and logs how often each kind of duplicate was caught. */
+    @Override
+    public synchronized void close() {
+        logger.info("Dedup index: {} of {} files were content duplicates, {} of {} events were ray duplicates",
+                contentHits, contentChecks, rayHits, rayChecks);
+        current.close();
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * One generation: a table of {@code slots} longs, at most half full, mapped from its file,
+     * and a Bloom filter over the same keys rebuilt from the table when it is opened.
+     */
+    private static final class Generation {
+        private final long number;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer table;
+        private final int mask;
+        private final long[] bloom;
+        private final int bloomMask;
+        private int size;
+
+        private Generation(long number, Path file, FileChannel channel, MappedByteBuffer table, int slots, int bloomBits) {
+            this.number = number;
+            this.file = file;
+            this.channel = channel;
+            this.table = table;
+            this.mask = slots - 1;
+            this.bloom = new long[bloomBits / 64];
+            this.bloomMask = bloomBits - 1;
+        }
+
+        static Generation open(Path file, long number, int capacity) throws IOException {
+            int slots = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+            if (Files.exists(file) && Files.size(file) != (long) slots * Long.BYTES) {
+                // Written with another capacity; starting over only costs some missed duplicates.
+                Files.delete(file);
+            }
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * Long.BYTES);
+            int bloomBits = Math.max(64, Integer.highestOneBit(Math.max(capacity, 1) * BLOOM_BITS_PER_KEY - 1) << 1);
+            Generation generation = new Generation(number, file, channel, table, slots, bloomBits);
+            for (int slot = 0; slot < slots; slot++) {
+                long key = table.getLong(slot * Long.BYTES);
+                if (key != 0) {
+                    generation.size++;
+                    generation.addToBloom(key);
+                }
+            }
+            return generation;
+        }
+
+        boolean contains(long key) {
+            if (!mightContain(key)) {
+                return false;
+            }
+            for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+                long stored = table.getLong(slot * Long.BYTES);
+                if (stored == key) {
+                    return true;
+                }
+                if (stored == 0) {
+                    return false;
+                }
+            }
+        }
+
+        void add(long key) {
+            for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+                long stored = table.getLong(slot * Long.BYTES);
+                if (stored == key) {
+                    return;
+                }
+                if (stored == 0) {
+                    table.putLong(slot * Long.BYTES, key);
+                    size++;
+                    addToBloom(key);
+                    return;
+                }
+            }
+        }
+
+        private int slotOf(long key) {
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+
+        // Double hashing from the two halves of the already well mixed key.
+        boolean mightContain(long key) {
+            int h1 = (int) key;
+            int h2 = (int) (key >>> 32) | 1;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = (h1 + i * h2) & bloomMask;
+                if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void addToBloom(long key) {
+            int h1 = (int) key;
+            int h2 = (int) (key >>> 32) | 1;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = (h1 + i * h2) & bloomMask;
+                bloom[bit >>> 6] |= 1L << bit;
+            }
+        }
+
+        void close() {
+            try {
+                table.force();
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Could not close dedup index file {}: {}", file, e.getMessage());
+            }
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the raw bytes of an event file into {@link JsonData}. Depending on the configured field
+ * set the whole document is bound with Gson, or only the tracking and job fields needed for
+ * aggregation, and optionally the processStageInfo audit entries of each page, are pulled out
+ * with a streaming {@link JsonReader} and everything else is skipped.
+ */
+@Component
+public class EventParser {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventParser.class);
+
+    /**
+     * Which parts of an event file are materialized.
+     */
+    public enum FieldSet {
+        /** The full document including transactionInfo, bound with Gson. */
+        ALL,
+        /**
+         * trackingInfo and jobInfo, plus the processStageInfo of every transactionInfo entry for
+         * {@link StageAnalytics}; everything else in transactionInfo is skipped.
+         */
+        STAGES,
+        /** Only trackingInfo and jobInfo; notificationInfo and transactionInfo are skipped. */
+        TRACKING
+    }
+
+    private final Gson gson = new Gson();
+    private final FieldSet fieldSet;
+
+    public EventParser(@Value("${processing.parse.field-set:STAGES}") FieldSet fieldSet) {
+        this.fieldSet = fieldSet;
+        logger.info("Parsing event files with field set {}", fieldSet);
+    }
+
+    public FieldSet getFieldSet() {
+        return fieldSet;
+    }
+
+    /**
+     * Parses the first {@code length} bytes of {@code content}.
+     *
+     * @return the parsed event, or null if the document is empty.
+     * @throws IOException if the document is malformed or truncated.
+     */
+    public JsonData parse(byte[] content, int length) throws IOException {
+        return parse(ByteBuffer.wrap(content, 0, length));
+    }
+
+    /**
+     * Parses the remaining bytes of {@code content}, which may be a direct or memory-mapped
+     * buffer. The bytes are decoded straight into the parser's buffer as it reads them, so the
+     * document is never copied as a whole; the buffer's position is left unchanged.
+     */
+    public JsonData parse(ByteBuffer content) throws IOException {
+        return parse(new ByteBufferReader(content.duplicate()));
+    }
+
+    public JsonData parse(Reader reader) throws IOException {
+        if (fieldSet == FieldSet.ALL) {
+            return gson.fromJson(reader, JsonData.class);
+        }
+        JsonReader in = new JsonReader(reader);
+        in.setLenient(true);
+        try {
+            if (in.peek() == JsonToken.END_DOCUMENT) {
+                return null;
+            }
+        } catch (EOFException e) {
+            // Nothing but whitespace, which Gson reports as end of input rather than of document.
+            return null;
+        }
+        JsonData data = new JsonData();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "trackingInfo" -> data.setTrackingInfo(readTrackingInfo(in));
+                case "jobInfo" -> data.setJobInfo(readJobInfo(in));
+                case "transactionInfo" -> {
+                    if (fieldSet == FieldSet.STAGES) {
+                        data.setTransactionInfo(readTransactionInfo(in));
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        // Consume the rest so a truncated file fails here instead of being processed.
+        if (in.peek() != JsonToken.END_DOCUMENT) {
+            throw new IOException("Unexpected content after event document");
+        }
+        return data;
+    }
+
+    private JsonData.TrackingInfo readTrackingInfo(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        JsonData.TrackingInfo trackingInfo = new JsonData.TrackingInfo();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "rayIdentifier" -> trackingInfo.setRayIdentifier(nextString(in));
+                case "sourceTypeIdentifier" -> trackingInfo.setSourceTypeIdentifier(nextString(in));
+                case "state" -> trackingInfo.setState(nextString(in));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return trackingInfo;
+    }
+
+    private JsonData.JobInfo readJobInfo(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        JsonData.JobInfo jobInfo = new JsonData.JobInfo();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "identifier" -> jobInfo.setIdentifier(nextString(in));
+                case "referenceIdentifier" -> jobInfo.setReferenceIdentifier(nextString(in));
+                case "definition" -> jobInfo.setDefinition(nextString(in));
+                case "transactionCount" -> jobInfo.setTransactionCount(skipNull(in) ? 0 : in.nextInt());
+                case "state" -> jobInfo.setState(nextString(in));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return jobInfo;
+    }
+
+    // Only the processStageInfo of each entry is kept.
+    private List<JsonData.TransactionInfo> readTransactionInfo(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        List<JsonData.TransactionInfo> transactions = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            if (skipNull(in)) {
+                continue;
+            }
+            JsonData.TransactionInfo transaction = new JsonData.TransactionInfo();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("processStageInfo")) {
+                    transaction.setProcessStageInfo(readProcessStageInfo(in));
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            transactions.add(transaction);
+        }
+        in.endArray();
+        return transactions;
+    }
+
+    private List<JsonData.ProcessStageInfo> readProcessStageInfo(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        List<JsonData.ProcessStageInfo> stages = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            if (skipNull(in)) {
+                continue;
+            }
+            JsonData.ProcessStageInfo stage = new JsonData.ProcessStageInfo();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "processStageName" -> stage.setProcessStageName(nextString(in));
+                    case "processStatus" -> stage.setProcessStatus(nextString(in));
+                    case "auditTime" -> stage.setAuditTime(nextString(in));
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            stages.add(stage);
+        }
+        in.endArray();
+        return stages;
+    }
+
+    private static String nextString(JsonReader in) throws IOException {
+        return skipNull(in) ? null : in.nextString();
+    }
+
+    private static boolean skipNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decodes UTF-8 from a buffer straight into the caller's char array, consuming the buffer.
+     * The decoder is only fast on array-backed buffers, so a direct or mapped buffer is copied
+     * through a small heap buffer a block at a time. Malformed input is replaced, as
+     * {@link java.io.InputStreamReader} does.
+     */
+    static final class ByteBufferReader extends Reader {
+        private static final int STAGING_SIZE = 8192;
+
+        private final ByteBuffer source;
+        // What the decoder reads from: the source itself if it has an array, else a block copied from it.
+        private final ByteBuffer in;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Second half of a surrogate pair that did not fit into the last read, or -1.
+        private int pending = -1;
+
+        ByteBufferReader(ByteBuffer source) {
+            this.source = source;
+            this.in = source.hasArray() ? source : ByteBuffer.allocate(Math.min(source.remaining(), STAGING_SIZE)).flip();
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int n = 0;
+            if (pending >= 0) {
+                chars[offset] = (char) pending;
+                pending = -1;
+                n = 1;
+            }
+            if (length - n == 1) {
+                // A supplementary character needs two chars, so decode one through a spare pair.
+                CharBuffer pair = CharBuffer.allocate(2);
+                decode(pair);
+                if (pair.position() > 0) {
+                    chars[offset + n++] = pair.get(0);
+                    if (pair.position() > 1) {
+                        pending = pair.get(1);
+                    }
+                }
+            } else if (length > n) {
+                CharBuffer out = CharBuffer.wrap(chars, offset + n, length - n);
+                decode(out);
+                n = out.position() - offset;
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        private void decode(CharBuffer out) {
+            while (true) {
+                boolean staged = in != source;
+                // Less than a full UTF-8 sequence left: move it to the front and copy in the next block.
+                if (staged && in.remaining() < 4 && source.hasRemaining()) {
+                    in.compact();
+                    int count = Math.min(in.remaining(), source.remaining());
+                    in.put(in.position(), source, source.position(), count);
+                    in.position(in.position() + count);
+                    source.position(source.position() + count);
+                    in.flip();
+                }
+                boolean endOfInput = !staged || !source.hasRemaining();
+                if (decoder.decode(in, out, endOfInput).isOverflow() || endOfInput) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * How an event gets from a producer to aggregation. FILE writes it into the inbox, where the
+ * watcher picks it up and reads, parses and archives it like any other file. DIRECT hands the
+ * already parsed event straight to aggregation in this process.
+ */
+public interface EventTransport {
+
+    enum Mode {
+        FILE,
+        DIRECT
+    }
+
+    /**
+     * Sends one event.
+     *
+     * @return completes once the event is accepted by the transport, or exceptionally if it
+     * was rejected or could not be stored.
+     */
+    CompletableFuture<Void> send(JsonData event);
+}
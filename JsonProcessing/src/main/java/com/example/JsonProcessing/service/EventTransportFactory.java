@@ -0,0 +1,36 @@
+package com.example.JsonProcessing.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Builds the transport selected by {@code processing.transport.mode} for events posted to this
+ * process. DIRECT skips the inbox entirely; with the journal enabled it is as crash safe as the
+ * file path, because an event is only acknowledged once it is durable in the journal.
+ */
+@Component
+public class EventTransportFactory {
+
+    private final EventTransport.Mode mode;
+    private final String inboxFolder;
+
+    public EventTransportFactory(@Value("${processing.transport.mode:FILE}") EventTransport.Mode mode,
+                                 @Value("${processing.inbox-folder:JSON}") String inboxFolder) {
+        this.mode = mode;
+        this.inboxFolder = inboxFolder;
+    }
+
+    public EventTransport.Mode getMode() {
+        return mode;
+    }
+
+    public EventTransport create(JsonProcessingService service) throws IOException {
+        return switch (mode) {
+            case FILE -> new FileTransport(Paths.get(inboxFolder));
+            case DIRECT -> service::ingest;
+        };
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves processed files into the archive in the background. Moves are queued by the ingestion
+ * pipeline and drained in batches by the archiver threads. The archive is sharded as
+ * {@code <root>/<yyyy-MM-dd>/<HH>/<refId bucket>/<file>}, so a directory only collects the files
+ * of one hour. Directories already created in the current hour are remembered and not checked
+ * again; those of past hours are forgotten once the hour has passed.
+ */
+public class FileArchiver implements Archiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileArchiver.class);
+
+    private final Path archiveRoot;
+    private final int batchSize;
+    private final long lagWarnMillis;
+    private final BlockingQueue<ArchiveTask> queue;
+    private final ExecutorService workers;
+    private final Set<Path> createdDirectories = ConcurrentHashMap.newKeySet();
+    // Hour shard the remembered directories belong to.
+    private volatile String createdHour = "";
+    private final AtomicLong archivedCount = new AtomicLong();
+    private final IngestionMetrics metrics;
+    private volatile boolean running = true;
+
+    public FileArchiver(Path archiveRoot, int threads, int queueCapacity, int batchSize, long lagWarnMillis,
+                        IngestionMetrics metrics) {
+        this.archiveRoot = archiveRoot;
+        this.metrics = metrics;
+        this.batchSize = batchSize;
+        this.lagWarnMillis = lagWarnMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int counter;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "archiver-" + ++counter);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::drain);
+        }
+    }
+
+    @Override
+    public void archive(Path file, JsonData data, Callback onDone) {
+        if (!running) {
+            onDone.done(false);
+            return;
+        }
+        ArchiveTask task = new ArchiveTask(file, data.getJobInfo().getReferenceIdentifier(), onDone, System.nanoTime());
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            onDone.done(false);
+            return;
+        }
+        // Closed meanwhile: the workers may be gone, so fail the task unless close() already has.
+        if (!running && queue.remove(task)) {
+            onDone.done(false);
+        }
+    }
+
+    @Override
+    public int pendingCount() {
+        return queue.size();
+    }
+
+    @Override
+    public long lagMillis() {
+        ArchiveTask oldest = queue.peek();
+        return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedNanos);
+    }
+
+    public long archivedCount() {
+        return archivedCount.get();
+    }
+
+    private void drain() {
+        List<ArchiveTask> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                ArchiveTask first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            long lag = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batch.get(0).enqueuedNanos);
+            if (lag > lagWarnMillis) {
+                logger.warn("Archiver is {} ms behind with {} files still queued", lag, queue.size());
+            }
+            String hourShard = hourShard();
+            if (!hourShard.equals(createdHour)) {
+                forgetDirectoriesBefore(hourShard);
+            }
+            for (ArchiveTask task : batch) {
+                boolean archived = false;
+                try {
+                    archived = move(task, hourShard);
+                } finally {
+                    task.onDone.done(archived);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    // Returns whether the file was moved into the archive.
+    private boolean move(ArchiveTask task, String hourShard) {
+        long start = System.nanoTime();
+        try {
+            Path folder = archiveRoot.resolve(hourShard).resolve(refIdShard(task.refId));
+            if (!createdDirectories.contains(folder)) {
+                Files.createDirectories(folder);
+                createdDirectories.add(folder);
+            }
+            Path targetPath = folder.resolve(task.file.getFileName());
+            Files.move(task.file, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            archivedCount.incrementAndGet();
+            metrics.recordArchiveMove(System.nanoTime() - start);
+            logger.info("Archived file: {} to {}", task.file, targetPath);
+            return true;
+        } catch (NoSuchFileException e) {
+            logger.warn("File {} disappeared before it could be archived", task.file);
+        } catch (IOException e) {
+            logger.error("Error archiving file: " + task.file, e);
+        }
+        return false;
+    }
+
+    private synchronized void forgetDirectoriesBefore(String hourShard) {
+        if (hourShard.equals(createdHour)) {
+            return;
+        }
+        Path hour = archiveRoot.resolve(hourShard);
+        createdDirectories.removeIf(folder -> !folder.startsWith(hour));
+        createdHour = hourShard;
+    }
+
+    private static String hourShard() {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        return String.format("%04d-%02d-%02d/%02d", now.getYear(), now.getMonthValue(), now.getDayOfMonth(), now.getHour());
+    }
+
+    // Two hex digits of the refId hash, spreading the refIds of an hour over 256 directories. All
+    // files of one refId share a directory, so a busy job still fills its own, for an hour at most.
+    private static String refIdShard(String refId) {
+        return String.format("%02x", refId.hashCode() & 0xff);
+    }
+
+    /**
+     * Stops taking files and lets the workers finish the moves already queued. The workers are
+     * not interrupted, so no move is cut short; any move still queued after waiting for them is
+     * reported as failed, leaving its file in the inbox.
+     */
+    @Override
+    public void close() {
+        running = false;
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Archiver did not finish the {} queued moves in time", queue.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ArchiveTask task; (task = queue.poll()) != null; ) {
+            task.onDone.done(false);
+        }
+    }
+
+    private record ArchiveTask(Path file, String refId, Callback onDone, long enqueuedNanos) {
+    }
+}
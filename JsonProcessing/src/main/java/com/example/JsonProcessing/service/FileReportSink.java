@@ -0,0 +1,340 @@
+package com.example.JsonProcessing.service;
+
+import com.google.gson.stream.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes one record per finished refId to a daily report file, {@code completions-<yyyy-MM-dd>.jsonl}
+ * or {@code .csv}, optionally gzip-compressed. Reports are queued by the finishing thread and
+ * written in batches by a single writer thread that flushes once per batch; when the queue is
+ * full, {@link #submit} waits. Sorting the rays of a report and summarizing its stage durations
+ * also happen on the writer thread.
+ *
+ * <p>Reports are formatted before anything is written, so a report that cannot be formatted is
+ * dropped on its own. A batch whose write fails is written again to a freshly opened file, since
+ * the failed writer may have stopped half-way through it; the file can then hold a torn line
+ * and reports of the batch twice. Batches still failing after the last attempt are dropped.
+ * Dropped reports, including those submitted while the sink closes, are counted in
+ * {@link #lostCount()}.
+ *
+ * <p>A compressed file that is reopened after a restart gets a new gzip member appended, which
+ * standard gzip tools read as one continuous stream.
+ */
+public class FileReportSink implements ReportSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileReportSink.class);
+    private static final String CSV_HEADER = "refId,transactionCount,received,success,failure,other,complete,finishedAt,rays,stages";
+    private static final int WRITE_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    public enum Format {
+        JSONL,
+        CSV
+    }
+
+    private final Path folder;
+    private final Format format;
+    private final boolean gzip;
+    private final int batchSize;
+    private final BlockingQueue<CompletionReport> queue;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private final AtomicLong lost = new AtomicLong();
+    private LocalDate currentDay;
+    private Writer out;
+
+    public FileReportSink(Path folder, Format format, boolean gzip, int queueCapacity, int batchSize) throws IOException {
+        this.folder = folder;
+        this.format = format;
+        this.gzip = gzip;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        Files.createDirectories(folder);
+        this.writerThread = new Thread(this::drain, "completion-report");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @Override
+    public void submit(CompletionReport report) {
+        if (!running) {
+            logger.warn("Report sink is closed, dropping report for refId {}", report.refId());
+            lost.incrementAndGet();
+            return;
+        }
+        try {
+            queue.put(report);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while queueing report for refId {}", report.refId());
+            lost.incrementAndGet();
+            return;
+        }
+        // Closed meanwhile: the writer may already have exited, so drop it unless it was taken.
+        if (!running && queue.remove(report)) {
+            logger.warn("Report sink closed while queueing, dropping report for refId {}", report.refId());
+            lost.incrementAndGet();
+        }
+    }
+
+    @Override
+    public int pendingCount() {
+        return queue.size();
+    }
+
+    @Override
+    public long lostCount() {
+        return lost.get();
+    }
+
+    private void drain() {
+        List<CompletionReport> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                CompletionReport first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                // Interrupted by close(): fall through and write what is left.
+                running = false;
+                continue;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            write(render(batch));
+            batch.clear();
+        }
+        closeFile();
+    }
+
+    // Formats each report on its own, so one that cannot be formatted is dropped without the others.
+    private List<String> render(List<CompletionReport> batch) {
+        List<String> records = new ArrayList<>(batch.size());
+        StringWriter record = new StringWriter(256);
+        for (CompletionReport report : batch) {
+            record.getBuffer().setLength(0);
+            try {
+                writeRecord(record, format, report);
+                records.add(record.toString());
+            } catch (IOException | RuntimeException e) {
+                logger.error("Dropping completion report for refId {} that could not be formatted", report.refId(), e);
+                lost.incrementAndGet();
+            }
+        }
+        return records;
+    }
+
+    private void write(List<String> records) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                writeRecords(records);
+                return;
+            } catch (IOException e) {
+                // The failed writer may hold part of the batch; start over on a freshly opened file.
+                closeFile();
+                if (attempt >= WRITE_ATTEMPTS || !running) {
+                    logger.error("Dropping {} completion reports after {} failed attempts", records.size(), attempt, e);
+                    lost.addAndGet(records.size());
+                    return;
+                }
+                logger.error("Error writing {} completion reports on attempt {}, reopening the file", records.size(),
+                        attempt, e);
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                // Interrupted by close(): one last attempt right away.
+                running = false;
+            }
+        }
+    }
+
+    private void writeRecords(List<String> records) throws IOException {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        if (out == null || !today.equals(currentDay)) {
+            closeFile();
+            openFile(today);
+        }
+        for (String record : records) {
+            out.write(record);
+        }
+        out.flush();
+    }
+
+    private void openFile(LocalDate day) throws IOException {
+        Path file = folder.resolve("completions-" + day + (format == Format.JSONL ? ".jsonl" : ".csv") + (gzip ? ".gz" : ""));
+        boolean isNew = !Files.exists(file) || Files.size(file) == 0;
+        OutputStream stream = new FileOutputStream(file.toFile(), true);
+        if (gzip) {
+            // Sync flush, so every batch is readable from the file as soon as it is written.
+            stream = new GZIPOutputStream(stream, 64 * 1024, true);
+        }
+        out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+        currentDay = day;
+        if (isNew && format == Format.CSV) {
+            out.write(CSV_HEADER);
+            out.write('\n');
+        }
+        logger.info("Writing completion reports to {}", file);
+    }
+
+    private void closeFile() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.error("Error closing completion report file", e);
+        }
+        out = null;
+    }
+
+    /**
+     * Writes one report as a line in the given format.
+     */
+    static void writeRecord(Writer out, Format format, CompletionReport report) throws IOException {
+        if (format == Format.JSONL) {
+            writeJson(out, report);
+        } else {
+            writeCsv(out, report);
+        }
+    }
+
+    private static void writeJson(Writer out, CompletionReport report) throws IOException {
+        // Not closed: that would close the underlying file.
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        json.name("refId").value(report.refId());
+        json.name("transactionCount").value(report.transactionCount());
+        json.name("received").value(report.rays().size());
+        json.name("success").value(report.successCount());
+        json.name("failure").value(report.failureCount());
+        json.name("other").value(report.otherStatusCount());
+        json.name("complete").value(report.complete());
+        json.name("finishedAt").value(Instant.ofEpochMilli(report.finishedAtMillis()).toString());
+        json.name("rays").beginArray();
+        RayTracker rays = report.rays();
+        for (int ordinal : rays.sortedOrdinals()) {
+            json.beginObject();
+            json.name("rayId").value(rays.rayIdAt(ordinal));
+            json.name("state").value(rays.stateAt(ordinal));
+            json.endObject();
+        }
+        json.endArray();
+        if (report.stages() != null) {
+            StageAnalytics.Snapshot stages = report.stages().snapshot();
+            json.name("stageDurationsMs").beginObject();
+            writeSummary(json.name("pages"), stages.pages());
+            json.name("stages").beginObject();
+            for (Map.Entry<String, LatencySketch.Summary> stage : stages.stages().entrySet()) {
+                writeSummary(json.name(stage.getKey()), stage.getValue());
+            }
+            json.endObject();
+            json.endObject();
+        }
+        json.endObject();
+        out.write('\n');
+    }
+
+    private static void writeSummary(JsonWriter json, LatencySketch.Summary summary) throws IOException {
+        json.beginObject();
+        json.name("count").value(summary.count());
+        json.name("p50").value(summary.p50());
+        json.name("p99").value(summary.p99());
+        json.name("max").value(summary.max());
+        json.endObject();
+    }
+
+    // Rays go into a single column as rayId:state pairs separated by ';'.
+    private static void writeCsv(Writer out, CompletionReport report) throws IOException {
+        out.write(csvField(report.refId()));
+        out.write(',');
+        out.write(Integer.toString(report.transactionCount()));
+        out.write(',');
+        out.write(Integer.toString(report.rays().size()));
+        out.write(',');
+        out.write(Integer.toString(report.successCount()));
+        out.write(',');
+        out.write(Integer.toString(report.failureCount()));
+        out.write(',');
+        out.write(Integer.toString(report.otherStatusCount()));
+        out.write(',');
+        out.write(Boolean.toString(report.complete()));
+        out.write(',');
+        out.write(Instant.ofEpochMilli(report.finishedAtMillis()).toString());
+        out.write(',');
+        RayTracker rays = report.rays();
+        StringBuilder pairs = new StringBuilder(rays.size() * 24);
+        for (int ordinal : rays.sortedOrdinals()) {
+            if (!pairs.isEmpty()) {
+                pairs.append(';');
+            }
+            pairs.append(rays.rayIdAt(ordinal)).append(':').append(rays.stateAt(ordinal));
+        }
+        out.write(csvField(pairs.toString()));
+        out.write(',');
+        if (report.stages() != null) {
+            // Durations in ms as name:p50/p99/max separated by ';', the pages first.
+            StageAnalytics.Snapshot stages = report.stages().snapshot();
+            StringBuilder durations = new StringBuilder(64 + stages.stages().size() * 64);
+            appendSummary(durations, "pages", stages.pages());
+            for (Map.Entry<String, LatencySketch.Summary> stage : stages.stages().entrySet()) {
+                appendSummary(durations.append(';'), stage.getKey(), stage.getValue());
+            }
+            out.write(csvField(durations.toString()));
+        }
+        out.write('\n');
+    }
+
+    private static void appendSummary(StringBuilder out, String name, LatencySketch.Summary summary) {
+        out.append(name).append(':').append(summary.p50()).append('/').append(summary.p99()).append('/')
+                .append(summary.max());
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            logger.warn("Completion report writer did not finish, {} reports not written", queue.size());
+            writerThread.interrupt();
+        }
+        for (CompletionReport report; (report = queue.poll()) != null; ) {
+            logger.warn("Report sink closed, dropping report for refId {}", report.refId());
+            lost.incrementAndGet();
+        }
+    }
+}
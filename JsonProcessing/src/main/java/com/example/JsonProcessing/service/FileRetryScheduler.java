@@ -0,0 +1,138 @@
+package com.example.JsonProcessing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parks files that are not ready to be processed yet (still being written, or unparseable) and
+ * hands them back after an exponential backoff, without holding any pipeline thread while they
+ * wait. Files that are still failing after the last attempt are moved to a quarantine folder.
+ */
+public class FileRetryScheduler implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileRetryScheduler.class);
+
+    /**
+     * How a parked file is judged to be completely written.
+     */
+    public enum StabilityMode {
+        /** Size and modification time have not changed since the previous attempt. */
+        QUIESCENCE,
+        /** An exclusive lock on the file can be taken, i.e. no writer holds one. */
+        LOCK
+    }
+
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final IngestionMetrics metrics;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+    private final StabilityMode stabilityMode;
+    private final Path quarantineFolder;
+
+    public FileRetryScheduler(long initialDelayMillis, long maxDelayMillis, int maxAttempts,
+                              StabilityMode stabilityMode, Path quarantineFolder, IngestionMetrics metrics) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxAttempts = maxAttempts;
+        this.stabilityMode = stabilityMode;
+        this.quarantineFolder = quarantineFolder;
+        this.metrics = metrics;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "ingest-retry");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Snapshot of a file's size and modification time taken just before an attempt.
+     */
+    public record FileState(long size, long lastModifiedMillis) {
+        static FileState of(BasicFileAttributes attributes) {
+            return new FileState(attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+    }
+
+    /**
+     * Decides whether a file can be read now. A first attempt is optimistic so healthy files
+     * never wait; only an empty file is held back. Later attempts require the file to be stable.
+     *
+     * @param previous the state seen on the previous attempt, or null on the first attempt.
+     */
+    public boolean isReady(Path file, FileState current, FileState previous) {
+        if (current.size() == 0) {
+            return false;
+        }
+        if (previous == null) {
+            return true;
+        }
+        return switch (stabilityMode) {
+            case QUIESCENCE -> current.equals(previous);
+            case LOCK -> canLockExclusively(file);
+        };
+    }
+
+    private boolean canLockExclusively(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock != null;
+        } catch (OverlappingFileLockException | IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Schedules another attempt for a file after its backoff delay, or quarantines it once the
+     * last attempt has been used.
+     *
+     * @param attempt the attempt that just failed, starting at 1.
+     * @param retry   resubmits the file; runs on the scheduler thread.
+     * @return false if the file was quarantined instead of parked.
+     */
+    public boolean park(Path file, int attempt, Runnable retry) {
+        if (attempt >= maxAttempts) {
+            logger.error("Failed to process file {} after {} attempts.", file, attempt);
+            quarantine(file);
+            metrics.quarantined();
+            return false;
+        }
+        long delay = Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt - 1, 30));
+        logger.info("File {} is not ready (attempt {}), retrying in {} ms", file, attempt, delay);
+        scheduler.schedule(retry, delay, TimeUnit.MILLISECONDS);
+        metrics.retried();
+        return true;
+    }
+
+    /** Number of parked files waiting for their next attempt. */
+    public int pendingCount() {
+        return scheduler.getQueue().size();
+    }
+
+    public void quarantine(Path file) {
+        try {
+            Files.createDirectories(quarantineFolder);
+            Path target = quarantineFolder.resolve(file.getFileName());
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            logger.warn("Quarantined file: {} to {}", file, target);
+        } catch (NoSuchFileException e) {
+            logger.warn("File {} disappeared before it could be quarantined", file);
+        } catch (IOException e) {
+            logger.error("Error quarantining file: " + file, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
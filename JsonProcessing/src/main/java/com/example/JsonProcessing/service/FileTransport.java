@@ -0,0 +1,98 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes each event into the inbox as its own file, the same way an external producer does.
+ * The file is written under a hidden temp name and renamed into place, so the watcher never
+ * sees it half-written. An event is accepted once its file is in the inbox.
+ *
+ * <p>Files are named {@code <refId>~<millis>_<sequence>.json}, the convention shared with the
+ * generator, so the refId is known from the name before the file is read. The {@code ~} marks
+ * the convention: older producers name files {@code <refId>_<millis>.json}, and refIds such as
+ * {@code Dev_JobId_001} contain underscores and digits, so without it such a name would seem to
+ * carry a shorter refId.
+ */
+public class FileTransport implements EventTransport {
+
+    static final char REF_ID_MARKER = '~';
+
+    private final Gson gson = new Gson();
+    private final Path inbox;
+    // Keeps file names unique when many events for one refId arrive in the same millisecond.
+    private final AtomicLong sequence = new AtomicLong();
+
+    public FileTransport(Path inbox) throws IOException {
+        this.inbox = inbox;
+        Files.createDirectories(inbox);
+    }
+
+    /**
+     * The refId of a file named {@code <refId>~<number>_<number>.json}, or null if the name does
+     * not follow that convention exactly, in which case the refId is only known once the file
+     * has been parsed.
+     */
+    public static String refIdOf(String fileName) {
+        if (!fileName.endsWith(".json")) {
+            return null;
+        }
+        int last = fileName.lastIndexOf('_');
+        int marker = last > 0 ? fileName.lastIndexOf(REF_ID_MARKER, last - 1) : -1;
+        if (marker <= 0 || !isDigits(fileName, marker + 1, last)
+                || !isDigits(fileName, last + 1, fileName.length() - ".json".length())) {
+            return null;
+        }
+        return fileName.substring(0, marker);
+    }
+
+    /** Name of an event file of the refId, following the convention {@link #refIdOf} reads. */
+    public static String fileName(String refId, long millis, long sequence) {
+        return refId + REF_ID_MARKER + millis + "_" + sequence + ".json";
+    }
+
+    private static boolean isDigits(String s, int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<Void> send(JsonData event) {
+        if (event == null || event.getJobInfo() == null || event.getJobInfo().getReferenceIdentifier() == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Event is missing jobInfo.referenceIdentifier"));
+        }
+        String fileName = fileName(event.getJobInfo().getReferenceIdentifier(), System.currentTimeMillis(),
+                sequence.incrementAndGet());
+        Path tmp = inbox.resolve("." + fileName + ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                gson.toJson(event, out);
+            }
+            Files.move(tmp, inbox.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // The temp name is never picked up by the watcher.
+            }
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.JsonProcessing.service;
+
+/**
+ * Decides how long a refId may go without an event before it is finished with whatever it has
+ * received. Without adaptation that is always the fixed idle timeout. With it, once a refId has
+ * shown {@code minGaps} gaps between its events, its timeout follows those gaps the way a TCP
+ * retransmission timeout follows round trips: a smoothed mean gap plus {@code deviations} times
+ * the smoothed mean deviation.
+ *
+ * <p>A gap-based timeout above the fixed one is used as it is, so a slow upstream job is not cut
+ * off early. One below it is blended in by progress towards transactionCount: a job that has
+ * just started keeps close to the fixed timeout, while a fast job missing its last rays is given
+ * up on soon after they become overdue. The result always stays within {@code minMillis} and
+ * {@code maxMillis}.
+ */
+public class IdleTimeoutPolicy {
+
+    private final long fixedMillis;
+    private final boolean adaptive;
+    private final long minMillis;
+    private final long maxMillis;
+    private final int minGaps;
+    private final double deviations;
+
+    public IdleTimeoutPolicy(long fixedMillis, boolean adaptive, long minMillis, long maxMillis, int minGaps,
+                             double deviations) {
+        this.fixedMillis = fixedMillis;
+        this.adaptive = adaptive;
+        this.minMillis = Math.min(minMillis, fixedMillis);
+        this.maxMillis = Math.max(maxMillis, fixedMillis);
+        this.minGaps = Math.max(minGaps, 1);
+        this.deviations = deviations;
+    }
+
+    /** Timeout of a refId that has no arrival statistics yet. */
+    public long initialMillis() {
+        return fixedMillis;
+    }
+
+    /**
+     * Timeout after the latest event of a refId that has received {@code received} of
+     * {@code expected} rays.
+     */
+    public long timeoutMillis(Arrivals arrivals, int received, int expected) {
+        if (!adaptive || arrivals.gaps < minGaps) {
+            return fixedMillis;
+        }
+        double gapMillis = (arrivals.meanGapNanos + deviations * arrivals.gapDeviationNanos) / 1e6;
+        double timeout;
+        if (gapMillis >= fixedMillis) {
+            timeout = gapMillis;
+        } else {
+            double progress = expected > 0 ? Math.min(1.0, (double) received / expected) : 0;
+            timeout = fixedMillis - progress * (fixedMillis - gapMillis);
+        }
+        return Math.max(minMillis, Math.min(maxMillis, (long) timeout));
+    }
+
+    /**
+     * Arrival times of one refId's events. Not thread-safe: only touched on the refId's
+     * aggregation shard.
+     */
+    public static final class Arrivals {
+        private long lastNanos;
+        private int events;
+        private int gaps;
+        private double meanGapNanos;
+        private double gapDeviationNanos;
+
+        /** Starts from the time the refId's processor was created. */
+        public Arrivals(long createdNanos) {
+            this.lastNanos = createdNanos;
+        }
+
+        /** Counts an event; the gaps between consecutive events update the smoothed mean and deviation. */
+        public void record(long nowNanos) {
+            if (events++ > 0) {
+                long gap = Math.max(nowNanos - lastNanos, 0);
+                if (gaps++ == 0) {
+                    meanGapNanos = gap;
+                    gapDeviationNanos = gap / 2.0;
+                } else {
+                    // Gains of 1/8 and 1/4, as for TCP's smoothed round-trip time and its variation.
+                    double error = gap - meanGapNanos;
+                    meanGapNanos += error / 8;
+                    gapDeviationNanos += (Math.abs(error) - gapDeviationNanos) / 4;
+                }
+            }
+            lastNanos = nowNanos;
+        }
+
+        /** Time of the latest event, or of creation before the first one. */
+        public long lastNanos() {
+            return lastNanos;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.JsonProcessing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Sweeps the inbox for JSON files the watcher never reported: files that were already there at
+ * startup, and files whose events were dropped when the watch queue overflowed. Found files are
+ * submitted in name order; the pipeline ignores any that are already in flight. Other watched
+ * folders, such as the shard folders of a cluster node, can be swept the same way.
+ */
+public class InboxReconciler implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(InboxReconciler.class);
+
+    private final Path folder;
+    private final Consumer<Path> submitter;
+    private final ExecutorService executor;
+    // Folders with a scan queued that has not started listing yet; further requests fold into it.
+    private final Set<Path> scansPending = ConcurrentHashMap.newKeySet();
+
+    public InboxReconciler(Path folder, Consumer<Path> submitter) {
+        this.folder = folder;
+        this.submitter = submitter;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "inbox-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Requests a sweep of the inbox. Returns immediately; the sweep runs on the reconciler
+     * thread. Requests made while a sweep is waiting to start are coalesced into that sweep,
+     * and a request made during a sweep schedules one more afterwards.
+     */
+    public void requestScan() {
+        requestScan(folder);
+    }
+
+    /** Requests a sweep of another folder, submitting its files to the same pipeline. */
+    public void requestScan(Path folder) {
+        if (scansPending.add(folder)) {
+            executor.execute(() -> scan(folder));
+        }
+    }
+
+    private void scan(Path folder) {
+        scansPending.remove(folder);
+        long start = System.nanoTime();
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*.json")) {
+            for (Path file : stream) {
+                names.add(file.getFileName().toString());
+            }
+        } catch (IOException e) {
+            logger.error("Error scanning folder " + folder, e);
+            return;
+        }
+        Collections.sort(names);
+        for (String name : names) {
+            submitter.accept(folder.resolve(name));
+        }
+        logger.info("Reconciliation scan of {} submitted {} files in {} ms",
+                folder, names.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.JsonProcessing.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Meters for the ingestion path, published through Actuator. Every meter is built once up front
+ * so recording on the hot path is a plain call on an existing timer or counter, with no registry
+ * lookup or tag allocation.
+ */
+@Component
+public class IngestionMetrics {
+
+    private final MeterRegistry registry;
+    private final Timer fileLatency;
+    private final Timer readTime;
+    private final Timer parseTime;
+    private final Timer mailboxWait;
+    private final Timer finishTime;
+    private final Timer idleExpired;
+    private final Timer archiveMoveTime;
+    private final Timer archiveBatchTime;
+    private final Counter[] readFiles;
+    private final Counter retries;
+    private final Counter quarantined;
+    private final Counter idleRaySeconds;
+    private final Counter admittedHigh;
+    private final Counter admittedNormal;
+    private final Counter contentChecks;
+    private final Counter contentHits;
+    private final Counter rayChecks;
+    private final Counter rayHits;
+
+    public IngestionMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.fileLatency = timer("ingest.file.latency", "Time from a file being seen in the inbox until its event is aggregated");
+        this.readTime = timer("ingest.read.time", "Time to stat and read one file");
+        this.parseTime = timer("ingest.parse.time", "Time to parse one file");
+        this.mailboxWait = timer("aggregate.mailbox.wait", "Time an event waits in its aggregation shard's mailbox");
+        this.finishTime = timer("aggregate.finish.time", "Time to finish a refId");
+        this.idleExpired = timer("aggregate.idle.expired", "Time a refId finished by its idle timeout stayed in memory after its last event");
+        this.archiveMoveTime = timer("archive.move.time", "Time to move one file into the archive");
+        this.archiveBatchTime = timer("archive.batch.time", "Time to append and sync one batch of files to a segment");
+        this.readFiles = new Counter[BufferPool.Source.values().length];
+        for (BufferPool.Source source : BufferPool.Source.values()) {
+            readFiles[source.ordinal()] = Counter.builder("ingest.read.files")
+                    .description("Files read, by where their bytes were read to")
+                    .tag("source", source.name().toLowerCase())
+                    .register(registry);
+        }
+        this.retries = Counter.builder("ingest.retries")
+                .description("Files parked for another attempt")
+                .register(registry);
+        this.quarantined = Counter.builder("ingest.quarantined")
+                .description("Files moved to quarantine after their last attempt")
+                .register(registry);
+        this.idleRaySeconds = Counter.builder("aggregate.idle.ray-seconds")
+                .description("Rays held by refIds finished by their idle timeout, times the seconds they were held idle")
+                .register(registry);
+        this.admittedHigh = admittedCounter("HIGH");
+        this.admittedNormal = admittedCounter("NORMAL");
+        this.contentChecks = dedupCounter("dedup.checks", "Lookups in the duplicate index", "content");
+        this.contentHits = dedupCounter("dedup.hits", "Duplicates found in the duplicate index", "content");
+        this.rayChecks = dedupCounter("dedup.checks", "Lookups in the duplicate index", "ray");
+        this.rayHits = dedupCounter("dedup.hits", "Duplicates found in the duplicate index", "ray");
+    }
+
+    private Counter admittedCounter(String priority) {
+        return Counter.builder("admission.admitted")
+                .description("Files admitted into the pipeline, by priority lane")
+                .tag("priority", priority)
+                .register(registry);
+    }
+
+    private Counter dedupCounter(String name, String description, String kind) {
+        return Counter.builder(name)
+                .description(description)
+                .tag("kind", kind)
+                .register(registry);
+    }
+
+    private Timer timer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Registers a gauge sampled from {@code target} whenever the registry is scraped. The target
+     * is held weakly, as Micrometer does for all gauges.
+     */
+    public <T> void gauge(String name, String description, T target, ToDoubleFunction<T> value) {
+        Gauge.builder(name, target, value).description(description).register(registry);
+    }
+
+    public void recordFileLatency(long nanos) {
+        fileLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRead(long nanos, BufferPool.Source source) {
+        readTime.record(nanos, TimeUnit.NANOSECONDS);
+        readFiles[source.ordinal()].increment();
+    }
+
+    public void recordParse(long nanos) {
+        parseTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordMailboxWait(long nanos) {
+        mailboxWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordFinish(long nanos) {
+        finishTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Records a refId finished by its idle timeout, {@code idleNanos} after its last event. */
+    public void recordIdleExpiry(long idleNanos, int rays) {
+        idleExpired.record(idleNanos, TimeUnit.NANOSECONDS);
+        idleRaySeconds.increment(rays * (idleNanos / 1e9));
+    }
+
+    public void recordArchiveMove(long nanos) {
+        archiveMoveTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordArchiveBatch(long nanos) {
+        archiveBatchTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void retried() {
+        retries.increment();
+    }
+
+    public void quarantined() {
+        quarantined.increment();
+    }
+
+    public void admitted(AdmissionController.Priority priority) {
+        (priority == AdmissionController.Priority.HIGH ? admittedHigh : admittedNormal).increment();
+    }
+
+    public void dedupChecked(DedupIndex.Kind kind, boolean hit) {
+        if (kind == DedupIndex.Kind.CONTENT) {
+            contentChecks.increment();
+            if (hit) {
+                contentHits.increment();
+            }
+        } else {
+            rayChecks.increment();
+            if (hit) {
+                rayHits.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Staged ingestion pipeline fed by the file watcher: admit -> read -> parse -> aggregate -> archive.
+ * Files enter through the {@link AdmissionController}, which bounds how many files and bytes are in
+ * flight and lets high-priority files in first; a file holds its admission until it leaves the
+ * pipeline, or until it is parked for a retry, after which it is admitted again.
+ * Read and parse run on their own bounded pools, and archiving is handed off asynchronously. Parsed
+ * events of one refId are handed to the aggregate stage in the order they were dispatched; the
+ * stage queues them on the refId's aggregation shard, so they are applied in that order too.
+ * Events of different refIds do not wait for each other, as long as the refId can be told from
+ * the file name before the file is read. A file whose name does not tell holds up the events
+ * dispatched after it until it has been parsed, since any of them might share its refId.
+ *
+ * <p>With a {@link DedupIndex}, a file whose bytes were processed before is deleted right after
+ * it is read, and an event whose ray was already aggregated in the same state, in the current
+ * run of its refId, is archived without being aggregated again.
+ */
+public class IngestionPipeline implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    /**
+     * Callbacks for the work done in each stage.
+     */
+    public interface Stages {
+        /** The refId of a file as far as its name tells, or null if only parsing it can tell. */
+        String refIdOf(Path file);
+
+        /**
+         * The current run of a refId, for its {@link DedupIndex#rayKey ray keys}, or 0 if the
+         * refId is not in flight here.
+         */
+        long runOf(String refId);
+
+        /** Returns the parsed event, or null if the file is not ready to be processed yet. */
+        JsonData parse(Path file, ByteBuffer content);
+
+        /**
+         * Aggregates the event, possibly asynchronously, then runs {@code onAggregated}. If the
+         * file is handed on to another node instead, {@code onHandedOff} runs and the file is
+         * neither archived nor counted here.
+         */
+        void aggregate(Path file, JsonData data, Runnable onAggregated, Runnable onHandedOff);
+
+        /**
+         * Archives the file, possibly asynchronously; {@code onDone} is told whether it left the
+         * inbox for the archive.
+         */
+        void archive(Path file, JsonData data, Archiver.Callback onDone);
+    }
+
+    private final Stages stages;
+    private final FileRetryScheduler retryScheduler;
+    private final AdmissionController admission;
+    // Null when duplicate detection is disabled.
+    private final DedupIndex dedup;
+    private final BufferPool bufferPool;
+    private final IngestionMetrics metrics;
+    private final ThreadPoolExecutor readStage;
+    private final ThreadPoolExecutor parseStage;
+    // Files currently somewhere in the pipeline, so the same file is never processed twice at once.
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private final Sequencer sequencer = new Sequencer();
+
+    public IngestionPipeline(Stages stages, FileRetryScheduler retryScheduler, AdmissionController admission,
+                             DedupIndex dedup, BufferPool bufferPool, IngestionMetrics metrics, int readThreads,
+                             int parseThreads, int queueCapacity) {
+        this.stages = stages;
+        this.retryScheduler = retryScheduler;
+        this.admission = admission;
+        this.dedup = dedup;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.readStage = boundedStage("ingest-read", readThreads, queueCapacity);
+        this.parseStage = boundedStage("ingest-parse", parseThreads, queueCapacity);
+        logger.info("Ingestion pipeline started: read={}, parse={}, queueCapacity={}",
+                readThreads, parseThreads, queueCapacity);
+    }
+
+    /**
+     * Queues a newly observed file for admission into the pipeline. Returns immediately unless
+     * the admission queue is full, in which case the caller waits for room.
+     */
+    public void submit(Path file, AdmissionController.Priority priority) {
+        if (!inFlight.add(file)) {
+            logger.debug("File {} is already in flight, ignoring", file);
+            return;
+        }
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (NoSuchFileException e) {
+            inFlight.remove(file);
+            return;
+        } catch (IOException e) {
+            // Admitted as empty; the read stage reports the error.
+            size = 0;
+        }
+        admit(new IngestEvent(file, 1, null, System.nanoTime(), size, priority));
+    }
+
+    private void admit(IngestEvent event) {
+        admission.offer(event.size, event.priority, () -> dispatch(event));
+    }
+
+    // The file leaves the pipeline, giving back its admission.
+    private void done(IngestEvent event) {
+        inFlight.remove(event.file);
+        admission.release(event.size);
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    public int readQueueDepth() {
+        return readStage.getQueue().size();
+    }
+
+    public int parseQueueDepth() {
+        return parseStage.getQueue().size();
+    }
+
+    private void dispatch(IngestEvent event) {
+        sequencer.dispatched(event, stages.refIdOf(event.file));
+        try {
+            readStage.execute(() -> runStage(event, this::read));
+        } catch (RejectedExecutionException e) {
+            skip(event);
+            done(event);
+            logger.warn("Pipeline is shut down, dropping file {}", event.file);
+        }
+    }
+
+    /**
+     * Runs one stage of an event. Whatever escapes it, the event gives up its place in the
+     * ordering, so the files dispatched after it are never held up: a file is dropped when the
+     * pipeline is shutting down (it stays in the inbox for the next start), and parked for
+     * another attempt otherwise.
+     */
+    private void runStage(IngestEvent event, Consumer<IngestEvent> stage) {
+        try {
+            stage.accept(event);
+        } catch (RejectedExecutionException e) {
+            releaseContent(event);
+            skip(event);
+            done(event);
+            logger.warn("Pipeline is shut down, dropping file {}", event.file);
+        } catch (RuntimeException e) {
+            logger.error("Error processing file {} on attempt {}", event.file, event.attempt, e);
+            releaseContent(event);
+            retry(event);
+        }
+    }
+
+    private void releaseContent(IngestEvent event) {
+        if (event.content != null) {
+            bufferPool.release(event.content);
+            event.content = null;
+        }
+    }
+
+    private void read(IngestEvent event) {
+        long start = System.nanoTime();
+        try {
+            event.state = FileRetryScheduler.FileState.of(Files.readAttributes(event.file, BasicFileAttributes.class));
+            if (!retryScheduler.isReady(event.file, event.state, event.previousState)) {
+                retry(event);
+                return;
+            }
+            event.content = bufferPool.read(event.file, event.state.size());
+            metrics.recordRead(System.nanoTime() - start, event.content.source());
+        } catch (NoSuchFileException e) {
+            logger.warn("File {} no longer exists, skipping", event.file);
+            skip(event);
+            done(event);
+            return;
+        } catch (IOException e) {
+            logger.error("Error reading file {} on attempt {}: {}", event.file, event.attempt, e.getMessage());
+            retry(event);
+            return;
+        }
+        if (dedup != null) {
+            event.contentKey = DedupIndex.contentKey(event.content.buffer());
+            if (dedup.contains(DedupIndex.Kind.CONTENT, event.contentKey)) {
+                releaseContent(event);
+                skip(event);
+                discardCopy(event);
+                return;
+            }
+        }
+        parseStage.execute(() -> runStage(event, this::parse));
+    }
+
+    // An exact copy of a file that was already processed and archived, so nothing is lost by deleting it.
+    private void discardCopy(IngestEvent event) {
+        try {
+            Files.deleteIfExists(event.file);
+            logger.info("Deleted file {}, a copy of one already processed", event.file);
+        } catch (IOException e) {
+            logger.error("Error deleting duplicate file {}", event.file, e);
+        }
+        done(event);
+    }
+
+    private void parse(IngestEvent event) {
+        logger.info("Processing file: {} (Attempt {})", event.file, event.attempt);
+        JsonData data;
+        long start = System.nanoTime();
+        try {
+            data = stages.parse(event.file, event.content.buffer());
+            metrics.recordParse(System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            logger.error("Error parsing file {} on attempt {}: {}", event.file, event.attempt, e.getMessage());
+            data = null;
+        } finally {
+            releaseContent(event);
+        }
+        if (data == null) {
+            retry(event);
+            return;
+        }
+        String refId = data.getJobInfo().getReferenceIdentifier();
+        if (refId == null) {
+            // No attempt will ever give it one; left in the inbox it would come back on every scan.
+            logger.error("Reference Identifier is null for file: {}", event.file);
+            skip(event);
+            retryScheduler.quarantine(event.file);
+            metrics.quarantined();
+            done(event);
+            return;
+        }
+        // The first event of a run is never a duplicate within it, so it gets no ray key.
+        long run = dedup != null && data.getTrackingInfo() != null ? stages.runOf(refId) : 0;
+        if (run != 0) {
+            event.rayKey = DedupIndex.rayKey(refId, run, data.getTrackingInfo().getRayIdentifier(),
+                    data.getTrackingInfo().getState());
+            if (dedup.contains(DedupIndex.Kind.RAY, event.rayKey)) {
+                logger.info("Skipping file {}: rayId {} of refId {} was already aggregated in this state",
+                        event.file, data.getTrackingInfo().getRayIdentifier(), refId);
+                skip(event);
+                archive(event, data, false);
+                return;
+            }
+        }
+        event.data = data;
+        event.refId = refId;
+        event.released = true;
+        sequencer.resolved(event);
+    }
+
+    /**
+     * Gives up this event's place in the ordering and parks the file on the retry scheduler,
+     * so nothing behind it waits while the file is being written. A parked file gives back its
+     * admission, so files still being written do not hold up the ones behind them either.
+     */
+    private void retry(IngestEvent event) {
+        skip(event);
+        admission.release(event.size);
+        long size = event.state != null ? event.state.size() : event.size;
+        IngestEvent next = new IngestEvent(event.file, event.attempt + 1, event.state, event.arrivalNanos, size,
+                event.priority);
+        if (!retryScheduler.park(event.file, event.attempt, () -> admit(next))) {
+            inFlight.remove(event.file);
+        }
+    }
+
+    // Gives up the event's place in the ordering, unless it was already released.
+    private void skip(IngestEvent event) {
+        if (!event.released) {
+            event.released = true;
+            sequencer.resolved(event);
+        }
+    }
+
+    private void aggregate(IngestEvent event) {
+        try {
+            stages.aggregate(event.file, event.data, () -> {
+                metrics.recordFileLatency(System.nanoTime() - event.arrivalNanos);
+                archive(event, event.data, true);
+                event.data = null;
+            }, () -> {
+                done(event);
+                event.data = null;
+            });
+        } catch (RuntimeException e) {
+            logger.error("Error aggregating file " + event.file, e);
+            archive(event, event.data, false);
+            event.data = null;
+        }
+    }
+
+    /**
+     * Archives the file, keeping it in flight until that has happened. Only a confirmed archive
+     * adds the file's keys to the dedup index, if {@code recordKeys}, since later copies of the
+     * file are deleted on their strength. A file still in the inbox is tried again after a
+     * backoff and quarantined once out of attempts.
+     */
+    private void archive(IngestEvent event, JsonData data, boolean recordKeys) {
+        stages.archive(event.file, data, archived -> {
+            if (archived) {
+                if (recordKeys && dedup != null) {
+                    dedup.add(event.contentKey, event.rayKey);
+                }
+                done(event);
+            } else if (!Files.exists(event.file)) {
+                done(event);
+            } else {
+                logger.warn("Could not archive file {} on attempt {}", event.file, event.archiveAttempts + 1);
+                if (!retryScheduler.park(event.file, ++event.archiveAttempts, () -> archive(event, data, recordKeys))) {
+                    done(event);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        readStage.shutdown();
+        parseStage.shutdown();
+    }
+
+    /**
+     * Creates a fixed-size pool with a bounded queue. When the queue is full the submitting
+     * thread waits for room instead of failing, which pushes back on the previous stage.
+     */
+    private static ThreadPoolExecutor boundedStage(String name, int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, threads == 1 ? name : name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), factory, (r, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException(name + " stage is shut down");
+                    }
+                    try {
+                        executor.getQueue().put(r);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for " + name + " stage", e);
+                    }
+                });
+    }
+
+    /**
+     * Keeps the dispatch order of each refId's events between dispatch and the aggregate stage.
+     * A parsed event waits in its refId's lane only while an event dispatched before it is still
+     * being read or parsed and may be of the same refId: one whose file name carries that refId,
+     * or one whose name tells no refId at all. Ready events are handed over outside the lock, by
+     * one thread per lane at a time, so a full shard mailbox holds up only the refId it blocks.
+     * A file named after another refId than the one it holds is ordered with the refId of its name.
+     */
+    private final class Sequencer {
+        private long nextSequence;
+        // Events being read or parsed: those whose refId the file name does not tell, and the
+        // others by that refId.
+        private final TreeSet<Long> unknownPending = new TreeSet<>();
+        private final Map<String, TreeSet<Long>> namedPending = new HashMap<>();
+        private final Map<String, Lane> lanes = new HashMap<>();
+        // Sequence of the first waiting event of each lane that has one.
+        private final TreeMap<Long, Lane> heads = new TreeMap<>();
+
+        synchronized void dispatched(IngestEvent event, String nameRefId) {
+            event.sequence = nextSequence++;
+            event.nameRefId = nameRefId;
+            if (nameRefId == null) {
+                unknownPending.add(event.sequence);
+            } else {
+                namedPending.computeIfAbsent(nameRefId, k -> new TreeSet<>()).add(event.sequence);
+            }
+        }
+
+        /**
+         * The event is out of reading and parsing: parsed, with its refId set, or skipped, with
+         * none. Hands every event this unblocks to the aggregate stage.
+         */
+        void resolved(IngestEvent event) {
+            List<Lane> toDrain = new ArrayList<>();
+            synchronized (this) {
+                if (event.nameRefId == null) {
+                    unknownPending.remove(event.sequence);
+                } else {
+                    TreeSet<Long> pending = namedPending.get(event.nameRefId);
+                    pending.remove(event.sequence);
+                    if (pending.isEmpty()) {
+                        namedPending.remove(event.nameRefId);
+                    }
+                }
+                if (event.refId != null) {
+                    Lane lane = lanes.computeIfAbsent(event.refId, Lane::new);
+                    setHead(lane, () -> lane.waiting.put(event.sequence, event));
+                    promote(lane, toDrain);
+                }
+                if (event.nameRefId == null) {
+                    // Every lane may have waited on this one.
+                    long limit = unknownPending.isEmpty() ? Long.MAX_VALUE : unknownPending.first();
+                    for (Lane lane : new ArrayList<>(heads.headMap(limit).values())) {
+                        promote(lane, toDrain);
+                    }
+                } else {
+                    Lane lane = lanes.get(event.nameRefId);
+                    if (lane != null) {
+                        promote(lane, toDrain);
+                    }
+                }
+            }
+            for (Lane lane : toDrain) {
+                drain(lane);
+            }
+        }
+
+        // Moves the lane's waiting events that nothing pending precedes to its ready queue.
+        private void promote(Lane lane, List<Lane> toDrain) {
+            TreeSet<Long> named = namedPending.get(lane.refId);
+            long limit = Math.min(unknownPending.isEmpty() ? Long.MAX_VALUE : unknownPending.first(),
+                    named == null ? Long.MAX_VALUE : named.first());
+            while (!lane.waiting.isEmpty() && lane.waiting.firstKey() < limit) {
+                setHead(lane, () -> lane.ready.add(lane.waiting.pollFirstEntry().getValue()));
+            }
+            if (!lane.ready.isEmpty() && !lane.draining) {
+                lane.draining = true;
+                toDrain.add(lane);
+            }
+        }
+
+        // Runs a change of the lane's waiting events, keeping heads up to date.
+        private void setHead(Lane lane, Runnable change) {
+            if (!lane.waiting.isEmpty()) {
+                heads.remove(lane.waiting.firstKey());
+            }
+            change.run();
+            if (!lane.waiting.isEmpty()) {
+                heads.put(lane.waiting.firstKey(), lane);
+            }
+        }
+
+        private void drain(Lane lane) {
+            while (true) {
+                IngestEvent next;
+                synchronized (this) {
+                    next = lane.ready.poll();
+                    if (next == null) {
+                        lane.draining = false;
+                        if (lane.waiting.isEmpty()) {
+                            lanes.remove(lane.refId);
+                        }
+                        return;
+                    }
+                }
+                aggregate(next);
+            }
+        }
+    }
+
+    // Parsed events of one refId on their way to the aggregate stage.
+    private static final class Lane {
+        private final String refId;
+        // Parsed but behind an event still being read or parsed, by sequence.
+        private final TreeMap<Long, IngestEvent> waiting = new TreeMap<>();
+        private final ArrayDeque<IngestEvent> ready = new ArrayDeque<>();
+        // Whether a thread is handing the ready events over.
+        private boolean draining;
+
+        Lane(String refId) {
+            this.refId = refId;
+        }
+    }
+
+    private static class IngestEvent {
+        private final Path file;
+        private final int attempt;
+        private final FileRetryScheduler.FileState previousState;
+        // When the file was first submitted, kept across retries.
+        private final long arrivalNanos;
+        // Bytes counted against the admission limit while the file is admitted.
+        private final long size;
+        private final AdmissionController.Priority priority;
+        private FileRetryScheduler.FileState state;
+        private long sequence;
+        // The refId told by the file name when the event was dispatched, if any.
+        private String nameRefId;
+        // Set once the event has given up its place in the ordering; it must be exactly once.
+        private boolean released;
+        // Failed attempts to archive the file after it was processed.
+        private int archiveAttempts;
+        private BufferPool.Content content;
+        private JsonData data;
+        private String refId;
+        // Keys in the dedup index, 0 when not computed.
+        private long contentKey;
+        private long rayKey;
+
+        IngestEvent(Path file, int attempt, FileRetryScheduler.FileState previousState, long arrivalNanos,
+                    long size, AdmissionController.Priority priority) {
+            this.file = file;
+            this.attempt = attempt;
+            this.previousState = previousState;
+            this.arrivalNanos = arrivalNanos;
+            this.size = size;
+            this.priority = priority;
+        }
+    }
+}
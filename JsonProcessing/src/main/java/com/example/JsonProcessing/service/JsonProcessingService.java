@@ -1,66 +1,297 @@
 package com.example.JsonProcessing.service;
 
 import com.example.JsonProcessing.model.JsonData;
-import com.google.gson.Gson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
 
 @Service
 public class JsonProcessingService {
 
     private static final Logger logger = LoggerFactory.getLogger(JsonProcessingService.class);
-    private final Gson gson = new Gson();
 
-    // Global map to hold processors for each reference identifier.
-    private final Map<String, RefProcessor> refProcessors = new ConcurrentHashMap<>();
-    // Global map to track remaining file count per refId.
-    private final Map<String, AtomicInteger> remainingCountMap = new ConcurrentHashMap<>();
-    // Scheduled executor used to schedule timers for each refId.
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(10);
+    // Processors of in-flight refIds, each owned by one single-threaded shard that applies all of its changes.
+    private final AggregationEngine<RefProcessor> engine;
+    // Timing wheel holding the inactivity deadline of each refId.
+    private final TimingWheel idleTimers;
+    // How long each refId's deadline is pushed back by an event, fixed or adapted to its arrivals.
+    private final IdleTimeoutPolicy idleTimeouts;
+    // Rays held by in-flight refIds over all shards, as a measure of the memory they keep.
+    private final LongAdder residentRays = new LongAdder();
+    // Optional journal of applied events and snapshots of aggregate state; null when disabled.
+    private final AggregateJournal journal;
+    // Parent of every node's journal folder in cluster mode, where peers' journals are adopted from.
+    private final Path journalFolder;
+    private final long snapshotIntervalMillis;
+    // Takes those snapshots; null until aggregates are recovered.
+    private volatile ScheduledExecutorService snapshotScheduler;
+    // Keys of events already processed, so duplicates are skipped early; null when disabled.
+    private final DedupIndex dedup;
+    // Run of every refId with a processor, which scopes its ray keys in the dedup index to its lifetime.
+    private final Map<String, Long> refRuns = new ConcurrentHashMap<>();
+    // Durations of the upstream stages from the events' audit entries; null when disabled.
+    private final StageAnalytics stageAnalytics;
+    // Opened once aggregates are recovered from the journal, or right away without one; direct ingestion waits for it.
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private long lastSnapshotLsn = -1;
+    private final EventParser eventParser;
+    private final ArchiverFactory archiverFactory;
+    private final AdmissionFactory admissionFactory;
+    // Gate in front of the file pipeline; null until the watcher starts.
+    private volatile AdmissionController admission;
+    // Where processed files go, for reading archived events back; null until the watcher starts.
+    private volatile Archiver archiver;
+    // RefIds tagged by a priority source type, whose further files are admitted first.
+    private final Set<String> priorityRefIds = ConcurrentHashMap.newKeySet();
+    private final ClusterFactory cluster;
+    // Shards of refIds this node owns in cluster mode; null until the watcher starts, or without a cluster.
+    private volatile ShardLeaseManager shardLeases;
+    // Writes posted events for shards owned elsewhere into their shard folders.
+    private final Map<Integer, FileTransport> shardRoutes = new ConcurrentHashMap<>();
+    private final IngestionMetrics metrics;
+    // Receives one report per finished refId, written off the aggregation threads.
+    private final ReportSink reportSink;
+    // Published status of in-flight and recently finished refIds, read without processor locks.
+    private final StatusRegistry statusRegistry;
+    // Pushes the same statuses to stream subscribers; null when disabled.
+    private final RefEventStream eventStream;
+
+    // Ingestion pipeline sizing, 0 means one thread (or aggregation shard) per available core.
+    private final int readThreads;
+    private final int parseThreads;
+    private final int queueCapacity;
+    private final int readBufferSize;
+    // Files larger than this are memory-mapped instead of read onto the heap.
+    private final long mapThreshold;
+    // Retry of files that are still being written or cannot be parsed yet.
+    private final long retryInitialDelayMillis;
+    private final long retryMaxDelayMillis;
+    private final int retryMaxAttempts;
+    private final FileRetryScheduler.StabilityMode stabilityMode;
+    private final Path quarantineFolder;
+
+    public JsonProcessingService(EventParser eventParser, ArchiverFactory archiverFactory,
+                                 AdmissionFactory admissionFactory, ReportSinkFactory reportSinkFactory,
+                                 ClusterFactory cluster, IngestionMetrics metrics,
+                                 @Value("${processing.pipeline.read-threads:0}") int readThreads,
+                                 @Value("${processing.pipeline.parse-threads:0}") int parseThreads,
+                                 @Value("${processing.pipeline.aggregate-lanes:0}") int aggregateLanes,
+                                 @Value("${processing.pipeline.queue-capacity:1024}") int queueCapacity,
+                                 @Value("${processing.pipeline.read-buffer-size:65536}") int readBufferSize,
+                                 @Value("${processing.pipeline.map-threshold:1048576}") long mapThreshold,
+                                 @Value("${processing.retry.initial-delay-ms:250}") long retryInitialDelayMillis,
+                                 @Value("${processing.retry.max-delay-ms:30000}") long retryMaxDelayMillis,
+                                 @Value("${processing.retry.max-attempts:8}") int retryMaxAttempts,
+                                 @Value("${processing.retry.stability:QUIESCENCE}") FileRetryScheduler.StabilityMode stabilityMode,
+                                 @Value("${processing.retry.quarantine-folder:QUARANTINE_JSON}") String quarantineFolder,
+                                 @Value("${processing.idle-timeout-ms:300000}") long idleTimeoutMillis,
+                                 @Value("${processing.idle-timeout.adaptive:true}") boolean idleTimeoutAdaptive,
+                                 @Value("${processing.idle-timeout.min-ms:30000}") long idleTimeoutMinMillis,
+                                 @Value("${processing.idle-timeout.max-ms:1800000}") long idleTimeoutMaxMillis,
+                                 @Value("${processing.idle-timeout.min-gaps:3}") int idleTimeoutMinGaps,
+                                 @Value("${processing.idle-timeout.deviations:4}") double idleTimeoutDeviations,
+                                 @Value("${processing.idle-timer.tick-ms:100}") long idleTimerTickMillis,
+                                 @Value("${processing.idle-timer.wheel-size:4096}") int idleTimerWheelSize,
+                                 @Value("${processing.journal.enabled:false}") boolean journalEnabled,
+                                 @Value("${processing.journal.folder:JOURNAL}") String journalFolder,
+                                 @Value("${processing.journal.buffer-capacity:16384}") int journalBufferCapacity,
+                                 @Value("${processing.journal.batch-size:1024}") int journalBatchSize,
+                                 @Value("${processing.journal.fsync:true}") boolean journalFsync,
+                                 @Value("${processing.journal.snapshot-interval-ms:60000}") long snapshotIntervalMillis,
+                                 @Value("${processing.dedup.enabled:true}") boolean dedupEnabled,
+                                 @Value("${processing.dedup.folder:DEDUP}") String dedupFolder,
+                                 @Value("${processing.dedup.capacity:524288}") int dedupCapacity,
+                                 @Value("${processing.analytics.enabled:true}") boolean analyticsEnabled,
+                                 @Value("${processing.analytics.max-stages:64}") int analyticsMaxStages,
+                                 @Value("${processing.status.finished-capacity:10000}") int finishedStatusCapacity,
+                                 @Value("${processing.status.finished-ttl-ms:3600000}") long finishedStatusTtlMillis,
+                                 @Value("${processing.stream.enabled:true}") boolean streamEnabled,
+                                 @Value("${processing.stream.history:16384}") int streamHistory,
+                                 @Value("${processing.stream.max-subscribers:256}") int streamMaxSubscribers,
+                                 @Value("${processing.stream.send-timeout-ms:10000}") long streamSendTimeoutMillis,
+                                 @Value("${processing.stream.timeout-ms:1800000}") long streamTimeoutMillis,
+                                 @Value("${processing.stream.heartbeat-ms:15000}") long streamHeartbeatMillis) throws IOException {
+        this.eventParser = eventParser;
+        this.archiverFactory = archiverFactory;
+        this.admissionFactory = admissionFactory;
+        this.cluster = cluster;
+        this.metrics = metrics;
+        this.reportSink = reportSinkFactory.create();
+        this.readThreads = orCores(readThreads);
+        this.parseThreads = orCores(parseThreads);
+        this.queueCapacity = queueCapacity;
+        this.readBufferSize = readBufferSize;
+        this.mapThreshold = mapThreshold;
+        this.retryInitialDelayMillis = retryInitialDelayMillis;
+        this.retryMaxDelayMillis = retryMaxDelayMillis;
+        this.retryMaxAttempts = retryMaxAttempts;
+        this.stabilityMode = stabilityMode;
+        this.quarantineFolder = Paths.get(quarantineFolder);
+        this.idleTimeouts = new IdleTimeoutPolicy(idleTimeoutMillis, idleTimeoutAdaptive, idleTimeoutMinMillis,
+                idleTimeoutMaxMillis, idleTimeoutMinGaps, idleTimeoutDeviations);
+        ExecutorService expiryExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "idle-timeout-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        this.idleTimers = new TimingWheel("idle-timer", idleTimerTickMillis, idleTimerWheelSize, expiryExecutor);
+        this.journal = journalEnabled
+                ? new AggregateJournal(cluster.nodeFolder(Paths.get(journalFolder)), journalBufferCapacity, journalBatchSize, journalFsync)
+                : null;
+        this.journalFolder = Paths.get(journalFolder);
+        if (journal == null) {
+            ready.countDown();
+        }
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.dedup = dedupEnabled
+                ? new DedupIndex(cluster.nodeFolder(Paths.get(dedupFolder)), dedupCapacity, metrics)
+                : null;
+        this.statusRegistry = new StatusRegistry(finishedStatusCapacity, finishedStatusTtlMillis);
+        this.eventStream = streamEnabled
+                ? new RefEventStream(streamHistory, streamMaxSubscribers, streamSendTimeoutMillis, streamTimeoutMillis,
+                        streamHeartbeatMillis)
+                : null;
+        this.engine = new AggregationEngine<>("aggregate", orCores(aggregateLanes), queueCapacity);
+        this.stageAnalytics = analyticsEnabled ? new StageAnalytics(analyticsMaxStages, engine.shardCount()) : null;
+        if (analyticsEnabled && eventParser.getFieldSet() == EventParser.FieldSet.TRACKING) {
+            logger.warn("Stage analytics are enabled, but field set TRACKING skips the processStageInfo they are computed from");
+        }
+        metrics.gauge("aggregate.refs.active", "RefIds with an in-flight processor", engine, AggregationEngine::size);
+        metrics.gauge("ingest.queue.aggregate", "Events waiting in the aggregation shards' mailboxes", engine, AggregationEngine::pendingCount);
+        metrics.gauge("aggregate.timers.pending", "Idle timeouts waiting to fire", idleTimers, TimingWheel::activeCount);
+        metrics.gauge("aggregate.rays.resident", "Rays held in memory by in-flight refIds", residentRays, LongAdder::sum);
+        metrics.gauge("report.pending", "Completion reports waiting to be written", reportSink, ReportSink::pendingCount);
+        metrics.gauge("report.lost", "Completion reports dropped because they could not be written", reportSink, ReportSink::lostCount);
+        if (eventStream != null) {
+            metrics.gauge("stream.subscribers", "Subscribers to the progress and completion event stream", eventStream,
+                    RefEventStream::subscriptionCount);
+        }
+    }
+
+    /**
+     * Applies the events already queued for aggregation, makes their journal records durable,
+     * writes out the completion reports that are still queued, ends the event stream's
+     * subscriptions, stops the idle timer and, in cluster mode, releases this node's shards to
+     * its peers.
+     */
+    @PreDestroy
+    public void shutdown() {
+        ShardLeaseManager leases = shardLeases;
+        if (leases != null) {
+            leases.close();
+        }
+        ScheduledExecutorService snapshots = snapshotScheduler;
+        if (snapshots != null) {
+            // A snapshot holds every shard until the journal has rolled, so none may start while they drain.
+            snapshots.shutdownNow();
+            try {
+                snapshots.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        engine.close();
+        if (journal != null) {
+            // Only once the shards have stopped appending to it.
+            journal.close();
+        }
+        if (dedup != null) {
+            dedup.close();
+        }
+        if (stageAnalytics != null) {
+            logger.info("Stage durations in ms: {}", stageAnalytics.snapshot());
+        }
+        if (eventStream != null) {
+            eventStream.close();
+        }
+        reportSink.close();
+        idleTimers.close();
+    }
+
+    private static int orCores(int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
 
     /**
      * Starts the file watcher in a new thread to monitor the given JSON folder.
      * When a new JSON file is created, it is processed and then moved to the archive folder.
+     * The thread is not a daemon, so it keeps the process alive when no web server runs.
      */
     public void initializeAndWatch(String folderPath, String archiveFolderPath) {
-        new Thread(() -> startFileWatcher(folderPath, archiveFolderPath)).start();
+        new Thread(() -> startFileWatcher(folderPath, archiveFolderPath), "file-watcher").start();
     }
 
     /**
-     * Starts a file watcher that monitors the given JSON folder. When a new file is created,
-     * it is processed and then moved to the archive folder.
+     * Starts a file watcher that monitors the given JSON folder. The watcher only dispatches
+     * new files into the ingestion pipeline, which reads, parses, aggregates and archives them.
+     * Files already in the folder at startup, or missed because the watch queue overflowed,
+     * are picked up by a reconciliation scan. Files wait for admission before they are read, and
+     * producers are asked to slow down while too many are waiting (see {@link AdmissionController}).
+     *
+     * <p>In cluster mode this node takes the inbox files whose name falls into one of its
+     * shards, and after parsing hands every file whose refId belongs to another shard on to
+     * that shard's folder. Each node also watches the folders of the shards it owns, so all
+     * files of a refId end up aggregated on one node.
      *
      * @param folderPath        the folder to watch for JSON files.
      * @param archiveFolderPath the folder where processed files will be moved (archived).
      */
     public void startFileWatcher(String folderPath, String archiveFolderPath) {
         Path folder = Paths.get(folderPath);
-        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+        if (journal != null) {
+            try {
+                recoverAggregates();
+            } catch (IOException e) {
+                logger.error("Error recovering aggregates from journal", e);
+                return;
+            }
+        }
+        try (WatchService watchService = FileSystems.getDefault().newWatchService();
+             FileRetryScheduler retryScheduler = new FileRetryScheduler(retryInitialDelayMillis,
+                     retryMaxDelayMillis, retryMaxAttempts, stabilityMode, quarantineFolder, metrics);
+             Archiver archiver = archiverFactory.create(cluster.nodeFolder(Paths.get(archiveFolderPath)));
+             AdmissionController admission = admissionFactory.create(folder);
+             IngestionPipeline pipeline = createPipeline(archiver, retryScheduler, admission);
+             InboxReconciler reconciler = new InboxReconciler(folder, file -> submitIfClaimed(pipeline, folder, file))) {
+            registerGauges(retryScheduler, archiver, pipeline, admission);
+            this.admission = admission;
+            this.archiver = archiver;
+            // Not left to the FILE transport, which is not created in a headless or lazy context.
+            Files.createDirectories(folder);
             folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
             logger.info("Started watching folder: {}", folderPath);
+            // Registered first, so anything created from here on is seen by either the scan or the watcher.
+            reconciler.requestScan();
+            startShardLeases(watchService, reconciler, folder);
             while (true) {
                 WatchKey key = watchService.take(); // Wait for events.
                 for (WatchEvent<?> event : key.pollEvents()) {
                     if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        logger.warn("Watch events overflowed for folder {}, rescanning", folderPath);
+                        reconciler.requestScan();
                         continue;
                     }
                     @SuppressWarnings("unchecked")
                     WatchEvent<Path> ev = (WatchEvent<Path>) event;
                     Path fileName = ev.context();
                     if (fileName.toString().endsWith(".json")) {
-                        Path fullPath = folder.resolve(fileName);
-                        processAndArchiveFile(fullPath, archiveFolderPath);
+                        submitIfClaimed(pipeline, folder, ((Path) key.watchable()).resolve(fileName));
                     }
                 }
-                if (!key.reset()) {
+                // A shard folder's key goes invalid when the shard is lost; only the inbox ends the loop.
+                if (!key.reset() && key.watchable().equals(folder)) {
                     break;
                 }
             }
@@ -70,216 +301,832 @@ public class JsonProcessingService {
         }
     }
 
-    private void processAndArchiveFile(Path filePath, String archiveFolderPath) {
-        int maxRetries = 3;
-        JsonData data = null;
-        String content = null;
-        boolean success = false;
-        for (int attempt = 1; attempt <= maxRetries; attempt++) {
-            try {
-                content = new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8);
-                logger.info("Processing file: {} (Attempt {})", filePath, attempt);
-                data = gson.fromJson(content, JsonData.class);
-                if (data == null || data.getJobInfo() == null) {
-                    logger.warn("Parsed JsonData is null or missing jobInfo on attempt {} for file: {}",
-                            attempt, filePath);
-                    Thread.sleep(2000);
-                } else {
-                    success = true;
-                    break;
+    /**
+     * Starts heartbeating in cluster mode. Each shard gained is watched and swept, together with
+     * the inbox for files that now fall to this node; a shard lost is no longer watched. With the
+     * journal enabled, the unfinished refIds of a shard taken over from a failed node are adopted
+     * from that node's journal, and those of a lost shard are dropped here, since its new owner
+     * adopts them from this node's journal.
+     */
+    private void startShardLeases(WatchService watchService, InboxReconciler reconciler, Path inbox) throws IOException {
+        Map<Integer, WatchKey> shardKeys = new ConcurrentHashMap<>();
+        ShardLeaseManager leases = cluster.create(this::isShardIdle, new ShardLeaseManager.Listener() {
+            @Override
+            public void acquired(int shard, String previousOwner) {
+                if (previousOwner != null && journal != null) {
+                    snapshotScheduler.execute(() -> adoptShard(shard, previousOwner));
                 }
-            } catch (IOException | InterruptedException e) {
-                logger.error("Error reading file {} on attempt {}: {}", filePath, attempt, e.getMessage());
+                Path shardFolder = cluster.shardFolder(shard);
                 try {
-                    Thread.sleep(2000);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    return;
+                    Files.createDirectories(shardFolder);
+                    shardKeys.put(shard, shardFolder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE));
+                } catch (IOException e) {
+                    logger.error("Error watching folder of shard {}", shard, e);
+                }
+                reconciler.requestScan(shardFolder);
+                reconciler.requestScan(inbox);
+            }
+
+            @Override
+            public void lost(int shard) {
+                WatchKey key = shardKeys.remove(shard);
+                if (key != null) {
+                    key.cancel();
+                }
+                if (journal != null) {
+                    dropShard(shard);
                 }
             }
+        });
+        if (leases == null) {
+            return;
+        }
+        metrics.gauge("cluster.shards.owned", "Shards this node holds the lease of", leases, ShardLeaseManager::ownedCount);
+        shardLeases = leases;
+        leases.start();
+    }
+
+    /**
+     * Submits a file if this node takes it: without a cluster every file, in a shard folder every
+     * file (only owned shards are watched), in the inbox only files whose refId, or name if it
+     * carries none, falls into an owned shard.
+     */
+    private void submitIfClaimed(IngestionPipeline pipeline, Path inbox, Path file) {
+        if (cluster.isEnabled() && file.getParent().equals(inbox)) {
+            ShardLeaseManager leases = shardLeases;
+            if (leases == null || !leases.owns(cluster.shardOfFile(file.getFileName().toString()))) {
+                return;
+            }
+        }
+        pipeline.submit(file, priorityOf(file));
+    }
+
+    /**
+     * HIGH for files of a refId that is close to complete or was tagged by a priority source
+     * type, judged from the refId in the file name. Files named otherwise are NORMAL.
+     */
+    private AdmissionController.Priority priorityOf(Path file) {
+        String refId = FileTransport.refIdOf(file.getFileName().toString());
+        if (refId == null) {
+            return AdmissionController.Priority.NORMAL;
+        }
+        if (priorityRefIds.contains(refId)) {
+            return AdmissionController.Priority.HIGH;
+        }
+        RefStatus status = statusRegistry.get(refId);
+        return status != null && !status.finished()
+                && admissionFactory.isNearComplete(status.remaining(), status.transactionCount())
+                ? AdmissionController.Priority.HIGH : AdmissionController.Priority.NORMAL;
+    }
+
+    /**
+     * Whether the inbox is backed up and producers writing into it should slow down.
+     */
+    public boolean isBackpressured() {
+        AdmissionController current = admission;
+        return current != null && current.isBackpressured();
+    }
+
+    // A shard can be handed back once no refId of it is in flight here and its folder is empty.
+    private boolean isShardIdle(int shard) {
+        AtomicBoolean busy = new AtomicBoolean();
+        CountDownLatch checked = new CountDownLatch(engine.shardCount());
+        engine.executeOnAll(table -> {
+            for (String refId : table.keySet()) {
+                if (cluster.shardOf(refId) == shard) {
+                    busy.set(true);
+                    break;
+                }
+            }
+            checked.countDown();
+        });
+        try {
+            if (!checked.await(5, TimeUnit.SECONDS) || busy.get()) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cluster.shardFolder(shard), "*.json")) {
+            return !files.iterator().hasNext();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether the refId's events are aggregated here, as opposed to on the owner of its shard.
+     */
+    private boolean ownsRefId(String refId) {
+        if (!cluster.isEnabled()) {
+            return true;
         }
-        if (!success) {
-            logger.error("Failed to process file {} after {} attempts. Content (if any): {}", filePath, maxRetries, content);
+        ShardLeaseManager leases = shardLeases;
+        return leases != null && leases.owns(cluster.shardOf(refId));
+    }
+
+    /**
+     * Moves a parsed file to the folder of the shard its refId belongs to, where the owner picks
+     * it up. A file already in that folder stays put: its shard was lost while it was in flight.
+     */
+    private void route(Path file, String refId) {
+        Path target = cluster.shardFolder(cluster.shardOf(refId)).resolve(file.getFileName());
+        if (target.equals(file)) {
             return;
         }
+        try {
+            Files.createDirectories(target.getParent());
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Routed file {} of refId {} to {}", file, refId, target.getParent());
+        } catch (NoSuchFileException e) {
+            logger.warn("File {} disappeared before it could be routed", file);
+        } catch (IOException e) {
+            logger.error("Error routing file {} to {}", file, target, e);
+        }
+    }
+
+    private void registerGauges(FileRetryScheduler retryScheduler, Archiver archiver, IngestionPipeline pipeline,
+                                AdmissionController admission) {
+        metrics.gauge("admission.inflight.files", "Files admitted into the pipeline", admission, AdmissionController::inFlightFiles);
+        metrics.gauge("admission.inflight.bytes", "Bytes of the files admitted into the pipeline", admission, AdmissionController::inFlightBytes);
+        metrics.gauge("admission.pending.high", "Files waiting for admission in the high-priority lane", admission,
+                a -> a.pendingCount(AdmissionController.Priority.HIGH));
+        metrics.gauge("admission.pending.normal", "Files waiting for admission in the normal lane", admission,
+                a -> a.pendingCount(AdmissionController.Priority.NORMAL));
+        metrics.gauge("admission.backpressure", "1 while producers are asked to slow down", admission,
+                a -> a.isBackpressured() ? 1 : 0);
+        metrics.gauge("ingest.retry.pending", "Files parked for another attempt", retryScheduler, FileRetryScheduler::pendingCount);
+        metrics.gauge("ingest.inflight", "Files somewhere in the ingestion pipeline", pipeline, IngestionPipeline::inFlightCount);
+        metrics.gauge("ingest.queue.read", "Files waiting for a read thread", pipeline, IngestionPipeline::readQueueDepth);
+        metrics.gauge("ingest.queue.parse", "Files waiting for a parse thread", pipeline, IngestionPipeline::parseQueueDepth);
+        metrics.gauge("archive.pending", "Files waiting to be archived", archiver, Archiver::pendingCount);
+        metrics.gauge("archive.lag", "Milliseconds the oldest queued file has waited to be archived", archiver, Archiver::lagMillis);
+    }
+
+    private IngestionPipeline createPipeline(Archiver archiver, FileRetryScheduler retryScheduler,
+                                             AdmissionController admission) {
+        return new IngestionPipeline(new IngestionPipeline.Stages() {
+            @Override
+            public String refIdOf(Path file) {
+                return FileTransport.refIdOf(file.getFileName().toString());
+            }
+
+            @Override
+            public long runOf(String refId) {
+                return refRuns.getOrDefault(refId, 0L);
+            }
+
+            @Override
+            public JsonData parse(Path file, ByteBuffer content) {
+                return parseFile(file, content);
+            }
+
+            @Override
+            public void aggregate(Path file, JsonData data, Runnable onAggregated, Runnable onHandedOff) {
+                String refId = data.getJobInfo().getReferenceIdentifier();
+                if (ownsRefId(refId)) {
+                    aggregateFile(data, onAggregated);
+                    return;
+                }
+                // Moved on the shard thread, so the rename does not hold up the refId's other events.
+                engine.execute(refId, table -> {
+                    route(file, refId);
+                    onHandedOff.run();
+                });
+            }
+
+            @Override
+            public void archive(Path file, JsonData data, Archiver.Callback onDone) {
+                if (journal != null) {
+                    // Only let the file leave the inbox once its event is durable in the journal.
+                    journal.afterDurable(() -> archiver.archive(file, data, onDone), e -> onDone.done(false));
+                } else {
+                    archiver.archive(file, data, onDone);
+                }
+            }
+        }, retryScheduler, admission, dedup, new BufferPool(readBufferSize, mapThreshold, readThreads + parseThreads), metrics,
+                readThreads, parseThreads, queueCapacity);
+    }
+
+    private JsonData parseFile(Path filePath, ByteBuffer content) {
+        JsonData data;
+        try {
+            data = eventParser.parse(content);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not parse file {}: {}", filePath, e.getMessage());
+            return null;
+        }
+        if (data == null || data.getJobInfo() == null) {
+            logger.warn("Parsed JsonData is null or missing jobInfo for file: {}", filePath);
+            return null;
+        }
+        if (data.getTrackingInfo() != null
+                && admissionFactory.isPrioritySourceType(data.getTrackingInfo().getSourceTypeIdentifier())
+                && data.getJobInfo().getReferenceIdentifier() != null
+                && ownsRefId(data.getJobInfo().getReferenceIdentifier())) {
+            priorityRefIds.add(data.getJobInfo().getReferenceIdentifier());
+        }
+        return data;
+    }
+
+    // Package-private so benchmarks can drive aggregation without the file pipeline.
+    // onApplied, if given, runs on the refId's shard once the event has been applied.
+    void aggregateFile(JsonData data, Runnable onApplied) {
         String refId = data.getJobInfo().getReferenceIdentifier();
-        if (refId == null) {
-            logger.error("Reference Identifier is null for file: {}", filePath);
+        String rayId = data.getTrackingInfo().getRayIdentifier();
+        String state = data.getTrackingInfo().getState();
+        int transactionCount = data.getJobInfo().getTransactionCount();
+        StageAnalytics.Timings timings = stageAnalytics != null ? stageAnalytics.timings(data) : null;
+        long posted = System.nanoTime();
+        engine.execute(refId, table -> {
+            metrics.recordMailboxWait(System.nanoTime() - posted);
+            try {
+                apply(table, refId, rayId, state, transactionCount, timings);
+            } finally {
+                if (onApplied != null) {
+                    onApplied.run();
+                }
+            }
+        });
+    }
+
+    // Runs on the refId's shard. The event is journaled first, so no snapshot can capture it unjournaled.
+    private void apply(Map<String, RefProcessor> table, String refId, String rayId, String state,
+                       int transactionCount, StageAnalytics.Timings timings) {
+        if (journal != null) {
+            journal.appendEvent(refId, rayId, state, transactionCount);
+        }
+        applyEvent(table, refId, rayId, state, transactionCount, timings, false);
+    }
+
+    /**
+     * Aggregates an already parsed event without going through the inbox, the file pipeline or
+     * the archive. With the journal enabled the returned future completes once the event is
+     * durable in it, so an acknowledged event survives a crash; otherwise it completes as soon
+     * as the event is applied. An event whose ray was already aggregated in the same state, in
+     * the current run of its refId, is acknowledged without being applied again. In cluster mode, an event of a refId owned by
+     * another node is written into its shard folder instead.
+     */
+    public CompletableFuture<Void> ingest(JsonData data) {
+        if (data == null || data.getJobInfo() == null || data.getJobInfo().getReferenceIdentifier() == null
+                || data.getTrackingInfo() == null) {
+            return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Event is missing jobInfo.referenceIdentifier or trackingInfo"));
+        }
+        if (!ownsRefId(data.getJobInfo().getReferenceIdentifier())) {
+            int shard = cluster.shardOf(data.getJobInfo().getReferenceIdentifier());
+            try {
+                return shardRoute(shard).send(data);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        try {
+            if (!ready.await(30, TimeUnit.SECONDS)) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Aggregates are still being recovered"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        String refId = data.getJobInfo().getReferenceIdentifier();
+        String rayId = data.getTrackingInfo().getRayIdentifier();
+        String state = data.getTrackingInfo().getState();
+        int transactionCount = data.getJobInfo().getTransactionCount();
+        long run = dedup != null ? refRuns.getOrDefault(refId, 0L) : 0;
+        long rayKey = run != 0 ? DedupIndex.rayKey(refId, run, rayId, state) : 0;
+        if (rayKey != 0 && dedup.contains(DedupIndex.Kind.RAY, rayKey)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        StageAnalytics.Timings timings = stageAnalytics != null ? stageAnalytics.timings(data) : null;
+        CompletableFuture<Void> applied = new CompletableFuture<>();
+        long posted = System.nanoTime();
+        engine.execute(refId, table -> {
+            metrics.recordMailboxWait(System.nanoTime() - posted);
+            try {
+                apply(table, refId, rayId, state, transactionCount, timings);
+            } catch (RuntimeException e) {
+                applied.completeExceptionally(e);
+                return;
+            }
+            Runnable acknowledge = () -> {
+                if (rayKey != 0) {
+                    dedup.add(0, rayKey);
+                }
+                applied.complete(null);
+            };
+            if (journal == null) {
+                acknowledge.run();
+            } else {
+                journal.afterDurable(acknowledge, applied::completeExceptionally);
+            }
+        });
+        return applied;
+    }
+
+    private FileTransport shardRoute(int shard) throws IOException {
+        FileTransport route = shardRoutes.get(shard);
+        if (route == null) {
+            route = new FileTransport(cluster.shardFolder(shard));
+            shardRoutes.putIfAbsent(shard, route);
+        }
+        return route;
+    }
+
+    // Runs on the refId's shard.
+    private void applyEvent(Map<String, RefProcessor> table, String refId, String rayId, String state,
+                            int transactionCount, StageAnalytics.Timings timings, boolean replay) {
+        RefProcessor processor = table.get(refId);
+        if (processor == null) {
+            logger.info("Creating new processor for referenceIdentifier: {}", refId);
+            processor = new RefProcessor(refId, transactionCount);
+            table.put(refId, processor);
+        }
+        processor.processFile(table, rayId, state, transactionCount, timings, replay);
+    }
+
+    /**
+     * Rebuilds refId aggregates from the latest snapshot plus the journal records written after
+     * it, then starts taking periodic snapshots. RefIds whose last file arrived just before the
+     * crash but were not finished yet are finished now. Package-private for benchmarks, which
+     * need an open journal without starting the watcher.
+     */
+    void recoverAggregates() throws IOException {
+        long start = System.nanoTime();
+        AggregateJournal.Recovery recovery = journal.recover();
+        replay(recovery, shard -> true);
+        try {
+            finishCompleted();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while recovering aggregates", e);
+        }
+        logger.info("Recovered {} in-flight refIds in {} ms", engine.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        ready.countDown();
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "aggregate-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> snapshotAggregates(false), snapshotIntervalMillis,
+                snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the recovered states and records of the accepted shards for their aggregation
+     * shards, leaving out what another node has adopted. Returns how many were queued.
+     */
+    private int replay(AggregateJournal.Recovery recovery, IntPredicate shards) {
+        int queued = 0;
+        for (AggregateJournal.RefState state : recovery.states()) {
+            if (accepts(recovery, shards, state.refId(), recovery.snapshotLsn())) {
+                engine.execute(state.refId(), table -> restoreState(table, state));
+                queued++;
+            }
+        }
+        for (AggregateJournal.Entry entry : recovery.entries()) {
+            if (!accepts(recovery, shards, entry.refId(), entry.lsn())) {
+                continue;
+            }
+            if (entry.type() == AggregateJournal.Type.EVENT) {
+                engine.execute(entry.refId(), table -> applyEvent(table, entry.refId(), entry.rayId(), entry.state(),
+                        entry.transactionCount(), null, true));
+            } else {
+                engine.execute(entry.refId(), table -> discard(table, entry.refId()));
+            }
+            queued++;
+        }
+        return queued;
+    }
+
+    private boolean accepts(AggregateJournal.Recovery recovery, IntPredicate shards, String refId, long lsn) {
+        int shard = cluster.shardOf(refId);
+        Long adopted = recovery.adopted().get(shard);
+        return shards.test(shard) && (adopted == null || lsn > adopted);
+    }
+
+    // Runs on the refId's shard. Merges into a processor created by events that arrived first.
+    private void restoreState(Map<String, RefProcessor> table, AggregateJournal.RefState state) {
+        RefProcessor processor = table.get(state.refId());
+        if (processor != null) {
+            for (String[] ray : state.rays()) {
+                processor.processFile(table, ray[0], ray[1], state.transactionCount(), null, true);
+            }
             return;
         }
-        // Initialize or update the global remaining count map.
-        JsonData finalData1 = data;
-        remainingCountMap.computeIfAbsent(refId, k -> new AtomicInteger(finalData1.getJobInfo().getTransactionCount()));
-        // Get or create a processor for this reference identifier.
-        JsonData finalData = data;
-        RefProcessor processor = refProcessors.computeIfAbsent(refId, k -> {
-            logger.info("Creating new processor for referenceIdentifier: {}", k);
-            int expectedCount = finalData.getJobInfo().getTransactionCount();
-            return new RefProcessor(refId, expectedCount, scheduler, () -> refProcessors.remove(refId));
+        processor = new RefProcessor(state.refId(), state.transactionCount());
+        processor.restore(state);
+        table.put(state.refId(), processor);
+    }
+
+    // Runs on the refId's shard. Forgets an in-flight refId without reporting it.
+    private void discard(Map<String, RefProcessor> table, String refId) {
+        RefProcessor processor = table.remove(refId);
+        if (processor != null) {
+            processor.idleTimeout.cancel();
+            residentRays.add(-processor.rays.size());
+            refRuns.remove(refId, processor.run);
+        }
+        statusRegistry.remove(refId);
+    }
+
+    // Replay never finishes a refId, so those that already have every ray are finished here.
+    private void finishCompleted() throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(engine.shardCount());
+        engine.executeOnAll(table -> {
+            for (RefProcessor processor : new ArrayList<>(table.values())) {
+                if (processor.remaining <= 0) {
+                    processor.finish(table);
+                }
+            }
+            finished.countDown();
         });
-        processor.processFile(data);
-        // Move the file to the archive folder.
+        finished.await();
+    }
+
+    /**
+     * Adopts the unfinished refIds of a shard taken over from {@code peer}: replays them from the
+     * peer's journal, snapshots them into this node's, and then marks them adopted in the peer's
+     * journal so the peer does not recover them as well. Runs on the snapshot thread, so it never
+     * overlaps a snapshot. If the snapshot fails the peer's journal keeps them.
+     */
+    private void adoptShard(int shard, String peer) {
+        Path peerFolder = cluster.peerFolder(journalFolder, peer);
         try {
-            Path archiveFolder = Paths.get(archiveFolderPath);
-            if (!Files.exists(archiveFolder)) {
-                Files.createDirectories(archiveFolder);
+            AggregateJournal.Recovery recovery = AggregateJournal.read(peerFolder);
+            int adopted = replay(recovery, candidate -> candidate == shard);
+            if (adopted == 0) {
+                return;
             }
-            Path targetPath = archiveFolder.resolve(filePath.getFileName());
-            Files.move(filePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
-            logger.info("Archived file: {} to {}", filePath, targetPath);
+            finishCompleted();
+            if (!snapshotAggregates(true)) {
+                logger.error("Could not snapshot shard {} adopted from node {}, leaving it in that node's journal", shard, peer);
+                return;
+            }
+            // This node's own records are covered by the snapshot just written.
+            if (!peer.equals(cluster.getNodeId())) {
+                AggregateJournal.markAdopted(peerFolder, shard, recovery.lastLsn());
+            }
+            logger.info("Adopted {} journal states and records of shard {} from node {}", adopted, shard, peer);
         } catch (IOException e) {
-            logger.error("Error archiving file: " + filePath, e);
+            logger.error("Error adopting shard {} from the journal of node {}", shard, peer, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    // Drops the in-flight refIds of a shard that was lost; their next owner adopts them from the journal.
+    private void dropShard(int shard) {
+        engine.executeOnAll(table -> {
+            for (String refId : new ArrayList<>(table.keySet())) {
+                if (cluster.shardOf(refId) == shard) {
+                    discard(table, refId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a consistent snapshot: every shard captures its table and then waits, so no record
+     * is journaled until the journal has been rolled at the captured position. Skipped if
+     * nothing was journaled since the last one, unless {@code always}. Returns whether the state
+     * is covered by a snapshot on disk.
+     */
+    private boolean snapshotAggregates(boolean always) {
+        List<AggregateJournal.RefState> states = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch captured = new CountDownLatch(engine.shardCount());
+        CountDownLatch resume = new CountDownLatch(1);
+        engine.executeOnAll(table -> {
+            for (RefProcessor processor : table.values()) {
+                states.add(processor.snapshot());
+            }
+            captured.countDown();
+            try {
+                resume.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        long lsn;
+        try {
+            captured.await();
+            lsn = journal.lastLsn();
+            if (lsn == lastSnapshotLsn && !always) {
+                return true;
+            }
+            journal.rollAfter(lsn);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            resume.countDown();
+        }
+        try {
+            journal.writeSnapshot(lsn, states);
+            lastSnapshotLsn = lsn;
+            return true;
+        } catch (IOException e) {
+            logger.error("Error writing aggregate snapshot", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * State of one in-flight refId. Only ever touched on the refId's aggregation shard, so it
+     * needs no locking; the idle timer posts its expiry to that shard too.
+     */
     private class RefProcessor {
         private final String referenceIdentifier;
-        private final ScheduledExecutorService scheduler;
-        private final Runnable onFinishCallback;
-        private ScheduledFuture<?> scheduledFuture;
-        // List to store received ray information for this reference.
-        private final List<RayInfo> records = new ArrayList<>();
+        private final TimingWheel.Timeout idleTimeout;
+        private final IdleTimeoutPolicy.Arrivals arrivals = new IdleTimeoutPolicy.Arrivals(System.nanoTime());
+        // Random id of this lifetime of the refId, never 0.
+        private final long run = ThreadLocalRandom.current().nextLong() | 1;
+        // Rays received for this reference, one entry per distinct rayId.
+        private final RayTracker rays;
+        // Stage durations of this refId's events; null when stage analytics are disabled.
+        private final StageAnalytics.RefStages stages;
+        private boolean finished;
         private final Logger logger = LoggerFactory.getLogger(RefProcessor.class);
-        //declare 3 variables of type Atomic Number SuccessCount,FailureCount,OtherStatusCount
-        private final AtomicInteger successCount = new AtomicInteger(0);
-        private final AtomicInteger failureCount = new AtomicInteger(0);
-        private final AtomicInteger otherStatusCount = new AtomicInteger(0);
-        private final AtomicInteger totalRecords = new AtomicInteger(0);
-        public RefProcessor(String referenceIdentifier, int expectedTransactionCount,
-                            ScheduledExecutorService scheduler, Runnable onFinishCallback) {
+        private int successCount;
+        private int failureCount;
+        private int otherStatusCount;
+        private int totalRecords;
+        // Rays still expected before the refId is complete.
+        private int remaining;
+        public RefProcessor(String referenceIdentifier, int expectedTransactionCount) {
             this.referenceIdentifier = referenceIdentifier;
-            this.scheduler = scheduler;
-            this.onFinishCallback = onFinishCallback;
-            timerInitiate();
+            this.remaining = expectedTransactionCount;
+            this.rays = new RayTracker(expectedTransactionCount);
+            this.stages = stageAnalytics != null ? stageAnalytics.newRefStages() : null;
+            refRuns.put(referenceIdentifier, run);
+            this.idleTimeout = idleTimers.schedule(this::expire, idleTimeouts.initialMillis());
+            logger.info("Scheduled finish timer for refId: {} in {} ms", referenceIdentifier, idleTimeouts.initialMillis());
             logger.info("Initialized RefProcessor for refId: {} with expected transaction count: {}",
                     referenceIdentifier, expectedTransactionCount);
         }
 
         /**
-         * Processes an incoming JsonData file by adding its ray information.
-         * Resets the timer, and decrements the global remaining count.
-         * If the remaining count becomes zero, finish() is invoked immediately.
-         *
+         * Processes an incoming file by adding its ray information.
+         * Resets the timer to the idle timeout for this refId's arrivals so far, and decrements the remaining count.
+         * If the remaining count becomes zero, the refId is finished immediately, unless the
+         * event is being replayed from the journal.
+         * A rayId that was already received is not counted again; if its state changed, the
+         * latest state replaces the earlier one. Stage durations are counted for every event
+         * that is not a duplicate.
          */
-        public synchronized void processFile(JsonData data) {
-            String rayId = data.getTrackingInfo().getRayIdentifier();
-            String state = data.getTrackingInfo().getState();
-            totalRecords.set(data.getJobInfo().getTransactionCount());
-            if ("SUCCESS".equalsIgnoreCase(state)) {
-                successCount.incrementAndGet();
-            } else if ("FAILURE".equalsIgnoreCase(state)) {
-                failureCount.incrementAndGet();
-            } else {
-                otherStatusCount.incrementAndGet();
-            }
-            records.add(new RayInfo(rayId, state));
-            logger.info("Received file for refId: {}: rayId: {}, state: {}. Total records: {}",
-                    referenceIdentifier, rayId, state, records.size());
-            // Decrement the global remaining count.
-            AtomicInteger counter = remainingCountMap.get(referenceIdentifier);
-            if (counter != null) {
-                int remaining = counter.decrementAndGet();
-                logger.info("Remaining count for {} is {}", referenceIdentifier, remaining);
-                if (remaining <= 0) {
-                    finish();
-                    remainingCountMap.remove(referenceIdentifier);
-                    return;
-                }
+        public void processFile(Map<String, RefProcessor> table, String rayId, String state, int transactionCount,
+                                StageAnalytics.Timings timings, boolean replay) {
+            if (finished) {
+                logger.warn("Dropping rayId: {} for refId: {}, which has already finished", rayId, referenceIdentifier);
+                return;
+            }
+            totalRecords = transactionCount;
+            // Replayed events arrive in a burst that says nothing about upstream timing.
+            if (!replay) {
+                arrivals.record(System.nanoTime());
+            }
+            RayTracker.AddResult result = rays.add(rayId, state);
+            if (result == RayTracker.AddResult.DUPLICATE) {
+                logger.debug("Ignoring duplicate file for refId: {}: rayId: {}", referenceIdentifier, rayId);
+                idleTimeout.touch(nextTimeout());
+                return;
             }
-            // Cancel and reset the timer.
-            if (scheduledFuture != null) {
-                scheduledFuture.cancel(false);
+            if (timings != null) {
+                stages.record(timings);
+                stageAnalytics.record(engine.shardOf(referenceIdentifier), timings);
             }
-            timerInitiate();
+            if (result == RayTracker.AddResult.UPDATED) {
+                countState(rays.replacedState(), -1);
+                countState(state, 1);
+                logger.info("Updated state of refId: {}: rayId: {} to {}", referenceIdentifier, rayId, state);
+                publish();
+                idleTimeout.touch(nextTimeout());
+                return;
+            }
+            countState(state, 1);
+            residentRays.increment();
+            logger.debug("Received file for refId: {}: rayId: {}, state: {}. Total records: {}",
+                    referenceIdentifier, rayId, state, rays.size());
+            remaining--;
+            logger.debug("Remaining count for {} is {}", referenceIdentifier, remaining);
+            if (remaining <= 0 && !replay) {
+                finish(table);
+                return;
+            }
+            publish();
+            // Push the inactivity deadline back.
+            idleTimeout.touch(nextTimeout());
         }
 
-        private void timerInitiate() {
-            scheduledFuture = scheduler.schedule(this::finish, 5, TimeUnit.MINUTES);
-            logger.info("Scheduled finish timer for refId: {} in 5 minutes", referenceIdentifier);
+        private long nextTimeout() {
+            return idleTimeouts.timeoutMillis(arrivals, rays.size(), totalRecords);
         }
 
 
-        public synchronized void finish() {
-            if (scheduledFuture != null) {
-                scheduledFuture.cancel(false);
+        public void finish(Map<String, RefProcessor> table) {
+            long start = System.nanoTime();
+            try {
+                finishNow(table);
+            } finally {
+                metrics.recordFinish(System.nanoTime() - start);
+            }
+        }
+
+        private void finishNow(Map<String, RefProcessor> table) {
+            idleTimeout.cancel();
+            if (finished) {
+                return;
             }
-            if (records.isEmpty()) {
+            if (rays.isEmpty()) {
                 logger.info("No records to process for refId: {}", referenceIdentifier);
                 return;
             }
-            Map<String, String> sortedRayData = new TreeMap<>();
-            for (RayInfo info : records) {
-                sortedRayData.put(info.getRayId(), info.getState());
+            finished = true;
+            residentRays.add(-rays.size());
+            boolean complete = check1();
+            // Per-ray detail goes to the report; the tracker is handed over as is and not touched again.
+            reportSink.submit(new CompletionReport(referenceIdentifier, totalRecords, successCount,
+                    failureCount, otherStatusCount, complete, System.currentTimeMillis(), rays, stages));
+            logger.info("Finished refId {}: {} ray_ids, success {}, failure {}, other {}, all data received: {}",
+                    referenceIdentifier, rays.size(), successCount, failureCount, otherStatusCount, complete);
+            publish(status(Math.max(remaining, 0), true, complete));
+            if (journal != null) {
+                journal.appendFinish(referenceIdentifier);
             }
-            logger.info("Final grouped output for Reference Identifier: {}", referenceIdentifier);
-            int counter = 1;
-            for (Map.Entry<String, String> entry : sortedRayData.entrySet()) {
-                logger.info("{}. Ray Identifier: {} | State: {}", counter++, entry.getKey(), entry.getValue());
+            table.remove(referenceIdentifier);
+            refRuns.remove(referenceIdentifier, run);
+            priorityRefIds.remove(referenceIdentifier);
+        }
+
+        /**
+         * Finishes this refId from the idle timer, on its shard. A newer processor may have
+         * replaced this one by the time the task runs, which is then left alone.
+         */
+        private void expire() {
+            engine.execute(referenceIdentifier, table -> {
+                if (table.get(referenceIdentifier) == this) {
+                    metrics.recordIdleExpiry(System.nanoTime() - arrivals.lastNanos(), rays.size());
+                    finish(table);
+                }
+            });
+        }
+
+        private AggregateJournal.RefState snapshot() {
+            List<String[]> rayStates = new ArrayList<>(rays.size());
+            for (int ordinal = 0; ordinal < rays.size(); ordinal++) {
+                rayStates.add(new String[]{rays.rayIdAt(ordinal), rays.stateAt(ordinal)});
             }
-            if(check1()){
-                logger.info("All data recieved");
-                resetCounter(referenceIdentifier);
+            return new AggregateJournal.RefState(referenceIdentifier, totalRecords, remaining, successCount,
+                    failureCount, otherStatusCount, rayStates);
+        }
+
+        private void restore(AggregateJournal.RefState state) {
+            totalRecords = state.transactionCount();
+            remaining = state.remaining();
+            successCount = state.successCount();
+            failureCount = state.failureCount();
+            otherStatusCount = state.otherStatusCount();
+            for (String[] ray : state.rays()) {
+                rays.add(ray[0], ray[1]);
+            }
+            residentRays.add(rays.size());
+            publish(status(state.remaining(), false, false));
+        }
+
+        /** Makes the current counters visible to status readers. */
+        private void publish() {
+            publish(status(Math.max(remaining, 0), false, false));
+        }
+
+        /** Records a status for status readers and pushes it to stream subscribers. */
+        private void publish(RefStatus status) {
+            if (status.finished()) {
+                statusRegistry.finish(status);
+            } else {
+                statusRegistry.update(status);
+            }
+            if (eventStream != null) {
+                eventStream.publish(status);
+            }
+        }
+
+        private RefStatus status(int remaining, boolean finished, boolean complete) {
+            return new RefStatus(referenceIdentifier, totalRecords, rays.size(), successCount,
+                    failureCount, otherStatusCount, remaining, finished, complete,
+                    System.currentTimeMillis());
+        }
+
+        private void countState(String state, int delta) {
+            if ("SUCCESS".equalsIgnoreCase(state)) {
+                successCount += delta;
+            } else if ("FAILURE".equalsIgnoreCase(state)) {
+                failureCount += delta;
+            } else {
+                otherStatusCount += delta;
             }
-            //log success ,failure,other status count
-            logger.info("Success count: {}", successCount.get());
-            logger.info("Failure count: {}", failureCount.get());
-            logger.info("Other status count: {}", otherStatusCount.get());
-            logger.info("Total ray_ids processed for refId {}: {}", referenceIdentifier, records.size());
-            records.clear();
-            onFinishCallback.run();
-            logger.info("Finished processing for refId: {}", referenceIdentifier);
         }
 
         private boolean check1() {
-            return   totalRecords.get()== successCount.get() + failureCount.get() + otherStatusCount.get();
+            return   totalRecords== successCount + failureCount + otherStatusCount;
         }
     }
-//clear referenceIdenfier from refProcessors map
-    private void resetCounter(String referenceIdentifier) {
-        refProcessors.remove(referenceIdentifier);
+
+
+    /**
+     * Returns the last published status of an in-flight or recently finished refId, or null.
+     * Never waits on a processor.
+     */
+    public RefStatus getStatus(String refId) {
+        return statusRegistry.get(refId);
+    }
+
+    /**
+     * Returns a page of statuses ordered by refId, starting after {@code after}.
+     */
+    public StatusRegistry.Page getStatusPage(String after, int limit, StatusRegistry.Filter filter) {
+        return statusRegistry.page(after, limit, filter);
+    }
+
+    /**
+     * Subscribes to progress and completion events; see {@link RefEventStream#subscribe}. Returns
+     * null if the stream is disabled or has as many subscribers as it takes.
+     */
+    public RefEventStream.Subscription subscribe(Set<String> refIds, Set<RefEventStream.Type> types,
+                                                 String lastEventId, RefEventStream.Sink sink) {
+        return eventStream != null ? eventStream.subscribe(refIds, types, lastEventId, sink) : null;
     }
 
+    public boolean isStreamEnabled() {
+        return eventStream != null;
+    }
 
-    private static class RayInfo {
-        private final String rayId;
-        private final String state;
+    /** How long a stream subscription stays open before the subscriber has to resume it, 0 for no limit. */
+    public long getStreamTimeoutMillis() {
+        return eventStream != null ? eventStream.timeoutMillis() : 0;
+    }
 
-        public RayInfo(String rayId, String state) {
-            this.rayId = rayId;
-            this.state = state;
-        }
+    /** Whether archived events can be read back, which takes the SEGMENTS archive mode. */
+    public boolean isArchiveReadable() {
+        return archiver instanceof SegmentArchiver;
+    }
 
-        public String getRayId() {
-            return rayId;
-        }
+    /**
+     * Returns the latest archived payload of a ray, or null if the archive does not hold it or
+     * cannot be read back; see {@link #isArchiveReadable()}.
+     */
+    public byte[] readArchived(String refId, String rayId) throws IOException {
+        return archiver instanceof SegmentArchiver segments ? segments.read(refId, rayId) : null;
+    }
 
-        public String getState() {
-            return state;
+    /**
+     * Stage durations over all refIds so far, or null when stage analytics are disabled.
+     */
+    public StageAnalytics.Snapshot getStageTotals() {
+        return stageAnalytics != null ? stageAnalytics.snapshot() : null;
+    }
+
+    /**
+     * Stage durations of an in-flight refId, taken on its aggregation shard, or null if the refId
+     * is not in flight here or stage analytics are disabled. A finished refId has them in its
+     * completion report.
+     */
+    public StageAnalytics.Snapshot getStages(String refId) {
+        if (stageAnalytics == null) {
+            return null;
+        }
+        CompletableFuture<StageAnalytics.Snapshot> snapshot = new CompletableFuture<>();
+        engine.execute(refId, table -> {
+            RefProcessor processor = table.get(refId);
+            snapshot.complete(processor != null ? processor.stages.snapshot() : null);
+        });
+        try {
+            return snapshot.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
         }
     }
+
     // getSucess(refId) method to get the success count of the reference identifier
     public int getSuccess(String refId) {
-        RefProcessor processor = refProcessors.get(refId);
-        if (processor != null) {
-            return processor.successCount.get();
-        }
-        return -1;
+        RefStatus status = statusRegistry.get(refId);
+        return status != null ? status.successCount() : -1;
     }
     // getFailure(refId) method to get the failure count of the reference identifier
     public int getFailure(String refId) {
-        RefProcessor processor = refProcessors.get(refId);
-        if (processor != null) {
-            return processor.failureCount.get();
-        }
-        return -1;
+        RefStatus status = statusRegistry.get(refId);
+        return status != null ? status.failureCount() : -1;
     }
     // getOtherStatus(refId) method to get the other status count of the reference identifier
     public int getOtherStatus(String refId) {
-        RefProcessor processor = refProcessors.get(refId);
-        if (processor != null) {
-            return processor.otherStatusCount.get();
-        }
-        return -1;
+        RefStatus status = statusRegistry.get(refId);
+        return status != null ? status.otherStatusCount() : -1;
     }
 
 }
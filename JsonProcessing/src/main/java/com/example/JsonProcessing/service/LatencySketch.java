@@ -0,0 +1,125 @@
+package com.example.JsonProcessing.service;
+
+/**
+ * Histogram of durations in milliseconds with log-linear buckets: values below 8 are counted
+ * exactly, larger ones in 8 buckets per power of two, so any quantile is reported within 6.25%
+ * of the true value. Only the range of buckets actually hit is allocated, which for durations
+ * of one kind is usually a few dozen counters, and never more than {@value #BUCKETS}; memory
+ * does not grow with the number of values recorded.
+ *
+ * <p>Not thread-safe.
+ */
+public final class LatencySketch {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * Distribution of the recorded values, in milliseconds.
+     */
+    public record Summary(long count, long p50, long p99, long max) {
+    }
+
+    // Counts of buckets offset .. offset + counts.length - 1; null until the first value.
+    private long[] counts;
+    private int offset;
+    private long count;
+    private long max;
+
+    /** Records one duration; negative values are counted as 0. */
+    public void record(long millis) {
+        long value = Math.max(millis, 0);
+        int index = indexOf(value);
+        if (counts == null) {
+            counts = new long[SUB_BUCKETS];
+            offset = Math.min(index, BUCKETS - SUB_BUCKETS);
+        } else if (index < offset || index >= offset + counts.length) {
+            grow(index);
+        }
+        counts[index - offset]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    private void grow(int index) {
+        int low = Math.min(offset, index);
+        int high = Math.max(offset + counts.length - 1, index);
+        // At least double, so a slowly drifting range does not copy on every new bucket.
+        int length = Math.max(high - low + 1, Math.min(counts.length * 2, BUCKETS));
+        if (low + length > BUCKETS) {
+            low = BUCKETS - length;
+        }
+        long[] grown = new long[length];
+        System.arraycopy(counts, 0, grown, offset - low, counts.length);
+        counts = grown;
+        offset = low;
+    }
+
+    /** Adds the values recorded by {@code other}, as if they had been recorded here. */
+    public void add(LatencySketch other) {
+        if (other.counts == null) {
+            return;
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] == 0) {
+                continue;
+            }
+            int index = other.offset + i;
+            if (counts == null) {
+                counts = new long[SUB_BUCKETS];
+                offset = Math.min(index, BUCKETS - SUB_BUCKETS);
+            } else if (index < offset || index >= offset + counts.length) {
+                grow(index);
+            }
+            counts[index - offset] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * The smallest recorded value that at least {@code quantile} of all values are less than or
+     * equal to, as the middle of its bucket; 0 when nothing was recorded.
+     */
+    public long quantile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(middleOf(offset + i), max);
+            }
+        }
+        return max;
+    }
+
+    public Summary summary() {
+        return new Summary(count, quantile(0.5), quantile(0.99), max);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long middleOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+}
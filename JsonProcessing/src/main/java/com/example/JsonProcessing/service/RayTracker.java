@@ -0,0 +1,293 @@
+package com.example.JsonProcessing.service;
+
+import java.util.Arrays;
+
+/**
+ * Compact record of the rays received for one refId. Instead of an object per ray, ray ids are
+ * packed into a shared char arena (front-coded against the first ray id, since ids of one job
+ * usually share a long prefix), states are one-byte codes from the tracker's own dictionary of
+ * the states it has seen, and an open-addressing table of ray ordinals makes re-delivered rays
+ * idempotent. A tracker that sees more distinct states than one byte can encode keeps the
+ * strings of the extra ones as they are. Not thread-safe; the owning RefProcessor serializes
+ * access.
+ */
+public class RayTracker {
+
+    /**
+     * Result of {@link #add(String, String)}.
+     */
+    public enum AddResult {
+        /** First time this ray was seen. */
+        ADDED,
+        /** The ray was seen before with the same state; nothing changed. */
+        DUPLICATE,
+        /** The ray was seen before with another state, which has been replaced. */
+        UPDATED
+    }
+
+    // Codes 0-254 index the dictionary; a ray with this code has its state in rawStates.
+    private static final int MAX_STATES = 255;
+    private static final byte RAW_STATE = (byte) MAX_STATES;
+
+    private String prefix;
+    // Per ray: [shared prefix length][suffix length, high and low char][suffix chars...],
+    // starting at offsets[ordinal]. The shared length is capped at Character.MAX_VALUE.
+    private char[] arena;
+    private int arenaLength;
+    private int[] offsets;
+    private byte[] states;
+    // The distinct states seen so far, in order of first use; a state's code is its index.
+    private String[] stateNames = new String[4];
+    private int stateCount;
+    // State of each ray coded RAW_STATE, by ordinal; null until the dictionary first runs out.
+    private String[] rawStates;
+    private int size;
+    private String replacedState;
+    // Open-addressing hash table of ordinal + 1 (0 = empty slot).
+    private int[] table;
+
+    public RayTracker(int expectedRays) {
+        // Start small and grow: many refIds are tracked at once, and transactionCount is only a hint.
+        int capacity = Math.max(16, Math.min(expectedRays, 1024));
+        this.offsets = new int[capacity];
+        this.states = new byte[capacity];
+        this.arena = new char[capacity * 4];
+        this.table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Records a ray. A ray id that is already present keeps one entry; its state is replaced if
+     * it differs.
+     */
+    public AddResult add(String rayId, String state) {
+        if (rayId == null) {
+            rayId = "";
+        }
+        String key = state == null ? "" : state;
+        int hash = mix(rayId.hashCode());
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            int ordinal = table[slot] - 1;
+            if (rayIdEquals(ordinal, rayId)) {
+                String previous = stateAt(ordinal);
+                if (previous.equals(key)) {
+                    return AddResult.DUPLICATE;
+                }
+                replacedState = previous;
+                setState(ordinal, key);
+                return AddResult.UPDATED;
+            }
+            slot = (slot + 1) & mask;
+        }
+        append(rayId, key);
+        table[slot] = size;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return AddResult.ADDED;
+    }
+
+    /** State a ray had before the last {@link #add} that returned UPDATED. */
+    public String replacedState() {
+        return replacedState;
+    }
+
+    public String stateAt(int ordinal) {
+        byte code = states[ordinal];
+        return code == RAW_STATE ? rawStates[ordinal] : stateNames[code & 0xff];
+    }
+
+    public String rayIdAt(int ordinal) {
+        int offset = offsets[ordinal];
+        int shared = arena[offset];
+        int suffixLength = suffixLength(offset);
+        StringBuilder sb = new StringBuilder(shared + suffixLength);
+        sb.append(prefix, 0, shared);
+        sb.append(arena, offset + 3, suffixLength);
+        return sb.toString();
+    }
+
+    /**
+     * Ordinals of all rays sorted by ray id, in the same order as {@link String#compareTo}.
+     */
+    public int[] sortedOrdinals() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] scratch = new int[size];
+        mergeSort(order, scratch, 0, size);
+        return order;
+    }
+
+    public void clear() {
+        size = 0;
+        arenaLength = 0;
+        prefix = null;
+        Arrays.fill(table, 0);
+        if (rawStates != null) {
+            Arrays.fill(rawStates, null);
+        }
+    }
+
+    private void append(String rayId, String state) {
+        if (prefix == null) {
+            prefix = rayId;
+        }
+        int shared = 0;
+        int limit = Math.min(Math.min(prefix.length(), rayId.length()), Character.MAX_VALUE);
+        while (shared < limit && prefix.charAt(shared) == rayId.charAt(shared)) {
+            shared++;
+        }
+        int suffixLength = rayId.length() - shared;
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            states = Arrays.copyOf(states, size * 2);
+            if (rawStates != null) {
+                rawStates = Arrays.copyOf(rawStates, size * 2);
+            }
+        }
+        if (arenaLength + 3 + suffixLength > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + 3 + suffixLength));
+        }
+        offsets[size] = arenaLength;
+        arena[arenaLength++] = (char) shared;
+        arena[arenaLength++] = (char) (suffixLength >>> 16);
+        arena[arenaLength++] = (char) suffixLength;
+        rayId.getChars(shared, rayId.length(), arena, arenaLength);
+        arenaLength += suffixLength;
+        setState(size, state);
+        size++;
+    }
+
+    private void setState(int ordinal, String state) {
+        byte code = stateCode(state);
+        states[ordinal] = code;
+        if (code == RAW_STATE) {
+            if (rawStates == null) {
+                rawStates = new String[offsets.length];
+            }
+            rawStates[ordinal] = state;
+        } else if (rawStates != null) {
+            rawStates[ordinal] = null;
+        }
+    }
+
+    // A tracker sees a handful of states, so a linear scan beats a map here.
+    private byte stateCode(String state) {
+        for (int code = 0; code < stateCount; code++) {
+            if (stateNames[code].equals(state)) {
+                return (byte) code;
+            }
+        }
+        if (stateCount == MAX_STATES) {
+            return RAW_STATE;
+        }
+        if (stateCount == stateNames.length) {
+            stateNames = Arrays.copyOf(stateNames, Math.min(stateCount * 2, MAX_STATES));
+        }
+        stateNames[stateCount] = state;
+        return (byte) stateCount++;
+    }
+
+    private int suffixLength(int offset) {
+        return arena[offset + 1] << 16 | arena[offset + 2];
+    }
+
+    private void rehash() {
+        int[] grown = new int[table.length * 2];
+        int mask = grown.length - 1;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            int slot = mix(hashOf(ordinal)) & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = ordinal + 1;
+        }
+        table = grown;
+    }
+
+    private int length(int ordinal) {
+        int offset = offsets[ordinal];
+        return arena[offset] + suffixLength(offset);
+    }
+
+    private char charAt(int ordinal, int index) {
+        int offset = offsets[ordinal];
+        int shared = arena[offset];
+        return index < shared ? prefix.charAt(index) : arena[offset + 3 + index - shared];
+    }
+
+    // Same value as String.hashCode of the ray id, without building the string.
+    private int hashOf(int ordinal) {
+        int hash = 0;
+        int length = length(ordinal);
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + charAt(ordinal, i);
+        }
+        return hash;
+    }
+
+    private boolean rayIdEquals(int ordinal, String rayId) {
+        if (length(ordinal) != rayId.length()) {
+            return false;
+        }
+        for (int i = 0; i < rayId.length(); i++) {
+            if (charAt(ordinal, i) != rayId.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int compare(int a, int b) {
+        int lengthA = length(a);
+        int lengthB = length(b);
+        int limit = Math.min(lengthA, lengthB);
+        // Both share the prefix up to the shorter shared length, so start comparing there.
+        int start = Math.min(arena[offsets[a]], arena[offsets[b]]);
+        for (int i = Math.min(start, limit); i < limit; i++) {
+            char ca = charAt(a, i);
+            char cb = charAt(b, i);
+            if (ca != cb) {
+                return ca - cb;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private void mergeSort(int[] order, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(order, scratch, from, mid);
+        mergeSort(order, scratch, mid, to);
+        if (compare(order[mid - 1], order[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && compare(scratch[i], scratch[j]) <= 0)) {
+                order[k] = scratch[i++];
+            } else {
+                order[k] = scratch[j++];
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.JsonProcessing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stream of progress and completion events of refIds for push subscribers. Every published
+ * status gets the next sequence number and goes into a ring holding the latest {@code history}
+ * events; publishing takes a short lock and never waits for a subscriber. Each subscriber reads
+ * the ring from its own cursor on a sender thread of its own, since writing to a connection
+ * blocks while the client does not read; a slow subscriber only delays itself. The ring is the
+ * bound on what a subscriber may fall behind: one that is overtaken gets a {@link Type#RESET}
+ * event saying how many events it missed and carries on from the oldest one still held. A
+ * subscriber whose send has not returned within the send timeout is closed.
+ *
+ * <p>Every subscription also gets a heartbeat every {@code heartbeatMillis}, which keeps idle
+ * connections open through proxies and finds the ones whose subscriber has gone away.
+ *
+ * <p>Event ids are {@code <epoch>-<sequence>}, the epoch being the time the stream started. A
+ * subscriber passing the id of the last event it received resumes right after it; an id from an
+ * earlier run of the service gets a reset and everything still held.
+ */
+public class RefEventStream implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefEventStream.class);
+
+    public enum Type {
+        PROGRESS,
+        COMPLETION,
+        RESET
+    }
+
+    /**
+     * One event as sent to a subscriber; {@code data} is a {@link RefStatus}, or for a reset a
+     * map with the reason and, when known, the number of events missed. A reset may have no id.
+     */
+    public record Event(String id, Type type, Object data) {
+    }
+
+    /**
+     * Where a subscription's events go, for example a server-sent events connection. Only called
+     * from the subscription's sender thread, {@link #close()} included.
+     */
+    public interface Sink {
+        void send(Event event) throws IOException;
+
+        /** Sends something that is not an event, to check the subscriber is still there. */
+        void heartbeat() throws IOException;
+
+        void close();
+    }
+
+    private record Entry(long sequence, RefStatus status) {
+    }
+
+    private final String epoch = Long.toString(System.currentTimeMillis());
+    private final Entry[] ring;
+    private final int mask;
+    // Sequence number of the next event; written under the lock after its entry is in the ring.
+    private volatile long head;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger subscriptionCount = new AtomicInteger();
+    private final int maxSubscriptions;
+    private final long timeoutMillis;
+    private final long sendTimeoutNanos;
+    private final AtomicInteger senderNumber = new AtomicInteger();
+    private final ScheduledExecutorService heartbeats;
+
+    /**
+     * @param history          events held for subscribers to catch up on, rounded up to a power of two.
+     * @param maxSubscriptions subscribers at once, each with its own sender thread; more are refused.
+     * @param sendTimeoutMillis how long one send to a subscriber may take before it is closed.
+     * @param timeoutMillis    how long a subscription stays open before the subscriber has to
+     *                         resume it, 0 for no limit; used by the transport.
+     * @param heartbeatMillis  interval of heartbeats to every subscriber.
+     */
+    public RefEventStream(int history, int maxSubscriptions, long sendTimeoutMillis, long timeoutMillis,
+                          long heartbeatMillis) {
+        int size = Integer.highestOneBit(Math.max(history, 2) - 1) << 1;
+        this.ring = new Entry[size];
+        this.mask = size - 1;
+        this.maxSubscriptions = maxSubscriptions;
+        this.timeoutMillis = timeoutMillis;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "event-stream-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeats.scheduleWithFixedDelay(() -> {
+            for (Subscription subscription : subscriptions) {
+                subscription.heartbeatDue = true;
+                subscription.signal();
+            }
+        }, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        long checkMillis = Math.max(sendTimeoutMillis / 4, 10);
+        heartbeats.scheduleWithFixedDelay(() -> {
+            long now = System.nanoTime();
+            for (Subscription subscription : subscriptions) {
+                subscription.checkSend(now);
+            }
+        }, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Appends a status as a progress event, or a completion event once finished, and wakes the subscribers. */
+    public void publish(RefStatus status) {
+        synchronized (this) {
+            long sequence = head;
+            ring[(int) (sequence & mask)] = new Entry(sequence, status);
+            head = sequence + 1;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    public int subscriptionCount() {
+        return subscriptionCount.get();
+    }
+
+    public long timeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Subscribes to the events of the given refIds (all if empty) and types (progress and
+     * completion if empty). Without {@code lastEventId} only events published from now on are
+     * sent; with it, the held events after it are sent first.
+     *
+     * @return the subscription, or null if the maximum number of subscribers is reached.
+     */
+    public Subscription subscribe(Set<String> refIds, Set<Type> types, String lastEventId, Sink sink) {
+        if (subscriptionCount.incrementAndGet() > maxSubscriptions) {
+            subscriptionCount.decrementAndGet();
+            return null;
+        }
+        long current = head;
+        long oldest = oldestHeld(current);
+        Subscription subscription = new Subscription(refIds, types, sink);
+        if (lastEventId == null || lastEventId.isBlank()) {
+            subscription.cursor = current;
+        } else {
+            long sequence = sequenceOf(lastEventId);
+            if (sequence < 0) {
+                // From an earlier run, or not one of ours: everything held is new to the subscriber.
+                subscription.cursor = oldest;
+                subscription.reset = "Unknown event id " + lastEventId;
+            } else {
+                subscription.cursor = Math.min(sequence + 1, current);
+            }
+        }
+        subscriptions.add(subscription);
+        subscription.sender.start();
+        subscription.signal();
+        return subscription;
+    }
+
+    // Sequence number in an event id of this stream, or -1.
+    private long sequenceOf(String eventId) {
+        if (!eventId.startsWith(epoch + "-")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(eventId.substring(epoch.length() + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // The entry of the oldest sequence may be being overwritten by a publish in progress; skip it.
+    private long oldestHeld(long current) {
+        return Math.max(0, current - ring.length + 1);
+    }
+
+    private String idOf(long sequence) {
+        return epoch + "-" + sequence;
+    }
+
+    /** Closes every subscription; their sender threads end once their current send returns. */
+    @Override
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        heartbeats.shutdownNow();
+    }
+
+    /**
+     * One subscriber's position in the stream. Its cursor is only moved by its sender thread,
+     * which waits for a signal, sends everything up to the head and waits again.
+     */
+    public final class Subscription {
+        private final Set<String> refIds;
+        private final Set<Type> types;
+        private final Sink sink;
+        private final Thread sender;
+        // At most one permit: a signal while the sender is busy makes it look again once done.
+        private final Semaphore signals = new Semaphore(0);
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private long cursor;
+        // Reason to send a reset before the next events; null if there is none.
+        private String reset;
+        // Set by the heartbeat timer; a heartbeat missed while a drain was finishing goes with the next one.
+        private volatile boolean heartbeatDue;
+        // When the send in progress started, 0 while none is.
+        private volatile long sendingSince;
+
+        private Subscription(Set<String> refIds, Set<Type> types, Sink sink) {
+            this.refIds = refIds;
+            this.types = types;
+            this.sink = sink;
+            this.sender = new Thread(this::run, "event-stream-" + senderNumber.incrementAndGet());
+            this.sender.setDaemon(true);
+        }
+
+        private void signal() {
+            if (!closed.get() && signals.availablePermits() == 0) {
+                signals.release();
+            }
+        }
+
+        private void run() {
+            try {
+                while (!closed.get()) {
+                    signals.acquire();
+                    signals.drainPermits();
+                    drain();
+                }
+            } catch (InterruptedException e) {
+                // Closed while waiting, or by the send timeout.
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Closing stream subscriber: {}", e.toString());
+            } finally {
+                close();
+                sink.close();
+            }
+        }
+
+        private void drain() throws IOException {
+            if (reset != null) {
+                // Without an id when nothing precedes the cursor, so the subscriber's last id stands.
+                send(new Event(cursor > 0 ? idOf(cursor - 1) : null, Type.RESET, Map.of("reason", reset)));
+                reset = null;
+            }
+            if (heartbeatDue) {
+                heartbeatDue = false;
+                sendingSince = System.nanoTime();
+                sink.heartbeat();
+                sendingSince = 0;
+            }
+            while (!closed.get() && cursor < head) {
+                Entry entry = ring[(int) (cursor & mask)];
+                if (entry == null || entry.sequence() != cursor) {
+                    // Overtaken by the publishers; jump to the oldest event still held.
+                    long oldest = Math.max(oldestHeld(head), cursor + 1);
+                    logger.warn("Stream subscriber fell behind and missed {} events", oldest - cursor);
+                    send(new Event(idOf(oldest - 1), Type.RESET,
+                            Map.of("reason", "Subscriber fell behind", "missed", oldest - cursor)));
+                    cursor = oldest;
+                    continue;
+                }
+                Event event = eventOf(entry);
+                if (event != null) {
+                    send(event);
+                }
+                cursor++;
+            }
+        }
+
+        private void send(Event event) throws IOException {
+            sendingSince = System.nanoTime();
+            sink.send(event);
+            sendingSince = 0;
+        }
+
+        // Runs on the heartbeat thread, so it only flags the subscription and never touches the sink.
+        private void checkSend(long now) {
+            long since = sendingSince;
+            if (since != 0 && now - since > sendTimeoutNanos && !closed.get()) {
+                logger.warn("Closing stream subscriber whose send has not returned for {} ms",
+                        TimeUnit.NANOSECONDS.toMillis(now - since));
+                close();
+                // Ends a write on an interruptible channel; otherwise the write's own timeout does.
+                sender.interrupt();
+            }
+        }
+
+        // The event for an entry, or null if this subscriber does not want it.
+        private Event eventOf(Entry entry) {
+            RefStatus status = entry.status();
+            Type type = status.finished() ? Type.COMPLETION : Type.PROGRESS;
+            if ((!types.isEmpty() && !types.contains(type)) || (!refIds.isEmpty() && !refIds.contains(status.refId()))) {
+                return null;
+            }
+            return new Event(idOf(entry.sequence()), type, status);
+        }
+
+        /**
+         * Ends the subscription; safe to call more than once. Its slot is free right away; the
+         * sink is closed by the sender thread once its current send, if any, returns.
+         */
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                subscriptions.remove(this);
+                subscriptionCount.decrementAndGet();
+                signals.release();
+            }
+        }
+    }
+}
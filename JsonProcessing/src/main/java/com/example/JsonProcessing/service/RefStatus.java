@@ -0,0 +1,14 @@
+package com.example.JsonProcessing.service;
+
+/**
+ * Immutable view of one refId's progress, published by its processor after every change so
+ * readers never need the processor's lock.
+ *
+ * @param received  distinct rays received so far.
+ * @param remaining files still expected before the refId finishes on its own.
+ * @param complete  whether every expected transaction was received; only meaningful once finished.
+ */
+public record RefStatus(String refId, int transactionCount, int received, int successCount, int failureCount,
+                        int otherStatusCount, int remaining, boolean finished, boolean complete,
+                        long updatedAtMillis) {
+}
@@ -0,0 +1,24 @@
+package com.example.JsonProcessing.service;
+
+/**
+ * Receives a report for every refId that finishes.
+ */
+public interface ReportSink extends AutoCloseable {
+
+    /**
+     * Queues a report for writing. Waits for room if the sink is far behind.
+     */
+    void submit(CompletionReport report);
+
+    /** Number of reports waiting to be written. */
+    int pendingCount();
+
+    /** Number of reports dropped so far because they could not be written. */
+    long lostCount();
+
+    /**
+     * Writes whatever is still queued and releases the output.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,64 @@
+package com.example.JsonProcessing.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Builds the sink that finished refIds are reported to, from {@code processing.report.*}. With
+ * reports disabled, finished refIds are only summarized in the log.
+ */
+@Component
+public class ReportSinkFactory {
+
+    private final ClusterFactory cluster;
+    private final boolean enabled;
+    private final FileReportSink.Format format;
+    private final String folder;
+    private final boolean gzip;
+    private final int queueCapacity;
+    private final int batchSize;
+
+    public ReportSinkFactory(ClusterFactory cluster,
+                             @Value("${processing.report.enabled:true}") boolean enabled,
+                             @Value("${processing.report.format:JSONL}") FileReportSink.Format format,
+                             @Value("${processing.report.folder:REPORTS}") String folder,
+                             @Value("${processing.report.gzip:false}") boolean gzip,
+                             @Value("${processing.report.queue-capacity:1024}") int queueCapacity,
+                             @Value("${processing.report.batch-size:64}") int batchSize) {
+        this.cluster = cluster;
+        this.enabled = enabled;
+        this.format = format;
+        this.folder = folder;
+        this.gzip = gzip;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+    }
+
+    public ReportSink create() throws IOException {
+        if (!enabled) {
+            return new ReportSink() {
+                @Override
+                public void submit(CompletionReport report) {
+                }
+
+                @Override
+                public int pendingCount() {
+                    return 0;
+                }
+
+                @Override
+                public long lostCount() {
+                    return 0;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+        return new FileReportSink(cluster.nodeFolder(Paths.get(folder)), format, gzip, queueCapacity, batchSize);
+    }
+}
@@ -0,0 +1,792 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Archives processed events by appending their payloads to rolling segment files instead of
+ * keeping one file per event. Payloads are grouped into blocks that are deflated one at a time,
+ * and every segment {@code segment-N.seg} has a sidecar {@code segment-N.idx} with one line per
+ * event (refId, rayId, block offset, offset in block, length), so a single event can be read
+ * back by inflating just its block. Sealed segments are deleted once the archive exceeds its
+ * size or age budget, and runs of small sealed segments are compacted into one, keeping only
+ * the latest copy of each (refId, rayId).
+ *
+ * <p>Archived events can be read back with {@link #read(String, String)}, which is served at
+ * {@code /api/archive/{refId}/{rayId}}. Lookups do not scan the index files: the current
+ * segment keeps its entries in a map, and every sealed segment has a {@link SegmentIndex} of
+ * key hashes sorted in memory, 16 bytes per event, so finding an event in a segment is a binary
+ * search plus one read of its index line.
+ */
+public class SegmentArchiver implements Archiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentArchiver.class);
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TMP_SUFFIX = ".tmp";
+    // A merged index renamed to this name marks its compaction as committed; see compact().
+    private static final String COMPACTED_SUFFIX = ".compacted";
+    private static final int BLOCK_HEADER_BYTES = 8;
+
+    /**
+     * Limits for segment rolling, block size and retention.
+     */
+    public record Settings(long maxSegmentBytes, long maxSegmentAgeMillis, int blockBytes,
+                           long retentionBytes, long retentionAgeMillis, boolean fsync) {
+    }
+
+    private final Path root;
+    private final Settings settings;
+    private final int batchSize;
+    private final long lagWarnMillis;
+    private final BlockingQueue<ArchiveTask> queue;
+    private final IngestionMetrics metrics;
+    private final Thread writerThread;
+    // Read-locked by lookups; write-locked only while segments are sealed, swapped or deleted, so
+    // lookups never see a half-compacted archive and never hold up appends.
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+    // Sealed segments by id; changed only under the write lock.
+    private final NavigableMap<Long, SegmentIndex> sealed = new TreeMap<>();
+    private volatile boolean running = true;
+    private SegmentWriter current;
+
+    public SegmentArchiver(Path root, Settings settings, int queueCapacity, int batchSize, long lagWarnMillis,
+                           IngestionMetrics metrics) throws IOException {
+        this.root = root;
+        this.metrics = metrics;
+        this.settings = settings;
+        this.batchSize = batchSize;
+        this.lagWarnMillis = lagWarnMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        Files.createDirectories(root);
+        finishCompaction();
+        List<Long> existing = segmentIds();
+        for (long id : existing) {
+            sealed.put(id, new SegmentIndex(id, indexPath(id)));
+        }
+        this.current = openSegment(existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1);
+        this.writerThread = new Thread(this::drain, "segment-archiver");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @Override
+    public void archive(Path file, JsonData data, Callback onDone) {
+        try {
+            queue.put(new ArchiveTask(file, data.getJobInfo().getReferenceIdentifier(),
+                    data.getTrackingInfo() == null ? null : data.getTrackingInfo().getRayIdentifier(),
+                    onDone, System.nanoTime()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            onDone.done(false);
+        }
+    }
+
+    @Override
+    public int pendingCount() {
+        return queue.size();
+    }
+
+    @Override
+    public long lagMillis() {
+        ArchiveTask oldest = queue.peek();
+        return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedNanos);
+    }
+
+    /**
+     * Reads back the most recently archived payload for a (refId, rayId), or null if the
+     * archive does not hold it. The first lookup in a sealed segment after a restart loads that
+     * segment's index.
+     */
+    public byte[] read(String refId, String rayId) throws IOException {
+        String ref = clean(refId);
+        String ray = clean(rayId);
+        segmentsLock.readLock().lock();
+        try {
+            IndexEntry entry = current.find(ref, ray);
+            if (entry != null) {
+                return readPayload(current.id, entry);
+            }
+            for (SegmentIndex segment : sealed.descendingMap().values()) {
+                entry = segment.find(ref, ray);
+                if (entry != null) {
+                    return readPayload(segment.id, entry);
+                }
+            }
+            return null;
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    private byte[] readPayload(long segmentId, IndexEntry entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentId), StandardOpenOption.READ)) {
+            byte[] block = readBlock(channel, entry.blockOffset);
+            return Arrays.copyOfRange(block, entry.offsetInBlock, entry.offsetInBlock + entry.length);
+        }
+    }
+
+    private void drain() {
+        List<ArchiveTask> batch = new ArrayList<>(batchSize);
+        List<ArchiveTask> appended = new ArrayList<>(batchSize);
+        Set<ArchiveTask> archived = new HashSet<>();
+        while (running) {
+            try {
+                ArchiveTask first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    long start = System.nanoTime();
+                    writeBatch(batch, appended, archived);
+                    metrics.recordArchiveBatch(System.nanoTime() - start);
+                }
+                maybeRoll();
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                logger.error("Error writing archive segment", e);
+            } finally {
+                batch.forEach(task -> task.onDone.done(archived.contains(task)));
+                batch.clear();
+                appended.clear();
+                archived.clear();
+            }
+        }
+        try {
+            current.close();
+        } catch (IOException e) {
+            logger.error("Error closing archive segment", e);
+        }
+    }
+
+    /**
+     * Appends every file in the batch, makes the segment and its index durable and only then
+     * removes the files from the inbox, so a crash can duplicate an event in the archive but
+     * never lose it or leave it unreachable.
+     */
+    private void writeBatch(List<ArchiveTask> batch, List<ArchiveTask> appended, Set<ArchiveTask> archived)
+            throws IOException {
+        long lag = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batch.get(0).enqueuedNanos);
+        if (lag > lagWarnMillis) {
+            logger.warn("Archiver is {} ms behind with {} files still queued", lag, queue.size());
+        }
+        for (ArchiveTask task : batch) {
+            try {
+                current.append(task.refId, task.rayId, Files.readAllBytes(task.file));
+                appended.add(task);
+            } catch (NoSuchFileException e) {
+                logger.warn("File {} disappeared before it could be archived", task.file);
+            }
+        }
+        current.flushBlock();
+        if (settings.fsync()) {
+            current.force();
+        }
+        for (ArchiveTask task : appended) {
+            Files.deleteIfExists(task.file);
+            archived.add(task);
+        }
+        logger.info("Archived {} files into segment {}", appended.size(), current.id);
+    }
+
+    private void maybeRoll() throws IOException {
+        boolean full = current.size() >= settings.maxSegmentBytes();
+        boolean old = System.currentTimeMillis() - current.createdMillis >= settings.maxSegmentAgeMillis();
+        if (current.isEmpty() || !(full || old)) {
+            return;
+        }
+        SegmentWriter sealing = current;
+        sealing.close();
+        SegmentWriter next = openSegment(sealing.id + 1);
+        segmentsLock.writeLock().lock();
+        try {
+            sealed.put(sealing.id, sealing.toIndex(indexPath(sealing.id)));
+            current = next;
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+        logger.info("Sealed archive segment {}", sealing.id);
+        compact();
+        enforceRetention();
+    }
+
+    private void enforceRetention() throws IOException {
+        List<Long> sealed = sealedSegmentIds();
+        long total = current.size();
+        for (long id : sealed) {
+            total += segmentBytes(id);
+        }
+        long oldestAllowed = System.currentTimeMillis() - settings.retentionAgeMillis();
+        for (long id : sealed) {
+            boolean overBudget = total > settings.retentionBytes();
+            boolean expired = Files.getLastModifiedTime(segmentPath(id)).toMillis() < oldestAllowed;
+            if (!overBudget && !expired) {
+                break;
+            }
+            total -= segmentBytes(id);
+            segmentsLock.writeLock().lock();
+            try {
+                sealed.remove(id);
+                Files.deleteIfExists(segmentPath(id));
+                Files.deleteIfExists(indexPath(id));
+            } finally {
+                segmentsLock.writeLock().unlock();
+            }
+            logger.info("Deleted archive segment {} ({})", id, overBudget ? "over size budget" : "past retention age");
+        }
+    }
+
+    /**
+     * Merges the oldest run of consecutive small sealed segments into one. The merged segment
+     * takes the id of the last segment in the run, so newest-first lookups stay correct. Only
+     * the swap of the files takes the write lock; lookups go on while the merge is written.
+     */
+    private void compact() throws IOException {
+        long smallLimit = settings.maxSegmentBytes() / 4;
+        List<Long> run = new ArrayList<>();
+        long runBytes = 0;
+        for (long id : sealedSegmentIds()) {
+            long bytes = segmentBytes(id);
+            if (bytes < smallLimit && runBytes + bytes <= settings.maxSegmentBytes()) {
+                run.add(id);
+                runBytes += bytes;
+            } else if (run.size() >= 2) {
+                break;
+            } else {
+                run.clear();
+                runBytes = 0;
+            }
+        }
+        if (run.size() < 2) {
+            return;
+        }
+        // Only the newest copy of each event survives: its segment and position in that
+        // segment's index, since one segment can hold the same event more than once.
+        Map<String, Location> latest = new HashMap<>();
+        Map<Long, List<IndexEntry>> indexes = new LinkedHashMap<>();
+        for (long id : run) {
+            List<IndexEntry> entries = readIndex(id);
+            indexes.put(id, entries);
+            for (int i = 0; i < entries.size(); i++) {
+                latest.put(entries.get(i).key(), new Location(id, i));
+            }
+        }
+        long targetId = run.get(run.size() - 1);
+        Path tmpSegment = tmpPath(segmentPath(targetId));
+        Path tmpIndex = tmpPath(indexPath(targetId));
+        Path compactedIndex = compactedPath(indexPath(targetId));
+        // Age retention goes by the segment's mtime, which must not make merged events look new.
+        FileTime newest = FileTime.fromMillis(0);
+        for (long id : run) {
+            FileTime modified = Files.getLastModifiedTime(segmentPath(id));
+            newest = modified.compareTo(newest) > 0 ? modified : newest;
+        }
+        int kept = 0;
+        SegmentWriter merged;
+        try (SegmentWriter writer = new SegmentWriter(targetId, tmpSegment, tmpIndex, settings.blockBytes())) {
+            for (Map.Entry<Long, List<IndexEntry>> segment : indexes.entrySet()) {
+                try (FileChannel channel = FileChannel.open(segmentPath(segment.getKey()), StandardOpenOption.READ)) {
+                    long cachedOffset = -1;
+                    byte[] block = null;
+                    List<IndexEntry> entries = segment.getValue();
+                    for (int i = 0; i < entries.size(); i++) {
+                        IndexEntry entry = entries.get(i);
+                        if (!new Location(segment.getKey(), i).equals(latest.get(entry.key()))) {
+                            continue;
+                        }
+                        if (entry.blockOffset != cachedOffset) {
+                            block = readBlock(channel, entry.blockOffset);
+                            cachedOffset = entry.blockOffset;
+                        }
+                        writer.append(entry.refId, entry.rayId,
+                                Arrays.copyOfRange(block, entry.offsetInBlock, entry.offsetInBlock + entry.length));
+                        kept++;
+                    }
+                }
+            }
+            writer.flushBlock();
+            writer.force();
+            merged = writer;
+        }
+        Files.setLastModifiedTime(tmpSegment, newest);
+        segmentsLock.writeLock().lock();
+        try {
+            // The segment and its index cannot be replaced in one rename. Renaming the merged
+            // index to its staged name first commits the compaction: from then on a restart
+            // completes the other renames (finishCompaction), and before it discards the merge.
+            Files.move(tmpIndex, compactedIndex, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmpSegment, segmentPath(targetId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(compactedIndex, indexPath(targetId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Left behind by a crash, these would only duplicate older copies of merged events.
+            for (long id : run.subList(0, run.size() - 1)) {
+                sealed.remove(id);
+                Files.deleteIfExists(segmentPath(id));
+                Files.deleteIfExists(indexPath(id));
+            }
+            sealed.put(targetId, merged.toIndex(indexPath(targetId)));
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+        logger.info("Compacted archive segments {} into segment {} keeping {} events", run, targetId, kept);
+    }
+
+    /**
+     * Completes a compaction that was committed but interrupted by a crash, and removes the
+     * files of one that was not committed.
+     */
+    private void finishCompaction() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "segment-*" + INDEX_SUFFIX + COMPACTED_SUFFIX)) {
+            for (Path compactedIndex : stream) {
+                String name = compactedIndex.getFileName().toString();
+                Path index = root.resolve(name.substring(0, name.length() - COMPACTED_SUFFIX.length()));
+                Path segment = root.resolve(name.substring(0, name.length() - INDEX_SUFFIX.length()
+                        - COMPACTED_SUFFIX.length()) + SEGMENT_SUFFIX);
+                Path tmpSegment = tmpPath(segment);
+                if (Files.exists(tmpSegment)) {
+                    Files.move(tmpSegment, segment, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                Files.move(compactedIndex, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logger.warn("Completed compaction into {} interrupted by a crash", segment.getFileName());
+            }
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "segment-*" + TMP_SUFFIX)) {
+            for (Path tmp : stream) {
+                Files.deleteIfExists(tmp);
+                logger.warn("Deleted {} of a compaction interrupted by a crash", tmp.getFileName());
+            }
+        }
+    }
+
+    private static Path tmpPath(Path file) {
+        return file.resolveSibling(file.getFileName() + TMP_SUFFIX);
+    }
+
+    private static Path compactedPath(Path index) {
+        return index.resolveSibling(index.getFileName() + COMPACTED_SUFFIX);
+    }
+
+    private SegmentWriter openSegment(long id) throws IOException {
+        return new SegmentWriter(id, segmentPath(id), indexPath(id), settings.blockBytes());
+    }
+
+    private List<Long> segmentIds() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, "segment-*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                ids.add(Long.parseLong(name.substring("segment-".length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private List<Long> sealedSegmentIds() throws IOException {
+        List<Long> ids = segmentIds();
+        ids.removeIf(id -> id >= current.id);
+        return ids;
+    }
+
+    private long segmentBytes(long id) throws IOException {
+        long bytes = Files.size(segmentPath(id));
+        Path index = indexPath(id);
+        return Files.exists(index) ? bytes + Files.size(index) : bytes;
+    }
+
+    private static String segmentName(long id) {
+        return String.format("segment-%012d", id);
+    }
+
+    private Path segmentPath(long id) {
+        return root.resolve(segmentName(id) + SEGMENT_SUFFIX);
+    }
+
+    private Path indexPath(long id) {
+        return root.resolve(segmentName(id) + INDEX_SUFFIX);
+    }
+
+    private List<IndexEntry> readIndex(long id) throws IOException {
+        List<IndexEntry> entries = new ArrayList<>();
+        Path index = indexPath(id);
+        if (!Files.exists(index)) {
+            return entries;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                IndexEntry entry = parseEntry(line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    // Null for a line that is not a complete entry, such as one torn by a crash.
+    private static IndexEntry parseEntry(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 5) {
+            return null;
+        }
+        try {
+            return new IndexEntry(fields[0], fields[1], Long.parseLong(fields[2]),
+                    Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    // Both halves from String.hashCode, so the hash can be computed from either the strings or
+    // the index line without building a key.
+    private static long keyHash(String refId, String rayId) {
+        return (long) refId.hashCode() << 32 | (rayId.hashCode() & 0xFFFFFFFFL);
+    }
+
+    private static byte[] readBlock(FileChannel channel, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+        readFully(channel, header, offset);
+        header.flip();
+        int compressedLength = header.getInt();
+        int rawLength = header.getInt();
+        ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+        readFully(channel, compressed, offset + BLOCK_HEADER_BYTES);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            byte[] raw = new byte[rawLength];
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                n += inflater.inflate(raw, n, rawLength - n);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive block at offset " + offset, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive segment");
+            }
+        }
+    }
+
+    /**
+     * Stops the writer once it has finished the batch in hand. It is not interrupted, since an
+     * interrupt during channel I/O would close the segment under it.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record ArchiveTask(Path file, String refId, String rayId, Callback onDone, long enqueuedNanos) {
+    }
+
+    // Position of an index entry: the segment and the entry's line number in its index.
+    private record Location(long segmentId, int position) {
+    }
+
+    private record IndexEntry(String refId, String rayId, long blockOffset, int offsetInBlock, int length) {
+        String key() {
+            return refId + '\t' + rayId;
+        }
+
+        IndexEntry at(long offset) {
+            return new IndexEntry(refId, rayId, offset, offsetInBlock, length);
+        }
+    }
+
+    /**
+     * Lookup structure of one sealed segment: the hashes of its keys, sorted, with the byte
+     * offset of each entry's line in the index file. Equal hashes keep the order of their lines,
+     * so the newest copy of an event is the last one. Built from the segment's writer when it is
+     * sealed or compacted, or read from the index file on first use after a restart.
+     */
+    private static final class SegmentIndex {
+        private final long id;
+        private final Path path;
+        private long[] hashes;
+        private long[] lineOffsets;
+
+        SegmentIndex(long id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+
+        SegmentIndex(long id, Path path, long[] hashes, long[] lineOffsets, int count) {
+            this(id, path);
+            sort(hashes, lineOffsets, count);
+        }
+
+        IndexEntry find(String refId, String rayId) throws IOException {
+            load();
+            long hash = keyHash(refId, rayId);
+            // Last position with a hash not above the one looked for.
+            int low = 0;
+            int high = hashes.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (hashes[mid] <= hash) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int i = low - 1;
+            if (i < 0 || hashes[i] != hash) {
+                return null;
+            }
+            try (FileChannel index = FileChannel.open(path, StandardOpenOption.READ)) {
+                for (; i >= 0 && hashes[i] == hash; i--) {
+                    IndexEntry entry = parseEntry(readLine(index, lineOffsets[i]));
+                    if (entry != null && entry.refId.equals(refId) && entry.rayId.equals(rayId)) {
+                        return entry;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private synchronized void load() throws IOException {
+            if (hashes != null) {
+                return;
+            }
+            byte[] bytes = Files.exists(path) ? Files.readAllBytes(path) : new byte[0];
+            long[] lineHashes = new long[64];
+            long[] offsets = new long[64];
+            int count = 0;
+            int lineStart = 0;
+            while (lineStart < bytes.length) {
+                int lineEnd = lineStart;
+                int firstTab = -1;
+                int secondTab = -1;
+                for (; lineEnd < bytes.length && bytes[lineEnd] != '\n'; lineEnd++) {
+                    if (bytes[lineEnd] == '\t') {
+                        if (firstTab < 0) {
+                            firstTab = lineEnd;
+                        } else if (secondTab < 0) {
+                            secondTab = lineEnd;
+                        }
+                    }
+                }
+                // A line torn by a crash has no newline; it is skipped like any incomplete one.
+                if (secondTab > 0 && lineEnd < bytes.length) {
+                    if (count == lineHashes.length) {
+                        lineHashes = Arrays.copyOf(lineHashes, count * 2);
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    String refId = new String(bytes, lineStart, firstTab - lineStart, StandardCharsets.UTF_8);
+                    String rayId = new String(bytes, firstTab + 1, secondTab - firstTab - 1, StandardCharsets.UTF_8);
+                    lineHashes[count] = keyHash(refId, rayId);
+                    offsets[count++] = lineStart;
+                }
+                lineStart = lineEnd + 1;
+            }
+            sort(lineHashes, offsets, count);
+        }
+
+        // Stable, so lines with equal hashes stay in file order.
+        private void sort(long[] unsortedHashes, long[] unsortedOffsets, int count) {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> unsortedHashes[i]));
+            long[] sortedHashes = new long[count];
+            long[] sortedOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                sortedHashes[i] = unsortedHashes[order[i]];
+                sortedOffsets[i] = unsortedOffsets[order[i]];
+            }
+            this.lineOffsets = sortedOffsets;
+            this.hashes = sortedHashes;
+        }
+
+        private static String readLine(FileChannel index, long offset) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            int scanned = 0;
+            while (true) {
+                int n = index.read(buffer, offset + buffer.position());
+                for (; scanned < buffer.position(); scanned++) {
+                    if (buffer.get(scanned) == '\n') {
+                        return new String(buffer.array(), 0, scanned, StandardCharsets.UTF_8);
+                    }
+                }
+                if (n < 0) {
+                    return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+                }
+                if (!buffer.hasRemaining()) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends payloads to one segment file and its index. Payloads are buffered into a block
+     * until it is full or {@link #flushBlock()} is called, then the block is deflated and written.
+     */
+    private static final class SegmentWriter implements AutoCloseable {
+        private final long id;
+        private final long createdMillis = System.currentTimeMillis();
+        private final int blockBytes;
+        private final FileChannel channel;
+        private final FileChannel index;
+        private final StringBuilder indexLines = new StringBuilder();
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private final List<IndexEntry> blockEntries = new ArrayList<>();
+        // Latest entry of every key written so far, for lookups while this is the current segment.
+        private final Map<String, IndexEntry> latest = new ConcurrentHashMap<>();
+        // Key hash and index line offset of every entry, in file order, for the sealed segment's index.
+        private long[] keyHashes = new long[64];
+        private long[] lineOffsets = new long[64];
+        private int entryCount;
+        private byte[] block;
+        private int blockLength;
+        private byte[] compressed;
+
+        SegmentWriter(long id, Path segment, Path index, int blockBytes) throws IOException {
+            this.id = id;
+            this.blockBytes = blockBytes;
+            this.block = new byte[blockBytes];
+            this.compressed = new byte[blockBytes];
+            this.channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            this.index = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+
+        void append(String refId, String rayId, byte[] payload) throws IOException {
+            if (blockLength > 0 && blockLength + payload.length > blockBytes) {
+                flushBlock();
+            }
+            if (payload.length > block.length) {
+                block = new byte[payload.length];
+            }
+            System.arraycopy(payload, 0, block, blockLength, payload.length);
+            // The block offset is not known until the block is written; it is filled in then.
+            blockEntries.add(new IndexEntry(clean(refId), clean(rayId), -1, blockLength, payload.length));
+            blockLength += payload.length;
+        }
+
+        void flushBlock() throws IOException {
+            if (blockLength == 0) {
+                return;
+            }
+            deflater.reset();
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            long offset = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES).putInt(compressedLength).putInt(blockLength);
+            header.flip();
+            ByteBuffer body = ByteBuffer.wrap(compressed, 0, compressedLength);
+            while (header.hasRemaining() || body.hasRemaining()) {
+                channel.write(new ByteBuffer[]{header, body});
+            }
+            for (IndexEntry entry : blockEntries) {
+                indexLines.append(entry.refId).append('\t').append(entry.rayId).append('\t').append(offset)
+                        .append('\t').append(entry.offsetInBlock).append('\t').append(entry.length).append('\n');
+            }
+            ByteBuffer lines = StandardCharsets.UTF_8.encode(CharBuffer.wrap(indexLines));
+            long lineOffset = index.size();
+            int lineStart = 0;
+            for (IndexEntry entry : blockEntries) {
+                if (entryCount == keyHashes.length) {
+                    keyHashes = Arrays.copyOf(keyHashes, entryCount * 2);
+                    lineOffsets = Arrays.copyOf(lineOffsets, entryCount * 2);
+                }
+                keyHashes[entryCount] = keyHash(entry.refId, entry.rayId);
+                lineOffsets[entryCount++] = lineOffset + lineStart;
+                while (lines.get(lineStart) != '\n') {
+                    lineStart++;
+                }
+                lineStart++;
+            }
+            while (lines.hasRemaining()) {
+                index.write(lines);
+            }
+            // Published only once the block is written, so a lookup never finds an entry it cannot read.
+            for (IndexEntry entry : blockEntries) {
+                latest.put(entry.key(), entry.at(offset));
+            }
+            indexLines.setLength(0);
+            blockEntries.clear();
+            blockLength = 0;
+            if (block.length > blockBytes) {
+                block = new byte[blockBytes];
+            }
+        }
+
+        // The index too: a block it does not reference could never be read back.
+        void force() throws IOException {
+            channel.force(false);
+            index.force(false);
+        }
+
+        long size() throws IOException {
+            return channel.size() + blockLength;
+        }
+
+        IndexEntry find(String refId, String rayId) {
+            return latest.get(refId + '\t' + rayId);
+        }
+
+        // Once closed: the index of this segment as a sealed one, its index file being at path.
+        SegmentIndex toIndex(Path path) {
+            return new SegmentIndex(id, path, keyHashes, lineOffsets, entryCount);
+        }
+
+        boolean isEmpty() throws IOException {
+            return size() == 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushBlock();
+            deflater.end();
+            index.close();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.example.JsonProcessing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+/**
+ * Splits work between processes sharing one inbox. Keys are hashed onto a fixed number of
+ * shards, and each shard is owned by the node holding its lease file,
+ * {@code shard-<n>.lease} in the lease folder, which contains the owner's node id. Owners renew
+ * their leases on every heartbeat by touching the file; a lease whose file has not been touched
+ * for the lease TTL is taken over by another node.
+ *
+ * <p>Creating a lease uses {@code CREATE_NEW}, atomic on a local or shared POSIX file system, so
+ * only one node can win a free shard. Taking an expired lease over is serialized per shard by a
+ * {@code shard-<n>.takeover} file, also created with {@code CREATE_NEW}: its holder checks again
+ * that the lease is expired and then atomically renames its own lease over it, so the lease file
+ * never goes missing and a peer that saw the same expired lease finds it fresh once it gets its
+ * turn. Each node aims for an even share of the shards, counted from the node files it and its peers
+ * touch on every heartbeat. Nodes that hold more than their share hand the excess back once
+ * those shards are idle. A node that could not heartbeat for a whole TTL drops all of its
+ * shards before doing anything else, since a peer may already have taken them over.
+ */
+public class ShardLeaseManager implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardLeaseManager.class);
+
+    /**
+     * Told about shards this node gains and loses, on the heartbeat thread.
+     */
+    public interface Listener {
+        /**
+         * @param previousOwner the node whose expired lease was taken over, which may have left
+         *                      work of the shard unfinished; null if the shard was free.
+         */
+        void acquired(int shard, String previousOwner);
+
+        void lost(int shard);
+    }
+
+    private final Path leaseFolder;
+    private final Path nodeFolder;
+    private final String nodeId;
+    private final byte[] nodeIdBytes;
+    private final int shards;
+    private final long ttlMillis;
+    private final long heartbeatMillis;
+    // Shards that may be handed back to rebalance: nothing of them is in flight on this node.
+    private final IntPredicate idle;
+    private final Listener listener;
+    private final Set<Integer> owned = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService heartbeat;
+    private final long startedAtMillis = System.currentTimeMillis();
+    private long lastHeartbeatMillis = startedAtMillis;
+
+    public ShardLeaseManager(Path leaseFolder, String nodeId, int shards, long ttlMillis, long heartbeatMillis,
+                             IntPredicate idle, Listener listener) throws IOException {
+        this.leaseFolder = leaseFolder;
+        this.nodeFolder = leaseFolder.resolve("nodes");
+        this.nodeId = nodeId;
+        this.nodeIdBytes = nodeId.getBytes(StandardCharsets.UTF_8);
+        this.shards = shards;
+        this.ttlMillis = ttlMillis;
+        this.heartbeatMillis = heartbeatMillis;
+        this.idle = idle;
+        this.listener = listener;
+        Files.createDirectories(nodeFolder);
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "shard-lease");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Announces this node and starts heartbeating. No shard is claimed during the first two
+     * heartbeats, so nodes started together see each other before splitting the shards.
+     */
+    public void start() {
+        heartbeat.scheduleWithFixedDelay(this::beat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        logger.info("Node {} joined with {} shards, lease TTL {} ms", nodeId, shards, ttlMillis);
+    }
+
+    public static int shardOf(String key, int shards) {
+        // Spread the hash so keys differing only in a trailing counter land on different shards.
+        return Math.floorMod(key.hashCode() * 0x9E3779B9, shards);
+    }
+
+    public int shardOf(String key) {
+        return shardOf(key, shards);
+    }
+
+    public boolean owns(int shard) {
+        return owned.contains(shard);
+    }
+
+    public int ownedCount() {
+        return owned.size();
+    }
+
+    private void beat() {
+        try {
+            long now = System.currentTimeMillis();
+            if (now - lastHeartbeatMillis > ttlMillis) {
+                logger.warn("Node {} missed heartbeats for {} ms, dropping all shards", nodeId, now - lastHeartbeatMillis);
+                for (Integer shard : owned) {
+                    drop(shard);
+                }
+            }
+            lastHeartbeatMillis = now;
+            touch(nodeFolder.resolve(nodeId));
+            for (Integer shard : owned) {
+                renew(shard);
+            }
+            if (now - startedAtMillis < 2 * heartbeatMillis) {
+                return;
+            }
+            int share = (shards + liveNodes() - 1) / liveNodes();
+            if (owned.size() < share) {
+                claim(share);
+            } else if (owned.size() > share) {
+                handBack(share);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error in shard lease heartbeat of node {}", nodeId, e);
+        }
+    }
+
+    private int liveNodes() throws IOException {
+        long now = System.currentTimeMillis();
+        try (Stream<Path> nodes = Files.list(nodeFolder)) {
+            int live = (int) nodes.filter(node -> isFresh(node, now)).count();
+            return Math.max(live, 1);
+        }
+    }
+
+    // Starts at a node-specific shard so nodes joining together do not all race for shard 0.
+    private void claim(int share) {
+        int start = shardOf(nodeId);
+        for (int i = 0; i < shards && owned.size() < share; i++) {
+            int shard = (start + i) % shards;
+            if (owned.contains(shard)) {
+                continue;
+            }
+            Acquired acquired = tryAcquire(shard);
+            if (acquired != null) {
+                owned.add(shard);
+                logger.info("Node {} acquired shard {}", nodeId, shard);
+                listener.acquired(shard, acquired.previousOwner());
+            }
+        }
+    }
+
+    private void handBack(int share) {
+        for (Integer shard : owned) {
+            if (owned.size() <= share) {
+                return;
+            }
+            if (idle.test(shard)) {
+                drop(shard);
+                try {
+                    Files.deleteIfExists(leaseFile(shard));
+                } catch (IOException e) {
+                    logger.warn("Could not delete lease of shard {}: {}", shard, e.getMessage());
+                }
+                logger.info("Node {} handed back shard {} to rebalance", nodeId, shard);
+            }
+        }
+    }
+
+    // Returns null if the shard could not be acquired.
+    Acquired tryAcquire(int shard) {
+        Path lease = leaseFile(shard);
+        try {
+            Files.write(lease, nodeIdBytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return new Acquired(null);
+        } catch (FileAlreadyExistsException e) {
+            // Held, or abandoned: fall through to the staleness check.
+        } catch (IOException e) {
+            logger.warn("Could not create lease of shard {}: {}", shard, e.getMessage());
+            return null;
+        }
+        if (isFresh(lease, System.currentTimeMillis())) {
+            return null;
+        }
+        Path takeover = leaseFolder.resolve("shard-" + shard + ".takeover");
+        try {
+            Files.write(takeover, nodeIdBytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            discardIfStale(takeover);
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not take over lease of shard {}: {}", shard, e.getMessage());
+            return null;
+        }
+        Path replacement = leaseFolder.resolve("shard-" + shard + ".lease-" + nodeId);
+        try {
+            // Checked again under the takeover file: a peer that held it before may have taken
+            // the lease over since the check above.
+            if (isFresh(lease, System.currentTimeMillis())) {
+                return null;
+            }
+            String previousOwner = read(lease);
+            Files.write(replacement, nodeIdBytes);
+            Files.move(replacement, lease, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            logger.warn("Node {} took over expired lease of shard {} from {}", nodeId, shard, previousOwner);
+            return new Acquired(previousOwner.isEmpty() ? null : previousOwner);
+        } catch (NoSuchFileException e) {
+            // Released by its owner meanwhile; free for anyone on the next heartbeat.
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not take over lease of shard {}: {}", shard, e.getMessage());
+            return null;
+        } finally {
+            deleteQuietly(replacement);
+            deleteQuietly(takeover);
+        }
+    }
+
+    // Clears the takeover file of a node that died while taking a lease over.
+    private void discardIfStale(Path takeover) {
+        if (isFresh(takeover, System.currentTimeMillis())) {
+            return;
+        }
+        // Renamed to a name of this node's own before deleting, and checked once more, so a
+        // takeover file a peer created just now is put back rather than deleted.
+        Path discarded = takeover.resolveSibling(takeover.getFileName() + "-" + nodeId);
+        try {
+            Files.move(takeover, discarded, StandardCopyOption.ATOMIC_MOVE);
+            if (isFresh(discarded, System.currentTimeMillis())) {
+                Files.createLink(takeover, discarded);
+            }
+        } catch (IOException e) {
+            // Gone already, or a newer one exists: either way nothing of this node's to clean up.
+        } finally {
+            deleteQuietly(discarded);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void renew(int shard) {
+        Path lease = leaseFile(shard);
+        try {
+            if (nodeId.equals(read(lease))) {
+                touch(lease);
+                return;
+            }
+        } catch (IOException e) {
+            // Missing or unreadable: treat as lost.
+        }
+        logger.warn("Node {} lost the lease of shard {}", nodeId, shard);
+        drop(shard);
+    }
+
+    private void drop(int shard) {
+        if (owned.remove(shard)) {
+            listener.lost(shard);
+        }
+    }
+
+    private Path leaseFile(int shard) {
+        return leaseFolder.resolve("shard-" + shard + ".lease");
+    }
+
+    private boolean isFresh(Path file, long now) {
+        try {
+            return now - Files.getLastModifiedTime(file).toMillis() <= ttlMillis;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static void touch(Path file) throws IOException {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        try {
+            Files.setLastModifiedTime(file, now);
+        } catch (NoSuchFileException e) {
+            Files.createFile(file);
+        }
+    }
+
+    /**
+     * Stops heartbeating and gives up all leases, so peers can take the shards over at once
+     * instead of waiting for them to expire.
+     */
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        try {
+            heartbeat.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Integer shard : owned) {
+            drop(shard);
+            try {
+                if (nodeId.equals(read(leaseFile(shard)))) {
+                    Files.deleteIfExists(leaseFile(shard));
+                }
+            } catch (IOException e) {
+                logger.warn("Could not release lease of shard {}: {}", shard, e.getMessage());
+            }
+        }
+        try {
+            Files.deleteIfExists(nodeFolder.resolve(nodeId));
+        } catch (IOException e) {
+            logger.warn("Could not remove node file of {}: {}", nodeId, e.getMessage());
+        }
+        logger.info("Node {} left, released its shards", nodeId);
+    }
+
+    record Acquired(String previousOwner) {
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Durations of the upstream processing stages, from the {@code processStageInfo} audit entries
+ * of every page (transactionInfo entry) of an event. Within a page, the time from one audit entry
+ * to the next is counted towards the stage of the later entry, so a stage's duration includes
+ * the wait for it to start; the time from the first to the last entry is the page's duration.
+ *
+ * <p>Durations are kept in {@link LatencySketch}es, across all refIds here and per refId in a
+ * {@link RefStages}, so memory depends on the number of distinct stage names but not on the
+ * number of events. The totals are kept per aggregation shard, so shards counting events never
+ * wait for each other; each shard's totals are only locked against {@link #snapshot}, which
+ * merges them. At most {@code maxStages} names are told apart; further names are counted
+ * under {@value #OTHER}.
+ */
+public class StageAnalytics {
+
+    /** Name under which stages beyond the configured maximum are counted. */
+    public static final String OTHER = "other";
+    /** Returned by {@link #parseAuditTime} for a value it cannot read. */
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * Distributions of page durations and of each stage's duration, in milliseconds, with
+     * stages in the order they were first seen.
+     */
+    public record Snapshot(LatencySketch.Summary pages, Map<String, LatencySketch.Summary> stages) {
+    }
+
+    /**
+     * Stage durations taken from one event, computed on the parse side so the aggregation
+     * shard only has to count them.
+     */
+    static final class Timings {
+        private final int[] stages;
+        private final long[] stageMillis;
+        private final long[] pageMillis;
+        private int stageCount;
+        private int pageCount;
+
+        private Timings(int entries, int pages) {
+            this.stages = new int[entries];
+            this.stageMillis = new long[entries];
+            this.pageMillis = new long[pages];
+        }
+    }
+
+    private final int maxStages;
+    // Stage ids by name; names by id, with OTHER as id 0.
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> names = new CopyOnWriteArrayList<>(List.of(OTHER));
+    // Totals over the refIds of each aggregation shard.
+    private final RefStages[] totals;
+
+    public StageAnalytics(int maxStages, int shards) {
+        this.maxStages = Math.max(maxStages, 1);
+        this.totals = new RefStages[shards];
+        for (int i = 0; i < shards; i++) {
+            totals[i] = new RefStages();
+        }
+    }
+
+    /**
+     * Extracts the stage durations of an event, or null if it carries no usable audit entries,
+     * for example because the parser skipped transactionInfo.
+     */
+    Timings timings(JsonData data) {
+        List<JsonData.TransactionInfo> pages = data.getTransactionInfo();
+        if (pages == null || pages.isEmpty()) {
+            return null;
+        }
+        int entries = 0;
+        for (JsonData.TransactionInfo page : pages) {
+            if (page != null && page.getProcessStageInfo() != null) {
+                entries += page.getProcessStageInfo().size();
+            }
+        }
+        if (entries < 2) {
+            return null;
+        }
+        Timings timings = new Timings(entries, pages.size());
+        for (JsonData.TransactionInfo page : pages) {
+            if (page == null || page.getProcessStageInfo() == null) {
+                continue;
+            }
+            long first = NO_TIME;
+            long previous = NO_TIME;
+            int timed = 0;
+            for (JsonData.ProcessStageInfo entry : page.getProcessStageInfo()) {
+                long time = entry == null ? NO_TIME : parseAuditTime(entry.getAuditTime());
+                if (time == NO_TIME) {
+                    continue;
+                }
+                if (previous == NO_TIME) {
+                    first = time;
+                } else {
+                    timings.stages[timings.stageCount] = idOf(entry.getProcessStageName());
+                    timings.stageMillis[timings.stageCount++] = time - previous;
+                }
+                previous = time;
+                timed++;
+            }
+            if (timed > 1) {
+                timings.pageMillis[timings.pageCount++] = previous - first;
+            }
+        }
+        return timings.stageCount == 0 ? null : timings;
+    }
+
+    private int idOf(String name) {
+        if (name == null) {
+            return 0;
+        }
+        Integer id = ids.get(name);
+        return id != null ? id : register(name);
+    }
+
+    private synchronized int register(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (names.size() > maxStages) {
+            return 0;
+        }
+        names.add(name);
+        ids.put(name, names.size() - 1);
+        return names.size() - 1;
+    }
+
+    /** Counts an event's durations towards the totals over all refIds, on the event's shard. */
+    void record(int shard, Timings timings) {
+        RefStages shardTotals = totals[shard];
+        synchronized (shardTotals) {
+            shardTotals.record(timings);
+        }
+    }
+
+    /** Current totals over all refIds. */
+    public Snapshot snapshot() {
+        RefStages merged = new RefStages();
+        for (RefStages shardTotals : totals) {
+            synchronized (shardTotals) {
+                merged.add(shardTotals);
+            }
+        }
+        return merged.snapshot();
+    }
+
+    /** Creates the durations of one refId. */
+    RefStages newRefStages() {
+        return new RefStages();
+    }
+
+    /**
+     * Stage durations of one refId. Not thread-safe: only touched on the refId's aggregation
+     * shard, or by the report writer once the refId has finished.
+     */
+    public final class RefStages {
+        private final LatencySketch pages = new LatencySketch();
+        private LatencySketch[] stages = new LatencySketch[0];
+
+        private RefStages() {
+        }
+
+        void record(Timings timings) {
+            for (int i = 0; i < timings.stageCount; i++) {
+                int id = timings.stages[i];
+                if (id >= stages.length) {
+                    stages = Arrays.copyOf(stages, Math.max(id + 1, stages.length * 2));
+                }
+                if (stages[id] == null) {
+                    stages[id] = new LatencySketch();
+                }
+                stages[id].record(timings.stageMillis[i]);
+            }
+            for (int i = 0; i < timings.pageCount; i++) {
+                pages.record(timings.pageMillis[i]);
+            }
+        }
+
+        private void add(RefStages other) {
+            pages.add(other.pages);
+            if (other.stages.length > stages.length) {
+                stages = Arrays.copyOf(stages, other.stages.length);
+            }
+            for (int id = 0; id < other.stages.length; id++) {
+                if (other.stages[id] != null) {
+                    if (stages[id] == null) {
+                        stages[id] = new LatencySketch();
+                    }
+                    stages[id].add(other.stages[id]);
+                }
+            }
+        }
+
+        public Snapshot snapshot() {
+            Map<String, LatencySketch.Summary> summaries = new LinkedHashMap<>();
+            // Named stages in the order they were first seen, then the overflow.
+            for (int id = 1; id < stages.length; id++) {
+                if (stages[id] != null) {
+                    summaries.put(names.get(id), stages[id].summary());
+                }
+            }
+            if (stages.length > 0 && stages[0] != null) {
+                summaries.put(OTHER, stages[0].summary());
+            }
+            return new Snapshot(pages.summary(), summaries);
+        }
+    }
+
+    /**
+     * Reads an audit time such as {@code 2025-03-03 16:22:04.127} as milliseconds since the
+     * epoch, taking it to be UTC: only differences between audit times are used, so the zone
+     * does not matter as long as it is the same. Accepts 'T' as the separator, any number of
+     * fraction digits and a trailing 'Z'. Works on the characters in place and allocates
+     * nothing; returns {@link #NO_TIME} for anything else.
+     */
+    static long parseAuditTime(CharSequence text) {
+        if (text == null || text.length() < 19
+                || text.charAt(4) != '-' || text.charAt(7) != '-'
+                || (text.charAt(10) != ' ' && text.charAt(10) != 'T')
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return NO_TIME;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return NO_TIME;
+        }
+        int millis = 0;
+        int i = 19;
+        if (i < text.length() && text.charAt(i) == '.') {
+            int start = ++i;
+            for (int scale = 100; i < text.length() && isDigit(text.charAt(i)); i++, scale /= 10) {
+                millis += (text.charAt(i) - '0') * scale;
+            }
+            if (i == start) {
+                return NO_TIME;
+            }
+        }
+        if (i < text.length() && text.charAt(i) == 'Z') {
+            i++;
+        }
+        if (i != text.length()) {
+            return NO_TIME;
+        }
+        long seconds = daysFromCivil(year, month, day) * 86_400L + hour * 3_600L + minute * 60L + second;
+        return seconds * 1_000 + millis;
+    }
+
+    // Value of count decimal digits at offset, or -1 if any of them is not a digit.
+    private static int digits(CharSequence text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Days since 1970-01-01 of a proleptic Gregorian date, after Howard Hinnant's days_from_civil.
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+}
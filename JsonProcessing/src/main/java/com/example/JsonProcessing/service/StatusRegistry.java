@@ -0,0 +1,151 @@
+package com.example.JsonProcessing.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latest {@link RefStatus} of every in-flight refId, plus the final status of recently finished
+ * ones. Both are kept in skip lists ordered by refId, so lookups and pages are lock-free and a
+ * page resumes after the last refId of the previous one. Finished results are kept for a limited
+ * time and up to a limited count, oldest first out.
+ */
+public class StatusRegistry {
+
+    public enum Filter {
+        ALL,
+        ACTIVE,
+        FINISHED
+    }
+
+    /**
+     * One page of statuses ordered by refId.
+     *
+     * @param next refId to pass as {@code after} for the next page, or null on the last page.
+     */
+    public record Page(List<RefStatus> items, String next) {
+    }
+
+    private final ConcurrentSkipListMap<String, RefStatus> active = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, RefStatus> finished = new ConcurrentSkipListMap<>();
+    // Finished statuses in the order they were added, for eviction.
+    private final Queue<RefStatus> finishedOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedCount = new AtomicInteger();
+    private final int finishedCapacity;
+    private final long finishedTtlMillis;
+
+    public StatusRegistry(int finishedCapacity, long finishedTtlMillis) {
+        this.finishedCapacity = finishedCapacity;
+        this.finishedTtlMillis = finishedTtlMillis;
+    }
+
+    public void update(RefStatus status) {
+        active.put(status.refId(), status);
+    }
+
+    /** Moves a refId from the in-flight set to the finished results. */
+    public void finish(RefStatus status) {
+        active.remove(status.refId());
+        if (finishedCapacity <= 0) {
+            return;
+        }
+        finished.put(status.refId(), status);
+        finishedOrder.offer(status);
+        finishedCount.incrementAndGet();
+        evict(status.updatedAtMillis());
+    }
+
+    /** Forgets an in-flight refId without recording a result. */
+    public void remove(String refId) {
+        active.remove(refId);
+    }
+
+    /**
+     * Returns the status of an in-flight refId, else its finished result, else null.
+     */
+    public RefStatus get(String refId) {
+        RefStatus status = active.get(refId);
+        if (status == null) {
+            status = finished.get(refId);
+            if (status != null && isExpired(status, System.currentTimeMillis())) {
+                return null;
+            }
+        }
+        return status;
+    }
+
+    public int activeCount() {
+        return active.size();
+    }
+
+    /**
+     * Returns up to {@code limit} statuses with a refId after {@code after} (or from the start if
+     * null). With {@link Filter#ALL}, an in-flight status wins over a finished one for the same refId.
+     */
+    public Page page(String after, int limit, Filter filter) {
+        long now = System.currentTimeMillis();
+        Iterator<RefStatus> activeIt = filter == Filter.FINISHED ? null : tail(active, after).values().iterator();
+        Iterator<RefStatus> finishedIt = filter == Filter.ACTIVE ? null : tail(finished, after).values().iterator();
+        RefStatus nextActive = advance(activeIt, now);
+        RefStatus nextFinished = advance(finishedIt, now);
+        List<RefStatus> items = new ArrayList<>(Math.min(limit, 256));
+        while (items.size() < limit && (nextActive != null || nextFinished != null)) {
+            int order = nextActive == null ? 1 : nextFinished == null ? -1
+                    : nextActive.refId().compareTo(nextFinished.refId());
+            if (order <= 0) {
+                items.add(nextActive);
+                if (order == 0) {
+                    nextFinished = advance(finishedIt, now);
+                }
+                nextActive = advance(activeIt, now);
+            } else {
+                items.add(nextFinished);
+                nextFinished = advance(finishedIt, now);
+            }
+        }
+        boolean more = nextActive != null || nextFinished != null;
+        return new Page(items, more && !items.isEmpty() ? items.get(items.size() - 1).refId() : null);
+    }
+
+    private static ConcurrentNavigableMap<String, RefStatus> tail(ConcurrentSkipListMap<String, RefStatus> map, String after) {
+        return after == null ? map : map.tailMap(after, false);
+    }
+
+    private RefStatus advance(Iterator<RefStatus> it, long now) {
+        while (it != null && it.hasNext()) {
+            RefStatus status = it.next();
+            if (!status.finished() || !isExpired(status, now)) {
+                return status;
+            }
+        }
+        return null;
+    }
+
+    private void evict(long now) {
+        RefStatus oldest;
+        while ((oldest = finishedOrder.peek()) != null
+                && (finishedCount.get() > finishedCapacity || isExpired(oldest, now))) {
+            RefStatus evicted = finishedOrder.poll();
+            if (evicted == null) {
+                break;
+            }
+            finishedCount.decrementAndGet();
+            // Only drop the map entry if a later finish of the same refId has not replaced it.
+            finished.remove(evicted.refId(), evicted);
+        }
+    }
+
+    private boolean isExpired(RefStatus status, long now) {
+        return finishedTtlMillis > 0 && now - status.updatedAtMillis() > finishedTtlMillis;
+    }
+
+    /** Number of finished results currently held, including ones not yet evicted after expiry. */
+    public int finishedCount() {
+        return finishedCount.get();
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.JsonProcessing.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel for inactivity deadlines. Pushing a deadline back ({@link Timeout#touch})
+ * only writes a field: it takes no lock, allocates nothing and does not touch the wheel. The
+ * ticker thread notices the new deadline when it reaches the old bucket and moves the timeout
+ * on. A deadline brought forward would be noticed too late that way, so such a timeout is queued
+ * once to be placed again. Timeouts that really expired in a tick are handed to the expiry
+ * executor as one batch.
+ */
+public class TimingWheel implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final Executor expiryExecutor;
+    private final long startNanos = System.nanoTime();
+    // New and re-armed timeouts waiting for the ticker thread to place them in a bucket.
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final Thread ticker;
+    private volatile boolean running = true;
+    private long currentTick;
+
+    /**
+     * @param tickMillis     resolution of the wheel; deadlines fire up to one tick late.
+     * @param wheelSize      number of buckets, rounded up to a power of two.
+     * @param expiryExecutor runs each batch of expired timeouts.
+     */
+    public TimingWheel(String name, long tickMillis, int wheelSize, Executor expiryExecutor) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.expiryExecutor = expiryExecutor;
+        this.ticker = new Thread(this::run, name);
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Registers a task that runs once no {@link Timeout#touch} has happened for {@code delayMillis}.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(this, task);
+        timeout.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        timeout.placedDeadline = timeout.deadline;
+        active.incrementAndGet();
+        pending.offer(timeout);
+        return timeout;
+    }
+
+    /** Number of timeouts that are neither expired nor cancelled. */
+    public int activeCount() {
+        return active.get();
+    }
+
+    private void run() {
+        List<Timeout> expired = new ArrayList<>();
+        while (running) {
+            long tickDeadline = startNanos + (currentTick + 1) * tickNanos;
+            long sleep;
+            while ((sleep = tickDeadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(sleep);
+                if (!running) {
+                    return;
+                }
+            }
+            currentTick++;
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                timeout.queued = 0;
+                if (!timeout.isCancelled()) {
+                    if (timeout.linked) {
+                        unlink(timeout);
+                    }
+                    place(timeout);
+                }
+            }
+            collectExpired(buckets[(int) (currentTick & mask)], expired);
+            if (!expired.isEmpty()) {
+                List<Timeout> batch = new ArrayList<>(expired);
+                expired.clear();
+                try {
+                    expiryExecutor.execute(() -> expire(batch));
+                } catch (RuntimeException e) {
+                    logger.error("Could not hand off {} expired timeouts", batch.size(), e);
+                }
+            }
+        }
+    }
+
+    private void collectExpired(Timeout head, List<Timeout> expired) {
+        long now = System.nanoTime();
+        Timeout timeout = head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.isCancelled()) {
+                unlink(timeout);
+            } else if (timeout.deadline - now <= 0) {
+                unlink(timeout);
+                expired.add(timeout);
+            } else if (tickOf(timeout.deadline) != currentTick) {
+                // Touched since it was placed: move it to the bucket of its new deadline.
+                unlink(timeout);
+                place(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void expire(List<Timeout> batch) {
+        long now = System.nanoTime();
+        for (Timeout timeout : batch) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            if (timeout.deadline - now > 0) {
+                // Touched after the ticker saw it expire; put it back on the wheel.
+                pending.offer(timeout);
+                continue;
+            }
+            if (!timeout.complete()) {
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                logger.error("Error running expired timeout", e);
+            }
+        }
+    }
+
+    private long tickOf(long deadlineNanos) {
+        long ticks = (deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+        return Math.max(ticks, currentTick + 1);
+    }
+
+    private void place(Timeout timeout) {
+        // A deadline more than one revolution away lands in a bucket that is visited early;
+        // the visit sees the deadline has not passed and moves it again.
+        // Published before the deadline is read again, so a touch bringing it forward meanwhile
+        // either sees the placed deadline and queues the timeout, or is seen here.
+        long deadline;
+        do {
+            deadline = timeout.deadline;
+            timeout.placedDeadline = deadline;
+        } while (timeout.deadline - deadline < 0);
+        long tick = tickOf(deadline);
+        int index = (int) (tick & mask);
+        Timeout head = buckets[index];
+        timeout.bucket = index;
+        timeout.linked = true;
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[index] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.linked = false;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+
+    /**
+     * Handle for one deadline. Bucket links are only read and written by the ticker thread.
+     */
+    public static final class Timeout {
+        private static final VarHandle QUEUED;
+
+        static {
+            try {
+                QUEUED = MethodHandles.lookup().findVarHandle(Timeout.class, "queued", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private volatile long deadline;
+        // Deadline the timeout was last placed in a bucket for.
+        private volatile long placedDeadline;
+        // 1 while the timeout waits in the pending queue after its deadline was brought forward.
+        private volatile int queued;
+        // Set once, by whichever of cancel or expiry gets there first.
+        private final AtomicBoolean done = new AtomicBoolean();
+        private Timeout prev;
+        private Timeout next;
+        private int bucket;
+        private boolean linked;
+
+        private Timeout(TimingWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        /** Moves the deadline to {@code delayMillis} from now, later or earlier. */
+        public void touch(long delayMillis) {
+            long newDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            deadline = newDeadline;
+            if (newDeadline - placedDeadline < 0 && QUEUED.compareAndSet(this, 0, 1)) {
+                wheel.pending.offer(this);
+            }
+        }
+
+        public void cancel() {
+            complete();
+        }
+
+        public boolean isCancelled() {
+            return done.get();
+        }
+
+        private boolean complete() {
+            if (done.compareAndSet(false, true)) {
+                wheel.active.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
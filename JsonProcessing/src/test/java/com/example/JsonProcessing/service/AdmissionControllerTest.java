@@ -0,0 +1,155 @@
+package com.example.JsonProcessing.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdmissionControllerTest {
+
+    @TempDir
+    Path folder;
+
+    private final BlockingQueue<String> admitted = new LinkedBlockingQueue<>();
+
+    @Test
+    void admitsNoMoreFilesThanTheLimitAtOnce() throws IOException, InterruptedException {
+        try (AdmissionController admission = admission(2, 1_000, 100, 50, 10)) {
+            for (String name : new String[]{"a", "b", "c", "d"}) {
+                offer(admission, name, 10, AdmissionController.Priority.NORMAL);
+            }
+
+            assertThat(next()).isEqualTo("a");
+            assertThat(next()).isEqualTo("b");
+            assertThat(none()).isTrue();
+            assertThat(admission.inFlightFiles()).isEqualTo(2);
+            assertThat(admission.inFlightBytes()).isEqualTo(20);
+            assertThat(admission.pendingCount(AdmissionController.Priority.NORMAL)).isEqualTo(2);
+
+            admission.release(10);
+            assertThat(next()).isEqualTo("c");
+            assertThat(none()).isTrue();
+        }
+    }
+
+    @Test
+    void keepsTheBytesInFlightWithinTheLimitButLetsALargeFileInAlone() throws IOException, InterruptedException {
+        try (AdmissionController admission = admission(10, 100, 100, 50, 10)) {
+            offer(admission, "small", 60, AdmissionController.Priority.NORMAL);
+            offer(admission, "large", 500, AdmissionController.Priority.NORMAL);
+
+            assertThat(next()).isEqualTo("small");
+            assertThat(none()).isTrue();
+
+            admission.release(60);
+            assertThat(next()).isEqualTo("large");
+            assertThat(admission.inFlightBytes()).isEqualTo(500);
+        }
+    }
+
+    @Test
+    void servesTheHighLaneFirst() throws IOException, InterruptedException {
+        try (AdmissionController admission = admission(1, 1_000, 100, 50, 10)) {
+            offer(admission, "first", 10, AdmissionController.Priority.NORMAL);
+            assertThat(next()).isEqualTo("first");
+            offer(admission, "normal-1", 10, AdmissionController.Priority.NORMAL);
+            offer(admission, "normal-2", 10, AdmissionController.Priority.NORMAL);
+            offer(admission, "high", 10, AdmissionController.Priority.HIGH);
+
+            for (String expected : new String[]{"high", "normal-1", "normal-2"}) {
+                admission.release(10);
+                assertThat(next()).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    void signalsProducersBetweenTheWatermarks() throws IOException, InterruptedException {
+        Path marker = folder.resolve("signal").resolve("BACKPRESSURE");
+        try (AdmissionController admission = admission(1, 1_000, 100, 3, 1)) {
+            offer(admission, "first", 10, AdmissionController.Priority.NORMAL);
+            assertThat(next()).isEqualTo("first");
+            offer(admission, "a", 10, AdmissionController.Priority.NORMAL);
+            offer(admission, "b", 10, AdmissionController.Priority.NORMAL);
+            assertThat(admission.isBackpressured()).isFalse();
+
+            offer(admission, "c", 10, AdmissionController.Priority.NORMAL);
+            assertThat(admission.isBackpressured()).isTrue();
+            assertThat(marker).exists();
+
+            // Two waiting: still above the low watermark.
+            admission.release(10);
+            assertThat(next()).isEqualTo("a");
+            assertThat(marker).exists();
+
+            admission.release(10);
+            assertThat(next()).isEqualTo("b");
+            assertThat(admission.isBackpressured()).isFalse();
+            assertThat(marker).doesNotExist();
+        }
+    }
+
+    @Test
+    void removesAMarkerLeftBehindAndItsOwnOnClose() throws IOException, InterruptedException {
+        Path marker = Files.createDirectories(folder.resolve("signal")).resolve("BACKPRESSURE");
+        Files.write(marker, new byte[0]);
+        AdmissionController admission = admission(1, 1_000, 100, 1, 0);
+        assertThat(marker).doesNotExist();
+
+        offer(admission, "first", 10, AdmissionController.Priority.NORMAL);
+        assertThat(next()).isEqualTo("first");
+        offer(admission, "waiting", 10, AdmissionController.Priority.NORMAL);
+        assertThat(marker).exists();
+
+        admission.close();
+        assertThat(marker).doesNotExist();
+        assertThat(none()).isTrue();
+    }
+
+    @Test
+    void makesOfferingWaitWhileTheQueueIsFull() throws IOException, InterruptedException {
+        try (AdmissionController admission = admission(1, 1_000, 2, 50, 10)) {
+            offer(admission, "first", 10, AdmissionController.Priority.NORMAL);
+            assertThat(next()).isEqualTo("first");
+            offer(admission, "a", 10, AdmissionController.Priority.NORMAL);
+            offer(admission, "b", 10, AdmissionController.Priority.NORMAL);
+
+            Thread producer = new Thread(() -> offer(admission, "c", 10, AdmissionController.Priority.NORMAL));
+            producer.start();
+            producer.join(200);
+            assertThat(producer.isAlive()).isTrue();
+
+            admission.release(10);
+            producer.join(5_000);
+            assertThat(producer.isAlive()).isFalse();
+            assertThat(next()).isEqualTo("a");
+        }
+    }
+
+    private AdmissionController admission(int maxFiles, long maxBytes, int maxPending, int highWatermark,
+                                          int lowWatermark) throws IOException {
+        return new AdmissionController(maxFiles, maxBytes, maxPending, highWatermark, lowWatermark,
+                folder.resolve("signal").resolve("BACKPRESSURE"), new IngestionMetrics(new SimpleMeterRegistry()));
+    }
+
+    private void offer(AdmissionController admission, String name, long size, AdmissionController.Priority priority) {
+        admission.offer(size, priority, () -> admitted.add(name));
+    }
+
+    private String next() throws InterruptedException {
+        return admitted.poll(5, TimeUnit.SECONDS);
+    }
+
+    // Admission runs on its own thread, so give it a moment to admit something it should not.
+    private boolean none() throws InterruptedException {
+        return admitted.poll(200, TimeUnit.MILLISECONDS) == null;
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AggregateJournalTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void replaysDurableRecordsAfterACrash() throws Exception {
+        AggregateJournal crashed = new AggregateJournal(folder, 64, 16, true);
+        crashed.recover();
+        crashed.appendEvent("ref-1", "ray-1", "SUCCESS", 2);
+        crashed.appendEvent("ref-1", "ray-2", "FAILURE", 2);
+        crashed.appendFinish("ref-1");
+        durable(crashed).get(10, TimeUnit.SECONDS);
+        // A record torn by the crash is ignored.
+        Files.write(files().get(0), new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        try (AggregateJournal journal = new AggregateJournal(folder, 64, 16, true)) {
+            AggregateJournal.Recovery recovery = journal.recover();
+            assertThat(recovery.snapshotLsn()).isZero();
+            assertThat(recovery.entries()).containsExactly(
+                    new AggregateJournal.Entry(1, AggregateJournal.Type.EVENT, "ref-1", "ray-1", "SUCCESS", 2),
+                    new AggregateJournal.Entry(2, AggregateJournal.Type.EVENT, "ref-1", "ray-2", "FAILURE", 2),
+                    new AggregateJournal.Entry(3, AggregateJournal.Type.FINISH, "ref-1", "", "", 0));
+            assertThat(journal.appendEvent("ref-2", "ray-1", "SUCCESS", 1)).isEqualTo(4);
+        } finally {
+            crashed.close();
+        }
+    }
+
+    @Test
+    void recoversFromTheSnapshotAndTheRecordsAfterIt() throws Exception {
+        try (AggregateJournal journal = new AggregateJournal(folder, 64, 16, true)) {
+            journal.recover();
+            journal.appendEvent("ref-1", "ray-1", "SUCCESS", 3);
+            long lsn = journal.appendEvent("ref-1", "ray-2", "SUCCESS", 3);
+            journal.rollAfter(lsn);
+            List<String[]> rays = List.of(new String[]{"ray-1", "SUCCESS"}, new String[]{"ray-2", "SUCCESS"});
+            journal.writeSnapshot(lsn, List.of(new AggregateJournal.RefState("ref-1", 3, 1, 2, 0, 0, rays)));
+            journal.appendEvent("ref-1", "ray-3", "FAILURE", 3);
+        }
+        assertThat(files()).hasSize(1);
+
+        try (AggregateJournal journal = new AggregateJournal(folder, 64, 16, true)) {
+            AggregateJournal.Recovery recovery = journal.recover();
+            assertThat(recovery.snapshotLsn()).isEqualTo(2);
+            assertThat(recovery.states()).singleElement().satisfies(state -> {
+                assertThat(state.refId()).isEqualTo("ref-1");
+                assertThat(state.remaining()).isEqualTo(1);
+                assertThat(state.rays()).extracting(ray -> ray[0]).containsExactly("ray-1", "ray-2");
+            });
+            assertThat(recovery.entries()).extracting(AggregateJournal.Entry::rayId).containsExactly("ray-3");
+        }
+    }
+
+    @Test
+    void readsAPeersJournalAndKeepsItsAdoptionMarkersUntilTheNextSnapshot() throws Exception {
+        try (AggregateJournal peer = new AggregateJournal(folder, 64, 16, true)) {
+            peer.recover();
+            peer.appendEvent("ref-1", "ray-1", "SUCCESS", 2);
+            peer.appendEvent("ref-2", "ray-1", "SUCCESS", 2);
+            durable(peer).get(10, TimeUnit.SECONDS);
+
+            AggregateJournal.Recovery read = AggregateJournal.read(folder);
+            assertThat(read.entries()).hasSize(2);
+            assertThat(read.lastLsn()).isEqualTo(2);
+            AggregateJournal.markAdopted(folder, 7, read.lastLsn());
+        }
+
+        try (AggregateJournal peer = new AggregateJournal(folder, 64, 16, true)) {
+            AggregateJournal.Recovery recovery = peer.recover();
+            assertThat(recovery.adopted()).containsExactly(Map.entry(7, 2L));
+            long lsn = peer.appendEvent("ref-3", "ray-1", "SUCCESS", 1);
+            peer.rollAfter(lsn);
+            peer.writeSnapshot(lsn, List.of());
+        }
+        assertThat(folder.resolve("adopted-7.lsn")).doesNotExist();
+    }
+
+    @Test
+    void reportsNothingDurableUntilAFailedFsyncSucceedsOnRetry() throws Exception {
+        AtomicInteger failures = new AtomicInteger(1);
+        try (AggregateJournal journal = failing(failures)) {
+            journal.recover();
+            journal.appendEvent("ref-1", "ray-1", "SUCCESS", 1);
+            CompletableFuture<Void> durable = durable(journal);
+
+            // The retry waits a second before writing the records again to a new file.
+            assertThat(durable).failsWithin(500, TimeUnit.MILLISECONDS)
+                    .withThrowableOfType(TimeoutException.class);
+            durable.get(10, TimeUnit.SECONDS);
+            assertThat(failures).hasValue(0);
+        }
+
+        try (AggregateJournal journal = new AggregateJournal(folder, 64, 16, true)) {
+            assertThat(journal.recover().entries()).extracting(AggregateJournal.Entry::rayId).containsExactly("ray-1");
+        }
+    }
+
+    @Test
+    void failsTheActionsOfRecordsStillNotDurableAtClose() throws Exception {
+        AggregateJournal journal = failing(new AtomicInteger(Integer.MAX_VALUE));
+        journal.recover();
+        journal.appendEvent("ref-1", "ray-1", "SUCCESS", 1);
+        CompletableFuture<Void> durable = durable(journal);
+        journal.close();
+
+        assertThat(durable).failsWithin(10, TimeUnit.SECONDS)
+                .withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IOException.class);
+    }
+
+    // Appends take no lock, so records of different threads reach the writer out of LSN order.
+    @Test
+    void writesTheRecordsOfConcurrentAppendersInLsnOrder() throws Exception {
+        int threads = 8;
+        int perThread = 500;
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        try (AggregateJournal journal = new AggregateJournal(folder, 16, 4, false)) {
+            journal.recover();
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                for (int t = 0; t < threads; t++) {
+                    String refId = "ref-" + t;
+                    done.add(CompletableFuture.supplyAsync(() -> {
+                        for (int i = 0; i < perThread; i++) {
+                            journal.appendEvent(refId, "ray-" + i, "SUCCESS", perThread);
+                        }
+                        return durable(journal);
+                    }, executor).thenCompose(durable -> durable));
+                }
+                CompletableFuture.allOf(done.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        try (AggregateJournal journal = new AggregateJournal(folder, 16, 4, false)) {
+            List<AggregateJournal.Entry> entries = journal.recover().entries();
+            assertThat(entries).extracting(AggregateJournal.Entry::lsn)
+                    .containsExactlyElementsOf(LongStream.rangeClosed(1, threads * perThread).boxed().toList());
+            for (int t = 0; t < threads; t++) {
+                String refId = "ref-" + t;
+                assertThat(entries.stream().filter(entry -> entry.refId().equals(refId)).map(AggregateJournal.Entry::rayId))
+                        .containsExactlyElementsOf(IntStream.range(0, perThread).mapToObj(i -> "ray-" + i).toList());
+            }
+        }
+    }
+
+    private AggregateJournal failing(AtomicInteger failures) throws IOException {
+        return new AggregateJournal(folder, 64, 16, true) {
+            @Override
+            void force(FileChannel channel) throws IOException {
+                if (failures.getAndUpdate(left -> Math.max(left - 1, 0)) > 0) {
+                    throw new IOException("Simulated fsync failure");
+                }
+                super.force(channel);
+            }
+        };
+    }
+
+    private static CompletableFuture<Void> durable(AggregateJournal journal) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        journal.afterDurable(() -> durable.complete(null), durable::completeExceptionally);
+        return durable;
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "journal-*.log")) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AggregationEngineTest {
+
+    @Test
+    void runsTheTasksOfAKeyInPostingOrderOnItsOwnShard() throws InterruptedException {
+        Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+        Map<String, Set<String>> threads = new ConcurrentHashMap<>();
+        AggregationEngine<List<Integer>> engine = new AggregationEngine<>("test", 4, 64);
+        try {
+            Thread[] producers = new Thread[4];
+            for (int p = 0; p < producers.length; p++) {
+                String key = "ref-" + p;
+                producers[p] = new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        int value = i;
+                        engine.execute(key, table -> {
+                            table.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+                            threads.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet())
+                                    .add(Thread.currentThread().getName());
+                        });
+                    }
+                    engine.execute(key, table -> seen.put(key, table.get(key)));
+                });
+                producers[p].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+        } finally {
+            engine.close();
+        }
+
+        assertThat(seen).hasSize(4);
+        seen.forEach((key, values) -> {
+            assertThat(values).hasSize(1000).isSorted();
+            assertThat(threads.get(key)).containsExactly("test-" + engine.shardOf(key));
+        });
+        assertThat(engine.size()).isEqualTo(4);
+    }
+
+    @Test
+    void makesProducersWaitWhileAMailboxIsFull() throws InterruptedException {
+        AggregationEngine<Integer> engine = new AggregationEngine<>("test", 1, 3);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        try {
+            engine.execute("ref-1", table -> {
+                running.countDown();
+                await(release);
+            });
+            assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+            for (int i = 0; i < 3; i++) {
+                engine.execute("ref-1", table -> ran.incrementAndGet());
+            }
+            assertThat(engine.pendingCount()).isEqualTo(3);
+
+            Thread producer = new Thread(() -> engine.execute("ref-1", table -> ran.incrementAndGet()));
+            producer.start();
+            producer.join(200);
+            assertThat(producer.isAlive()).isTrue();
+
+            release.countDown();
+            producer.join(5_000);
+            assertThat(producer.isAlive()).isFalse();
+        } finally {
+            engine.close();
+        }
+
+        assertThat(ran).hasValue(4);
+        assertThat(engine.pendingCount()).isZero();
+    }
+
+    @Test
+    void aFailingTaskStillGivesBackItsPlaceInTheMailbox() throws InterruptedException {
+        AggregationEngine<Integer> engine = new AggregationEngine<>("test", 1, 1);
+        CountDownLatch after = new CountDownLatch(1);
+        try {
+            // Many more failing tasks than the mailbox holds: each must free its permit.
+            for (int i = 0; i < 100; i++) {
+                engine.execute("ref-1", table -> {
+                    throw new IllegalStateException("broken task");
+                });
+            }
+            engine.execute("ref-1", table -> after.countDown());
+
+            assertThat(after.await(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            engine.close();
+        }
+        assertThat(engine.pendingCount()).isZero();
+    }
+
+    @Test
+    void postsToEveryShardAndRunsWhatIsQueuedBeforeClosing() {
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        AtomicInteger ran = new AtomicInteger();
+        AggregationEngine<Integer> engine = new AggregationEngine<>("test", 3, 1024);
+        engine.executeOnAll(table -> visited.add(Thread.currentThread().getName()));
+        for (int i = 0; i < 500; i++) {
+            engine.execute("ref-" + i, table -> ran.incrementAndGet());
+        }
+        engine.close();
+
+        assertThat(visited).containsExactlyInAnyOrder("test-0", "test-1", "test-2");
+        assertThat(ran).hasValue(500);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BufferPoolTest {
+
+    private static final int BUFFER_SIZE = 1024;
+    private static final long MAP_THRESHOLD = 8192;
+
+    @TempDir
+    Path folder;
+
+    private final BufferPool pool = new BufferPool(BUFFER_SIZE, MAP_THRESHOLD, 2);
+
+    @Test
+    void readsEachSizeOfFileItsOwnWay() throws IOException {
+        byte[] small = file("small", BUFFER_SIZE - 1);
+        BufferPool.Content pooled = pool.read(folder.resolve("small"), small.length);
+        assertThat(pooled.source()).isEqualTo(BufferPool.Source.POOLED);
+        assertThat(pooled.buffer().isDirect()).isTrue();
+        assertThat(bytes(pooled)).isEqualTo(small);
+
+        byte[] medium = file("medium", (int) MAP_THRESHOLD);
+        BufferPool.Content heap = pool.read(folder.resolve("medium"), medium.length);
+        assertThat(heap.source()).isEqualTo(BufferPool.Source.HEAP);
+        assertThat(heap.buffer().hasArray()).isTrue();
+        assertThat(bytes(heap)).isEqualTo(medium);
+
+        byte[] large = file("large", (int) MAP_THRESHOLD + 1);
+        BufferPool.Content mapped = pool.read(folder.resolve("large"), large.length);
+        assertThat(mapped.source()).isEqualTo(BufferPool.Source.MAPPED);
+        assertThat(mapped.buffer()).isInstanceOf(MappedByteBuffer.class);
+        assertThat(bytes(mapped)).isEqualTo(large);
+    }
+
+    @Test
+    void reusesReleasedBuffersUpToItsLimit() throws IOException {
+        file("a", 100);
+        file("b", 200);
+        BufferPool.Content first = pool.read(folder.resolve("a"), 100);
+        ByteBuffer buffer = first.buffer();
+        pool.release(first);
+
+        BufferPool.Content second = pool.read(folder.resolve("b"), 200);
+        assertThat(second.buffer()).isSameAs(buffer);
+        assertThat(second.length()).isEqualTo(200);
+
+        BufferPool.Content[] held = new BufferPool.Content[4];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = pool.read(folder.resolve("a"), 100);
+        }
+        for (BufferPool.Content content : held) {
+            pool.release(content);
+        }
+        // Only two are kept; reading three at once allocates the third.
+        ByteBuffer[] reused = new ByteBuffer[3];
+        for (int i = 0; i < reused.length; i++) {
+            reused[i] = pool.read(folder.resolve("a"), 100).buffer();
+        }
+        assertThat(reused[0]).isSameAs(held[0].buffer());
+        assertThat(reused[1]).isSameAs(held[1].buffer());
+        assertThat(reused[2]).isNotSameAs(held[2].buffer()).isNotSameAs(held[3].buffer());
+    }
+
+    // The expected size is only a hint: a file that grew since is read to its end.
+    @Test
+    void readsAFileThatGrewPastItsExpectedSize() throws IOException {
+        byte[] grown = file("grown", 3 * BUFFER_SIZE);
+        BufferPool.Content content = pool.read(folder.resolve("grown"), 10);
+        assertThat(content.source()).isEqualTo(BufferPool.Source.HEAP);
+        assertThat(bytes(content)).isEqualTo(grown);
+    }
+
+    @Test
+    void ignoresTheReleaseOfContentItDidNotPool() throws IOException {
+        file("medium", 2 * BUFFER_SIZE);
+        file("small", 10);
+        pool.release(pool.read(folder.resolve("medium"), 2 * BUFFER_SIZE));
+        pool.release(null);
+        BufferPool.Content small = pool.read(folder.resolve("small"), 10);
+        assertThat(small.buffer().capacity()).isEqualTo(BUFFER_SIZE);
+    }
+
+    private byte[] file(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Files.write(folder.resolve(name), content);
+        return content;
+    }
+
+    private static byte[] bytes(BufferPool.Content content) {
+        byte[] bytes = new byte[content.length()];
+        content.buffer().duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.JsonProcessing.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DedupIndexTest {
+
+    private static final int CAPACITY = 4;
+
+    @TempDir
+    Path folder;
+
+    private DedupIndex open() throws IOException {
+        return new DedupIndex(folder, CAPACITY, new IngestionMetrics(new SimpleMeterRegistry()));
+    }
+
+    private static long ray(int i) {
+        return DedupIndex.rayKey("ref-1", 1, "ray-" + i, "SUCCESS");
+    }
+
+    @Test
+    void keepsTheKeysOfTheLastTwoGenerations() throws IOException {
+        try (DedupIndex index = open()) {
+            for (int i = 0; i < CAPACITY; i++) {
+                index.add(0, ray(i));
+            }
+            // The next key starts a second generation; the first one is still consulted.
+            index.add(0, ray(CAPACITY));
+            for (int i = 0; i <= CAPACITY; i++) {
+                assertThat(index.contains(DedupIndex.Kind.RAY, ray(i))).isTrue();
+            }
+            assertThat(index.size()).isEqualTo(CAPACITY + 1);
+
+            // Filling the second generation and starting a third forgets the first.
+            for (int i = CAPACITY + 1; i <= 2 * CAPACITY; i++) {
+                index.add(0, ray(i));
+            }
+            for (int i = 0; i < CAPACITY; i++) {
+                assertThat(index.contains(DedupIndex.Kind.RAY, ray(i))).isFalse();
+            }
+            for (int i = CAPACITY; i <= 2 * CAPACITY; i++) {
+                assertThat(index.contains(DedupIndex.Kind.RAY, ray(i))).isTrue();
+            }
+            assertThat(index.size()).isEqualTo(CAPACITY + 1);
+        }
+        assertThat(indexFiles()).isEqualTo(2);
+    }
+
+    @Test
+    void keepsKeysAcrossRestarts() throws IOException {
+        long content = DedupIndex.contentKey(ByteBuffer.wrap("{\"a\":1}".getBytes(StandardCharsets.UTF_8)));
+        try (DedupIndex index = open()) {
+            for (int i = 0; i < CAPACITY + 2; i++) {
+                index.add(0, ray(i));
+            }
+            index.add(content, 0);
+        }
+        try (DedupIndex index = open()) {
+            assertThat(index.contains(DedupIndex.Kind.CONTENT, content)).isTrue();
+            for (int i = 0; i < CAPACITY + 2; i++) {
+                assertThat(index.contains(DedupIndex.Kind.RAY, ray(i))).isTrue();
+            }
+            assertThat(index.contains(DedupIndex.Kind.RAY, ray(CAPACITY + 2))).isFalse();
+        }
+    }
+
+    @Test
+    void contentKeyDependsOnlyOnTheRemainingBytes() {
+        byte[] bytes = "xx{\"jobInfo\":{\"referenceIdentifier\":\"ref-1\"}}".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer whole = ByteBuffer.wrap(bytes, 2, bytes.length - 2).slice();
+        ByteBuffer offset = ByteBuffer.wrap(bytes).position(2);
+        ByteBuffer littleEndian = ByteBuffer.allocateDirect(bytes.length - 2).order(ByteOrder.LITTLE_ENDIAN);
+        littleEndian.put(bytes, 2, bytes.length - 2).flip();
+
+        long key = DedupIndex.contentKey(whole);
+        assertThat(DedupIndex.contentKey(offset)).isEqualTo(key);
+        assertThat(DedupIndex.contentKey(littleEndian)).isEqualTo(key);
+        assertThat(offset.position()).isEqualTo(2);
+        assertThat(DedupIndex.contentKey(ByteBuffer.wrap(bytes))).isNotEqualTo(key);
+    }
+
+    @Test
+    void rayKeySeparatesItsParts() {
+        assertThat(DedupIndex.rayKey("ab", 1, "c", "SUCCESS")).isNotEqualTo(DedupIndex.rayKey("a", 1, "bc", "SUCCESS"));
+        assertThat(DedupIndex.rayKey("ref-1", 1, "ray-1", "SUCCESS")).isNotEqualTo(DedupIndex.rayKey("ref-1", 1, "ray-1", "FAILURE"));
+        assertThat(DedupIndex.rayKey("ref-1", 1, "ray-1", "SUCCESS")).isNotEqualTo(DedupIndex.rayKey("ref-1", 2, "ray-1", "SUCCESS"));
+        assertThat(DedupIndex.rayKey("ref-1", 1, "ray-1", null)).isNotZero();
+    }
+
+    private long indexFiles() throws IOException {
+        long count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "dedup-*.idx")) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "processing.transport.mode=DIRECT")
+class DirectTransportTest {
+
+    @TempDir
+    static Path folder;
+
+    @DynamicPropertySource
+    static void folders(DynamicPropertyRegistry registry) {
+        for (String name : new String[]{"inbox-folder", "archive-folder", "retry.quarantine-folder",
+                "dedup.folder", "report.folder", "journal.folder"}) {
+            registry.add("processing." + name, () -> folder.resolve(name).toString());
+        }
+    }
+
+    @Autowired
+    EventTransportFactory transportFactory;
+
+    @Autowired
+    JsonProcessingService service;
+
+    @Test
+    void aggregatesEventsWithoutWritingThemToTheInbox() throws Exception {
+        EventTransport transport = transportFactory.create(service);
+
+        send(transport, event("direct-1", "ray-1", "SUCCESS", 3));
+        send(transport, event("direct-1", "ray-2", "FAILURE", 3));
+        // Sent again: acknowledged, but counted once.
+        send(transport, event("direct-1", "ray-2", "FAILURE", 3));
+
+        RefStatus status = service.getStatus("direct-1");
+        assertThat(status.finished()).isFalse();
+        assertThat(status.received()).isEqualTo(2);
+        assertThat(status.remaining()).isEqualTo(1);
+
+        send(transport, event("direct-1", "ray-3", "SUCCESS", 3));
+
+        status = service.getStatus("direct-1");
+        assertThat(status.finished()).isTrue();
+        assertThat(status.complete()).isTrue();
+        assertThat(status.successCount()).isEqualTo(2);
+        assertThat(status.failureCount()).isEqualTo(1);
+        assertThat(inboxFiles()).isZero();
+    }
+
+    @Test
+    void rejectsAnEventWithoutARefIdOrTrackingInfo() throws IOException {
+        EventTransport transport = transportFactory.create(service);
+        JsonData untracked = event("direct-2", "ray-1", "SUCCESS", 1);
+        untracked.setTrackingInfo(null);
+
+        assertThat(transport.send(new JsonData())).isCompletedExceptionally();
+        assertThat(transport.send(untracked)).isCompletedExceptionally();
+        assertThat(service.getStatus("direct-2")).isNull();
+    }
+
+    private static void send(EventTransport transport, JsonData event) throws Exception {
+        CompletableFuture<Void> sent = transport.send(event);
+        sent.get(10, TimeUnit.SECONDS);
+    }
+
+    private static long inboxFiles() throws IOException {
+        Path inbox = folder.resolve("inbox-folder");
+        if (!Files.exists(inbox)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.list(inbox)) {
+            return files.count();
+        }
+    }
+
+    private static JsonData event(String refId, String rayId, String state, int transactionCount) {
+        JsonData data = new JsonData();
+        JsonData.JobInfo job = new JsonData.JobInfo();
+        job.setReferenceIdentifier(refId);
+        job.setTransactionCount(transactionCount);
+        data.setJobInfo(job);
+        JsonData.TrackingInfo tracking = new JsonData.TrackingInfo();
+        tracking.setRayIdentifier(rayId);
+        tracking.setState(state);
+        data.setTrackingInfo(tracking);
+        return data;
+    }
+}
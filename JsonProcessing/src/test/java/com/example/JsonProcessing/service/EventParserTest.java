@@ -0,0 +1,269 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EventParserTest {
+
+    private static final String EVENT = """
+            {"notificationInfo": {"stage": "S", "source": "X"},
+             "trackingInfo": {"rayIdentifier": "ray-1", "sourceTypeIdentifier": "SRC", "state": "SUCCESS", "extra": [1, 2]},
+             "jobInfo": {"identifier": "job", "referenceIdentifier": "ref-1", "transactionCount": 2, "state": "RUNNING"},
+             "transactionInfo": [
+               {"recordIdentifier": "r1", "processStageInfo": [
+                 {"processStageName": "LOAD", "processStatus": "OK", "auditTime": "2025-03-14T05:30:52Z"}]},
+               null
+             ]}
+            """;
+
+    // Size of the heap block the reader copies direct and mapped buffers through.
+    private static final int STAGING_SIZE = 8192;
+
+    private final Gson gson = new Gson();
+
+    @Test
+    void readsOnlyTheFieldsOfItsFieldSet() throws IOException {
+        JsonData stages = new EventParser(EventParser.FieldSet.STAGES).parse(bytes(EVENT), bytes(EVENT).length);
+        assertThat(stages.getTrackingInfo().getRayIdentifier()).isEqualTo("ray-1");
+        assertThat(stages.getTrackingInfo().getSourceTypeIdentifier()).isEqualTo("SRC");
+        assertThat(stages.getJobInfo().getReferenceIdentifier()).isEqualTo("ref-1");
+        assertThat(stages.getJobInfo().getTransactionCount()).isEqualTo(2);
+        assertThat(stages.getTransactionInfo()).hasSize(1);
+        assertThat(stages.getTransactionInfo().get(0).getRecordIdentifier()).isNull();
+        assertThat(stages.getTransactionInfo().get(0).getProcessStageInfo().get(0).getProcessStageName()).isEqualTo("LOAD");
+
+        JsonData tracking = new EventParser(EventParser.FieldSet.TRACKING).parse(ByteBuffer.wrap(bytes(EVENT)));
+        assertThat(tracking.getJobInfo().getReferenceIdentifier()).isEqualTo("ref-1");
+        assertThat(tracking.getTransactionInfo()).isNull();
+
+        JsonData all = new EventParser(EventParser.FieldSet.ALL).parse(ByteBuffer.wrap(bytes(EVENT)));
+        assertThat(all.getTransactionInfo().get(0).getRecordIdentifier()).isEqualTo("r1");
+    }
+
+    @Test
+    void anEmptyDocumentIsNoEvent() throws IOException {
+        assertThat(new EventParser(EventParser.FieldSet.TRACKING).parse(new byte[0], 0)).isNull();
+        assertThat(new EventParser(EventParser.FieldSet.TRACKING).parse(ByteBuffer.wrap(bytes("  \n")))).isNull();
+    }
+
+    @Test
+    void rejectsTruncatedDocuments() {
+        EventParser parser = new EventParser(EventParser.FieldSet.TRACKING);
+        byte[] event = bytes(EVENT);
+        assertThatThrownBy(() -> parser.parse(event, event.length - 3)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> parser.parse(event, EVENT.indexOf("\"jobInfo\""))).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsContentAfterTheDocument() {
+        EventParser parser = new EventParser(EventParser.FieldSet.TRACKING);
+        assertThatThrownBy(() -> parser.parse(ByteBuffer.wrap(bytes("{\"jobInfo\": {}} {\"jobInfo\": {}}"))))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("after event document");
+        assertThatThrownBy(() -> parser.parse(ByteBuffer.wrap(bytes("{\"jobInfo\": {}} x"))))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void leavesThePositionOfTheBufferUnchanged() throws IOException {
+        ByteBuffer content = ByteBuffer.allocateDirect(bytes(EVENT).length).put(bytes(EVENT)).flip();
+        new EventParser(EventParser.FieldSet.STAGES).parse(content);
+        assertThat(content.position()).isZero();
+        assertThat(content.remaining()).isEqualTo(bytes(EVENT).length);
+    }
+
+    // Random events with random text, some of them damaged: reading from a direct buffer must
+    // give what Gson gives on the decoded string, or fail where it fails.
+    @Test
+    void agreesWithGsonOnRandomEvents() {
+        Random random = new Random(20250314);
+        EventParser parser = new EventParser(EventParser.FieldSet.STAGES);
+        for (int i = 0; i < 2000; i++) {
+            byte[] event = bytes(gson.toJson(randomEvent(random)));
+            if (random.nextInt(4) == 0) {
+                event = damage(event, random);
+            }
+            String expected;
+            try {
+                expected = summary(new EventParser(EventParser.FieldSet.STAGES)
+                        .parse(new StringReader(new String(event, StandardCharsets.UTF_8))));
+            } catch (IOException | RuntimeException e) {
+                expected = "failed";
+            }
+            ByteBuffer direct = ByteBuffer.allocateDirect(event.length).put(event).flip();
+            String actual;
+            try {
+                actual = summary(parser.parse(direct));
+            } catch (IOException | RuntimeException e) {
+                actual = "failed";
+            }
+            assertThat(actual).as("event %d", i).isEqualTo(expected);
+        }
+    }
+
+    // Each character in turn straddles the end of the first staged block, at every offset.
+    @Test
+    void readerDecodesCharactersAcrossTheStagingBoundary(@TempDir Path folder) throws IOException {
+        for (String character : List.of("\u00e9", "\u20ac", "\ud83d\ude00")) {
+            for (int shift = 0; shift < 4; shift++) {
+                String text = "a".repeat(STAGING_SIZE - shift) + character + "z".repeat(10);
+                assertThat(readAll(direct(text), 4096)).isEqualTo(text);
+                assertThat(readAll(mapped(folder, text), 4096)).isEqualTo(text);
+                assertThat(readAll(direct(text), 7)).isEqualTo(text);
+            }
+        }
+    }
+
+    // Reads of one char at a time must hand out a surrogate pair in two reads.
+    @Test
+    void readerSplitsASurrogatePairOverTwoReads(@TempDir Path folder) throws IOException {
+        String text = "a".repeat(STAGING_SIZE - 2) + "\ud83d\ude00\ud83d\ude01b";
+        assertThat(readAll(direct(text), 1)).isEqualTo(text);
+        assertThat(readAll(mapped(folder, text), 1)).isEqualTo(text);
+        assertThat(readAll(ByteBuffer.wrap(bytes(text)), 1)).isEqualTo(text);
+
+        // A pending low surrogate followed by a read of more than one char.
+        Reader reader = new EventParser.ByteBufferReader(direct("\ud83d\ude00xy"));
+        char[] chars = new char[4];
+        assertThat(reader.read(chars, 0, 1)).isEqualTo(1);
+        assertThat(reader.read(chars, 1, 3)).isEqualTo(3);
+        assertThat(new String(chars)).isEqualTo("\ud83d\ude00xy");
+        assertThat(reader.read(chars, 0, 4)).isEqualTo(-1);
+    }
+
+    @Test
+    void readerReplacesATruncatedCharacter() throws IOException {
+        byte[] euro = bytes("ab\u20ac");
+        for (int cut = 1; cut < 3; cut++) {
+            ByteBuffer truncated = ByteBuffer.allocateDirect(euro.length - cut).put(euro, 0, euro.length - cut).flip();
+            assertThat(readAll(truncated, 16)).isEqualTo("ab\ufffd");
+            assertThat(readAll(ByteBuffer.wrap(euro, 0, euro.length - cut), 16)).isEqualTo("ab\ufffd");
+        }
+        // Cut off at the end of a staged block that is not the end of the input.
+        String text = "a".repeat(STAGING_SIZE - 1) + "\u20ac";
+        byte[] cut = Arrays.copyOf(bytes(text), STAGING_SIZE + 1);
+        assertThat(readAll(ByteBuffer.allocateDirect(cut.length).put(cut).flip(), 100))
+                .isEqualTo("a".repeat(STAGING_SIZE - 1) + "\ufffd");
+    }
+
+    // Random text read from each kind of buffer in random-sized reads.
+    @Test
+    void readerAgreesWithStringOnRandomText(@TempDir Path folder) throws IOException {
+        Random random = new Random(20250315);
+        for (int i = 0; i < 200; i++) {
+            String text = randomText(random, random.nextInt(3 * STAGING_SIZE));
+            int chunk = 1 + random.nextInt(random.nextBoolean() ? 4 : 10000);
+            assertThat(readAll(direct(text), chunk)).isEqualTo(text);
+            assertThat(readAll(ByteBuffer.wrap(bytes(text)), chunk)).isEqualTo(text);
+            if (i % 20 == 0) {
+                assertThat(readAll(mapped(folder, text), chunk)).isEqualTo(text);
+            }
+        }
+    }
+
+    private static String readAll(ByteBuffer content, int chunk) throws IOException {
+        Reader reader = new EventParser.ByteBufferReader(content);
+        StringBuilder text = new StringBuilder();
+        char[] chars = new char[chunk];
+        for (int n; (n = reader.read(chars, 0, chunk)) != -1; ) {
+            text.append(chars, 0, n);
+        }
+        return text.toString();
+    }
+
+    private static ByteBuffer direct(String text) {
+        byte[] bytes = bytes(text);
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+
+    private static ByteBuffer mapped(Path folder, String text) throws IOException {
+        Path file = Files.write(folder.resolve("mapped.json"), bytes(text));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static JsonData randomEvent(Random random) {
+        JsonData data = new JsonData();
+        JsonData.TrackingInfo tracking = new JsonData.TrackingInfo();
+        tracking.setRayIdentifier(randomText(random, random.nextInt(12)));
+        tracking.setState(random.nextBoolean() ? "SUCCESS" : null);
+        data.setTrackingInfo(tracking);
+        JsonData.JobInfo job = new JsonData.JobInfo();
+        job.setReferenceIdentifier(randomText(random, random.nextInt(12)));
+        job.setDefinition(randomText(random, random.nextInt(5000)));
+        job.setTransactionCount(random.nextInt(1000));
+        data.setJobInfo(job);
+        List<JsonData.TransactionInfo> transactions = new ArrayList<>();
+        for (int t = random.nextInt(4); t > 0; t--) {
+            JsonData.TransactionInfo transaction = new JsonData.TransactionInfo();
+            transaction.setRecordIdentifier(randomText(random, random.nextInt(3000)));
+            JsonData.ProcessStageInfo stage = new JsonData.ProcessStageInfo();
+            stage.setProcessStageName(randomText(random, random.nextInt(8)));
+            stage.setAuditTime(randomText(random, 20));
+            transaction.setProcessStageInfo(List.of(stage));
+            transactions.add(transaction);
+        }
+        data.setTransactionInfo(transactions);
+        return data;
+    }
+
+    // Mixes one-, two-, three- and four-byte UTF-8 characters.
+    static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(5)) {
+                case 0 -> text.append((char) (0x80 + random.nextInt(0x780)));
+                case 1 -> text.append((char) (0x800 + random.nextInt(0xD000)));
+                case 2 -> text.appendCodePoint(0x10000 + random.nextInt(0x10000));
+                default -> text.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return text.toString();
+    }
+
+    // Truncates, corrupts a byte or appends garbage.
+    private static byte[] damage(byte[] event, Random random) {
+        return switch (random.nextInt(3)) {
+            case 0 -> Arrays.copyOf(event, random.nextInt(event.length));
+            case 1 -> {
+                byte[] copy = event.clone();
+                copy[random.nextInt(copy.length)] = (byte) random.nextInt(256);
+                yield copy;
+            }
+            default -> {
+                byte[] copy = Arrays.copyOf(event, event.length + 2);
+                copy[event.length] = ' ';
+                copy[event.length + 1] = (byte) ('!' + random.nextInt(90));
+                yield copy;
+            }
+        };
+    }
+
+    private String summary(JsonData data) {
+        return data == null ? "null" : gson.toJson(data);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileArchiverTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void finishesTheQueuedMovesWhenClosed() throws IOException {
+        Path inbox = Files.createDirectories(folder.resolve("inbox"));
+        Map<String, Boolean> outcomes = new ConcurrentHashMap<>();
+        FileArchiver archiver = new FileArchiver(folder.resolve("archive"), 1, 1000, 4, 60_000,
+                new IngestionMetrics(new SimpleMeterRegistry()));
+        for (int i = 0; i < 200; i++) {
+            String name = "ref-" + i % 7 + "~1_" + i + ".json";
+            Path file = Files.writeString(inbox.resolve(name), "{}");
+            archiver.archive(file, event("ref-" + i % 7), archived -> outcomes.merge(name, archived, (a, b) -> {
+                throw new AssertionError("Told twice about " + name);
+            }));
+        }
+        archiver.close();
+
+        assertThat(outcomes).hasSize(200).doesNotContainValue(false);
+        assertThat(archiver.archivedCount()).isEqualTo(200);
+        try (Stream<Path> left = Files.list(inbox)) {
+            assertThat(left).isEmpty();
+        }
+    }
+
+    @Test
+    void failsAMoveQueuedAfterClose() throws IOException {
+        FileArchiver archiver = new FileArchiver(folder.resolve("archive"), 1, 10, 4, 60_000,
+                new IngestionMetrics(new SimpleMeterRegistry()));
+        archiver.close();
+        Path file = Files.writeString(folder.resolve("late.json"), "{}");
+        Boolean[] outcome = new Boolean[1];
+        archiver.archive(file, event("ref-1"), archived -> outcome[0] = archived);
+
+        assertThat(outcome[0]).isFalse();
+        assertThat(file).exists();
+    }
+
+    private static JsonData event(String refId) {
+        JsonData data = new JsonData();
+        JsonData.JobInfo job = new JsonData.JobInfo();
+        job.setReferenceIdentifier(refId);
+        data.setJobInfo(job);
+        return data;
+    }
+}
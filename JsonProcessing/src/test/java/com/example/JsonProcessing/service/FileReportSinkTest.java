@@ -0,0 +1,69 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileReportSinkTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void writesOneLinePerReport() throws IOException {
+        FileReportSink sink = new FileReportSink(folder, FileReportSink.Format.JSONL, false, 16, 4);
+        sink.submit(report("ref-1", 2));
+        sink.submit(report("ref-2", 1));
+        sink.close();
+
+        assertThat(lines()).hasSize(2);
+        assertThat(lines().get(0)).startsWith("{\"refId\":\"ref-1\",\"transactionCount\":2,\"received\":2");
+        assertThat(sink.lostCount()).isZero();
+    }
+
+    // A report that cannot be formatted is dropped on its own, leaving no partial line behind.
+    @Test
+    void dropsOnlyTheReportThatCannotBeFormatted() throws IOException {
+        FileReportSink sink = new FileReportSink(folder, FileReportSink.Format.JSONL, false, 16, 4);
+        sink.submit(report("ref-1", 1));
+        sink.submit(new CompletionReport("broken", 1, 1, 0, 0, true, 0, null, null));
+        sink.submit(report("ref-2", 1));
+        sink.close();
+
+        assertThat(lines()).anyMatch(line -> line.contains("\"ref-1\"")).anyMatch(line -> line.contains("\"ref-2\""))
+                .noneMatch(line -> line.contains("\"broken\""));
+        assertThat(sink.lostCount()).isEqualTo(1);
+    }
+
+    @Test
+    void countsAReportSubmittedAfterCloseAsLost() throws IOException {
+        FileReportSink sink = new FileReportSink(folder, FileReportSink.Format.CSV, false, 16, 4);
+        sink.close();
+        sink.submit(report("ref-1", 1));
+
+        assertThat(sink.lostCount()).isEqualTo(1);
+        assertThat(sink.pendingCount()).isZero();
+    }
+
+    private static CompletionReport report(String refId, int rays) {
+        RayTracker tracker = new RayTracker(rays);
+        for (int i = 0; i < rays; i++) {
+            tracker.add("ray-" + i, "SUCCESS");
+        }
+        return new CompletionReport(refId, rays, rays, 0, 0, true, 1_741_930_252_263L, tracker, null);
+    }
+
+    private List<String> lines() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            Path file = files.filter(path -> path.getFileName().toString().endsWith(".jsonl")).findFirst().orElseThrow();
+            return Files.readAllLines(file);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.JsonProcessing.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileRetrySchedulerTest {
+
+    @TempDir
+    Path folder;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void trustsAFirstAttemptAndThenWaitsForTheFileToSettle() {
+        try (FileRetryScheduler scheduler = scheduler(FileRetryScheduler.StabilityMode.QUIESCENCE, 3)) {
+            Path file = folder.resolve("ref-1~1_1.json");
+            FileRetryScheduler.FileState written = new FileRetryScheduler.FileState(120, 1_000);
+
+            assertThat(scheduler.isReady(file, written, null)).isTrue();
+            assertThat(scheduler.isReady(file, new FileRetryScheduler.FileState(0, 1_000), null)).isFalse();
+            assertThat(scheduler.isReady(file, new FileRetryScheduler.FileState(180, 1_200), written)).isFalse();
+            assertThat(scheduler.isReady(file, new FileRetryScheduler.FileState(120, 1_000), written)).isTrue();
+        }
+    }
+
+    @Test
+    void waitsForTheWriterToLetGoOfItsLock() throws IOException {
+        try (FileRetryScheduler scheduler = scheduler(FileRetryScheduler.StabilityMode.LOCK, 3)) {
+            Path file = Files.writeString(folder.resolve("ref-1~1_1.json"), "{}");
+            FileRetryScheduler.FileState state = new FileRetryScheduler.FileState(2, 1_000);
+
+            try (FileChannel writer = FileChannel.open(file, StandardOpenOption.WRITE);
+                 FileLock lock = writer.lock()) {
+                assertThat(scheduler.isReady(file, state, state)).isFalse();
+            }
+            assertThat(scheduler.isReady(file, state, state)).isTrue();
+        }
+    }
+
+    @Test
+    void doublesTheDelayOfEachAttemptUpToTheMaximum() throws InterruptedException {
+        try (FileRetryScheduler scheduler = scheduler(FileRetryScheduler.StabilityMode.QUIESCENCE, 10)) {
+            Path file = folder.resolve("ref-1~1_1.json");
+            CountDownLatch second = new CountDownLatch(1);
+            CountDownLatch sixth = new CountDownLatch(1);
+            long start = System.nanoTime();
+
+            // 40 ms after the first attempt, and 40 << 4 capped at 300 ms after the fifth.
+            assertThat(scheduler.park(file, 1, second::countDown)).isTrue();
+            assertThat(scheduler.park(file, 5, sixth::countDown)).isTrue();
+            assertThat(scheduler.pendingCount()).isEqualTo(2);
+
+            assertThat(second.await(5, TimeUnit.SECONDS)).isTrue();
+            long secondMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertThat(sixth.await(5, TimeUnit.SECONDS)).isTrue();
+            long sixthMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // Only lower bounds: a slow machine may run either retry late, never early.
+            assertThat(secondMillis).isGreaterThanOrEqualTo(40).isLessThanOrEqualTo(sixthMillis);
+            assertThat(sixthMillis).isGreaterThanOrEqualTo(300);
+            assertThat(scheduler.pendingCount()).isZero();
+            assertThat(registry.counter("ingest.retries").count()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void quarantinesAFileOnceItsLastAttemptFailed() throws IOException, InterruptedException {
+        try (FileRetryScheduler scheduler = scheduler(FileRetryScheduler.StabilityMode.QUIESCENCE, 3)) {
+            Path file = Files.writeString(folder.resolve("ref-1~1_1.json"), "{\"broken\"");
+            CountDownLatch retried = new CountDownLatch(1);
+
+            assertThat(scheduler.park(file, 3, retried::countDown)).isFalse();
+
+            assertThat(retried.await(200, TimeUnit.MILLISECONDS)).isFalse();
+            assertThat(file).doesNotExist();
+            assertThat(folder.resolve("quarantine").resolve("ref-1~1_1.json")).hasContent("{\"broken\"");
+            assertThat(registry.counter("ingest.quarantined").count()).isEqualTo(1);
+            assertThat(registry.counter("ingest.retries").count()).isZero();
+        }
+    }
+
+    @Test
+    void quarantiningAFileThatIsGoneIsHarmless() {
+        try (FileRetryScheduler scheduler = scheduler(FileRetryScheduler.StabilityMode.QUIESCENCE, 3)) {
+            scheduler.quarantine(folder.resolve("gone.json"));
+
+            assertThat(folder.resolve("quarantine").resolve("gone.json")).doesNotExist();
+        }
+    }
+
+    private FileRetryScheduler scheduler(FileRetryScheduler.StabilityMode mode, int maxAttempts) {
+        return new FileRetryScheduler(40, 300, maxAttempts, mode, folder.resolve("quarantine"),
+                new IngestionMetrics(registry));
+    }
+}
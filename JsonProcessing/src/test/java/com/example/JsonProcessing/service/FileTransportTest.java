@@ -0,0 +1,61 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileTransportTest {
+
+    @TempDir
+    Path inbox;
+
+    @Test
+    void readsTheRefIdFromTheTransportsFileNames() {
+        assertThat(FileTransport.refIdOf("Dev_JobId_001~1741930252263_7.json")).isEqualTo("Dev_JobId_001");
+        assertThat(FileTransport.refIdOf(FileTransport.fileName("job~1", 1741930252263L, 2))).isEqualTo("job~1");
+    }
+
+    @Test
+    void knowsNoRefIdForOtherNames() {
+        // The naming of existing producers: <refId>_<millis>.json, with underscores and digits in the refId.
+        assertThat(FileTransport.refIdOf("Dev_JobId_001_1741930252263.json")).isNull();
+        assertThat(FileTransport.refIdOf("Dev_JobId_001_1741930252263_7.json")).isNull();
+        assertThat(FileTransport.refIdOf("~1741930252263_7.json")).isNull();
+        assertThat(FileTransport.refIdOf("job~1741930252263_x.json")).isNull();
+        assertThat(FileTransport.refIdOf("job~1741930252263.json")).isNull();
+        assertThat(FileTransport.refIdOf("job~1741930252263_7.json.tmp")).isNull();
+    }
+
+    @Test
+    void writesEachEventAsAFileNamedAfterItsRefId() throws Exception {
+        FileTransport transport = new FileTransport(inbox);
+        JsonData event = new JsonData();
+        JsonData.JobInfo job = new JsonData.JobInfo();
+        job.setReferenceIdentifier("Dev_JobId_001");
+        event.setJobInfo(job);
+
+        transport.send(event).get(10, TimeUnit.SECONDS);
+        transport.send(event).get(10, TimeUnit.SECONDS);
+        assertThat(transport.send(new JsonData())).isCompletedExceptionally();
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(inbox)) {
+            stream.forEach(files::add);
+        }
+        assertThat(files).hasSize(2).allSatisfy(file -> {
+            assertThat(FileTransport.refIdOf(file.getFileName().toString())).isEqualTo("Dev_JobId_001");
+            JsonData written = new Gson().fromJson(Files.readString(file), JsonData.class);
+            assertThat(written.getJobInfo().getReferenceIdentifier()).isEqualTo("Dev_JobId_001");
+        });
+    }
+}
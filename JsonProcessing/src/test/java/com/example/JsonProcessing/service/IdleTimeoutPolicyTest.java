@@ -0,0 +1,82 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdleTimeoutPolicyTest {
+
+    private static final long FIXED_MILLIS = 10_000;
+
+    private final IdleTimeoutPolicy adaptive = new IdleTimeoutPolicy(FIXED_MILLIS, true, 500, 60_000, 3, 4);
+
+    @Test
+    void alwaysUsesTheFixedTimeoutWhenNotAdaptive() {
+        IdleTimeoutPolicy fixed = new IdleTimeoutPolicy(FIXED_MILLIS, false, 500, 60_000, 3, 4);
+        IdleTimeoutPolicy.Arrivals arrivals = arrivals(100, 10);
+
+        assertThat(fixed.initialMillis()).isEqualTo(FIXED_MILLIS);
+        assertThat(fixed.timeoutMillis(arrivals, 9, 10)).isEqualTo(FIXED_MILLIS);
+    }
+
+    @Test
+    void usesTheFixedTimeoutUntilEnoughGapsWereSeen() {
+        // Three events make two gaps, one fewer than needed.
+        assertThat(adaptive.timeoutMillis(arrivals(100, 3), 3, 4)).isEqualTo(FIXED_MILLIS);
+    }
+
+    @Test
+    void shortensTowardsTheGapsAsTheRefIdNearsCompletion() {
+        // Gaps of 100 ms: mean 100 ms and a deviation decaying from 50 ms to 28.125 ms over
+        // three gaps, so the gap-based timeout is 100 + 4 * 28.125 = 212.5 ms.
+        IdleTimeoutPolicy.Arrivals arrivals = arrivals(100, 4);
+
+        assertThat(adaptive.timeoutMillis(arrivals, 0, 8)).isEqualTo(FIXED_MILLIS);
+        assertThat(adaptive.timeoutMillis(arrivals, 4, 8)).isEqualTo(5_106);
+        assertThat(adaptive.timeoutMillis(arrivals, 0, 0)).isEqualTo(FIXED_MILLIS);
+        // Fully blended in the timeout would be 212 ms, below the minimum.
+        assertThat(adaptive.timeoutMillis(arrivals, 8, 8)).isEqualTo(500);
+        assertThat(adaptive.timeoutMillis(arrivals, 9, 8)).isEqualTo(500);
+    }
+
+    @Test
+    void followsGapsLongerThanTheFixedTimeoutUpToTheMaximum() {
+        // Gaps of 20 s: 20 s + 4 * 5.625 s.
+        assertThat(adaptive.timeoutMillis(arrivals(20_000, 4), 1, 8)).isEqualTo(42_500);
+        assertThat(adaptive.timeoutMillis(arrivals(40_000, 4), 1, 8)).isEqualTo(60_000);
+    }
+
+    @Test
+    void widensTheBoundsToIncludeTheFixedTimeout() {
+        IdleTimeoutPolicy narrow = new IdleTimeoutPolicy(FIXED_MILLIS, true, 20_000, 5_000, 1, 0);
+
+        assertThat(narrow.timeoutMillis(arrivals(1, 2), 1, 1)).isEqualTo(FIXED_MILLIS);
+        assertThat(narrow.timeoutMillis(arrivals(30_000, 2), 1, 1)).isEqualTo(FIXED_MILLIS);
+    }
+
+    @Test
+    void countsGapsFromTheFirstEventOn() {
+        IdleTimeoutPolicy.Arrivals arrivals = new IdleTimeoutPolicy.Arrivals(0);
+        assertThat(arrivals.lastNanos()).isZero();
+        // The wait from creation to the first event is not a gap between events.
+        arrivals.record(TimeUnit.SECONDS.toNanos(60));
+        arrivals.record(TimeUnit.SECONDS.toNanos(61));
+
+        assertThat(arrivals.lastNanos()).isEqualTo(TimeUnit.SECONDS.toNanos(61));
+        assertThat(new IdleTimeoutPolicy(FIXED_MILLIS, true, 500, 60_000, 1, 0).timeoutMillis(arrivals, 0, 1))
+                .isEqualTo(FIXED_MILLIS);
+        assertThat(new IdleTimeoutPolicy(FIXED_MILLIS, true, 500, 60_000, 1, 0).timeoutMillis(arrivals, 1, 1))
+                .isEqualTo(1_000);
+    }
+
+    // Arrivals of the given number of events, gapMillis apart.
+    private static IdleTimeoutPolicy.Arrivals arrivals(long gapMillis, int events) {
+        IdleTimeoutPolicy.Arrivals arrivals = new IdleTimeoutPolicy.Arrivals(0);
+        for (int i = 1; i <= events; i++) {
+            arrivals.record(TimeUnit.MILLISECONDS.toNanos(i * gapMillis));
+        }
+        return arrivals;
+    }
+}
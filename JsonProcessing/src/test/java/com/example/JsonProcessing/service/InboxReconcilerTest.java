@@ -0,0 +1,101 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InboxReconcilerTest {
+
+    @TempDir
+    Path folder;
+
+    private final List<String> submitted = new CopyOnWriteArrayList<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    @Test
+    void submitsTheJsonFilesOfTheInboxInNameOrder() throws IOException, InterruptedException {
+        Path inbox = inbox("ref-2~1_1.json", "ref-1~1_2.json", "notes.txt", "ref-1~1_1.json", "ref-1~1_3.json.tmp");
+        try (InboxReconciler reconciler = new InboxReconciler(inbox, this::submit)) {
+            reconciler.requestScan();
+            awaitScansBefore(reconciler);
+        }
+
+        assertThat(submitted).containsExactly("ref-1~1_1.json", "ref-1~1_2.json", "ref-2~1_1.json");
+    }
+
+    @Test
+    void foldsRequestsMadeBeforeAScanStartsIntoIt() throws IOException, InterruptedException {
+        Path inbox = inbox("ref-1~1_1.json", "ref-1~1_2.json");
+        CountDownLatch scanning = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (InboxReconciler reconciler = new InboxReconciler(inbox, file -> {
+            if (submitted.isEmpty()) {
+                scanning.countDown();
+                await(release);
+            }
+            submit(file);
+        })) {
+            reconciler.requestScan();
+            assertThat(scanning.await(5, TimeUnit.SECONDS)).isTrue();
+            // The first scan is listing already, so these three end up as one more scan.
+            reconciler.requestScan();
+            reconciler.requestScan();
+            reconciler.requestScan();
+            release.countDown();
+            awaitScansBefore(reconciler);
+        }
+
+        assertThat(submitted).containsExactly("ref-1~1_1.json", "ref-1~1_2.json", "ref-1~1_1.json", "ref-1~1_2.json");
+    }
+
+    @Test
+    void keepsSweepingAfterAFolderThatCannotBeListed() throws IOException, InterruptedException {
+        Path shard = inbox("ref-3~1_1.json");
+        try (InboxReconciler reconciler = new InboxReconciler(folder.resolve("missing"), this::submit)) {
+            reconciler.requestScan();
+            reconciler.requestScan(shard);
+            awaitScansBefore(reconciler);
+        }
+
+        assertThat(submitted).containsExactly("ref-3~1_1.json");
+    }
+
+    private Path inbox(String... names) throws IOException {
+        Path inbox = Files.createTempDirectory(folder, "inbox");
+        for (String name : names) {
+            Files.writeString(inbox.resolve(name), "{}");
+        }
+        return inbox;
+    }
+
+    private void submit(Path file) {
+        if (file.getFileName().toString().equals("last.json")) {
+            done.countDown();
+        } else {
+            submitted.add(file.getFileName().toString());
+        }
+    }
+
+    // Scans run one at a time in request order, so a scan requested now finishes after the others.
+    private void awaitScansBefore(InboxReconciler reconciler) throws IOException, InterruptedException {
+        reconciler.requestScan(inbox("last.json"));
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
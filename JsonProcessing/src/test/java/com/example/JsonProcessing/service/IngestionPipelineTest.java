@@ -0,0 +1,239 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IngestionPipelineTest {
+
+    @TempDir
+    Path folder;
+
+    private final IngestionMetrics metrics = new IngestionMetrics(new SimpleMeterRegistry());
+    // Parsing of these files, by name, waits until the latch is opened.
+    private final Map<String, CountDownLatch> parseGates = new ConcurrentHashMap<>();
+    // Aggregation of these refIds waits until the latch is opened.
+    private final Map<String, CountDownLatch> aggregateGates = new ConcurrentHashMap<>();
+    // File names in the order they were aggregated.
+    private final BlockingQueue<String> aggregated = new LinkedBlockingQueue<>();
+    // Current run of each in-flight refId.
+    private final Map<String, Long> runs = new ConcurrentHashMap<>();
+    private FileRetryScheduler retryScheduler;
+    private AdmissionController admission;
+    private IngestionPipeline pipeline;
+    private DedupIndex dedup;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // One attempt only: a file that cannot be parsed is quarantined at once.
+        retryScheduler = new FileRetryScheduler(10, 10, 1, FileRetryScheduler.StabilityMode.QUIESCENCE,
+                folder.resolve("quarantine"), metrics);
+        admission = new AdmissionController(64, 1 << 20, 64, 64, 0, folder.resolve(".backpressure"), metrics);
+        pipeline = open(null);
+    }
+
+    private IngestionPipeline open(DedupIndex dedup) {
+        return new IngestionPipeline(new Stages(), retryScheduler, admission, dedup,
+                new BufferPool(4096, 1 << 20, 4), metrics, 2, 4, 16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        parseGates.values().forEach(CountDownLatch::countDown);
+        aggregateGates.values().forEach(CountDownLatch::countDown);
+        pipeline.close();
+        admission.close();
+        retryScheduler.close();
+        if (dedup != null) {
+            dedup.close();
+        }
+    }
+
+    @Test
+    void keepsTheOrderOfARefIdWithoutHoldingUpOthers() throws Exception {
+        CountDownLatch slow = gate(parseGates, "A~1_1.json");
+        submit("A~1_1.json", "A");
+        submit("A~1_2.json", "A");
+        submit("B~1_3.json", "B");
+
+        // B is not held up by the slow parse of A's first file, but A's second file is.
+        assertThat(aggregated.poll(5, TimeUnit.SECONDS)).isEqualTo("B~1_3.json");
+        assertThat(aggregated.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        slow.countDown();
+        assertThat(take(2)).containsExactly("A~1_1.json", "A~1_2.json");
+        awaitEmpty();
+    }
+
+    @Test
+    void holdsEverythingBehindAFileWhoseNameTellsNoRefId() throws Exception {
+        CountDownLatch slow = gate(parseGates, "A_1741930252263.json");
+        submit("A_1741930252263.json", "A");
+        submit("B~1_2.json", "B");
+
+        // The first file might have been of refId B.
+        assertThat(aggregated.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        slow.countDown();
+        assertThat(take(2)).containsExactly("A_1741930252263.json", "B~1_2.json");
+    }
+
+    @Test
+    void aFileThatIsGivenUpOnReleasesItsPlace() throws Exception {
+        submit("A~1_1.json", "");
+        submit("A~1_2.json", "A");
+
+        assertThat(take(1)).containsExactly("A~1_2.json");
+        assertThat(folder.resolve("quarantine").resolve("A~1_1.json")).exists();
+        awaitEmpty();
+    }
+
+    @Test
+    void aBlockedAggregationHoldsUpOnlyItsOwnRefId() throws Exception {
+        CountDownLatch blocked = gate(aggregateGates, "A");
+        submit("A~1_1.json", "A");
+        submit("A~1_2.json", "A");
+        submit("B~1_3.json", "B");
+        submit("C_4.json", "C");
+
+        assertThat(take(2)).containsExactlyInAnyOrder("B~1_3.json", "C_4.json");
+        blocked.countDown();
+        assertThat(take(2)).containsExactly("A~1_1.json", "A~1_2.json");
+        awaitEmpty();
+    }
+
+    @Test
+    void dropsARaySentAgainInTheSameRunOfItsRefIdOnly() throws Exception {
+        pipeline.close();
+        dedup = new DedupIndex(folder.resolve("dedup"), 64, metrics);
+        pipeline = open(dedup);
+        runs.put("A", 1L);
+        submit("A~1_1.json", "A/ray-1/first");
+        assertThat(take(1)).containsExactly("A~1_1.json");
+        awaitEmpty();
+
+        submit("A~1_2.json", "A/ray-1/second");
+        awaitEmpty();
+        assertThat(aggregated).isEmpty();
+        assertThat(folder.resolve("inbox").resolve("A~1_2.json")).doesNotExist();
+
+        // The refId finished and is reused: its rays are new again.
+        runs.put("A", 2L);
+        submit("A~1_3.json", "A/ray-1/third");
+        assertThat(take(1)).containsExactly("A~1_3.json");
+    }
+
+    private void submit(String name, String content) throws IOException {
+        Path inbox = Files.createDirectories(folder.resolve("inbox"));
+        Path file = Files.writeString(inbox.resolve(name), content);
+        pipeline.submit(file, AdmissionController.Priority.NORMAL);
+    }
+
+    private List<String> take(int count) throws InterruptedException {
+        List<String> taken = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = aggregated.poll(5, TimeUnit.SECONDS);
+            assertThat(name).as("file %d of %d", i + 1, count).isNotNull();
+            taken.add(name);
+        }
+        return taken;
+    }
+
+    // Every file has left the pipeline and given back its admission.
+    private void awaitEmpty() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((pipeline.inFlightCount() > 0 || admission.inFlightFiles() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(pipeline.inFlightCount()).isZero();
+        assertThat(admission.inFlightFiles()).isZero();
+    }
+
+    private static CountDownLatch gate(Map<String, CountDownLatch> gates, String key) {
+        CountDownLatch latch = new CountDownLatch(1);
+        gates.put(key, latch);
+        return latch;
+    }
+
+    private static void await(CountDownLatch gate) {
+        try {
+            assertThat(gate.await(10, TimeUnit.SECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Files hold their refId, optionally followed by "/" and a rayId and anything else, which
+    // is ignored; an empty one cannot be parsed.
+    private class Stages implements IngestionPipeline.Stages {
+        @Override
+        public String refIdOf(Path file) {
+            return FileTransport.refIdOf(file.getFileName().toString());
+        }
+
+        @Override
+        public long runOf(String refId) {
+            return runs.getOrDefault(refId, 0L);
+        }
+
+        @Override
+        public JsonData parse(Path file, ByteBuffer content) {
+            CountDownLatch gate = parseGates.get(file.getFileName().toString());
+            if (gate != null) {
+                await(gate);
+            }
+            String[] parts = StandardCharsets.UTF_8.decode(content).toString().split("/");
+            if (parts[0].isEmpty()) {
+                return null;
+            }
+            JsonData data = new JsonData();
+            JsonData.JobInfo job = new JsonData.JobInfo();
+            job.setReferenceIdentifier(parts[0]);
+            data.setJobInfo(job);
+            if (parts.length > 1) {
+                JsonData.TrackingInfo tracking = new JsonData.TrackingInfo();
+                tracking.setRayIdentifier(parts[1]);
+                tracking.setState("SUCCESS");
+                data.setTrackingInfo(tracking);
+            }
+            return data;
+        }
+
+        @Override
+        public void aggregate(Path file, JsonData data, Runnable onAggregated, Runnable onHandedOff) {
+            CountDownLatch gate = aggregateGates.get(data.getJobInfo().getReferenceIdentifier());
+            if (gate != null) {
+                await(gate);
+            }
+            aggregated.add(file.getFileName().toString());
+            onAggregated.run();
+        }
+
+        @Override
+        public void archive(Path file, JsonData data, Archiver.Callback onDone) {
+            try {
+                Files.delete(file);
+                onDone.done(true);
+            } catch (IOException e) {
+                onDone.done(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.withinPercentage;
+
+class LatencySketchTest {
+
+    @Test
+    void reportsNothingBeforeTheFirstValue() {
+        LatencySketch sketch = new LatencySketch();
+        assertThat(sketch.quantile(0.5)).isZero();
+        assertThat(sketch.summary()).isEqualTo(new LatencySketch.Summary(0, 0, 0, 0));
+    }
+
+    @Test
+    void countsSmallValuesExactly() {
+        LatencySketch sketch = new LatencySketch();
+        for (long millis = 0; millis < 8; millis++) {
+            sketch.record(millis);
+        }
+        sketch.record(-5);
+
+        assertThat(sketch.count()).isEqualTo(9);
+        assertThat(sketch.quantile(0)).isZero();
+        assertThat(sketch.quantile(0.25)).isEqualTo(1);
+        assertThat(sketch.quantile(0.5)).isEqualTo(3);
+        assertThat(sketch.quantile(1)).isEqualTo(7);
+    }
+
+    @Test
+    void reportsQuantilesWithinTheBucketError() {
+        LatencySketch sketch = new LatencySketch();
+        for (long millis = 10_000; millis >= 1; millis--) {
+            sketch.record(millis);
+        }
+
+        LatencySketch.Summary summary = sketch.summary();
+        assertThat(summary.count()).isEqualTo(10_000);
+        assertThat(summary.p50()).isCloseTo(5_000L, withinPercentage(6.25));
+        assertThat(summary.p99()).isCloseTo(9_900L, withinPercentage(6.25));
+        assertThat(summary.max()).isEqualTo(10_000);
+        assertThat(sketch.quantile(0.001)).isCloseTo(10L, withinPercentage(6.25));
+    }
+
+    @Test
+    void neverReportsMoreThanTheLargestValue() {
+        LatencySketch sketch = new LatencySketch();
+        // 960 is the bottom of the bucket 960-1023, whose middle is 992.
+        sketch.record(960);
+        assertThat(sketch.quantile(0.5)).isEqualTo(960);
+        assertThat(sketch.quantile(1)).isEqualTo(960);
+    }
+
+    @Test
+    void growsOverTheWholeRangeOfValues() {
+        LatencySketch sketch = new LatencySketch();
+        sketch.record(1_000_000);
+        sketch.record(3);
+        sketch.record(Long.MAX_VALUE);
+        sketch.record(250);
+
+        assertThat(sketch.quantile(0.25)).isEqualTo(3);
+        assertThat(sketch.quantile(0.5)).isCloseTo(250L, withinPercentage(6.25));
+        assertThat(sketch.quantile(0.75)).isCloseTo(1_000_000L, withinPercentage(6.25));
+        assertThat(sketch.quantile(1)).isPositive().isCloseTo(Long.MAX_VALUE, withinPercentage(6.25));
+        assertThat(LatencySketch.indexOf(Long.MAX_VALUE)).isEqualTo(LatencySketch.BUCKETS - 1);
+    }
+
+    @Test
+    void addingASketchCountsItsValuesAsIfRecordedHere() {
+        LatencySketch low = new LatencySketch();
+        LatencySketch high = new LatencySketch();
+        LatencySketch all = new LatencySketch();
+        for (long millis = 1; millis <= 10_000; millis++) {
+            (millis % 3 == 0 ? high : low).record(millis * millis % 100_003);
+            all.record(millis * millis % 100_003);
+        }
+        LatencySketch merged = new LatencySketch();
+        merged.add(new LatencySketch());
+        merged.add(low);
+        merged.add(high);
+
+        assertThat(merged.summary()).isEqualTo(all.summary());
+        for (double quantile = 0; quantile <= 1; quantile += 0.05) {
+            assertThat(merged.quantile(quantile)).isEqualTo(all.quantile(quantile));
+        }
+    }
+}
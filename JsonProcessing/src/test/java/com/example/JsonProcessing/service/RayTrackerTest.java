@@ -0,0 +1,78 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RayTrackerTest {
+
+    @Test
+    void keepsOneEntryPerRayAndTheLatestState() {
+        RayTracker rays = new RayTracker(4);
+        assertThat(rays.add("job-42-ray-2", "SUCCESS")).isEqualTo(RayTracker.AddResult.ADDED);
+        assertThat(rays.add("job-42-ray-1", "FAILURE")).isEqualTo(RayTracker.AddResult.ADDED);
+        assertThat(rays.add("job-42-ray-2", "SUCCESS")).isEqualTo(RayTracker.AddResult.DUPLICATE);
+        assertThat(rays.add("job-42-ray-1", "SUCCESS")).isEqualTo(RayTracker.AddResult.UPDATED);
+        assertThat(rays.replacedState()).isEqualTo("FAILURE");
+        assertThat(rays.add("other", null)).isEqualTo(RayTracker.AddResult.ADDED);
+
+        assertThat(rays.size()).isEqualTo(3);
+        int[] sorted = rays.sortedOrdinals();
+        assertThat(rays.rayIdAt(sorted[0])).isEqualTo("job-42-ray-1");
+        assertThat(rays.stateAt(sorted[0])).isEqualTo("SUCCESS");
+        assertThat(rays.rayIdAt(sorted[1])).isEqualTo("job-42-ray-2");
+        assertThat(rays.rayIdAt(sorted[2])).isEqualTo("other");
+        assertThat(rays.stateAt(sorted[2])).isEmpty();
+    }
+
+    @Test
+    void keepsStatesBeyondWhatOneByteEncodes() {
+        RayTracker rays = new RayTracker(16);
+        for (int i = 0; i < 300; i++) {
+            assertThat(rays.add("ray-" + i, "STATE-" + i)).isEqualTo(RayTracker.AddResult.ADDED);
+        }
+        assertThat(rays.add("ray-299", "STATE-299")).isEqualTo(RayTracker.AddResult.DUPLICATE);
+        assertThat(rays.add("ray-299", "STATE-0")).isEqualTo(RayTracker.AddResult.UPDATED);
+        assertThat(rays.replacedState()).isEqualTo("STATE-299");
+        assertThat(rays.add("ray-0", "STATE-298")).isEqualTo(RayTracker.AddResult.UPDATED);
+
+        for (int ordinal = 0; ordinal < rays.size(); ordinal++) {
+            String rayId = rays.rayIdAt(ordinal);
+            String expected = switch (rayId) {
+                case "ray-0" -> "STATE-298";
+                case "ray-299" -> "STATE-0";
+                default -> "STATE-" + rayId.substring("ray-".length());
+            };
+            assertThat(rays.stateAt(ordinal)).as(rayId).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void dictionariesAreNotSharedBetweenTrackers() {
+        for (int tracker = 0; tracker < 3; tracker++) {
+            RayTracker rays = new RayTracker(16);
+            for (int i = 0; i < 200; i++) {
+                rays.add("ray-" + i, "STATE-" + tracker + "-" + i);
+            }
+            assertThat(rays.stateAt(199)).isEqualTo("STATE-" + tracker + "-199");
+        }
+    }
+
+    @Test
+    void storesRayIdsLongerThanACharCanCount() {
+        String prefix = "p".repeat(70_000);
+        String first = prefix + "-a";
+        String second = prefix + "-b" + "x".repeat(70_000);
+        RayTracker rays = new RayTracker(2);
+        rays.add(first, "SUCCESS");
+        rays.add(second, "SUCCESS");
+        rays.add("short", "FAILURE");
+
+        assertThat(rays.add(second, "SUCCESS")).isEqualTo(RayTracker.AddResult.DUPLICATE);
+        assertThat(rays.rayIdAt(0)).isEqualTo(first);
+        assertThat(rays.rayIdAt(1)).isEqualTo(second);
+        assertThat(rays.rayIdAt(2)).isEqualTo("short");
+        int[] sorted = rays.sortedOrdinals();
+        assertThat(sorted).containsExactly(0, 1, 2);
+    }
+}
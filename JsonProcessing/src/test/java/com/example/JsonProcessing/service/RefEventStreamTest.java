@@ -0,0 +1,180 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RefEventStreamTest {
+
+    private static final long SEND_TIMEOUT_MILLIS = 200;
+
+    private RefEventStream stream = open(16);
+
+    private static RefEventStream open(int history) {
+        return new RefEventStream(history, 4, SEND_TIMEOUT_MILLIS, 0, 60_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stream.close();
+    }
+
+    @Test
+    void sendsNewEventsFilteredByRefIdAndType() throws InterruptedException {
+        RecordingSink all = new RecordingSink();
+        RecordingSink completions = new RecordingSink();
+        stream.publish(status("ref-0", false));
+        stream.subscribe(Set.of(), Set.of(), null, all);
+        stream.subscribe(Set.of("ref-1"), Set.of(RefEventStream.Type.COMPLETION), null, completions);
+        stream.publish(status("ref-1", false));
+        stream.publish(status("ref-2", true));
+        stream.publish(status("ref-1", true));
+
+        assertThat(all.take(3)).extracting(event -> ((RefStatus) event.data()).refId())
+                .containsExactly("ref-1", "ref-2", "ref-1");
+        RefEventStream.Event completion = completions.take(1).get(0);
+        assertThat(completion.type()).isEqualTo(RefEventStream.Type.COMPLETION);
+        assertThat(((RefStatus) completion.data()).refId()).isEqualTo("ref-1");
+        assertThat(completions.events.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void resumesRightAfterTheLastEventReceived() throws InterruptedException {
+        RecordingSink first = new RecordingSink();
+        RefEventStream.Subscription subscription = stream.subscribe(Set.of(), Set.of(), null, first);
+        for (int i = 0; i < 3; i++) {
+            stream.publish(status("ref-" + i, false));
+        }
+        String lastId = first.take(3).get(1).id();
+        subscription.close();
+
+        RecordingSink resumed = new RecordingSink();
+        stream.subscribe(Set.of(), Set.of(), lastId, resumed);
+        RefEventStream.Event next = resumed.take(1).get(0);
+        assertThat(((RefStatus) next.data()).refId()).isEqualTo("ref-2");
+        assertThat(resumed.events.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void resetsASubscriberWithAnUnknownEventId() throws InterruptedException {
+        stream.publish(status("ref-1", false));
+        stream.publish(status("ref-2", false));
+
+        RecordingSink sink = new RecordingSink();
+        stream.subscribe(Set.of(), Set.of(), "12345-6", sink);
+        List<RefEventStream.Event> events = sink.take(3);
+        assertThat(events.get(0).type()).isEqualTo(RefEventStream.Type.RESET);
+        assertThat(events.subList(1, 3)).extracting(event -> ((RefStatus) event.data()).refId())
+                .containsExactly("ref-1", "ref-2");
+    }
+
+    @Test
+    void resetsASubscriberThatWasOvertaken() throws InterruptedException {
+        stream.close();
+        stream = open(4);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink sink = new RecordingSink() {
+            @Override
+            public void send(RefEventStream.Event event) throws IOException {
+                super.send(event);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        stream.subscribe(Set.of(), Set.of(), null, sink);
+        stream.publish(status("ref-0", false));
+        assertThat(sink.take(1)).hasSize(1);
+        // The sender is stuck on ref-0 while ten more events pass through a ring of four.
+        for (int i = 1; i <= 10; i++) {
+            stream.publish(status("ref-" + i, false));
+        }
+        release.countDown();
+
+        RefEventStream.Event reset = sink.take(1).get(0);
+        assertThat(reset.type()).isEqualTo(RefEventStream.Type.RESET);
+        assertThat(((Map<?, ?>) reset.data()).get("missed")).isEqualTo(7L);
+        assertThat(sink.take(3)).extracting(event -> ((RefStatus) event.data()).refId())
+                .containsExactly("ref-8", "ref-9", "ref-10");
+    }
+
+    @Test
+    void closesASubscriberStuckInASendWithoutHoldingUpTheOthers() throws InterruptedException {
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        stream.subscribe(Set.of(), Set.of(), null, new RecordingSink() {
+            @Override
+            public void send(RefEventStream.Event event) {
+                stuck.countDown();
+                // Like a write to a client that stopped reading; only the send timeout ends it.
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        });
+        RecordingSink others = new RecordingSink();
+        stream.subscribe(Set.of(), Set.of(), null, others);
+        assertThat(stream.subscriptionCount()).isEqualTo(2);
+
+        stream.publish(status("ref-1", false));
+        assertThat(stuck.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 2; i <= 5; i++) {
+            stream.publish(status("ref-" + i, false));
+        }
+        assertThat(others.take(5)).hasSize(5);
+
+        assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(stream.subscriptionCount()).isEqualTo(1);
+    }
+
+    private static RefStatus status(String refId, boolean finished) {
+        return new RefStatus(refId, 2, 1, 1, 0, 0, finished ? 0 : 1, finished, finished, System.currentTimeMillis());
+    }
+
+    private static class RecordingSink implements RefEventStream.Sink {
+        final BlockingQueue<RefEventStream.Event> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void send(RefEventStream.Event event) throws IOException {
+            events.add(event);
+        }
+
+        @Override
+        public void heartbeat() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        List<RefEventStream.Event> take(int count) throws InterruptedException {
+            List<RefEventStream.Event> taken = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                RefEventStream.Event event = events.poll(5, TimeUnit.SECONDS);
+                assertThat(event).as("event %d of %d", i + 1, count).isNotNull();
+                taken.add(event);
+            }
+            return taken;
+        }
+    }
+}
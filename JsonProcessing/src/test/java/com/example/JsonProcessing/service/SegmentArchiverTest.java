@@ -0,0 +1,228 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentArchiverTest {
+
+    @TempDir
+    Path folder;
+
+    // Every batch seals its segment (age limit 0), and the small sealed segments are compacted as they pile up.
+    private SegmentArchiver open() throws IOException {
+        return open(0);
+    }
+
+    private SegmentArchiver open(long maxSegmentAgeMillis) throws IOException {
+        return new SegmentArchiver(folder.resolve("archive"),
+                new SegmentArchiver.Settings(1 << 20, maxSegmentAgeMillis, 4096, 1L << 30, TimeUnit.DAYS.toMillis(1), true),
+                64, 16, 10_000, new IngestionMetrics(new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void readsBackTheLatestCopyOfEachRay() throws Exception {
+        try (SegmentArchiver archiver = open()) {
+            archive(archiver, "ref-1", "ray-1", "{\"v\":1}");
+            archive(archiver, "ref-1", "ray-2", "{\"v\":2}");
+            archive(archiver, "ref-2", "ray-1", "{\"v\":3}");
+            archive(archiver, "ref-1", "ray-1", "{\"v\":4}");
+
+            assertThat(read(archiver, "ref-1", "ray-1")).isEqualTo("{\"v\":4}");
+            assertThat(read(archiver, "ref-1", "ray-2")).isEqualTo("{\"v\":2}");
+            assertThat(read(archiver, "ref-2", "ray-1")).isEqualTo("{\"v\":3}");
+            assertThat(archiver.read("ref-2", "ray-2")).isNull();
+        }
+        assertThat(inboxFiles()).isEmpty();
+    }
+
+    @Test
+    void compactsSmallSealedSegmentsIntoOne() throws Exception {
+        try (SegmentArchiver archiver = open()) {
+            for (int i = 0; i < 6; i++) {
+                archive(archiver, "ref-1", "ray-" + (i % 3), "{\"attempt\":" + i + "}");
+            }
+
+            // Each batch sealed a segment; compaction keeps the sealed ones down to one merged
+            // segment next to the current one.
+            assertThat(files("*.seg")).hasSizeLessThanOrEqualTo(3);
+            assertThat(files("*.idx")).hasSameSizeAs(files("*.seg"));
+            for (int ray = 0; ray < 3; ray++) {
+                assertThat(read(archiver, "ref-1", "ray-" + ray)).isEqualTo("{\"attempt\":" + (ray + 3) + "}");
+            }
+        }
+    }
+
+    @Test
+    void compactionKeepsTheNewerOfTwoCopiesInOneSegment() throws Exception {
+        // Nothing is sealed by age, so both copies end up in the same segment.
+        try (SegmentArchiver archiver = open(TimeUnit.DAYS.toMillis(1))) {
+            archive(archiver, "ref-1", "ray-1", "{\"state\":\"RUNNING\"}");
+            archive(archiver, "ref-1", "ray-1", "{\"state\":\"SUCCESS\"}");
+        }
+        try (SegmentArchiver archiver = open()) {
+            // Seals the next segment, which is then compacted together with the first.
+            archive(archiver, "ref-2", "ray-1", "{\"v\":1}");
+            assertThat(files("*.seg")).hasSize(2);
+
+            assertThat(read(archiver, "ref-1", "ray-1")).isEqualTo("{\"state\":\"SUCCESS\"}");
+            assertThat(read(archiver, "ref-2", "ray-1")).isEqualTo("{\"v\":1}");
+        }
+    }
+
+    @Test
+    void completesACompactionInterruptedBetweenItsRenames() throws Exception {
+        try (SegmentArchiver archiver = open(TimeUnit.DAYS.toMillis(1))) {
+            archive(archiver, "ref-1", "ray-1", "{\"v\":1}");
+        }
+        try (SegmentArchiver archiver = open()) {
+            archive(archiver, "ref-1", "ray-2", "{\"v\":2}");
+        }
+        // Back to the state of a crash right after the merged index was staged: the merged
+        // segment still under its temporary name, and the last source segment in its place.
+        Path segment = files("*.seg").stream().sorted().findFirst().orElseThrow();
+        Path index = segment.resolveSibling(segment.getFileName().toString().replace(".seg", ".idx"));
+        Files.move(segment, segment.resolveSibling(segment.getFileName() + ".tmp"));
+        Files.move(index, index.resolveSibling(index.getFileName() + ".compacted"));
+        Files.writeString(segment, "not the merged segment");
+        Files.writeString(index, "ref-1\tray-1\t0\t0\t3\n");
+        // And the leftovers of a later compaction that never got as far.
+        Files.writeString(folder.resolve("archive").resolve("segment-000000000099.seg.tmp"), "partial");
+
+        try (SegmentArchiver archiver = open()) {
+            assertThat(read(archiver, "ref-1", "ray-1")).isEqualTo("{\"v\":1}");
+            assertThat(read(archiver, "ref-1", "ray-2")).isEqualTo("{\"v\":2}");
+            assertThat(files("*.tmp")).isEmpty();
+            assertThat(files("*.compacted")).isEmpty();
+        }
+    }
+
+    @Test
+    void compactedSegmentKeepsTheAgeOfItsNewestSource() throws Exception {
+        for (int i = 1; i <= 2; i++) {
+            try (SegmentArchiver archiver = open(TimeUnit.DAYS.toMillis(1))) {
+                archive(archiver, "ref-1", "ray-" + i, "{\"v\":" + i + "}");
+            }
+        }
+        List<Path> old = files("*.seg").stream().sorted().toList();
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(old.get(0), FileTime.fromMillis(now - TimeUnit.HOURS.toMillis(3)));
+        FileTime newestSource = FileTime.fromMillis(now - TimeUnit.HOURS.toMillis(2));
+        Files.setLastModifiedTime(old.get(1), newestSource);
+
+        try (SegmentArchiver archiver = open()) {
+            // A segment too large to compact ends the run of small ones before it.
+            byte[] random = new byte[400_000];
+            new Random(42).nextBytes(random);
+            archive(archiver, "ref-2", "ray-1", Base64.getEncoder().encodeToString(random));
+
+            assertThat(old.get(0)).doesNotExist();
+            assertThat(Files.getLastModifiedTime(old.get(1))).isEqualTo(newestSource);
+            assertThat(read(archiver, "ref-1", "ray-1")).isEqualTo("{\"v\":1}");
+        }
+    }
+
+    @Test
+    void keepsArchivedEventsAcrossRestarts() throws Exception {
+        try (SegmentArchiver archiver = open()) {
+            archive(archiver, "ref-1", "ray-1", "{\"v\":1}");
+        }
+        try (SegmentArchiver archiver = open()) {
+            assertThat(read(archiver, "ref-1", "ray-1")).isEqualTo("{\"v\":1}");
+            archive(archiver, "ref-1", "ray-2", "{\"v\":2}");
+            assertThat(read(archiver, "ref-1", "ray-2")).isEqualTo("{\"v\":2}");
+        }
+    }
+
+    @Test
+    void findsEveryEventThroughTheIndexAfterARestart() throws Exception {
+        try (SegmentArchiver archiver = open(TimeUnit.DAYS.toMillis(1))) {
+            for (int i = 0; i < 40; i++) {
+                archive(archiver, "ref-" + (i % 4), "ray-" + i, "{\"v\":" + i + "}");
+            }
+            // "Aa" and "BB" have the same String.hashCode, so their keys hash alike.
+            archive(archiver, "Aa", "ray-1", "{\"ref\":\"Aa\"}");
+            archive(archiver, "BB", "ray-1", "{\"ref\":\"BB\"}");
+            assertThat(read(archiver, "Aa", "ray-1")).isEqualTo("{\"ref\":\"Aa\"}");
+        }
+        try (SegmentArchiver archiver = open(TimeUnit.DAYS.toMillis(1))) {
+            for (int i = 0; i < 40; i++) {
+                assertThat(read(archiver, "ref-" + (i % 4), "ray-" + i)).isEqualTo("{\"v\":" + i + "}");
+            }
+            assertThat(read(archiver, "Aa", "ray-1")).isEqualTo("{\"ref\":\"Aa\"}");
+            assertThat(read(archiver, "BB", "ray-1")).isEqualTo("{\"ref\":\"BB\"}");
+            assertThat(archiver.read("ref-1", "ray-0")).isNull();
+            assertThat(archiver.read(null, null)).isNull();
+        }
+    }
+
+    @Test
+    void reportsAFileThatCouldNotBeArchived() throws Exception {
+        try (SegmentArchiver archiver = open()) {
+            CompletableFuture<Boolean> archived = new CompletableFuture<>();
+            archiver.archive(folder.resolve("missing.json"), event("ref-1", "ray-1"), archived::complete);
+
+            assertThat(archived.get(10, TimeUnit.SECONDS)).isFalse();
+            assertThat(archiver.read("ref-1", "ray-1")).isNull();
+        }
+    }
+
+    private void archive(SegmentArchiver archiver, String refId, String rayId, String content) throws Exception {
+        Path inbox = Files.createDirectories(folder.resolve("inbox"));
+        Path file = Files.writeString(Files.createTempFile(inbox, refId + "_", ".json"), content);
+        CompletableFuture<Boolean> archived = new CompletableFuture<>();
+        archiver.archive(file, event(refId, rayId), archived::complete);
+        assertThat(archived.get(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(file).doesNotExist();
+    }
+
+    private static String read(SegmentArchiver archiver, String refId, String rayId) throws IOException {
+        byte[] payload = archiver.read(refId, rayId);
+        assertThat(payload).isNotNull();
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    private List<Path> inboxFiles() throws IOException {
+        Path inbox = folder.resolve("inbox");
+        return Files.exists(inbox) ? list(inbox, "*") : List.of();
+    }
+
+    private List<Path> files(String glob) throws IOException {
+        return list(folder.resolve("archive"), glob);
+    }
+
+    private static List<Path> list(Path dir, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static JsonData event(String refId, String rayId) {
+        JsonData data = new JsonData();
+        JsonData.JobInfo job = new JsonData.JobInfo();
+        job.setReferenceIdentifier(refId);
+        data.setJobInfo(job);
+        JsonData.TrackingInfo tracking = new JsonData.TrackingInfo();
+        tracking.setRayIdentifier(rayId);
+        data.setTrackingInfo(tracking);
+        return data;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardLeaseManagerTest {
+
+    private static final int SHARDS = 4;
+    private static final long TTL_MILLIS = 1000;
+    private static final long HEARTBEAT_MILLIS = 50;
+
+    @TempDir
+    Path leases;
+
+    // Shard -> previous owner, or "" if the shard was free; removed when the shard is lost.
+    private final Map<Integer, String> acquired = new ConcurrentHashMap<>();
+
+    private ShardLeaseManager open(String nodeId) throws IOException {
+        return new ShardLeaseManager(leases, nodeId, SHARDS, TTL_MILLIS, HEARTBEAT_MILLIS, shard -> true,
+                new ShardLeaseManager.Listener() {
+                    @Override
+                    public void acquired(int shard, String previousOwner) {
+                        acquired.put(shard, previousOwner == null ? "" : previousOwner);
+                    }
+
+                    @Override
+                    public void lost(int shard) {
+                        acquired.remove(shard);
+                    }
+                });
+    }
+
+    @Test
+    void takesOverTheExpiredLeasesOfAFailedNode() throws Exception {
+        for (int shard = 0; shard < 2; shard++) {
+            lease(shard, "failed-node", System.currentTimeMillis() - 10 * TTL_MILLIS);
+        }
+        try (ShardLeaseManager manager = open("node-a")) {
+            manager.start();
+            awaitOwned(manager, SHARDS);
+
+            assertThat(acquired).containsOnly(Map.entry(0, "failed-node"), Map.entry(1, "failed-node"),
+                    Map.entry(2, ""), Map.entry(3, ""));
+            for (int shard = 0; shard < SHARDS; shard++) {
+                assertThat(Files.readString(leases.resolve("shard-" + shard + ".lease"))).isEqualTo("node-a");
+            }
+        }
+    }
+
+    @Test
+    void leavesTheLeaseOfALiveNodeUntilItExpires() throws Exception {
+        long now = System.currentTimeMillis();
+        lease(0, "node-b", now);
+        Files.createDirectories(leases.resolve("nodes"));
+        Files.createFile(leases.resolve("nodes").resolve("node-b"));
+        try (ShardLeaseManager manager = open("node-a")) {
+            manager.start();
+            // node-b counts as live, so node-a takes only its half of the shards at first.
+            awaitOwned(manager, SHARDS / 2);
+            Thread.sleep(4 * HEARTBEAT_MILLIS);
+            assertThat(manager.ownedCount()).isEqualTo(SHARDS / 2);
+            assertThat(manager.owns(0)).isFalse();
+
+            // node-b stops heartbeating: once its lease expires node-a takes its shard over.
+            awaitOwned(manager, SHARDS);
+            assertThat(acquired).containsEntry(0, "node-b");
+        }
+    }
+
+    @Test
+    void releasesItsLeasesOnClose() throws Exception {
+        ShardLeaseManager manager = open("node-a");
+        manager.start();
+        awaitOwned(manager, SHARDS);
+        manager.close();
+
+        assertThat(acquired).isEmpty();
+        try (var files = Files.list(leases)) {
+            assertThat(files.filter(file -> file.getFileName().toString().endsWith(".lease"))).isEmpty();
+        }
+        assertThat(leases.resolve("nodes").resolve("node-a")).doesNotExist();
+    }
+
+    @Test
+    void clearsTheTakeoverFileOfANodeThatDiedTakingALeaseOver() throws Exception {
+        lease(0, "failed-node", System.currentTimeMillis() - 10 * TTL_MILLIS);
+        Path takeover = Files.writeString(leases.resolve("shard-0.takeover"), "dead-node");
+        try (ShardLeaseManager manager = open("node-a")) {
+            Files.setLastModifiedTime(takeover, FileTime.fromMillis(System.currentTimeMillis()));
+            assertThat(manager.tryAcquire(0)).isNull();
+            assertThat(takeover).exists();
+
+            Files.setLastModifiedTime(takeover, FileTime.fromMillis(System.currentTimeMillis() - 10 * TTL_MILLIS));
+            assertThat(manager.tryAcquire(0)).isNull();
+            assertThat(takeover).doesNotExist();
+            assertThat(manager.tryAcquire(0)).isEqualTo(new ShardLeaseManager.Acquired("failed-node"));
+        }
+    }
+
+    @Test
+    void onlyOneOfTwoNodesRacingForAnExpiredLeaseWinsIt() throws Exception {
+        try (ShardLeaseManager a = open("node-a"); ShardLeaseManager b = open("node-b")) {
+            ExecutorService racers = Executors.newFixedThreadPool(2);
+            try {
+                for (int round = 0; round < 200; round++) {
+                    lease(0, "failed-node", System.currentTimeMillis() - 10 * TTL_MILLIS);
+                    CyclicBarrier start = new CyclicBarrier(2);
+                    Future<ShardLeaseManager.Acquired> byA = racers.submit(() -> race(start, a));
+                    Future<ShardLeaseManager.Acquired> byB = racers.submit(() -> race(start, b));
+                    ShardLeaseManager.Acquired wonByA = byA.get(10, TimeUnit.SECONDS);
+                    ShardLeaseManager.Acquired wonByB = byB.get(10, TimeUnit.SECONDS);
+
+                    assertThat(wonByA == null ^ wonByB == null).as("round %d: exactly one winner", round).isTrue();
+                    ShardLeaseManager.Acquired won = wonByA != null ? wonByA : wonByB;
+                    assertThat(won.previousOwner()).as("round %d", round).isEqualTo("failed-node");
+                    assertThat(Files.readString(leases.resolve("shard-0.lease")))
+                            .as("round %d", round).isEqualTo(wonByA != null ? "node-a" : "node-b");
+                    try (var files = Files.list(leases)) {
+                        assertThat(files.map(file -> file.getFileName().toString()).filter(name -> name.startsWith("shard-")))
+                                .as("round %d", round).containsExactly("shard-0.lease");
+                    }
+                }
+            } finally {
+                racers.shutdownNow();
+            }
+        }
+    }
+
+    private static ShardLeaseManager.Acquired race(CyclicBarrier start, ShardLeaseManager manager) throws Exception {
+        start.await(10, TimeUnit.SECONDS);
+        return manager.tryAcquire(0);
+    }
+
+    private void lease(int shard, String owner, long touchedAtMillis) throws IOException {
+        Path lease = Files.writeString(leases.resolve("shard-" + shard + ".lease"), owner, StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(lease, FileTime.fromMillis(touchedAtMillis));
+    }
+
+    // The listener hears of a shard just after it is counted as owned, so wait for both.
+    private void awaitOwned(ShardLeaseManager manager, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((manager.ownedCount() < count || acquired.size() < count) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(manager.ownedCount()).isEqualTo(count);
+        assertThat(acquired).hasSize(count);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.JsonProcessing.service;
+
+import com.example.JsonProcessing.model.JsonData;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.withinPercentage;
+
+class StageAnalyticsTest {
+
+    @Test
+    void parsesAuditTimesAsUtcMillis() {
+        assertThat(StageAnalytics.parseAuditTime("2025-03-03 16:22:04.127"))
+                .isEqualTo(epochMillis(2025, 3, 3, 16, 22, 4) + 127);
+        assertThat(StageAnalytics.parseAuditTime("2025-03-03T16:22:04Z"))
+                .isEqualTo(epochMillis(2025, 3, 3, 16, 22, 4));
+        assertThat(StageAnalytics.parseAuditTime("2025-03-03T16:22:04.1Z"))
+                .isEqualTo(epochMillis(2025, 3, 3, 16, 22, 4) + 100);
+        assertThat(StageAnalytics.parseAuditTime("2025-03-03 16:22:04.127999"))
+                .isEqualTo(epochMillis(2025, 3, 3, 16, 22, 4) + 127);
+        assertThat(StageAnalytics.parseAuditTime("2024-02-29 00:00:00"))
+                .isEqualTo(epochMillis(2024, 2, 29, 0, 0, 0));
+        assertThat(StageAnalytics.parseAuditTime("1969-12-31 23:59:59"))
+                .isEqualTo(-1_000);
+        assertThat(StageAnalytics.parseAuditTime("2100-03-01 12:00:00"))
+                .isEqualTo(epochMillis(2100, 3, 1, 12, 0, 0));
+    }
+
+    @Test
+    void rejectsWhatItCannotRead() {
+        assertThat(StageAnalytics.parseAuditTime(null)).isEqualTo(StageAnalytics.NO_TIME);
+        for (String text : List.of("", "2025-03-03", "2025/03/03 16:22:04", "2025-03-0a 16:22:04",
+                "2025-13-01 00:00:00", "2025-03-03 24:00:00", "2025-03-03 16:22:04.",
+                "2025-03-03 16:22:04+01:00", "2025-03-03 16:22:04.127 ")) {
+            assertThat(StageAnalytics.parseAuditTime(text)).as(text).isEqualTo(StageAnalytics.NO_TIME);
+        }
+    }
+
+    @Test
+    void countsTheTimeUpToEachEntryTowardsItsStage() {
+        StageAnalytics analytics = new StageAnalytics(8, 2);
+        JsonData data = event(
+                page(entry("received", "2025-03-03 16:22:04.000"), entry("parsed", "2025-03-03 16:22:04.100"),
+                        entry("stored", "2025-03-03 16:22:04.350")),
+                page(entry("received", "2025-03-03 16:22:05.000"), entry("parsed", "not a time"),
+                        entry("stored", "2025-03-03 16:22:05.004")));
+        analytics.record(0, analytics.timings(data));
+
+        StageAnalytics.Snapshot snapshot = analytics.snapshot();
+        assertThat(snapshot.stages().keySet()).containsExactly("parsed", "stored");
+        assertThat(snapshot.stages().get("parsed").max()).isEqualTo(100);
+        assertThat(snapshot.stages().get("stored").count()).isEqualTo(2);
+        assertThat(snapshot.stages().get("stored").max()).isEqualTo(250);
+        assertThat(snapshot.pages().count()).isEqualTo(2);
+        assertThat(snapshot.pages().p99()).isCloseTo(350L, withinPercentage(6.25));
+    }
+
+    @Test
+    void countsStagesBeyondTheMaximumAsOther() {
+        StageAnalytics analytics = new StageAnalytics(1, 2);
+        analytics.record(0, analytics.timings(event(page(entry("received", "2025-03-03 16:22:04.000"),
+                entry("parsed", "2025-03-03 16:22:04.002"), entry("stored", "2025-03-03 16:22:04.005")))));
+
+        assertThat(analytics.snapshot().stages().keySet()).containsExactly("parsed", StageAnalytics.OTHER);
+        assertThat(analytics.snapshot().stages().get(StageAnalytics.OTHER).max()).isEqualTo(3);
+    }
+
+    @Test
+    void ignoresEventsWithoutTwoTimedEntries() {
+        StageAnalytics analytics = new StageAnalytics(8, 2);
+        assertThat(analytics.timings(new JsonData())).isNull();
+        assertThat(analytics.timings(event(page(entry("received", "2025-03-03 16:22:04.000"))))).isNull();
+        assertThat(analytics.timings(event(page(entry("received", "2025-03-03 16:22:04.000"),
+                entry("parsed", null))))).isNull();
+    }
+
+    @Test
+    void mergesTheTotalsOfEveryShard() {
+        StageAnalytics analytics = new StageAnalytics(8, 2);
+        analytics.record(0, analytics.timings(event(page(entry("received", "2025-03-03 16:22:04.000"),
+                entry("parsed", "2025-03-03 16:22:04.010")))));
+        analytics.record(1, analytics.timings(event(page(entry("received", "2025-03-03 16:22:04.000"),
+                entry("stored", "2025-03-03 16:22:04.300"), entry("parsed", "2025-03-03 16:22:04.320")))));
+
+        StageAnalytics.Snapshot snapshot = analytics.snapshot();
+        assertThat(snapshot.stages().keySet()).containsExactly("parsed", "stored");
+        assertThat(snapshot.stages().get("parsed").count()).isEqualTo(2);
+        assertThat(snapshot.stages().get("parsed").max()).isEqualTo(20);
+        assertThat(snapshot.stages().get("stored").max()).isEqualTo(300);
+        assertThat(snapshot.pages().count()).isEqualTo(2);
+        assertThat(snapshot.pages().max()).isEqualTo(320);
+    }
+
+    private static long epochMillis(int year, int month, int day, int hour, int minute, int second) {
+        return LocalDateTime.of(year, month, day, hour, minute, second).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static JsonData event(JsonData.TransactionInfo... pages) {
+        JsonData data = new JsonData();
+        data.setTransactionInfo(new ArrayList<>(List.of(pages)));
+        return data;
+    }
+
+    private static JsonData.TransactionInfo page(JsonData.ProcessStageInfo... entries) {
+        JsonData.TransactionInfo page = new JsonData.TransactionInfo();
+        page.setProcessStageInfo(new ArrayList<>(List.of(entries)));
+        return page;
+    }
+
+    private static JsonData.ProcessStageInfo entry(String stage, String auditTime) {
+        JsonData.ProcessStageInfo entry = new JsonData.ProcessStageInfo();
+        entry.setProcessStageName(stage);
+        entry.setAuditTime(auditTime);
+        return entry;
+    }
+}
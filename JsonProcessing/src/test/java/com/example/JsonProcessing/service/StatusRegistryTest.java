@@ -0,0 +1,116 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StatusRegistryTest {
+
+    @Test
+    void keepsOnlyTheNewestFinishedResultsUpToTheCapacity() {
+        StatusRegistry registry = new StatusRegistry(3, 0);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 5; i++) {
+            registry.update(active("ref-" + i, now));
+            registry.finish(finished("ref-" + i, now));
+        }
+
+        assertThat(registry.activeCount()).isZero();
+        assertThat(registry.finishedCount()).isEqualTo(3);
+        assertThat(registry.get("ref-1")).isNull();
+        assertThat(registry.get("ref-2")).isNull();
+        assertThat(registry.get("ref-5").finished()).isTrue();
+        assertThat(refIds(registry.page(null, 10, StatusRegistry.Filter.FINISHED)))
+                .containsExactly("ref-3", "ref-4", "ref-5");
+    }
+
+    @Test
+    void hidesFinishedResultsOlderThanTheTtlAndEvictsThemOnTheNextFinish() {
+        StatusRegistry registry = new StatusRegistry(100, 1_000);
+        long now = System.currentTimeMillis();
+        registry.finish(finished("ref-old", now - 5_000));
+
+        // Expired but still held until a later finish evicts it.
+        assertThat(registry.finishedCount()).isEqualTo(1);
+        assertThat(registry.get("ref-old")).isNull();
+
+        registry.finish(finished("ref-recent", now - 500));
+
+        assertThat(registry.finishedCount()).isEqualTo(1);
+        assertThat(registry.get("ref-recent")).isNotNull();
+        assertThat(refIds(registry.page(null, 10, StatusRegistry.Filter.ALL))).containsExactly("ref-recent");
+    }
+
+    @Test
+    void aRefIdFinishedAgainIsNotEvictedWithItsEarlierResult() {
+        StatusRegistry registry = new StatusRegistry(2, 0);
+        long now = System.currentTimeMillis();
+        registry.finish(finished("ref-1", now));
+        registry.finish(finished("ref-2", now));
+        registry.finish(finished("ref-1", now + 1));
+
+        // The first result of ref-1 was evicted, its second one stays.
+        assertThat(registry.get("ref-1").updatedAtMillis()).isEqualTo(now + 1);
+        assertThat(registry.get("ref-2")).isNotNull();
+        assertThat(registry.finishedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void keepsNoFinishedResultsWithoutCapacity() {
+        StatusRegistry registry = new StatusRegistry(0, 0);
+        registry.update(active("ref-1", System.currentTimeMillis()));
+        registry.finish(finished("ref-1", System.currentTimeMillis()));
+
+        assertThat(registry.get("ref-1")).isNull();
+        assertThat(registry.finishedCount()).isZero();
+    }
+
+    @Test
+    void pagesThroughActiveAndFinishedRefIdsInOrder() {
+        StatusRegistry registry = new StatusRegistry(100, 0);
+        long now = System.currentTimeMillis();
+        for (String refId : new String[]{"ref-a", "ref-c", "ref-e"}) {
+            registry.update(active(refId, now));
+        }
+        for (String refId : new String[]{"ref-b", "ref-c", "ref-d"}) {
+            registry.finish(finished(refId, now));
+        }
+        // ref-c started again after finishing: the in-flight status wins.
+        registry.update(active("ref-c", now));
+
+        StatusRegistry.Page first = registry.page(null, 2, StatusRegistry.Filter.ALL);
+        StatusRegistry.Page second = registry.page(first.next(), 2, StatusRegistry.Filter.ALL);
+        StatusRegistry.Page last = registry.page(second.next(), 2, StatusRegistry.Filter.ALL);
+
+        assertThat(refIds(first)).containsExactly("ref-a", "ref-b");
+        assertThat(refIds(second)).containsExactly("ref-c", "ref-d");
+        assertThat(second.items().get(0).finished()).isFalse();
+        assertThat(refIds(last)).containsExactly("ref-e");
+        assertThat(last.next()).isNull();
+        assertThat(refIds(registry.page(null, 10, StatusRegistry.Filter.ACTIVE)))
+                .containsExactly("ref-a", "ref-c", "ref-e");
+    }
+
+    @Test
+    void forgetsARemovedRefIdWithoutAResult() {
+        StatusRegistry registry = new StatusRegistry(10, 0);
+        registry.update(active("ref-1", System.currentTimeMillis()));
+        registry.remove("ref-1");
+
+        assertThat(registry.get("ref-1")).isNull();
+        assertThat(registry.activeCount()).isZero();
+        assertThat(registry.finishedCount()).isZero();
+    }
+
+    private static RefStatus active(String refId, long at) {
+        return new RefStatus(refId, 4, 1, 1, 0, 0, 3, false, false, at);
+    }
+
+    private static RefStatus finished(String refId, long at) {
+        return new RefStatus(refId, 4, 4, 3, 1, 0, 0, true, true, at);
+    }
+
+    private static String[] refIds(StatusRegistry.Page page) {
+        return page.items().stream().map(RefStatus::refId).toArray(String[]::new);
+    }
+}
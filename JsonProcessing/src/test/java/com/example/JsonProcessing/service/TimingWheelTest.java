@@ -0,0 +1,84 @@
+package com.example.JsonProcessing.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimingWheelTest {
+
+    // 10 ms ticks over 8 buckets: one revolution is 80 ms, so longer delays take several laps.
+    private final TimingWheel wheel = new TimingWheel("test-timer", 10, 8, Runnable::run);
+
+    @AfterEach
+    void tearDown() {
+        wheel.close();
+    }
+
+    @Test
+    void firesOnceTheDelayHasPassed() throws InterruptedException {
+        long start = System.nanoTime();
+        AtomicLong firedAfter = new AtomicLong();
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(() -> {
+            firedAfter.set(System.nanoTime() - start);
+            fired.countDown();
+        }, 250);
+
+        assertThat(wheel.activeCount()).isEqualTo(1);
+        assertThat(fired.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(firedAfter.get())).isGreaterThanOrEqualTo(250);
+        assertThat(wheel.activeCount()).isZero();
+    }
+
+    @Test
+    void touchLaterPushesTheDeadlineBack() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(fired::countDown, 100);
+        Thread.sleep(50);
+        long touched = System.nanoTime();
+        timeout.touch(400);
+
+        // The original deadline has long passed.
+        assertThat(fired.await(250, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(fired.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - touched)).isGreaterThanOrEqualTo(400);
+    }
+
+    @Test
+    void touchEarlierBringsTheDeadlineForward() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(fired::countDown, 60_000);
+        Thread.sleep(30);
+        timeout.touch(50);
+
+        assertThat(fired.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void touchEarlierThenLaterKeepsTheLatestDeadline() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(fired::countDown, 60_000);
+        Thread.sleep(30);
+        timeout.touch(50);
+        timeout.touch(500);
+
+        assertThat(fired.await(300, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(fired.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(fired::countDown, 50);
+        timeout.cancel();
+
+        assertThat(timeout.isCancelled()).isTrue();
+        assertThat(wheel.activeCount()).isZero();
+        assertThat(fired.await(300, TimeUnit.MILLISECONDS)).isFalse();
+    }
+}